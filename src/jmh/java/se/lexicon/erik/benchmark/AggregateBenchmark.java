@@ -0,0 +1,100 @@
+package se.lexicon.erik.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.lexicon.erik.data.IntIntMap;
+import se.lexicon.erik.data.IntObjectMap;
+import se.lexicon.erik.data.TaskDao;
+import se.lexicon.erik.data.TaskStats;
+import se.lexicon.erik.data.TestDatabase;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per person workload computed with GROUP BY queries compared to loading every person's tasks with
+ * findByPersonId and counting in Java
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+public class AggregateBenchmark {
+
+    private static final int SEED_CHUNK = 100_000;
+
+    @Param({"1000000"})
+    public int tasks;
+
+    @Param({"1000"})
+    public int persons;
+
+    private TaskDao taskDao;
+    private List<Person> seeded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Properties properties = TestDatabase.properties("aggregate_benchmark");
+        //H2 would otherwise answer a repeated query on unchanged tables from its result cache
+        properties.setProperty("url", properties.getProperty("url") + ";OPTIMIZE_REUSE_RESULTS=FALSE");
+        TestDatabase.start(properties);
+        taskDao = new TaskDao();
+        seeded = BenchmarkData.seedPersons(persons);
+        for(int from = 0; from < tasks; from += SEED_CHUNK){
+            BenchmarkData.seedTasks(seeded, Math.min(SEED_CHUNK, tasks - from));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.stop();
+    }
+
+    @Benchmark
+    public IntObjectMap<TaskStats> clientSideStats() {
+        LocalDate today = LocalDate.now();
+        IntObjectMap<TaskStats> result = new IntObjectMap<>(seeded.size());
+        for(Person person : seeded){
+            int done = 0;
+            int undone = 0;
+            int overdue = 0;
+            LocalDate next = null;
+            for(Task task : taskDao.findByPersonId(person.getPersonId())){
+                if(task.isDone()){
+                    done++;
+                    continue;
+                }
+                undone++;
+                if(task.getDeadLine() == null){
+                    continue;
+                }
+                if(task.getDeadLine().isBefore(today)){
+                    overdue++;
+                }else if(next == null || task.getDeadLine().isBefore(next)){
+                    next = task.getDeadLine();
+                }
+            }
+            result.put(person.getPersonId(), new TaskStats(person.getPersonId(), done, undone, overdue, next));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public IntObjectMap<TaskStats> findStatsByPersonId() {
+        return taskDao.findStatsByPersonId(LocalDate.now());
+    }
+
+    @Benchmark
+    public IntIntMap countByPersonId() {
+        return taskDao.countByPersonId(false);
+    }
+
+    @Benchmark
+    public IntObjectMap<LocalDate> findNextDeadlineByPersonId() {
+        return taskDao.findNextDeadlineByPersonId(LocalDate.now());
+    }
+}
@@ -0,0 +1,63 @@
+package se.lexicon.erik.benchmark;
+
+import se.lexicon.erik.data.Database;
+import se.lexicon.erik.data.PersonDao;
+import se.lexicon.erik.data.TaskDao;
+import se.lexicon.erik.data.TestDatabase;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Starts an embedded database and seeds it with generated persons and tasks
+ */
+public class BenchmarkData {
+
+    private static final String[] LAST_NAMES = {"Svensson", "Andersson", "Johansson", "Karlsson", "Nilsson", "Eriksson", "Larsson", "Olsson"};
+
+    public static void start(String name, int poolSize) throws SQLException {
+        Properties properties = TestDatabase.properties(name);
+        properties.setProperty("pool.maximumPoolSize", String.valueOf(poolSize));
+        properties.setProperty("pool.minimumIdle", String.valueOf(poolSize));
+        TestDatabase.start(properties);
+    }
+
+    public static void stop() {
+        Database.shutdown();
+    }
+
+    public static List<Person> newPersons(int count){
+        List<Person> persons = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            persons.add(new Person("First" + i, LAST_NAMES[i % LAST_NAMES.length] + i, LocalDate.of(1950, 1, 1).plusDays(i % 20000)));
+        }
+        return persons;
+    }
+
+    /**
+     * @param assignees persisted persons, tasks are assigned round robin
+     * @param count number of tasks, every other task is done
+     */
+    public static List<Task> newTasks(List<Person> assignees, int count){
+        List<Task> tasks = new ArrayList<>(count);
+        LocalDate today = LocalDate.now();
+        for(int i = 0; i < count; i++){
+            Task task = new Task(0, "Task " + i, today.plusDays(i % 730 - 365), i % 2 == 0, assignees.get(i % assignees.size()));
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    public static List<Person> seedPersons(int count){
+        return new PersonDao().createAll(newPersons(count));
+    }
+
+    public static List<Task> seedTasks(List<Person> assignees, int count){
+        return new TaskDao().createAll(newTasks(assignees, count));
+    }
+}
@@ -0,0 +1,65 @@
+package se.lexicon.erik.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.lexicon.erik.data.LoadReport;
+import se.lexicon.erik.data.PersonDao;
+import se.lexicon.erik.data.TaskCsvLoader;
+import se.lexicon.erik.data.TestDatabase;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to load a generated CSV of tasks spread over 1000 assignees with TaskCsvLoader,
+ * for different chunk sizes. Every invocation starts from an empty database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class BulkLoadBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"1", "100", "1000"})
+    public int chunkSize;
+
+    private Path csv;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.start("bulk_load_benchmark", 4);
+        csv = Files.createTempFile("tasks", ".csv");
+        LocalDate today = LocalDate.now();
+        try(BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)){
+            writer.write("description,deadline,done,first_name,last_name,birth_date\n");
+            for(int i = 0; i < rows; i++){
+                int person = i % 1000;
+                writer.write("Task " + i + "," + today.plusDays(i % 730 - 365) + "," + (i % 2 == 0)
+                        + ",First" + person + ",Last" + person + "," + LocalDate.of(1950, 1, 1).plusDays(person) + "\n");
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clear() throws Exception {
+        TestDatabase.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(csv);
+        BenchmarkData.stop();
+    }
+
+    @Benchmark
+    public LoadReport load() throws Exception {
+        return new TaskCsvLoader(new PersonDao(), chunkSize, TaskCsvLoader.DEFAULT_PERSON_CACHE_SIZE).load(csv);
+    }
+}
@@ -0,0 +1,95 @@
+package se.lexicon.erik.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.lexicon.erik.data.BatchLoader;
+import se.lexicon.erik.data.OptimisticLockException;
+import se.lexicon.erik.data.PersonDao;
+import se.lexicon.erik.data.TaskDao;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the hot single row operations with 8 threads sharing a pool of 8 connections
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConcurrentDaoBenchmark {
+
+    private static final int PERSONS = 1000;
+
+    @Param({"100000"})
+    public int tasks;
+
+    private PersonDao personDao;
+    private TaskDao taskDao;
+    private List<Person> persons;
+    private List<Task> seeded;
+    private BatchLoader<Task> taskLoader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.start("concurrent_dao_benchmark", 8);
+        personDao = new PersonDao();
+        taskDao = new TaskDao(personDao);
+        persons = BenchmarkData.seedPersons(PERSONS);
+        seeded = BenchmarkData.seedTasks(persons, tasks);
+        taskLoader = BatchLoader.tasks(taskDao, 200, TimeUnit.MICROSECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        taskLoader.close();
+        if(taskLoader.getBatchCount() > 0){
+            System.out.printf("%nfindByTaskIdCoalesced: %d lookups, %d deduplicated, %d queries%n",
+                    taskLoader.getRequestCount(), taskLoader.getDeduplicatedCount(), taskLoader.getBatchCount());
+        }
+        BenchmarkData.stop();
+    }
+
+    @Benchmark
+    public Optional<Person> findById() {
+        return personDao.findById(persons.get(ThreadLocalRandom.current().nextInt(persons.size())).getPersonId());
+    }
+
+    @Benchmark
+    public Optional<Task> findByTaskId() {
+        return taskDao.findByTaskId(seeded.get(ThreadLocalRandom.current().nextInt(seeded.size())).getTaskId());
+    }
+
+    /**
+     * Same lookups as findByTaskId coalesced into one IN query per 200 us window
+     */
+    @Benchmark
+    public Optional<Task> findByTaskIdCoalesced() {
+        return taskLoader.get(seeded.get(ThreadLocalRandom.current().nextInt(seeded.size())).getTaskId());
+    }
+
+    @Benchmark
+    public Optional<Task> findClosestUndoneTaskByPersonId() {
+        return taskDao.findClosestUndoneTaskByPersonId(persons.get(ThreadLocalRandom.current().nextInt(persons.size())).getPersonId());
+    }
+
+    /**
+     * Reloads the task first since the threads share the seeded tasks and a stale version is rejected
+     */
+    @Benchmark
+    public Task findThenUpdate() {
+        int taskId = seeded.get(ThreadLocalRandom.current().nextInt(seeded.size())).getTaskId();
+        Task task = taskDao.findByTaskId(taskId).orElseThrow(IllegalStateException::new);
+        task.setDescription("Updated " + ThreadLocalRandom.current().nextInt());
+        try{
+            return taskDao.update(task);
+        }catch (OptimisticLockException ex){
+            return task;
+        }
+    }
+}
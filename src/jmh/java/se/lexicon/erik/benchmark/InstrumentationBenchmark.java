@@ -0,0 +1,57 @@
+package se.lexicon.erik.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.lexicon.erik.data.Database;
+import se.lexicon.erik.data.PersonDao;
+import se.lexicon.erik.data.QueryMetrics;
+import se.lexicon.erik.model.Person;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of QueryMetrics on the findById and findByLastName hot paths, compared with no listener installed
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class InstrumentationBenchmark {
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private PersonDao personDao;
+    private List<Person> persons;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.start("instrumentation_benchmark", 4);
+        personDao = new PersonDao();
+        persons = BenchmarkData.seedPersons(10000);
+        Database.setQueryListener(metrics ? new QueryMetrics(1, TimeUnit.SECONDS) : null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Database.setQueryListener(null);
+        BenchmarkData.stop();
+    }
+
+    private Person randomPerson(){
+        return persons.get(ThreadLocalRandom.current().nextInt(persons.size()));
+    }
+
+    @Benchmark
+    public Optional<Person> findById() {
+        return personDao.findById(randomPerson().getPersonId());
+    }
+
+    @Benchmark
+    public List<Person> findByLastName() {
+        return personDao.findByLastName(randomPerson().getLastName().substring(0, 4), 10);
+    }
+}
@@ -0,0 +1,81 @@
+package se.lexicon.erik.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.lexicon.erik.data.Database;
+import se.lexicon.erik.data.Page;
+import se.lexicon.erik.data.Queries;
+import se.lexicon.erik.data.TaskDao;
+import se.lexicon.erik.model.Task;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of reading one page of undone tasks deep into the result. With keyset pagination
+ * page 4900 should cost the same as page 1. Setup fails when the query plan does not use the
+ * recommended index from {@link Queries}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PaginationBenchmark {
+
+    private static final String INDEX = "idx_tasks_done_deadline";
+
+    @Param({"100000"})
+    public int tasks;
+
+    @Param({"10"})
+    public int pageSize;
+
+    @Param({"1", "100", "4900"})
+    public int pageNumber;
+
+    private TaskDao taskDao;
+    private String pageToken;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.start("pagination_benchmark", 4);
+        taskDao = new TaskDao();
+        BenchmarkData.seedTasks(BenchmarkData.seedPersons(100), tasks);
+        verifyIndexUsed(Queries.SELECT_TASKS_PAGE_WHERE_DONE_FIRST);
+        verifyIndexUsed(Queries.SELECT_TASKS_PAGE_WHERE_DONE_AFTER);
+
+        for(int page = 1; page < pageNumber; page++){
+            pageToken = taskDao.findByDoneStatus(false, pageSize, pageToken).getNextPageToken()
+                    .orElseThrow(() -> new IllegalStateException("Not enough rows for page " + pageNumber));
+        }
+    }
+
+    private void verifyIndexUsed(Queries query) throws SQLException {
+        String sql = query.getQuery()
+                .replace("done = ?", "done = FALSE")
+                .replace("deadline >= ?", "deadline >= CURRENT_DATE")
+                .replace("deadline > ?", "deadline > CURRENT_DATE")
+                .replace("?", "1");
+        try(Connection connection = Database.getConnection();
+            Statement statement = connection.createStatement();
+            ResultSet plan = statement.executeQuery("EXPLAIN " + sql)){
+            plan.next();
+            if(!plan.getString(1).toLowerCase().contains(INDEX)){
+                throw new IllegalStateException(query + " does not use " + INDEX + ":\n" + plan.getString(1));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.stop();
+    }
+
+    @Benchmark
+    public Page<Task> findByDoneStatusPage() {
+        return taskDao.findByDoneStatus(false, pageSize, pageToken);
+    }
+}
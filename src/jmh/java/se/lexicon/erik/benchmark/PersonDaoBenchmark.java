@@ -0,0 +1,112 @@
+package se.lexicon.erik.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.lexicon.erik.data.LastNameIndex;
+import se.lexicon.erik.data.PersonDao;
+import se.lexicon.erik.model.Person;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single call latency of every PersonDao operation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PersonDaoBenchmark {
+
+    @Param({"1000", "100000"})
+    public int persons;
+
+    @Param({"100"})
+    public int batch;
+
+    private PersonDao personDao;
+    private PersonDao indexedPersonDao;
+    private List<Person> seeded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.start("person_dao_benchmark", 4);
+        personDao = new PersonDao();
+        seeded = BenchmarkData.seedPersons(persons);
+        indexedPersonDao = new PersonDao(null, new LastNameIndex());
+        indexedPersonDao.loadLastNameIndex();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.stop();
+    }
+
+    private Person randomPerson(){
+        return seeded.get(ThreadLocalRandom.current().nextInt(seeded.size()));
+    }
+
+    @Benchmark
+    public Optional<Person> findById() {
+        return personDao.findById(randomPerson().getPersonId());
+    }
+
+    @Benchmark
+    public List<Person> findByLastName() {
+        return personDao.findByLastName(lastNamePrefix(), 10);
+    }
+
+    @Benchmark
+    public List<String> suggestLastNamesFromDatabase() {
+        return personDao.suggestLastNames(lastNamePrefix(), 10);
+    }
+
+    @Benchmark
+    public List<String> suggestLastNamesFromIndex() {
+        return indexedPersonDao.suggestLastNames(lastNamePrefix(), 10);
+    }
+
+    private String lastNamePrefix(){
+        String lastName = randomPerson().getLastName();
+        return lastName.substring(0, Math.min(4, lastName.length()));
+    }
+
+    @Benchmark
+    public Person create() {
+        return personDao.create(new Person("Benchmark", "Person", LocalDate.of(2000, 1, 1)));
+    }
+
+    @Benchmark
+    public Person update() {
+        Person person = randomPerson();
+        person.setFirstName("Updated " + ThreadLocalRandom.current().nextInt());
+        return personDao.update(person);
+    }
+
+    @Benchmark
+    public Person updateUnchanged() {
+        return personDao.update(randomPerson());
+    }
+
+    @Benchmark
+    public boolean createThenDelete() {
+        Person person = personDao.create(new Person("Benchmark", "Deleted", LocalDate.of(2000, 1, 1)));
+        return personDao.delete(person.getPersonId());
+    }
+
+    @Benchmark
+    public List<Person> createAll() {
+        return personDao.createAll(BenchmarkData.newPersons(batch));
+    }
+
+    @Benchmark
+    public List<Person> updateAll() {
+        int from = ThreadLocalRandom.current().nextInt(seeded.size() - Math.min(batch, seeded.size()) + 1);
+        List<Person> people = seeded.subList(from, Math.min(from + batch, seeded.size()));
+        people.forEach(person -> person.setFirstName("Updated " + ThreadLocalRandom.current().nextInt()));
+        return personDao.updateAll(people);
+    }
+}
@@ -0,0 +1,49 @@
+package se.lexicon.erik.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.lexicon.erik.data.TaskDao;
+import se.lexicon.erik.model.Task;
+import se.lexicon.erik.model.TaskView;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * findByDoneStatus returning mutable Task objects against findViewsByDoneStatus returning immutable TaskView.
+ * Run with -prof gc and compare gc.alloc.rate.norm, bytes allocated per call.
+ * Every other task is done, so each call reads tasks/2 rows spread over 1000 assignees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReadPathAllocationBenchmark {
+
+    @Param({"100000"})
+    public int tasks;
+
+    private TaskDao taskDao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.start("read_path_allocation_benchmark", 4);
+        taskDao = new TaskDao();
+        BenchmarkData.seedTasks(BenchmarkData.seedPersons(1000), tasks);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.stop();
+    }
+
+    @Benchmark
+    public List<Task> findByDoneStatus() {
+        return taskDao.findByDoneStatus(false);
+    }
+
+    @Benchmark
+    public List<TaskView> findViewsByDoneStatus() {
+        return taskDao.findViewsByDoneStatus(false);
+    }
+}
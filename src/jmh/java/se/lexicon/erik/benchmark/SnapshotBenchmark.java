@@ -0,0 +1,91 @@
+package se.lexicon.erik.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.lexicon.erik.data.DataSnapshot;
+import se.lexicon.erik.data.LastNameIndex;
+import se.lexicon.erik.data.PersonCache;
+import se.lexicon.erik.data.PersonDao;
+import se.lexicon.erik.data.TaskDao;
+import se.lexicon.erik.data.TestDatabase;
+import se.lexicon.erik.data.UndoneTaskIndex;
+import se.lexicon.erik.model.Person;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warming the LastNameIndex, PersonCache and UndoneTaskIndex of fresh DAOs through the DAOs compared to
+ * reading a snapshot file and catching it up
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+public class SnapshotBenchmark {
+
+    private static final int SEED_CHUNK = 100_000;
+
+    @Param({"1000000"})
+    public int tasks;
+
+    @Param({"10000"})
+    public int persons;
+
+    private List<Person> seeded;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Properties properties = TestDatabase.properties("snapshot_benchmark");
+        properties.setProperty("url", properties.getProperty("url") + ";OPTIMIZE_REUSE_RESULTS=FALSE");
+        TestDatabase.start(properties);
+        seeded = BenchmarkData.seedPersons(persons);
+        for(int from = 0; from < tasks; from += SEED_CHUNK){
+            BenchmarkData.seedTasks(seeded, Math.min(SEED_CHUNK, tasks - from));
+        }
+        file = Files.createTempFile("snapshot_benchmark", ".snapshot");
+        DataSnapshot.export(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkData.stop();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public UndoneTaskIndex warmThroughDaos() {
+        UndoneTaskIndex index = new UndoneTaskIndex();
+        PersonDao personDao = new PersonDao(new PersonCache(persons, 1, TimeUnit.HOURS), new LastNameIndex());
+        TaskDao taskDao = new TaskDao(personDao, index);
+        personDao.loadLastNameIndex();
+        for(Person person : seeded){
+            taskDao.findClosestUndoneTaskByPersonId(person.getPersonId());
+        }
+        return index;
+    }
+
+    @Benchmark
+    public UndoneTaskIndex warmFromSnapshot() throws Exception {
+        UndoneTaskIndex index = new UndoneTaskIndex();
+        PersonDao personDao = new PersonDao(new PersonCache(persons, 1, TimeUnit.HOURS), new LastNameIndex());
+        DataSnapshot snapshot = DataSnapshot.read(file);
+        snapshot.catchUp(0, TimeUnit.MILLISECONDS);
+        snapshot.warm(personDao, new TaskDao(personDao, index));
+        return index;
+    }
+
+    @Benchmark
+    public DataSnapshot readSnapshot() throws Exception {
+        return DataSnapshot.read(file);
+    }
+
+    @Benchmark
+    public long export() throws Exception {
+        return DataSnapshot.export(file);
+    }
+}
@@ -0,0 +1,60 @@
+package se.lexicon.erik.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.lexicon.erik.data.PersonDao;
+import se.lexicon.erik.data.TaskDao;
+import se.lexicon.erik.data.TestDatabase;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * findById and findByTaskId hot loops with the driver side statement cache switched off and on.
+ * The H2 equivalent of MySQL's cachePrepStmts is QUERY_CACHE_SIZE, passed through the same dataSource.* properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StatementCacheBenchmark {
+
+    @Param({"0", "64"})
+    public int queryCacheSize;
+
+    private PersonDao personDao;
+    private TaskDao taskDao;
+    private List<Person> persons;
+    private List<Task> tasks;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Properties properties = TestDatabase.properties("statement_cache_benchmark");
+        properties.setProperty("dataSource.QUERY_CACHE_SIZE", String.valueOf(queryCacheSize));
+        TestDatabase.start(properties);
+        personDao = new PersonDao();
+        taskDao = new TaskDao(personDao);
+        persons = BenchmarkData.seedPersons(1000);
+        tasks = BenchmarkData.seedTasks(persons, 10000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.stop();
+    }
+
+    @Benchmark
+    public Optional<Person> findById() {
+        return personDao.findById(persons.get(ThreadLocalRandom.current().nextInt(persons.size())).getPersonId());
+    }
+
+    @Benchmark
+    public Optional<Task> findByTaskId() {
+        return taskDao.findByTaskId(tasks.get(ThreadLocalRandom.current().nextInt(tasks.size())).getTaskId());
+    }
+}
@@ -0,0 +1,110 @@
+package se.lexicon.erik.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.lexicon.erik.data.InMemoryPersonStore;
+import se.lexicon.erik.data.InMemoryTaskStore;
+import se.lexicon.erik.data.PersonDao;
+import se.lexicon.erik.data.PersonStore;
+import se.lexicon.erik.data.TaskDao;
+import se.lexicon.erik.data.TaskStore;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the single row operations and the per person query of the JDBC DAOs on embedded H2 compared
+ * to the in-memory stores, through the same PersonStore and TaskStore interfaces
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 3)
+public class StoreBenchmark {
+
+    private static final int PERSONS = 1000;
+
+    @Param({"jdbc", "memory"})
+    public String store;
+
+    @Param({"100000"})
+    public int tasks;
+
+    private PersonStore personStore;
+    private TaskStore taskStore;
+    private List<Person> persons;
+    private List<Task> seeded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if(store.equals("jdbc")){
+            BenchmarkData.start("store_benchmark", 4);
+            PersonDao personDao = new PersonDao();
+            personStore = personDao;
+            taskStore = new TaskDao(personDao);
+        }else{
+            InMemoryPersonStore inMemoryPersonStore = new InMemoryPersonStore();
+            personStore = inMemoryPersonStore;
+            taskStore = new InMemoryTaskStore(inMemoryPersonStore);
+        }
+        persons = personStore.createAll(BenchmarkData.newPersons(PERSONS));
+        seeded = taskStore.createAll(BenchmarkData.newTasks(persons, tasks));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if(store.equals("jdbc")){
+            BenchmarkData.stop();
+        }
+    }
+
+    @Benchmark
+    public Optional<Person> findById() {
+        return personStore.findById(randomPerson().getPersonId());
+    }
+
+    @Benchmark
+    public Optional<Task> findByTaskId() {
+        return taskStore.findByTaskId(randomTask().getTaskId());
+    }
+
+    /**
+     * 100 tasks per person ordered by deadline
+     */
+    @Benchmark
+    public List<Task> findByPersonId() {
+        return taskStore.findByPersonId(randomPerson().getPersonId());
+    }
+
+    @Benchmark
+    public Optional<Task> findClosestUndoneTaskByPersonId() {
+        return taskStore.findClosestUndoneTaskByPersonId(randomPerson().getPersonId());
+    }
+
+    @Benchmark
+    public boolean markDone() {
+        return taskStore.markDone(randomTask().getTaskId());
+    }
+
+    /**
+     * Reads a task and writes a changed description back with its version checked
+     */
+    @Benchmark
+    public Task update() {
+        Task task = taskStore.findByTaskId(randomTask().getTaskId()).get();
+        task.setDescription("Updated " + System.nanoTime());
+        return taskStore.update(task);
+    }
+
+    private Person randomPerson(){
+        return persons.get(ThreadLocalRandom.current().nextInt(persons.size()));
+    }
+
+    private Task randomTask(){
+        return seeded.get(ThreadLocalRandom.current().nextInt(seeded.size()));
+    }
+}
@@ -0,0 +1,148 @@
+package se.lexicon.erik.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import se.lexicon.erik.data.TaskDao;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Latency of every TaskDao operation. Tasks are spread over 100 persons,
+ * so list queries by person return tasks/100 rows and by done status tasks/2 rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TaskDaoBenchmark {
+
+    private static final int PERSONS = 100;
+
+    @Param({"1000", "100000"})
+    public int tasks;
+
+    @Param({"100"})
+    public int batch;
+
+    private TaskDao taskDao;
+    private TaskDao lazyTaskDao;
+    private List<Person> persons;
+    private List<Task> seeded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.start("task_dao_benchmark", 4);
+        taskDao = new TaskDao();
+        lazyTaskDao = new TaskDao();
+        lazyTaskDao.setLazyAssignees(true);
+        persons = BenchmarkData.seedPersons(PERSONS);
+        seeded = BenchmarkData.seedTasks(persons, tasks);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.stop();
+    }
+
+    private Task randomTask(){
+        return seeded.get(ThreadLocalRandom.current().nextInt(seeded.size()));
+    }
+
+    private Person randomPerson(){
+        return persons.get(ThreadLocalRandom.current().nextInt(persons.size()));
+    }
+
+    @Benchmark
+    public Optional<Task> findByTaskId() {
+        return taskDao.findByTaskId(randomTask().getTaskId());
+    }
+
+    @Benchmark
+    public Optional<Task> findClosestUndoneTaskByPersonId() {
+        return taskDao.findClosestUndoneTaskByPersonId(randomPerson().getPersonId());
+    }
+
+    @Benchmark
+    public Task create() {
+        return taskDao.create(new Task(0, "Benchmark", LocalDate.now(), false, randomPerson()));
+    }
+
+    @Benchmark
+    public Task update() {
+        Task task = randomTask();
+        task.setDescription("Updated " + ThreadLocalRandom.current().nextInt());
+        return taskDao.update(task);
+    }
+
+    @Benchmark
+    public Task updateUnchanged() {
+        return taskDao.update(randomTask());
+    }
+
+    @Benchmark
+    public boolean markDone() {
+        return taskDao.markDone(randomTask().getTaskId());
+    }
+
+    @Benchmark
+    public List<Task> createAll() {
+        return taskDao.createAll(BenchmarkData.newTasks(persons, batch));
+    }
+
+    @Benchmark
+    public List<Task> updateAll() {
+        int from = ThreadLocalRandom.current().nextInt(seeded.size() - Math.min(batch, seeded.size()) + 1);
+        List<Task> tasks = seeded.subList(from, Math.min(from + batch, seeded.size()));
+        tasks.forEach(task -> task.setDescription("Updated " + ThreadLocalRandom.current().nextInt()));
+        return taskDao.updateAll(tasks);
+    }
+
+    @Benchmark
+    public List<Task> findByPersonId() {
+        return taskDao.findByPersonId(randomPerson().getPersonId());
+    }
+
+    @Benchmark
+    public List<Task> findByDoneStatus() {
+        return taskDao.findByDoneStatus(ThreadLocalRandom.current().nextBoolean());
+    }
+
+    /**
+     * Reads only the tasks table, the assignees are never touched
+     */
+    @Benchmark
+    public List<Task> findByDoneStatusLazy() {
+        return lazyTaskDao.findByDoneStatus(ThreadLocalRandom.current().nextBoolean());
+    }
+
+    /**
+     * Touching one assignee loads all of them with one IN query
+     */
+    @Benchmark
+    public Person findByDoneStatusLazyAssignee() {
+        List<Task> found = lazyTaskDao.findByDoneStatus(ThreadLocalRandom.current().nextBoolean());
+        return found.isEmpty() ? null : found.get(found.size() - 1).getAssignee();
+    }
+
+    @Benchmark
+    public void streamByDoneStatus(Blackhole blackhole) {
+        try(Stream<Task> stream = taskDao.streamByDoneStatus(ThreadLocalRandom.current().nextBoolean())){
+            stream.forEach(blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    public void streamByPersonId(Blackhole blackhole) {
+        try(Stream<Task> stream = taskDao.streamByPersonId(randomPerson().getPersonId())){
+            stream.forEach(blackhole::consume);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package se.lexicon.erik.benchmark;
+
+import se.lexicon.erik.data.Database;
+import se.lexicon.erik.data.PersonDao;
+import se.lexicon.erik.data.TaskDao;
+import se.lexicon.erik.data.VirtualThreads;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test with many concurrent callers doing findById and findByTaskId lookups, one thread per caller.
+ * Compares platform threads with virtual threads, both with borrowers limited by Database's connection permits.
+ * <pre>
+ *     ThreadModeLoadTest &lt;platform|virtual&gt; [callers=10000] [callsPerCaller=10] [poolSize=10]
+ * </pre>
+ * Not a JMH benchmark since JMH does not run thousands of threads, run it through the load-test execution
+ * of the benchmark profile.
+ */
+public class ThreadModeLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "platform";
+        int callers = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int callsPerCaller = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int poolSize = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        boolean virtual = mode.equals("virtual");
+        if(virtual && !VirtualThreads.isSupported()){
+            System.err.println("Virtual threads need JDK 21 or later, running on " + System.getProperty("java.version"));
+            System.exit(2);
+        }
+
+        BenchmarkData.start("thread_mode_load_test", poolSize);
+        Database.setLimitBorrowers(true);
+        List<Person> persons = BenchmarkData.seedPersons(1000);
+        List<Task> tasks = BenchmarkData.seedTasks(persons, 10_000);
+        PersonDao personDao = new PersonDao();
+        TaskDao taskDao = new TaskDao(personDao);
+
+        ExecutorService executor = virtual ? VirtualThreads.newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(callers);
+        long[] latencies = new long[callers * callsPerCaller];
+        AtomicInteger misses = new AtomicInteger();
+        CountDownLatch ready = new CountDownLatch(callers);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(callers);
+        for(int caller = 0; caller < callers; caller++){
+            int offset = caller * callsPerCaller;
+            executor.execute(() -> {
+                ready.countDown();
+                try{
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for(int call = 0; call < callsPerCaller; call++){
+                        long begin = System.nanoTime();
+                        boolean found = call % 2 == 0
+                                ? personDao.findById(persons.get(random.nextInt(persons.size())).getPersonId()).isPresent()
+                                : taskDao.findByTaskId(tasks.get(random.nextInt(tasks.size())).getTaskId()).isPresent();
+                        latencies[offset + call] = System.nanoTime() - begin;
+                        if(!found){
+                            misses.incrementAndGet();
+                        }
+                    }
+                }catch (InterruptedException ex){
+                    Thread.currentThread().interrupt();
+                }finally {
+                    finished.countDown();
+                }
+            });
+        }
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        finished.await();
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        Arrays.sort(latencies);
+        System.out.printf("mode=%s callers=%d calls=%d poolSize=%d%n", mode, callers, latencies.length, poolSize);
+        System.out.printf("elapsed=%d ms throughput=%.0f calls/s misses=%d peakThreads=%d%n",
+                TimeUnit.NANOSECONDS.toMillis(elapsed), latencies.length * 1e9 / elapsed, misses.get(),
+                ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        System.out.printf("latency p50=%.1f ms p99=%.1f ms max=%.1f ms%n",
+                percentile(latencies, 0.5), percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6);
+        BenchmarkData.stop();
+    }
+
+    private static double percentile(long[] sorted, double percentile){
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(sorted.length * percentile) - 1)] / 1e6;
+    }
+}
@@ -1,8 +1,31 @@
 package se.lexicon.erik;
 
+import se.lexicon.erik.data.Database;
+import se.lexicon.erik.data.LoadReport;
+import se.lexicon.erik.data.TaskCsvLoader;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 public class App
 {
+    /**
+     * Usage: load-tasks &lt;tasks.csv&gt; [checkpoint file]
+     */
     public static void main( String[] args ) {
-
+        if(args.length >= 2 && args[0].equals("load-tasks")){
+            Path csv = Paths.get(args[1]);
+            Path checkpoint = args.length > 2 ? Paths.get(args[2]) : null;
+            try{
+                LoadReport report = new TaskCsvLoader().load(csv, checkpoint);
+                System.out.printf("Loaded %d tasks and %d new persons in %d ms (%.0f rows/s), skipped %d already loaded rows%n",
+                        report.getTasksLoaded(), report.getPersonsCreated(), report.getElapsedMillis(),
+                        report.getRowsPerSecond(), report.getRowsSkipped());
+            }catch (Exception ex){
+                ex.printStackTrace();
+            }finally {
+                Database.shutdown();
+            }
+        }
     }
 }
@@ -0,0 +1,72 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Person;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking facade for {@link PersonDao}. Every call runs on a {@link DaoExecutor}.
+ * @author Erik Svensson
+ */
+public class AsyncPersonDao {
+
+    private final PersonDao personDao;
+    private final DaoExecutor executor;
+
+    public AsyncPersonDao(PersonDao personDao, DaoExecutor executor) {
+        this.personDao = personDao;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<Person> createAsync(Person newPerson){
+        return executor.submit(() -> personDao.create(newPerson));
+    }
+
+    public CompletableFuture<Optional<Person>> findByIdAsync(int personId){
+        return executor.submit(() -> personDao.findById(personId));
+    }
+
+    public CompletableFuture<Map<Integer, Person>> findByIdsAsync(Collection<Integer> personIds){
+        return executor.submit(() -> personDao.findByIds(personIds));
+    }
+
+    public CompletableFuture<Person> updateAsync(Person person){
+        return executor.submit(() -> personDao.update(person));
+    }
+
+    public CompletableFuture<Boolean> deleteAsync(int id){
+        return executor.submit(() -> personDao.delete(id));
+    }
+
+    public CompletableFuture<List<Person>> findByLastNameAsync(String lastName){
+        return executor.submit(() -> personDao.findByLastName(lastName));
+    }
+
+    public CompletableFuture<List<Person>> findByLastNameAsync(String lastName, int limit){
+        return executor.submit(() -> personDao.findByLastName(lastName, limit));
+    }
+
+    /**
+     * @return future completed with the page, or exceptionally with IllegalArgumentException when pageSize
+     * or pageToken is invalid
+     */
+    public CompletableFuture<Page<Person>> findByLastNameAsync(String lastNamePrefix, int pageSize, String pageToken){
+        return executor.submit(() -> personDao.findByLastName(lastNamePrefix, pageSize, pageToken));
+    }
+
+    public CompletableFuture<List<String>> suggestLastNamesAsync(String prefix, int limit){
+        return executor.submit(() -> personDao.suggestLastNames(prefix, limit));
+    }
+
+    public CompletableFuture<List<Person>> createAllAsync(Collection<Person> newPeople){
+        return executor.submit(() -> personDao.createAll(newPeople));
+    }
+
+    public CompletableFuture<List<Person>> updateAllAsync(Collection<Person> people){
+        return executor.submit(() -> personDao.updateAll(people));
+    }
+}
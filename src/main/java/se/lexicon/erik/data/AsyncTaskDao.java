@@ -0,0 +1,119 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Task;
+import se.lexicon.erik.model.TaskView;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking facade for {@link TaskDao}. Every call runs on a {@link DaoExecutor}, so independent
+ * lookups can be started together and combined, e.g.
+ * <pre>
+ *     findByTaskIdAsync(taskId).thenCombine(findClosestUndoneTaskByPersonIdAsync(personId), ...)
+ * </pre>
+ * The streaming methods of TaskDao are left out since they hold a connection until the stream is closed.
+ * @author Erik Svensson
+ */
+public class AsyncTaskDao {
+
+    private final TaskDao taskDao;
+    private final DaoExecutor executor;
+
+    public AsyncTaskDao(TaskDao taskDao, DaoExecutor executor) {
+        this.taskDao = taskDao;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<Task> createAsync(Task newTask){
+        return executor.submit(() -> taskDao.create(newTask));
+    }
+
+    public CompletableFuture<Optional<Task>> findByTaskIdAsync(int taskId){
+        return executor.submit(() -> taskDao.findByTaskId(taskId));
+    }
+
+    public CompletableFuture<Map<Integer, Task>> findByTaskIdsAsync(Collection<Integer> taskIds){
+        return executor.submit(() -> taskDao.findByTaskIds(taskIds));
+    }
+
+    public CompletableFuture<List<Task>> findByDoneStatusAsync(boolean isDone){
+        return executor.submit(() -> taskDao.findByDoneStatus(isDone));
+    }
+
+    public CompletableFuture<List<Task>> findByPersonIdAsync(int personId){
+        return executor.submit(() -> taskDao.findByPersonId(personId));
+    }
+
+    public CompletableFuture<List<TaskView>> findViewsByDoneStatusAsync(boolean isDone){
+        return executor.submit(() -> taskDao.findViewsByDoneStatus(isDone));
+    }
+
+    public CompletableFuture<List<TaskView>> findViewsByPersonIdAsync(int personId){
+        return executor.submit(() -> taskDao.findViewsByPersonId(personId));
+    }
+
+    /**
+     * @return future completed with the page, or exceptionally with IllegalArgumentException when pageSize
+     * or pageToken is invalid
+     */
+    public CompletableFuture<Page<Task>> findByDoneStatusAsync(boolean isDone, int pageSize, String pageToken){
+        return executor.submit(() -> taskDao.findByDoneStatus(isDone, pageSize, pageToken));
+    }
+
+    /**
+     * @return future completed with the page, or exceptionally with IllegalArgumentException when pageSize
+     * or pageToken is invalid
+     */
+    public CompletableFuture<Page<Task>> findByPersonIdAsync(int personId, int pageSize, String pageToken){
+        return executor.submit(() -> taskDao.findByPersonId(personId, pageSize, pageToken));
+    }
+
+    public CompletableFuture<Optional<Task>> findClosestUndoneTaskByPersonIdAsync(int personId){
+        return executor.submit(() -> taskDao.findClosestUndoneTaskByPersonId(personId));
+    }
+
+    public CompletableFuture<IntIntMap> countByPersonIdAsync(boolean isDone){
+        return executor.submit(() -> taskDao.countByPersonId(isDone));
+    }
+
+    public CompletableFuture<IntIntMap> countOverdueByPersonIdAsync(LocalDate today){
+        return executor.submit(() -> taskDao.countOverdueByPersonId(today));
+    }
+
+    public CompletableFuture<IntObjectMap<LocalDate>> findNextDeadlineByPersonIdAsync(LocalDate today){
+        return executor.submit(() -> taskDao.findNextDeadlineByPersonId(today));
+    }
+
+    public CompletableFuture<IntObjectMap<TaskStats>> findStatsByPersonIdAsync(LocalDate today){
+        return executor.submit(() -> taskDao.findStatsByPersonId(today));
+    }
+
+    public CompletableFuture<Task> updateAsync(Task task){
+        return executor.submit(() -> taskDao.update(task));
+    }
+
+    public CompletableFuture<Boolean> markDoneAsync(int taskId){
+        return executor.submit(() -> taskDao.markDone(taskId));
+    }
+
+    public CompletableFuture<Integer> markDoneAsync(Collection<Integer> taskIds){
+        return executor.submit(() -> taskDao.markDone(taskIds));
+    }
+
+    public CompletableFuture<Integer> setDoneAsync(Collection<Integer> taskIds, boolean done){
+        return executor.submit(() -> taskDao.setDone(taskIds, done));
+    }
+
+    public CompletableFuture<List<Task>> createAllAsync(Collection<Task> newTasks){
+        return executor.submit(() -> taskDao.createAll(newTasks));
+    }
+
+    public CompletableFuture<List<Task>> updateAllAsync(Collection<Task> tasks){
+        return executor.submit(() -> taskDao.updateAll(tasks));
+    }
+}
@@ -0,0 +1,251 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * Coalesces single id lookups from many threads into batched lookups. The first lookup after a batch opens a
+ * window, every lookup arriving within the window joins the batch, and lookups of an id already waiting share
+ * its load and get their own copy of the result. The batch is loaded when the window closes or maxBatchSize ids are waiting, whichever comes first.
+ * <pre>
+ *     BatchLoader&lt;Person&gt; assignees = BatchLoader.persons(personDao, 2, TimeUnit.MILLISECONDS);
+ *     Optional&lt;Person&gt; person = assignees.get(personId);
+ * </pre>
+ * Batches are loaded one at a time on the loader's own thread, so lookups never join a {@link UnitOfWork}
+ * open on the calling thread and do not see its uncommitted writes.
+ * @param <T> type of the loaded objects
+ * @author Erik Svensson
+ */
+public class BatchLoader<T> implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = PersonDao.DEFAULT_BATCH_SIZE;
+
+    /**
+     * Loads a batch of ids
+     * @param <T> type of the loaded objects
+     */
+    public interface BatchFunction<T> {
+        /**
+         * @param ids distinct ids
+         * @return found objects keyed by id, missing ids are left out
+         * @throws SQLException when the batch could not be loaded
+         */
+        Map<Integer, T> load(List<Integer> ids) throws SQLException;
+    }
+
+    private final BatchFunction<T> function;
+    private final UnaryOperator<T> copy;
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private Map<Integer, CompletableFuture<Optional<T>>> pending = new LinkedHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * @param personDao PersonDao to load with, its cache is used for ids it holds
+     * @param window how long a batch collects lookups
+     * @param unit TimeUnit of window
+     * @return BatchLoader of Person objects by personId
+     */
+    public static BatchLoader<Person> persons(PersonDao personDao, long window, TimeUnit unit){
+        return new BatchLoader<>(personDao::loadByIds, BatchLoader::copy, DEFAULT_MAX_BATCH_SIZE, window, unit);
+    }
+
+    /**
+     * @param taskDao TaskDao to load with
+     * @param window how long a batch collects lookups
+     * @param unit TimeUnit of window
+     * @return BatchLoader of tasks with assignee by taskId
+     */
+    public static BatchLoader<Task> tasks(TaskDao taskDao, long window, TimeUnit unit){
+        return new BatchLoader<>(taskDao::loadByTaskIds, BatchLoader::copy, DEFAULT_MAX_BATCH_SIZE, window, unit);
+    }
+
+    /**
+     * Creates a loader whose lookups of the same id share the loaded object, for immutable types
+     * @param function loads a batch
+     * @param maxBatchSize number of waiting ids that loads the batch before the window closes
+     * @param window how long a batch collects lookups
+     * @param unit TimeUnit of window
+     * @throws IllegalArgumentException when maxBatchSize is less than 1 or window is negative
+     */
+    public BatchLoader(BatchFunction<T> function, int maxBatchSize, long window, TimeUnit unit) throws IllegalArgumentException{
+        this(function, UnaryOperator.identity(), maxBatchSize, window, unit);
+    }
+
+    /**
+     * @param function loads a batch
+     * @param copy copies a loaded object for every further lookup of its id in the same batch
+     * @param maxBatchSize number of waiting ids that loads the batch before the window closes
+     * @param window how long a batch collects lookups
+     * @param unit TimeUnit of window
+     * @throws IllegalArgumentException when maxBatchSize is less than 1 or window is negative
+     */
+    public BatchLoader(BatchFunction<T> function, UnaryOperator<T> copy, int maxBatchSize, long window, TimeUnit unit) throws IllegalArgumentException{
+        if(maxBatchSize < 1 || window < 0){
+            throw new IllegalArgumentException("Max batch size needs to be positive and window not negative");
+        }
+        this.function = function;
+        this.copy = copy;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = unit.toNanos(window);
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "batch-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //close() loads what is waiting itself instead of waiting for the window to close
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param id id to look up
+     * @return CompletableFuture of Optional of the object, failing with UncheckedSQLException when the batch fails
+     * @throws IllegalStateException when the loader is closed
+     */
+    public CompletableFuture<Optional<T>> load(int id) throws IllegalStateException{
+        if(closed){
+            throw new IllegalStateException("Loader is closed");
+        }
+        requests.increment();
+        CompletableFuture<Optional<T>> future;
+        boolean opened;
+        boolean full;
+        lock.lock();
+        try{
+            future = pending.get(id);
+            if(future != null){
+                deduplicated.increment();
+                return future.thenApply(found -> found.map(copy));
+            }
+            future = new CompletableFuture<>();
+            pending.put(id, future);
+            opened = pending.size() == 1;
+            full = pending.size() >= maxBatchSize;
+        }finally {
+            lock.unlock();
+        }
+        try{
+            if(full){
+                scheduler.execute(this::dispatch);
+            }else if(opened){
+                scheduler.schedule(this::dispatch, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }catch (RejectedExecutionException ex){
+            dispatch();
+        }
+        return future;
+    }
+
+    /**
+     * Blocking form of {@link #load(int)}
+     * @param id id to look up
+     * @return Optional of the object
+     * @throws UncheckedSQLException when the batch fails
+     * @throws IllegalStateException when the loader is closed
+     */
+    public Optional<T> get(int id) throws UncheckedSQLException, IllegalStateException{
+        try{
+            return load(id).join();
+        }catch (CompletionException ex){
+            if(ex.getCause() instanceof RuntimeException){
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * @return number of lookups
+     */
+    public long getRequestCount(){
+        return requests.sum();
+    }
+
+    /**
+     * @return number of lookups that shared the load of a waiting lookup of the same id
+     */
+    public long getDeduplicatedCount(){
+        return deduplicated.sum();
+    }
+
+    /**
+     * @return number of batches loaded
+     */
+    public long getBatchCount(){
+        return batches.sum();
+    }
+
+    /**
+     * Loads what is waiting and stops the loader thread
+     */
+    @Override
+    public void close(){
+        if(closed){
+            return;
+        }
+        closed = true;
+        scheduler.shutdown();
+        try{
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }
+        dispatch();
+    }
+
+    private void dispatch(){
+        Map<Integer, CompletableFuture<Optional<T>>> batch;
+        lock.lock();
+        try{
+            if(pending.isEmpty()){
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }finally {
+            lock.unlock();
+        }
+        batches.increment();
+        try{
+            Map<Integer, T> loaded = function.load(new ArrayList<>(batch.keySet()));
+            batch.forEach((id, future) -> future.complete(Optional.ofNullable(loaded.get(id))));
+        }catch (SQLException ex){
+            UncheckedSQLException failure = new UncheckedSQLException(ex);
+            batch.values().forEach(future -> future.completeExceptionally(failure));
+        }catch (RuntimeException ex){
+            batch.values().forEach(future -> future.completeExceptionally(ex));
+        }
+    }
+
+    private static Person copy(Person person){
+        return new Person(person.getPersonId(), person.getFirstName(), person.getLastName(), person.getBirthDate(), person.getVersion());
+    }
+
+    private static Task copy(Task task){
+        Person assignee = task.getAssignee();
+        return new Task(task.getTaskId(), task.getDescription(), task.getDeadLine(), task.isDone(),
+                assignee == null ? null : copy(assignee), task.getVersion());
+    }
+}
@@ -0,0 +1,14 @@
+package se.lexicon.erik.data;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Work to be done with a borrowed Connection
+ * @param <T> result type
+ * @author Erik Svensson
+ */
+@FunctionalInterface
+interface ConnectionCallback<T> {
+    T execute(Connection connection) throws SQLException;
+}
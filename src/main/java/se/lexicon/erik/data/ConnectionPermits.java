@@ -0,0 +1,75 @@
+package se.lexicon.erik.data;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fair semaphore with one permit per pooled connection that callers take before borrowing a connection and
+ * give back when closing it. Thousands of callers, typically virtual threads, then queue here in arrival
+ * order and park cheaply instead of all contending inside the pool.
+ * @author Erik Svensson
+ */
+final class ConnectionPermits {
+
+    private final Semaphore semaphore;
+
+    ConnectionPermits(int permits) {
+        this.semaphore = new Semaphore(permits, true);
+    }
+
+    /**
+     * @param dataSource pool to borrow from once a permit is taken
+     * @param timeoutMillis max time to wait for a permit
+     * @return connection that gives its permit back on close
+     * @throws SQLException when no permit was available in time, the thread was interrupted or borrowing failed
+     */
+    Connection borrow(DataSource dataSource, long timeoutMillis) throws SQLException {
+        try{
+            if(!semaphore.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)){
+                throw new SQLTimeoutException("No connection permit available after " + timeoutMillis + " ms");
+            }
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection permit", ex);
+        }
+        try{
+            return releaseOnClose(dataSource.getConnection());
+        }catch (SQLException | RuntimeException ex){
+            semaphore.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return estimated number of callers waiting for a permit
+     */
+    int getWaiting(){
+        return semaphore.getQueueLength();
+    }
+
+    private Connection releaseOnClose(Connection connection){
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(
+                ConnectionPermits.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    try{
+                        return method.invoke(connection, args);
+                    }catch (InvocationTargetException ex){
+                        throw ex.getCause();
+                    }finally {
+                        if(method.getName().equals("close") && released.compareAndSet(false, true)){
+                            semaphore.release();
+                        }
+                    }
+                }
+        );
+    }
+}
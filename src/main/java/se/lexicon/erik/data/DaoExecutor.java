@@ -0,0 +1,149 @@
+package se.lexicon.erik.data;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded executor that runs blocking DAO calls off the caller's thread. The number of threads matches
+ * the connection pool size so no thread waits for a connection, and the work queue is bounded.
+ * When the queue is full new work is rejected with a future completed exceptionally by a
+ * RejectedExecutionException, letting the caller back off instead of piling up work.
+ *
+ * {@link #virtualThreads()} instead runs every call on its own virtual thread (JDK 21+). There is no queue
+ * and nothing is rejected, callers wait for a connection permit in {@link Database} instead.
+ * @author Erik Svensson
+ */
+public class DaoExecutor implements AutoCloseable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    private static final AtomicInteger EXECUTOR_NUMBER = new AtomicInteger();
+
+    private final ExecutorService executor;
+    private final ThreadPoolExecutor pool;
+    private final AtomicInteger running;
+    private final AtomicBoolean holdsLimitBorrowers;
+
+    /**
+     * Creates an executor with one thread per pooled connection and a queue of {@link #DEFAULT_QUEUE_CAPACITY}
+     */
+    public DaoExecutor() {
+        this(Database.getDataSource().getMaximumPoolSize(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param threads number of worker threads, normally the connection pool size
+     * @param queueCapacity max number of calls waiting for a worker thread
+     * @throws IllegalArgumentException when threads or queueCapacity is less than 1
+     */
+    public DaoExecutor(int threads, int queueCapacity) throws IllegalArgumentException{
+        if(threads < 1 || queueCapacity < 1){
+            throw new IllegalArgumentException("Threads and queue capacity need to be at least 1");
+        }
+        this.pool = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                daemonThreads("dao-async-" + EXECUTOR_NUMBER.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        this.executor = pool;
+        this.running = null;
+        this.holdsLimitBorrowers = new AtomicBoolean();
+    }
+
+    private DaoExecutor(ExecutorService executor) {
+        this.executor = executor;
+        this.pool = null;
+        this.running = new AtomicInteger();
+        this.holdsLimitBorrowers = new AtomicBoolean(true);
+    }
+
+    /**
+     * Creates an executor that runs every call on a new virtual thread and switches on
+     * {@link Database#setLimitBorrowers(boolean)}, so the virtual threads queue for connections on a fair
+     * semaphore instead of timing out inside the pool. The limit stays on until the last virtual thread
+     * executor is closed, unless it is set on its own.
+     * @return DaoExecutor backed by virtual threads
+     * @throws UnsupportedOperationException when the running JDK has no virtual threads
+     */
+    public static DaoExecutor virtualThreads() throws UnsupportedOperationException{
+        ExecutorService executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        Database.holdLimitBorrowers();
+        return new DaoExecutor(executor);
+    }
+
+    /**
+     * @param work blocking DAO call
+     * @param <T> result type
+     * @return future completed with the result, or exceptionally with RejectedExecutionException when the queue is full
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> work){
+        try{
+            if(running != null){
+                return CompletableFuture.supplyAsync(() -> {
+                    running.incrementAndGet();
+                    try{
+                        return work.get();
+                    }finally {
+                        running.decrementAndGet();
+                    }
+                }, executor);
+            }
+            return CompletableFuture.supplyAsync(work, executor);
+        }catch (RejectedExecutionException ex){
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(ex);
+            return rejected;
+        }
+    }
+
+    /**
+     * @return number of calls waiting for a worker thread, or for a connection permit with virtual threads
+     */
+    public int getQueueSize(){
+        return pool == null ? Database.getWaitingBorrowers() : pool.getQueue().size();
+    }
+
+    public int getActiveCount(){
+        return pool == null ? running.get() : pool.getActiveCount();
+    }
+
+    /**
+     * Stops accepting work and waits up to 30 seconds for queued calls to finish. Gives up the borrower
+     * limit held by {@link #virtualThreads()}.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try{
+            if(!executor.awaitTermination(30, TimeUnit.SECONDS)){
+                executor.shutdownNow();
+            }
+        }catch (InterruptedException ex){
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }finally {
+            if(holdsLimitBorrowers.compareAndSet(true, false)){
+                Database.releaseLimitBorrowers();
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix){
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
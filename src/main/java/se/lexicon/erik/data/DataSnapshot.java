@@ -0,0 +1,369 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All persons and tasks in memory, read from a binary snapshot file so that a restarted process can warm its
+ * PersonCache, LastNameIndex and UndoneTaskIndex without reading every row through the DAOs.
+ * <pre>
+ *     DataSnapshot snapshot = DataSnapshot.warmStart(Paths.get("data.snapshot"), personDao, taskDao);
+ * </pre>
+ * A snapshot is current to the database clock at the time it was taken. {@link #catchUp(long, TimeUnit)}
+ * reads only the rows whose updated_at is at or after that time and scans the id columns to drop deleted
+ * rows. The margin covers transactions that set updated_at before the snapshot was taken but committed after.
+ * Tasks are kept in columns like in the file, a Task object is only made for the undone tasks the
+ * UndoneTaskIndex is warmed with and by findTask. See {@link SnapshotWriter} for the file format. Not thread safe.
+ * @author Erik Svensson
+ */
+public class DataSnapshot {
+
+    public static final long DEFAULT_CATCH_UP_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private IntObjectMap<Person> persons = new IntObjectMap<>();
+    private IntIntMap taskRows = new IntIntMap();
+    private int[] taskIds = new int[16];
+    private int[] taskVersions = new int[16];
+    private int[] assigneeIds = new int[16];
+    private int[] deadlines = new int[16];
+    private String[] descriptions = new String[16];
+    private final BitSet done = new BitSet();
+    private final BitSet live = new BitSet();
+    private int rows;
+    private int taskCount;
+    private long takenAt;
+
+    private DataSnapshot() {
+    }
+
+    /**
+     * Writes all persons and tasks from the database to a snapshot file, streaming the rows so memory use
+     * does not grow with the size of the tables. Reads the primary.
+     * @param file snapshot file, replaced once completely written
+     * @return number of rows written
+     * @throws IOException when the file can not be written
+     * @throws SQLException when reading the tables fails
+     */
+    public static long export(Path file) throws IOException, SQLException {
+        try(Connection connection = Database.getConnection();
+            SnapshotWriter writer = new SnapshotWriter(file, currentTimestamp(connection))){
+            long rows = 0;
+            try(PreparedStatement statement = streamingStatement(connection, Queries.SELECT_ALL_PERSONS);
+                ResultSet resultSet = statement.executeQuery()){
+                while(resultSet.next()){
+                    writer.person(resultSet.getInt("person_id"), resultSet.getInt("version"), resultSet.getString("first_name"),
+                            resultSet.getString("last_name"), resultSet.getObject("birth_date", LocalDate.class));
+                    rows++;
+                }
+            }
+            try(PreparedStatement statement = streamingStatement(connection, Queries.SELECT_ALL_TASKS);
+                ResultSet resultSet = statement.executeQuery()){
+                while(resultSet.next()){
+                    writer.task(resultSet.getInt("task_id"), resultSet.getInt("task_version"), resultSet.getInt("person_id"),
+                            SnapshotWriter.epochDay(resultSet.getObject("deadline", LocalDate.class)),
+                            resultSet.getBoolean("done"), resultSet.getString("description"));
+                    rows++;
+                }
+            }
+            writer.finish();
+            return rows;
+        }
+    }
+
+    /**
+     * @param file snapshot file written by export or write
+     * @return the snapshot as it was taken, see catchUp
+     * @throws IOException when the file can not be read, is not a snapshot or is truncated
+     */
+    public static DataSnapshot read(Path file) throws IOException {
+        DataSnapshot snapshot = new DataSnapshot();
+        snapshot.takenAt = SnapshotReader.read(file, new SnapshotReader.Sink() {
+            @Override
+            public void begin(int persons, int tasks) {
+                snapshot.persons = new IntObjectMap<>(persons);
+                snapshot.taskRows = new IntIntMap(tasks);
+                snapshot.grow(tasks);
+            }
+
+            @Override
+            public void person(int personId, int version, String firstName, String lastName, LocalDate birthDate) {
+                snapshot.persons.put(personId, new Person(personId, firstName, lastName, birthDate, version));
+            }
+
+            @Override
+            public void task(int taskId, int version, int personId, int deadline, boolean done, String description) {
+                snapshot.putTask(taskId, version, personId, deadline, done, description);
+            }
+        });
+        return snapshot;
+    }
+
+    /**
+     * Reads the snapshot file and catches it up with DEFAULT_CATCH_UP_MARGIN_MILLIS, or exports a new one
+     * when the file does not exist. Then warms the structures of the DAOs and writes the caught up snapshot
+     * back, so the next start has less to catch up.
+     * @param file snapshot file
+     * @param personDao PersonDao whose PersonCache and LastNameIndex are warmed
+     * @param taskDao TaskDao whose UndoneTaskIndex is warmed
+     * @return the caught up snapshot
+     * @throws IOException when the file can not be read or written
+     * @throws SQLException when reading the database fails
+     */
+    public static DataSnapshot warmStart(Path file, PersonDao personDao, TaskDao taskDao) throws IOException, SQLException {
+        DataSnapshot snapshot;
+        if(Files.exists(file)){
+            snapshot = read(file);
+            if(snapshot.catchUp(DEFAULT_CATCH_UP_MARGIN_MILLIS, TimeUnit.MILLISECONDS) > 0){
+                snapshot.write(file);
+            }
+        }else{
+            export(file);
+            snapshot = read(file);
+        }
+        snapshot.warm(personDao, taskDao);
+        return snapshot;
+    }
+
+    /**
+     * Applies the rows changed since the snapshot was taken, less the margin, and drops deleted rows.
+     * Reads the primary. Afterwards the snapshot is current to the database clock at the start of the catch up.
+     * @param margin how far before the snapshot time to look for changes
+     * @param unit unit of margin
+     * @return number of changed and dropped rows
+     * @throws SQLException when reading the database fails, the snapshot is then partly caught up
+     */
+    public int catchUp(long margin, TimeUnit unit) throws SQLException {
+        Timestamp since = new Timestamp(takenAt - unit.toMillis(margin));
+        int changed = 0;
+        try(Connection connection = Database.getConnection()){
+            long now = currentTimestamp(connection);
+            try(PreparedStatement statement = streamingStatement(connection, Queries.SELECT_PERSONS_CHANGED_SINCE)){
+                statement.setTimestamp(1, since);
+                try(ResultSet resultSet = statement.executeQuery()){
+                    while(resultSet.next()){
+                        Person found = PersonDao.personFromResultSet(resultSet);
+                        Person person = persons.get(found.getPersonId());
+                        if(person == null){
+                            persons.put(found.getPersonId(), found);
+                        }else{
+                            person.setFirstName(found.getFirstName());
+                            person.setLastName(found.getLastName());
+                            person.setBirthDate(found.getBirthDate());
+                            person.markClean(found.getVersion());
+                        }
+                        changed++;
+                    }
+                }
+            }
+            try(PreparedStatement statement = streamingStatement(connection, Queries.SELECT_TASKS_CHANGED_SINCE)){
+                statement.setTimestamp(1, since);
+                try(ResultSet resultSet = statement.executeQuery()){
+                    while(resultSet.next()){
+                        putTask(resultSet.getInt("task_id"), resultSet.getInt("task_version"), resultSet.getInt("person_id"),
+                                SnapshotWriter.epochDay(resultSet.getObject("deadline", LocalDate.class)),
+                                resultSet.getBoolean("done"), resultSet.getString("description"));
+                        changed++;
+                    }
+                }
+            }
+            BitSet personIds = ids(connection, Queries.SELECT_ALL_PERSON_IDS);
+            BitSet existingTaskIds = ids(connection, Queries.SELECT_ALL_TASK_IDS);
+            changed += persons.size() + taskCount;
+            persons = retain(persons, personIds);
+            for(int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)){
+                if(taskIds[row] < 0 || !existingTaskIds.get(taskIds[row])){
+                    removeTask(row);
+                }
+            }
+            changed -= persons.size() + taskCount;
+            takenAt = now;
+        }
+        return changed;
+    }
+
+    /**
+     * Writes this snapshot to a file
+     * @param file snapshot file, replaced once completely written
+     * @throws IOException when the file can not be written
+     */
+    public void write(Path file) throws IOException {
+        try(SnapshotWriter writer = new SnapshotWriter(file, takenAt)){
+            persons.forEach((personId, person) -> {
+                try{
+                    writer.person(personId, person.getVersion(), person.getFirstName(), person.getLastName(), person.getBirthDate());
+                }catch (IOException ex){
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            for(int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)){
+                writer.task(taskIds[row], taskVersions[row], assigneeIds[row], deadlines[row], done.get(row), descriptions[row]);
+            }
+            writer.finish();
+        }catch (UncheckedIOException ex){
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Loads the LastNameIndex with all persons, fills the PersonCache up to its maximum size and warms the
+     * UndoneTaskIndex for every person, when the DAOs have them. Call before the DAOs take writes, like
+     * {@link PersonDao#loadLastNameIndex()}.
+     * @param personDao PersonDao whose PersonCache and LastNameIndex are warmed
+     * @param taskDao TaskDao whose UndoneTaskIndex is warmed
+     */
+    public void warm(PersonDao personDao, TaskDao taskDao){
+        personDao.getLastNameIndex().ifPresent(index -> {
+            List<Person> people = new ArrayList<>(persons.size());
+            persons.forEach((personId, person) -> people.add(person));
+            index.load(people);
+        });
+        personDao.getCache().ifPresent(cache -> {
+            int[] room = {cache.getMaximumSize()};
+            persons.forEach((personId, person) -> {
+                if(room[0]-- > 0){
+                    cache.put(person);
+                }
+            });
+        });
+        taskDao.getUndoneTaskIndex().ifPresent(index -> {
+            IntObjectMap<List<Task>> undone = new IntObjectMap<>(persons.size());
+            persons.forEach((personId, person) -> undone.put(personId, new ArrayList<>()));
+            for(int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)){
+                List<Task> assigned = done.get(row) ? null : undone.get(assigneeIds[row]);
+                if(assigned != null){
+                    assigned.add(task(row));
+                }
+            }
+            undone.forEach(index::warm);
+        });
+    }
+
+    /**
+     * @return epoch millis of the database clock this snapshot is current to
+     */
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    public int getPersonCount(){
+        return persons.size();
+    }
+
+    public int getTaskCount(){
+        return taskCount;
+    }
+
+    public Optional<Person> findPerson(int personId){
+        return Optional.ofNullable(persons.get(personId));
+    }
+
+    /**
+     * @return Optional of a new Task whose assignee is the shared Person of this snapshot, resolved on first access
+     */
+    public Optional<Task> findTask(int taskId){
+        int row = taskRows.get(taskId) - 1;
+        return row < 0 ? Optional.empty() : Optional.of(task(row));
+    }
+
+    private Task task(int row){
+        return new Task(taskIds[row], descriptions[row], SnapshotReader.date(deadlines[row]), done.get(row),
+                assigneeIds[row], this::person, taskVersions[row]);
+    }
+
+    /**
+     * Adds the task or overwrites the row it already has
+     */
+    private void putTask(int taskId, int version, int personId, int deadline, boolean isDone, String description){
+        int row = taskRows.get(taskId) - 1;
+        if(row < 0){
+            grow(rows + 1);
+            row = rows++;
+            taskRows.put(taskId, row + 1);
+            live.set(row);
+            taskCount++;
+        }
+        taskIds[row] = taskId;
+        taskVersions[row] = version;
+        assigneeIds[row] = personId;
+        deadlines[row] = deadline;
+        descriptions[row] = description;
+        done.set(row, isDone);
+    }
+
+    private void removeTask(int row){
+        taskRows.put(taskIds[row], 0);
+        live.clear(row);
+        descriptions[row] = null;
+        taskCount--;
+    }
+
+    private void grow(int capacity){
+        if(capacity > taskIds.length){
+            int length = Math.max(capacity, taskIds.length + (taskIds.length >> 1));
+            taskIds = Arrays.copyOf(taskIds, length);
+            taskVersions = Arrays.copyOf(taskVersions, length);
+            assigneeIds = Arrays.copyOf(assigneeIds, length);
+            deadlines = Arrays.copyOf(deadlines, length);
+            descriptions = Arrays.copyOf(descriptions, length);
+        }
+    }
+
+    /**
+     * Lazy assignee of the tasks in this snapshot, so tasks of the same person share its Person
+     */
+    private Person person(int personId){
+        return persons.get(personId);
+    }
+
+    private static <V> IntObjectMap<V> retain(IntObjectMap<V> map, BitSet ids){
+        IntObjectMap<V> retained = new IntObjectMap<>(map.size());
+        map.forEach((id, value) -> {
+            if(id >= 0 && ids.get(id)){
+                retained.put(id, value);
+            }
+        });
+        return retained;
+    }
+
+    private static BitSet ids(Connection connection, Queries query) throws SQLException {
+        BitSet ids = new BitSet();
+        try(PreparedStatement statement = streamingStatement(connection, query);
+            ResultSet resultSet = statement.executeQuery()){
+            while(resultSet.next()){
+                ids.set(resultSet.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    private static PreparedStatement streamingStatement(Connection connection, Queries query) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(query.getQuery(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(TaskDao.DEFAULT_FETCH_SIZE);
+        return statement;
+    }
+
+    private static long currentTimestamp(Connection connection) throws SQLException {
+        try(PreparedStatement statement = connection.prepareStatement(Queries.SELECT_CURRENT_TIMESTAMP.getQuery());
+            ResultSet resultSet = statement.executeQuery()){
+            resultSet.next();
+            return resultSet.getTimestamp(1).getTime();
+        }
+    }
+}
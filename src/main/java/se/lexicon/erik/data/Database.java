@@ -1,33 +1,533 @@
 package se.lexicon.erik.data;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Owns the connection pool used by all DAOs. The pool is built lazily from database.properties
+ * the first time a connection is requested, or explicitly through {@link #configure(Properties)}.
+ *
+ * Recognised properties:
+ * <ul>
+ *     <li>url, user, password - connection settings</li>
+ *     <li>pool.maximumPoolSize - max number of pooled connections (default 10)</li>
+ *     <li>pool.minimumIdle - min number of idle connections (default same as maximumPoolSize)</li>
+ *     <li>pool.connectionTimeout - max ms to wait for a connection (default 30000)</li>
+ *     <li>pool.idleTimeout - ms before an idle connection is retired (default 600000)</li>
+ *     <li>pool.maxLifetime - max ms a connection lives in the pool (default 1800000)</li>
+ *     <li>pool.leakDetectionThreshold - ms a connection may be out of the pool before a leak is logged (default 0 = off)</li>
+ *     <li>pool.limitBorrowers - true makes callers queue on a fair semaphore sized to the pool before borrowing,
+ *     see {@link #setLimitBorrowers(boolean)} (default false)</li>
+ *     <li>dataSource.* - passed on to the JDBC driver with the prefix removed</li>
+ *     <li>metrics.enabled - true installs a {@link QueryMetrics} as query listener and registers it in JMX (default false)</li>
+ *     <li>metrics.slowQueryThresholdMillis - statements slower than this are logged by QueryMetrics (default 0 = off)</li>
+ *     <li>replica.N.url, replica.N.user, replica.N.password, replica.selection - read replicas, see {@link ReplicaRouter}</li>
+ *     <li>shard.N.url, shard.N.user, shard.N.password - shards holding persons and their tasks, see {@link ShardRouter}</li>
+ * </ul>
+ * The dataSource.* properties are where driver side prepared statement caching is switched on, so the
+ * SQL in {@link Queries} is parsed once per connection instead of on every DAO call. For MySQL Connector/J:
+ * <pre>
+ *     dataSource.cachePrepStmts=true
+ *     dataSource.prepStmtCacheSize=250
+ *     dataSource.prepStmtCacheSqlLimit=2048
+ *     dataSource.useServerPrepStmts=true
+ * </pre>
+ * When the url is a MySQL url and no dataSource.* property is given these four are used as defaults.
+ * MySQL urls also get dataSource.useCursorFetch=true unless it is given, without it Connector/J ignores the
+ * fetch size of {@link TaskDao#streamByDoneStatus(boolean)} and {@link DataSnapshot} exports and reads the
+ * whole result into memory.
+ *
+ * With read replicas configured, {@link #getConnection(Queries)} sends read only queries to a replica and
+ * everything else to the primary. Inside a {@link UnitOfWork} every query uses the unit's primary connection,
+ * so a transaction reads its own writes. Outside of one a read may not yet see a write committed just before,
+ * as far as the replicas lag behind. A replica that can not hand out a connection is skipped for the primary.
+ *
+ * With shards configured, {@link #onShard(int, Supplier)} points every connection borrowed by the current
+ * thread at one shard while the work runs, so the unchanged DAOs read and write that shard. The sharded
+ * stores, {@link ShardedPersonStore} and {@link ShardedTaskStore}, use it to route each call. Replicas are
+ * replicas of the primary and are not used for shard work.
+ * @author Erik Svensson
+ */
 public class Database {
-    private static final String DB_URL;
-    private static final String USER;
-    private static final String PASSWORD;
+    private static final String PROPERTIES_FILE = "database.properties";
+    static final String POOL_NAME = "person-db-pool";
+    private static final String DATA_SOURCE_PREFIX = "dataSource.";
+
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static final Logger LOGGER = Logger.getLogger(Database.class.getName());
+
+    private static volatile HikariDataSource dataSource;
+    private static volatile QueryListener queryListener;
+    private static volatile ConnectionPermits connectionPermits;
+    private static volatile boolean limitBorrowers;
+    private static final AtomicInteger LIMIT_BORROWERS_HOLDS = new AtomicInteger();
+    private static volatile ReplicaRouter replicas;
+    private static volatile ShardRouter shards;
+    private static final ThreadLocal<Integer> SHARD = new ThreadLocal<>();
+
+    /**
+     * (Re)builds the connection pool from the given properties. Any previously configured pool is closed.
+     * The installed QueryListener is removed, and replaced by a new QueryMetrics when metrics.enabled is true.
+     * @param properties Properties with connection and pool settings
+     */
+    public static void configure(Properties properties){
+        LOCK.lock();
+        try{
+            HikariDataSource previous = dataSource;
+            ReplicaRouter previousReplicas = replicas;
+            ShardRouter previousShards = shards;
+            dataSource = new HikariDataSource(createConfig(properties));
+            replicas = ReplicaRouter.create(properties);
+            shards = ShardRouter.create(properties);
+            removeMetrics();
+            configureMetrics(properties);
+            configurePermits(properties, dataSource);
+            if(previous != null){
+                previous.close();
+            }
+            if(previousReplicas != null){
+                previousReplicas.close();
+            }
+            if(previousShards != null){
+                previousShards.close();
+            }
+        }finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * @return the pooled DataSource, built from database.properties if not yet configured
+     */
+    public static HikariDataSource getDataSource(){
+        HikariDataSource current = dataSource;
+        if(current == null){
+            LOCK.lock();
+            try{
+                if(dataSource == null){
+                    Properties properties = loadProperties();
+                    dataSource = new HikariDataSource(createConfig(properties));
+                    replicas = ReplicaRouter.create(properties);
+                    shards = ShardRouter.create(properties);
+                    configureMetrics(properties);
+                    configurePermits(properties, dataSource);
+                }
+                current = dataSource;
+            }finally {
+                LOCK.unlock();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return connection of the {@link UnitOfWork} open on the current thread, or a connection from the pool
+     * @throws SQLException when no connection could be borrowed
+     */
+    public static Connection getConnection() throws SQLException {
+        Connection connection = UnitOfWork.currentConnection();
+        if(connection != null){
+            return connection;
+        }
+        return borrowConnection();
+    }
+
+    /**
+     * @param query the query the connection is borrowed for
+     * @return connection of the {@link UnitOfWork} open on the current thread, a replica connection when the
+     * query is read only and replicas are configured, or else a connection from the primary pool
+     * @throws SQLException when no connection could be borrowed
+     */
+    public static Connection getConnection(Queries query) throws SQLException {
+        Connection connection = UnitOfWork.currentConnection();
+        if(connection != null){
+            return connection;
+        }
+        ReplicaRouter router = replicas;
+        if(router == null || !query.isReadOnly() || SHARD.get() != null){
+            return borrowConnection();
+        }
+        try{
+            return borrow(router.select(), null);
+        }catch (SQLException ex){
+            LOGGER.log(Level.WARNING, "Replica unavailable, reading " + query.name() + " from the primary", ex);
+            return borrowConnection();
+        }
+    }
+
+    /**
+     * @return number of configured read replicas
+     */
+    public static int getReplicaCount(){
+        getDataSource();
+        ReplicaRouter router = replicas;
+        return router == null ? 0 : router.getPools().size();
+    }
+
+    /**
+     * @return number of configured shards, 0 when not sharded
+     */
+    public static int getShardCount(){
+        getDataSource();
+        ShardRouter router = shards;
+        return router == null ? 0 : router.getPools().size();
+    }
+
+    /**
+     * Runs the work with every connection borrowed by the current thread taken from the pool of one shard,
+     * so DAO calls made by the work read and write that shard. Calls may be nested, the shard of the outer
+     * call is in effect again when the inner one returns.
+     * @param shard index of the shard counted from 0, see {@link ShardRouter#shardOf(int, int)}
+     * @param work DAO calls to run on the shard
+     * @param <T> result type
+     * @return result of the work
+     * @throws IllegalStateException when no shards are configured or a {@link UnitOfWork} is open on the
+     * current thread, whose connection would otherwise be used instead of the shard's
+     * @throws IndexOutOfBoundsException when there is no such shard
+     */
+    public static <T> T onShard(int shard, Supplier<T> work) throws IllegalStateException, IndexOutOfBoundsException{
+        getDataSource();
+        ShardRouter router = shards;
+        if(router == null){
+            throw new IllegalStateException("No shards are configured");
+        }
+        if(UnitOfWork.isActive()){
+            throw new IllegalStateException("Can not switch shards inside a unit of work");
+        }
+        if(shard < 0 || shard >= router.getPools().size()){
+            throw new IndexOutOfBoundsException("No shard " + shard + ", " + router.getPools().size() + " are configured");
+        }
+        Integer previous = SHARD.get();
+        SHARD.set(shard);
+        try{
+            return work.get();
+        }finally {
+            if(previous == null){
+                SHARD.remove();
+            }else{
+                SHARD.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Installs the listener that is told about every statement and connection borrowed from now on.
+     * Without a listener connections are handed out unwrapped.
+     * @param listener QueryListener, null to switch instrumentation off
+     */
+    public static void setQueryListener(QueryListener listener){
+        queryListener = listener;
+    }
+
+    /**
+     * @return Optional of the installed QueryListener
+     */
+    public static Optional<QueryListener> getQueryListener(){
+        return Optional.ofNullable(queryListener);
+    }
+
+    /**
+     * Switches borrower limiting on or off. When on, every caller takes a permit from a fair semaphore with
+     * one permit per pooled connection before borrowing and gives it back when closing the connection. Use it
+     * when far more threads than connections call the DAOs, e.g. with virtual threads, so waiting callers are
+     * served in arrival order and at most pool size threads are inside the pool and the JDBC driver at a time.
+     * Every shard pool gets its own semaphore. Limiting stays on while anyone holds it, see
+     * {@link #holdLimitBorrowers()}.
+     * @param enabled true to limit borrowers
+     */
+    public static void setLimitBorrowers(boolean enabled){
+        HikariDataSource pool = getDataSource();
+        limitBorrowers = enabled;
+        applyLimitBorrowers(pool, false);
+    }
+
+    /**
+     * Keeps borrower limiting on until the matching {@link #releaseLimitBorrowers()}, whatever
+     * {@link #setLimitBorrowers(boolean)} is set to, so several holders can come and go independently
+     */
+    static void holdLimitBorrowers(){
+        HikariDataSource pool = getDataSource();
+        LIMIT_BORROWERS_HOLDS.incrementAndGet();
+        applyLimitBorrowers(pool, false);
+    }
+
+    /**
+     * Gives up a hold taken by {@link #holdLimitBorrowers()}, switching limiting off when it was the last one
+     * and limiting is not set
+     */
+    static void releaseLimitBorrowers(){
+        HikariDataSource pool = getDataSource();
+        LIMIT_BORROWERS_HOLDS.decrementAndGet();
+        applyLimitBorrowers(pool, false);
+    }
+
+    public static boolean isLimitBorrowers(){
+        return connectionPermits != null;
+    }
+
+    /**
+     * @return estimated number of callers waiting for a connection permit, 0 when borrowers are not limited
+     */
+    public static int getWaitingBorrowers(){
+        ConnectionPermits permits = connectionPermits;
+        return permits == null ? 0 : permits.getWaiting();
+    }
+
+    /**
+     * @return connection from the pool of the shard bound by {@link #onShard(int, Supplier)}, or else from
+     * the primary pool, taken with a permit of that pool when borrowers are limited and instrumented when a QueryListener
+     * is installed
+     * @throws SQLException when no connection could be borrowed
+     */
+    static Connection borrowConnection() throws SQLException {
+        Integer shard = SHARD.get();
+        if(shard != null){
+            ShardRouter router = shards;
+            if(router == null){
+                throw new SQLException("Shards were shut down");
+            }
+            return borrow(router.getPool(shard), router.getPermits(shard));
+        }
+        return borrow(getDataSource(), connectionPermits);
+    }
 
-    static {
+    private static Connection borrow(HikariDataSource pool, ConnectionPermits permits) throws SQLException {
+        QueryListener listener = queryListener;
+        if(listener == null && permits == null){
+            return pool.getConnection();
+        }
+        long start = System.nanoTime();
+        Connection connection;
+        try{
+            connection = permits == null ? pool.getConnection()
+                    : permits.borrow(pool, pool.getConnectionTimeout());
+        }catch (SQLException ex){
+            if(listener == null){
+                throw ex;
+            }
+            try{
+                listener.connectionFailed(System.nanoTime() - start, ex);
+            }catch (RuntimeException ignored){
+            }
+            throw ex;
+        }
+        if(listener == null){
+            return connection;
+        }
+        try{
+            listener.connectionAcquired(System.nanoTime() - start);
+        }catch (RuntimeException ignored){
+        }
+        return InstrumentedConnection.wrap(connection, listener);
+    }
+
+    /**
+     * Runs the callback on one connection in a single transaction. The transaction is committed
+     * when the callback returns and rolled back when it throws. When a {@link UnitOfWork} is open on the
+     * current thread the callback joins it and is committed together with it.
+     * @param callback work to run
+     * @param <T> result type
+     * @return result of the callback
+     * @throws SQLException when the work or the commit fails
+     */
+    static <T> T inTransaction(ConnectionCallback<T> callback) throws SQLException {
+        try(UnitOfWork work = UnitOfWork.begin()){
+            T result = callback.execute(work.getConnection());
+            work.commit();
+            return result;
+        }
+    }
+
+    /**
+     * @return snapshot of the current pool usage
+     * @throws IllegalStateException when the pool is not started
+     */
+    public static PoolStats getPoolStats(){
+        HikariDataSource current = dataSource;
+        if(current == null || current.getHikariPoolMXBean() == null){
+            throw new IllegalStateException("Connection pool is not started");
+        }
+        return poolStats(current);
+    }
+
+    /**
+     * @return snapshot of the usage of every replica pool in configuration order, empty without replicas
+     */
+    public static List<PoolStats> getReplicaPoolStats(){
+        ReplicaRouter router = replicas;
+        List<PoolStats> result = new ArrayList<>();
+        if(router != null){
+            for(HikariDataSource pool : router.getPools()){
+                if(pool.getHikariPoolMXBean() != null){
+                    result.add(poolStats(pool));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return snapshot of the usage of every shard pool in configuration order, empty without shards
+     */
+    public static List<PoolStats> getShardPoolStats(){
+        ShardRouter router = shards;
+        List<PoolStats> result = new ArrayList<>();
+        if(router != null){
+            for(HikariDataSource pool : router.getPools()){
+                if(pool.getHikariPoolMXBean() != null){
+                    result.add(poolStats(pool));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static PoolStats poolStats(HikariDataSource current){
+        return new PoolStats(
+                current.getHikariPoolMXBean().getActiveConnections(),
+                current.getHikariPoolMXBean().getIdleConnections(),
+                current.getHikariPoolMXBean().getTotalConnections(),
+                current.getHikariPoolMXBean().getThreadsAwaitingConnection(),
+                current.getMaximumPoolSize()
+        );
+    }
+
+    /**
+     * Closes the pool and all of its connections. A later call to getConnection() starts a new pool.
+     */
+    public static void shutdown(){
+        LOCK.lock();
+        try{
+            if(dataSource != null){
+                dataSource.close();
+                dataSource = null;
+            }
+            if(replicas != null){
+                replicas.close();
+                replicas = null;
+            }
+            if(shards != null){
+                shards.close();
+                shards = null;
+            }
+        }finally {
+            LOCK.unlock();
+        }
+    }
+
+    private static void configureMetrics(Properties properties){
+        if(Boolean.parseBoolean(properties.getProperty("metrics.enabled"))){
+            QueryMetrics metrics = new QueryMetrics(longProperty(properties, "metrics.slowQueryThresholdMillis", 0), TimeUnit.MILLISECONDS);
+            metrics.registerMBean();
+            queryListener = metrics;
+        }
+    }
+
+    private static void removeMetrics(){
+        if(queryListener instanceof QueryMetrics){
+            QueryMetrics.unregisterMBean();
+        }
+        queryListener = null;
+    }
+
+    private static void configurePermits(Properties properties, HikariDataSource pool){
+        limitBorrowers = Boolean.parseBoolean(properties.getProperty("pool.limitBorrowers"));
+        applyLimitBorrowers(pool, true);
+    }
+
+    /**
+     * @param renew true to create new permits even when limiting stays on, e.g. for a new pool
+     */
+    private static void applyLimitBorrowers(HikariDataSource pool, boolean renew){
+        LOCK.lock();
+        try{
+            boolean enabled = limitBorrowers || LIMIT_BORROWERS_HOLDS.get() > 0;
+            if(!renew && enabled == (connectionPermits != null)){
+                return;
+            }
+            ShardRouter router = shards;
+            if(router != null){
+                router.setLimitBorrowers(enabled);
+            }
+            connectionPermits = enabled ? new ConnectionPermits(pool.getMaximumPoolSize()) : null;
+        }finally {
+            LOCK.unlock();
+        }
+    }
+
+    private static Properties loadProperties(){
         Properties properties = new Properties();
 
-        try(FileInputStream inputStream = new FileInputStream("database.properties")) {
+        try(FileInputStream inputStream = new FileInputStream(PROPERTIES_FILE)) {
             properties.load(inputStream);
         }  catch (IOException e) {
             e.printStackTrace();
         }
+        return properties;
+    }
 
-        DB_URL = properties.getProperty("url");
-        USER = properties.getProperty("user");
-        PASSWORD = properties.getProperty("password");
+    static HikariConfig createConfig(Properties properties){
+        return createConfig(properties, POOL_NAME);
     }
 
-    public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DB_URL,USER, PASSWORD);
+    static HikariConfig createConfig(Properties properties, String poolName){
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(poolName);
+        config.setJdbcUrl(properties.getProperty("url"));
+        config.setUsername(properties.getProperty("user"));
+        config.setPassword(properties.getProperty("password"));
+
+        int maximumPoolSize = intProperty(properties, "pool.maximumPoolSize", 10);
+        config.setMaximumPoolSize(maximumPoolSize);
+        config.setMinimumIdle(intProperty(properties, "pool.minimumIdle", maximumPoolSize));
+        config.setConnectionTimeout(longProperty(properties, "pool.connectionTimeout", TimeUnit.SECONDS.toMillis(30)));
+        config.setIdleTimeout(longProperty(properties, "pool.idleTimeout", TimeUnit.MINUTES.toMillis(10)));
+        config.setMaxLifetime(longProperty(properties, "pool.maxLifetime", TimeUnit.MINUTES.toMillis(30)));
+        config.setLeakDetectionThreshold(longProperty(properties, "pool.leakDetectionThreshold", 0));
+
+        Properties driverProperties = new Properties();
+        for(String key : properties.stringPropertyNames()){
+            if(key.startsWith(DATA_SOURCE_PREFIX)){
+                driverProperties.setProperty(key.substring(DATA_SOURCE_PREFIX.length()), properties.getProperty(key));
+            }
+        }
+        String url = config.getJdbcUrl();
+        if(driverProperties.isEmpty() && url != null && url.startsWith("jdbc:mysql:")){
+            driverProperties.setProperty("cachePrepStmts", "true");
+            driverProperties.setProperty("prepStmtCacheSize", "250");
+            driverProperties.setProperty("prepStmtCacheSqlLimit", "2048");
+            driverProperties.setProperty("useServerPrepStmts", "true");
+        }
+        if(url != null && url.startsWith("jdbc:mysql:") && !driverProperties.containsKey("useCursorFetch")){
+            driverProperties.setProperty("useCursorFetch", "true");
+        }
+        config.setDataSourceProperties(driverProperties);
+        return config;
+    }
+
+    private static int intProperty(Properties properties, String key, int defaultValue){
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static long longProperty(Properties properties, String key, long defaultValue){
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
     }
 
 }
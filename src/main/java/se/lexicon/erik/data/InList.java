@@ -0,0 +1,40 @@
+package se.lexicon.erik.data;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Binds values to an IN (...) list made with {@link Queries#withInList(int)}
+ * @author Erik Svensson
+ */
+final class InList {
+
+    private InList() {
+    }
+
+    /**
+     * Lookups with varying numbers of ids would each get their own SQL text and prepared statement.
+     * Rounding the list up to a power of two keeps the number of distinct statements to a handful.
+     * @param size number of values, at least 1
+     * @param max largest list size
+     * @return size rounded up to the next power of two, at most max
+     */
+    static int paddedSize(int size, int max){
+        int padded = Integer.highestOneBit(size);
+        if(padded < size){
+            padded <<= 1;
+        }
+        return Math.min(Math.max(padded, size), Math.max(max, size));
+    }
+
+    /**
+     * Sets the values from firstParameter on and repeats the last value up to size parameters
+     * @param size number of placeholders in the list, at least values.size()
+     */
+    static void setInts(PreparedStatement statement, int firstParameter, List<Integer> values, int size) throws SQLException {
+        for(int i = 0; i < size; i++){
+            statement.setInt(firstParameter + i, values.get(Math.min(i, values.size() - 1)));
+        }
+    }
+}
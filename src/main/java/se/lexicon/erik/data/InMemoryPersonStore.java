@@ -0,0 +1,395 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Person;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * PersonStore keeping persons in the heap of this process, for tests and for services that own their data.
+ *
+ * Persons are split over a power of two number of stripes by personId. Each stripe holds its persons in an
+ * {@link IntObjectMap} and a last name index sorted by last name and personId, guarded by its own
+ * ReentrantReadWriteLock, so writers of different stripes never wait for each other. Searches by last
+ * name read every stripe and merge. Stored rows are immutable and every read returns a new Person, so
+ * callers can change what they get without touching the store. Versions are checked like the versioned
+ * UPDATE of {@link PersonDao}.
+ *
+ * Last name searches match the prefix case sensitive like LIKE does, suggestLastNames is answered by a
+ * {@link LastNameIndex}.
+ * @author Erik Svensson
+ */
+public class InMemoryPersonStore implements PersonStore {
+
+    public static final int DEFAULT_STRIPES = 16;
+
+    private static final Comparator<PersonRow> BY_LAST_NAME =
+            Comparator.comparing((PersonRow row) -> row.lastName).thenComparingInt(row -> row.personId);
+
+    private final Stripe[] stripes;
+    private final AtomicInteger lastId = new AtomicInteger();
+    private final LastNameIndex lastNameIndex = new LastNameIndex();
+    private volatile IntPredicate assigned = personId -> false;
+
+    public InMemoryPersonStore() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes number of independently locked stripes, rounded up to a power of two
+     * @throws IllegalArgumentException when stripes is less than 1
+     */
+    public InMemoryPersonStore(int stripes) throws IllegalArgumentException{
+        if(stripes < 1){
+            throw new IllegalArgumentException("Stripes needs to be at least 1");
+        }
+        this.stripes = new Stripe[Integer.highestOneBit(stripes * 2 - 1)];
+        for(int i = 0; i < this.stripes.length; i++){
+            this.stripes[i] = new Stripe();
+        }
+        lastNameIndex.load(new ArrayList<>());
+    }
+
+    /**
+     * @param assigned tells whether tasks are assigned to a personId, such persons are not deleted.
+     *                 Called with the write lock of the person's stripe held.
+     */
+    void setAssigned(IntPredicate assigned){
+        this.assigned = assigned;
+    }
+
+    /**
+     * @return read lock of the stripe of the person, held by InMemoryTaskStore while it assigns tasks to
+     * the person so the person can not be deleted meanwhile
+     */
+    Lock readLock(int personId){
+        return stripe(personId).lock.readLock();
+    }
+
+    /**
+     * @return distinct read locks of the stripes of the persons in stripe order, so they can be taken
+     * together without deadlocking against updateAll
+     */
+    List<Lock> readLocks(Collection<Integer> personIds){
+        boolean[] used = new boolean[stripes.length];
+        for(int personId : personIds){
+            used[personId & (stripes.length - 1)] = true;
+        }
+        List<Lock> locks = new ArrayList<>();
+        for(int i = 0; i < stripes.length; i++){
+            if(used[i]){
+                locks.add(stripes[i].lock.readLock());
+            }
+        }
+        return locks;
+    }
+
+    /**
+     * @return true when the person exists, call with the stripe's lock held
+     */
+    boolean exists(int personId){
+        return stripe(personId).rows.containsKey(personId);
+    }
+
+    @Override
+    public Person create(Person newPerson){
+        if(newPerson.getPersonId() != 0){
+            return newPerson;
+        }
+        PersonRow row = new PersonRow(lastId.incrementAndGet(), 0, newPerson.getFirstName(), newPerson.getLastName(), newPerson.getBirthDate());
+        Stripe stripe = stripe(row.personId);
+        stripe.lock.writeLock().lock();
+        try{
+            stripe.put(row);
+            lastNameIndex.put(row.toPerson());
+        }finally {
+            stripe.lock.writeLock().unlock();
+        }
+        return new Person(row.personId, row.firstName, row.lastName, row.birthDate, row.version);
+    }
+
+    @Override
+    public List<Person> createAll(Collection<Person> newPeople){
+        List<Person> result = new ArrayList<>(newPeople.size());
+        for(Person person : newPeople){
+            result.add(create(person));
+        }
+        return result;
+    }
+
+    @Override
+    public Optional<Person> findById(int personId){
+        PersonRow row = row(personId);
+        return row == null ? Optional.empty() : Optional.of(row.toPerson());
+    }
+
+    @Override
+    public Map<Integer, Person> findByIds(Collection<Integer> personIds){
+        Map<Integer, Person> result = new LinkedHashMap<>();
+        for(Integer personId : new LinkedHashSet<>(personIds)){
+            PersonRow row = row(personId);
+            if(row != null){
+                result.put(personId, row.toPerson());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Person> findByLastName(String lastName, int limit){
+        List<PersonRow> rows = findRows(lastName, null, 0, limit);
+        List<Person> result = new ArrayList<>(rows.size());
+        for(PersonRow row : rows){
+            result.add(row.toPerson());
+        }
+        return result;
+    }
+
+    @Override
+    public Page<Person> findByLastName(String lastNamePrefix, int pageSize, String pageToken) throws IllegalArgumentException{
+        if(pageSize < 1){
+            throw new IllegalArgumentException("Page size needs to be at least 1");
+        }
+        PageToken position = pageToken == null ? null : PageToken.decode(pageToken);
+        List<PersonRow> rows = position == null
+                ? findRows(lastNamePrefix, null, 0, pageSize + 1)
+                : findRows(lastNamePrefix, position.getKey(), position.getId(), pageSize + 1);
+        List<Person> items = new ArrayList<>(rows.size());
+        for(PersonRow row : rows){
+            items.add(row.toPerson());
+        }
+
+        String nextPageToken = null;
+        if(items.size() > pageSize){
+            items.remove(pageSize);
+            Person last = items.get(pageSize - 1);
+            nextPageToken = PageToken.encode(last.getPersonId(), last.getLastName());
+        }
+        return new Page<>(items, nextPageToken);
+    }
+
+    @Override
+    public List<String> suggestLastNames(String prefix, int limit){
+        return lastNameIndex.suggest(prefix, limit);
+    }
+
+    @Override
+    public Person update(Person person) throws IllegalArgumentException, OptimisticLockException{
+        if(person.getPersonId() == 0){
+            throw new IllegalArgumentException("Can not update object, person is not yet persisted");
+        }
+        if(!person.isDirty()){
+            return person;
+        }
+        Stripe stripe = stripe(person.getPersonId());
+        stripe.lock.writeLock().lock();
+        try{
+            write(stripe, person);
+        }finally {
+            stripe.lock.writeLock().unlock();
+        }
+        return person;
+    }
+
+    /**
+     * Locks the stripes of all changed persons in stripe order and checks every version before writing any
+     */
+    @Override
+    public List<Person> updateAll(Collection<Person> people) throws IllegalArgumentException, OptimisticLockException{
+        List<Person> dirty = new ArrayList<>();
+        for(Person person : people){
+            if(person.getPersonId() == 0){
+                throw new IllegalArgumentException("Can not update object, person is not yet persisted");
+            }
+            if(person.isDirty()){
+                dirty.add(person);
+            }
+        }
+        boolean[] locked = new boolean[stripes.length];
+        for(Person person : dirty){
+            locked[person.getPersonId() & (stripes.length - 1)] = true;
+        }
+        for(int i = 0; i < stripes.length; i++){
+            if(locked[i]){
+                stripes[i].lock.writeLock().lock();
+            }
+        }
+        try{
+            for(Person person : dirty){
+                PersonRow row = stripe(person.getPersonId()).rows.get(person.getPersonId());
+                if(row == null || isStale(row, person)){
+                    throw new OptimisticLockException("persons", person.getPersonId(), person.getVersion());
+                }
+            }
+            for(Person person : dirty){
+                write(stripe(person.getPersonId()), person);
+            }
+        }finally {
+            for(int i = stripes.length - 1; i >= 0; i--){
+                if(locked[i]){
+                    stripes[i].lock.writeLock().unlock();
+                }
+            }
+        }
+        return new ArrayList<>(people);
+    }
+
+    @Override
+    public boolean delete(int id){
+        Stripe stripe = stripe(id);
+        stripe.lock.writeLock().lock();
+        try{
+            PersonRow row = stripe.rows.get(id);
+            if(row == null || assigned.test(id)){
+                return false;
+            }
+            stripe.remove(row);
+            lastNameIndex.removePerson(id);
+        }finally {
+            stripe.lock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * @return number of stored persons
+     */
+    public int size(){
+        int size = 0;
+        for(Stripe stripe : stripes){
+            stripe.lock.readLock().lock();
+            try{
+                size += stripe.rows.size();
+            }finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the stored row or null
+     */
+    PersonRow row(int personId){
+        Stripe stripe = stripe(personId);
+        stripe.lock.readLock().lock();
+        try{
+            return stripe.rows.get(personId);
+        }finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true when the person was loaded at another version than the row's, never for a detached person
+     */
+    private static boolean isStale(PersonRow row, Person person){
+        return person.getVersion() != Person.UNKNOWN_VERSION && row.version != person.getVersion();
+    }
+
+    /**
+     * Checks the version and replaces the row of the person and its last name index entry, call with the
+     * stripe's write lock held
+     */
+    private void write(Stripe stripe, Person person) throws OptimisticLockException{
+        PersonRow row = stripe.rows.get(person.getPersonId());
+        if(row == null || isStale(row, person)){
+            throw new OptimisticLockException("persons", person.getPersonId(), person.getVersion());
+        }
+        stripe.remove(row);
+        PersonRow written = new PersonRow(row.personId, row.version + 1, person.getFirstName(), person.getLastName(), person.getBirthDate());
+        stripe.put(written);
+        lastNameIndex.put(written.toPerson());
+        person.markClean(written.version);
+    }
+
+    /**
+     * Takes up to limit matching rows from every stripe and merges them
+     * @param afterLastName last name of the last row of the previous page, null for the first page
+     * @param afterId personId of the last row of the previous page
+     */
+    private List<PersonRow> findRows(String prefix, String afterLastName, int afterId, int limit){
+        PersonRow from = afterLastName == null
+                ? new PersonRow(Integer.MIN_VALUE, 0, null, prefix, null)
+                : new PersonRow(afterId, 0, null, afterLastName, null);
+        List<PersonRow> result = new ArrayList<>();
+        for(Stripe stripe : stripes){
+            stripe.lock.readLock().lock();
+            try{
+                int taken = 0;
+                for(PersonRow row : stripe.byLastName.tailSet(from, afterLastName == null)){
+                    if(taken++ == limit || !row.lastName.startsWith(prefix)){
+                        break;
+                    }
+                    result.add(row);
+                }
+            }finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        result.sort(BY_LAST_NAME);
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    private Stripe stripe(int personId){
+        return stripes[personId & (stripes.length - 1)];
+    }
+
+    /**
+     * Persons of one stripe and their last name index
+     */
+    private static final class Stripe {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final IntObjectMap<PersonRow> rows = new IntObjectMap<>();
+        private final TreeSet<PersonRow> byLastName = new TreeSet<>(BY_LAST_NAME);
+
+        private void put(PersonRow row){
+            rows.put(row.personId, row);
+            if(row.lastName != null){
+                byLastName.add(row);
+            }
+        }
+
+        private void remove(PersonRow row){
+            rows.remove(row.personId);
+            if(row.lastName != null){
+                byLastName.remove(row);
+            }
+        }
+    }
+
+    /**
+     * Immutable stored state of one person
+     */
+    static final class PersonRow {
+        final int personId;
+        final int version;
+        final String firstName;
+        final String lastName;
+        final LocalDate birthDate;
+
+        PersonRow(int personId, int version, String firstName, String lastName, LocalDate birthDate) {
+            this.personId = personId;
+            this.version = version;
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.birthDate = birthDate;
+        }
+
+        Person toPerson(){
+            return new Person(personId, firstName, lastName, birthDate, version);
+        }
+    }
+}
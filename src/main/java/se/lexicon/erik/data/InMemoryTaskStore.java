@@ -0,0 +1,724 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.PersonView;
+import se.lexicon.erik.model.Task;
+import se.lexicon.erik.model.TaskView;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * TaskStore keeping tasks in the heap of this process, assignees are kept by an {@link InMemoryPersonStore}.
+ *
+ * Tasks are split over a power of two number of stripes by taskId, each guarded by its own
+ * ReentrantReadWriteLock. A stripe holds its tasks in an {@link IntObjectMap} and three secondary indexes
+ * sorted by deadline and taskId: tasks by done status, tasks by person and undone tasks by person. The sort
+ * key packs the deadline epoch day and the taskId into one long, tasks without deadline sort first.
+ * Queries read every stripe under its read lock and merge, writers of different stripes never wait
+ * for each other. Writes that span stripes lock them in stripe order.
+ *
+ * A task can only be assigned to an existing person and a person with tasks can not be deleted, like the
+ * foreign key of the tasks table. Person stripes are always locked before task stripes.
+ * Unlike TaskDao, assignees written by update and updateAll stay written when a task version check fails.
+ * @author Erik Svensson
+ */
+public class InMemoryTaskStore implements TaskStore {
+
+    private static final long FIRST_DEADLINE = key(Integer.MIN_VALUE + 1, 0);
+    private static final Comparator<TaskRow> BY_DEADLINE = Comparator.comparingLong(row -> row.key);
+
+    private final InMemoryPersonStore persons;
+    private final Stripe[] stripes;
+    private final AtomicInteger lastId = new AtomicInteger();
+
+    /**
+     * @param persons store of the assignees, can back only one InMemoryTaskStore
+     */
+    public InMemoryTaskStore(InMemoryPersonStore persons) {
+        this(persons, InMemoryPersonStore.DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param persons store of the assignees, can back only one InMemoryTaskStore
+     * @param stripes number of independently locked stripes, rounded up to a power of two
+     * @throws IllegalArgumentException when stripes is less than 1
+     */
+    public InMemoryTaskStore(InMemoryPersonStore persons, int stripes) throws IllegalArgumentException{
+        if(stripes < 1){
+            throw new IllegalArgumentException("Stripes needs to be at least 1");
+        }
+        this.persons = persons;
+        this.stripes = new Stripe[Integer.highestOneBit(stripes * 2 - 1)];
+        for(int i = 0; i < this.stripes.length; i++){
+            this.stripes[i] = new Stripe();
+        }
+        persons.setAssigned(this::isAssigned);
+    }
+
+    @Override
+    public Task create(Task newTask) throws IllegalArgumentException{
+        if(newTask.getAssignee() == null){
+            throw new IllegalArgumentException("Task had no assignee.");
+        }
+        if(newTask.getTaskId() > 0){
+            throw new IllegalArgumentException("Task with id "+ newTask.getTaskId() +" is already created in the database");
+        }
+        newTask.setAssignee(persons.create(newTask.getAssignee()));
+        TaskRow row = insert(newTask, newTask.getAssignee().getPersonId());
+        return row == null ? newTask : new Task(row.taskId, row.description, row.deadLine, row.done, newTask.getAssignee(), row.version);
+    }
+
+    /**
+     * Persists each distinct non persisted assignee once, then the tasks
+     */
+    @Override
+    public List<Task> createAll(Collection<Task> newTasks) throws IllegalArgumentException{
+        for(Task newTask : newTasks){
+            if(newTask.getAssignee() == null){
+                throw new IllegalArgumentException("Task had no assignee.");
+            }
+            if(newTask.getTaskId() > 0){
+                throw new IllegalArgumentException("Task with id "+ newTask.getTaskId() +" is already created in the database");
+            }
+        }
+        Map<Person, Person> assignees = new IdentityHashMap<>();
+        List<Task> result = new ArrayList<>(newTasks.size());
+        for(Task newTask : newTasks){
+            Person assignee = assignees.computeIfAbsent(newTask.getAssignee(), persons::create);
+            TaskRow row = insert(newTask, assignee.getPersonId());
+            result.add(row == null ? newTask : new Task(row.taskId, row.description, row.deadLine, row.done, assignee, row.version));
+        }
+        return result;
+    }
+
+    @Override
+    public Optional<Task> findByTaskId(int taskId){
+        TaskRow row = row(taskId);
+        return row == null ? Optional.empty() : Optional.of(toTask(row, null));
+    }
+
+    @Override
+    public Map<Integer, Task> findByTaskIds(Collection<Integer> taskIds){
+        Map<Integer, Task> result = new LinkedHashMap<>();
+        IntObjectMap<Person> assignees = new IntObjectMap<>();
+        for(Integer taskId : new LinkedHashSet<>(taskIds)){
+            TaskRow row = row(taskId);
+            if(row != null){
+                result.put(taskId, toTask(row, assignees));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return matching tasks in no particular order, tasks of the same person share one assignee
+     */
+    @Override
+    public List<Task> findByDoneStatus(boolean isDone){
+        return toTasks(collect(stripe -> stripe.byDone(isDone)));
+    }
+
+    @Override
+    public List<Task> findByPersonId(int personId){
+        List<TaskRow> rows = collect(stripe -> stripe.byPerson.get(personId));
+        rows.sort(BY_DEADLINE);
+        return toTasks(rows);
+    }
+
+    @Override
+    public List<TaskView> findViewsByDoneStatus(boolean isDone){
+        return toViews(collect(stripe -> stripe.byDone(isDone)));
+    }
+
+    @Override
+    public List<TaskView> findViewsByPersonId(int personId){
+        List<TaskRow> rows = collect(stripe -> stripe.byPerson.get(personId));
+        rows.sort(BY_DEADLINE);
+        return toViews(rows);
+    }
+
+    @Override
+    public Page<Task> findByDoneStatus(boolean isDone, int pageSize, String pageToken) throws IllegalArgumentException{
+        return findPage(stripe -> stripe.byDone(isDone), pageSize, pageToken);
+    }
+
+    @Override
+    public Page<Task> findByPersonId(int personId, int pageSize, String pageToken) throws IllegalArgumentException{
+        return findPage(stripe -> stripe.byPerson.get(personId), pageSize, pageToken);
+    }
+
+    /**
+     * Takes up to pageSize + 1 rows after the position from the index of every stripe and merges them
+     */
+    private Page<Task> findPage(Function<Stripe, NavigableMap<Long, TaskRow>> index, int pageSize, String pageToken) throws IllegalArgumentException{
+        if(pageSize < 1){
+            throw new IllegalArgumentException("Page size needs to be at least 1");
+        }
+        PageToken position = pageToken == null ? null : PageToken.decode(pageToken);
+        long from = position == null ? FIRST_DEADLINE : key(position.getDateKey(), position.getId());
+
+        List<TaskRow> rows = new ArrayList<>();
+        for(Stripe stripe : stripes){
+            stripe.lock.readLock().lock();
+            try{
+                NavigableMap<Long, TaskRow> tasks = index.apply(stripe);
+                if(tasks != null){
+                    int taken = 0;
+                    for(TaskRow row : tasks.tailMap(from, position == null).values()){
+                        if(taken++ == pageSize + 1){
+                            break;
+                        }
+                        rows.add(row);
+                    }
+                }
+            }finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        rows.sort(BY_DEADLINE);
+        List<Task> items = toTasks(rows.size() > pageSize + 1 ? rows.subList(0, pageSize + 1) : rows);
+
+        String nextPageToken = null;
+        if(items.size() > pageSize){
+            items.remove(pageSize);
+            Task last = items.get(pageSize - 1);
+            nextPageToken = PageToken.encode(last.getTaskId(), last.getDeadLine());
+        }
+        return new Page<>(items, nextPageToken);
+    }
+
+    /**
+     * @return Stream over a copy of the matching tasks, closing it is not required
+     */
+    @Override
+    public Stream<Task> streamByDoneStatus(boolean isDone){
+        return findByDoneStatus(isDone).stream();
+    }
+
+    /**
+     * @return Stream over a copy of the matching tasks, closing it is not required
+     */
+    @Override
+    public Stream<Task> streamByPersonId(int personId){
+        return findByPersonId(personId).stream();
+    }
+
+    /**
+     * Looks up the undone tasks on both sides of today with floor and ceiling lookups in the undone by person
+     * index of every stripe. Earliest deadline and then lowest taskId wins a tie, like {@link UndoneTaskIndex}.
+     * Tasks without deadline are never the closest.
+     */
+    @Override
+    public Optional<Task> findClosestUndoneTaskByPersonId(int personId){
+        LocalDate today = LocalDate.now();
+        TaskRow closest = null;
+        for(Stripe stripe : stripes){
+            stripe.lock.readLock().lock();
+            try{
+                NavigableMap<Long, TaskRow> undone = stripe.undoneByPerson.get(personId);
+                if(undone == null){
+                    continue;
+                }
+                Map.Entry<Long, TaskRow> before = undone.floorEntry(key(today, Integer.MAX_VALUE));
+                if(before != null && before.getKey() >= FIRST_DEADLINE){
+                    closest = closer(closest, undone.ceilingEntry(key(before.getValue().deadLine, 0)).getValue(), today);
+                }
+                Map.Entry<Long, TaskRow> after = undone.ceilingEntry(key(today, 0));
+                if(after != null){
+                    closest = closer(closest, after.getValue(), today);
+                }
+            }finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return closest == null ? Optional.empty() : Optional.of(toTask(closest, null));
+    }
+
+    private static TaskRow closer(TaskRow closest, TaskRow candidate, LocalDate today){
+        if(closest == null){
+            return candidate;
+        }
+        long distance = Math.abs(ChronoUnit.DAYS.between(today, candidate.deadLine));
+        long closestDistance = Math.abs(ChronoUnit.DAYS.between(today, closest.deadLine));
+        if(distance != closestDistance){
+            return distance < closestDistance ? candidate : closest;
+        }
+        return candidate.key < closest.key ? candidate : closest;
+    }
+
+    @Override
+    public IntIntMap countByPersonId(boolean isDone){
+        IntIntMap result = new IntIntMap();
+        for(Stripe stripe : stripes){
+            stripe.lock.readLock().lock();
+            try{
+                for(TaskRow row : stripe.byDone(isDone).values()){
+                    result.put(row.personId, result.get(row.personId) + 1);
+                }
+            }finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the range of the undone index before today
+     */
+    @Override
+    public IntIntMap countOverdueByPersonId(LocalDate today){
+        IntIntMap result = new IntIntMap();
+        for(Stripe stripe : stripes){
+            stripe.lock.readLock().lock();
+            try{
+                for(TaskRow row : stripe.undone.subMap(FIRST_DEADLINE, true, key(today, 0), false).values()){
+                    result.put(row.personId, result.get(row.personId) + 1);
+                }
+            }finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Makes one ceiling lookup per person in the undone by person index of every stripe
+     */
+    @Override
+    public IntObjectMap<LocalDate> findNextDeadlineByPersonId(LocalDate today){
+        IntObjectMap<LocalDate> result = new IntObjectMap<>();
+        long from = key(today, 0);
+        for(Stripe stripe : stripes){
+            stripe.lock.readLock().lock();
+            try{
+                stripe.undoneByPerson.forEach((personId, undone) -> {
+                    Map.Entry<Long, TaskRow> next = undone.ceilingEntry(from);
+                    if(next != null){
+                        LocalDate found = result.get(personId);
+                        if(found == null || next.getValue().deadLine.isBefore(found)){
+                            result.put(personId, next.getValue().deadLine);
+                        }
+                    }
+                });
+            }finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public IntObjectMap<TaskStats> findStatsByPersonId(LocalDate today){
+        IntObjectMap<int[]> counts = new IntObjectMap<>();
+        IntObjectMap<LocalDate> nextDeadlines = findNextDeadlineByPersonId(today);
+        for(Stripe stripe : stripes){
+            stripe.lock.readLock().lock();
+            try{
+                stripe.byPerson.forEach((personId, tasks) -> {
+                    int[] count = counts.get(personId);
+                    if(count == null){
+                        count = new int[3];
+                        counts.put(personId, count);
+                    }
+                    for(TaskRow row : tasks.values()){
+                        if(row.done){
+                            count[0]++;
+                        }else{
+                            count[1]++;
+                            if(row.deadLine != null && row.deadLine.isBefore(today)){
+                                count[2]++;
+                            }
+                        }
+                    }
+                });
+            }finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        IntObjectMap<TaskStats> result = new IntObjectMap<>(counts.size());
+        counts.forEach((personId, count) ->
+                result.put(personId, new TaskStats(personId, count[0], count[1], count[2], nextDeadlines.get(personId))));
+        return result;
+    }
+
+    @Override
+    public Task update(Task task) throws IllegalArgumentException, OptimisticLockException{
+        if(task.getAssigneeId() == 0 && task.getAssignee() == null){
+            throw new IllegalArgumentException("Task has no assignee.");
+        }
+        if(task.getTaskId() == 0){
+            throw new IllegalArgumentException("Task with id "+ task.getTaskId() +" need to be stored in the database before updating");
+        }
+        if(task.isAssigneeLoaded()){
+            task.setAssignee(task.getAssigneeId() == 0 ? persons.create(task.getAssignee()) : persons.update(task.getAssignee()));
+        }
+        if(task.isDirty()){
+            write(Collections.singletonList(task));
+        }
+        return task;
+    }
+
+    /**
+     * Persists the distinct non persisted assignees, updates the changed persisted ones with one
+     * updateAll and writes the changed tasks after checking all their versions
+     */
+    @Override
+    public List<Task> updateAll(Collection<Task> tasks) throws IllegalArgumentException, OptimisticLockException{
+        for(Task task : tasks){
+            if(task.getAssigneeId() == 0 && task.getAssignee() == null){
+                throw new IllegalArgumentException("Task has no assignee.");
+            }
+            if(task.getTaskId() == 0){
+                throw new IllegalArgumentException("Task with id "+ task.getTaskId() +" need to be stored in the database before updating");
+            }
+        }
+        Map<Person, Person> persisted = new IdentityHashMap<>();
+        Map<Person, Person> existing = new IdentityHashMap<>();
+        for(Task task : tasks){
+            if(!task.isAssigneeLoaded()){
+                continue;
+            }
+            if(task.getAssigneeId() == 0){
+                task.setAssignee(persisted.computeIfAbsent(task.getAssignee(), persons::create));
+            }else{
+                existing.put(task.getAssignee(), task.getAssignee());
+            }
+        }
+        persons.updateAll(existing.keySet());
+        List<Task> dirty = new ArrayList<>();
+        for(Task task : tasks){
+            if(task.isDirty()){
+                dirty.add(task);
+            }
+        }
+        write(dirty);
+        return new ArrayList<>(tasks);
+    }
+
+    /**
+     * Visits the stripes in order and updates the ids of each under its write lock, without allocating per stripe
+     */
+    @Override
+    public int setDone(Collection<Integer> taskIds, boolean done){
+        int[] ids = new int[taskIds.size()];
+        int count = 0;
+        for(Integer taskId : taskIds){
+            ids[count++] = taskId;
+        }
+        Arrays.sort(ids);
+        int mask = stripes.length - 1;
+        int updated = 0;
+        for(int i = 0; i < stripes.length; i++){
+            int first = 0;
+            while(first < count && (ids[first] & mask) != i){
+                first++;
+            }
+            if(first == count){
+                continue;
+            }
+            Stripe stripe = stripes[i];
+            stripe.lock.writeLock().lock();
+            try{
+                for(int j = first; j < count; j++){
+                    int taskId = ids[j];
+                    if((taskId & mask) != i || j > first && ids[j - 1] == taskId){
+                        continue;
+                    }
+                    TaskRow row = stripe.rows.get(taskId);
+                    if(row != null){
+                        stripe.remove(row);
+                        stripe.put(new TaskRow(taskId, row.version + 1, row.personId, row.deadLine, done, row.description));
+                        updated++;
+                    }
+                }
+            }finally {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * @return number of stored tasks
+     */
+    public int size(){
+        int size = 0;
+        for(Stripe stripe : stripes){
+            stripe.lock.readLock().lock();
+            try{
+                size += stripe.rows.size();
+            }finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Called by the InMemoryPersonStore with the write lock of the person's stripe held
+     * @return true when any task is assigned to the person
+     */
+    private boolean isAssigned(int personId){
+        for(Stripe stripe : stripes){
+            stripe.lock.readLock().lock();
+            try{
+                if(stripe.byPerson.containsKey(personId)){
+                    return true;
+                }
+            }finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores a new task unless its assignee does not exist
+     * @return the stored row or null
+     */
+    private TaskRow insert(Task newTask, int personId){
+        Lock personLock = persons.readLock(personId);
+        personLock.lock();
+        try{
+            if(!persons.exists(personId)){
+                return null;
+            }
+            TaskRow row = new TaskRow(lastId.incrementAndGet(), 0, personId, newTask.getDeadLine(), newTask.isDone(), newTask.getDescription());
+            Stripe stripe = stripe(row.taskId);
+            stripe.lock.writeLock().lock();
+            try{
+                stripe.put(row);
+            }finally {
+                stripe.lock.writeLock().unlock();
+            }
+            return row;
+        }finally {
+            personLock.unlock();
+        }
+    }
+
+    /**
+     * Locks the stripes of the assignees and then of the tasks in stripe order, checks that every task is at
+     * its version and every assignee exists, then writes all tasks and marks them clean
+     * @throws OptimisticLockException when a task was changed since it was loaded or its assignee is gone
+     */
+    private void write(Collection<Task> tasks) throws OptimisticLockException{
+        List<Integer> personIds = new ArrayList<>(tasks.size());
+        boolean[] locked = new boolean[stripes.length];
+        for(Task task : tasks){
+            personIds.add(task.getAssigneeId());
+            locked[task.getTaskId() & (stripes.length - 1)] = true;
+        }
+        List<Lock> personLocks = persons.readLocks(personIds);
+        personLocks.forEach(Lock::lock);
+        try{
+            for(int i = 0; i < stripes.length; i++){
+                if(locked[i]){
+                    stripes[i].lock.writeLock().lock();
+                }
+            }
+            try{
+                for(Task task : tasks){
+                    TaskRow row = stripe(task.getTaskId()).rows.get(task.getTaskId());
+                    boolean stale = task.getVersion() != Task.UNKNOWN_VERSION && row != null && row.version != task.getVersion();
+                    if(row == null || stale || !persons.exists(task.getAssigneeId())){
+                        throw new OptimisticLockException("tasks", task.getTaskId(), task.getVersion());
+                    }
+                }
+                for(Task task : tasks){
+                    Stripe stripe = stripe(task.getTaskId());
+                    TaskRow row = stripe.rows.get(task.getTaskId());
+                    stripe.remove(row);
+                    stripe.put(new TaskRow(task.getTaskId(), row.version + 1, task.getAssigneeId(), task.getDeadLine(), task.isDone(), task.getDescription()));
+                    task.markClean(row.version + 1);
+                }
+            }finally {
+                for(int i = stripes.length - 1; i >= 0; i--){
+                    if(locked[i]){
+                        stripes[i].lock.writeLock().unlock();
+                    }
+                }
+            }
+        }finally {
+            personLocks.forEach(Lock::unlock);
+        }
+    }
+
+    private TaskRow row(int taskId){
+        Stripe stripe = stripe(taskId);
+        stripe.lock.readLock().lock();
+        try{
+            return stripe.rows.get(taskId);
+        }finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param index picks the index to read from a stripe, null when the stripe has no matching rows
+     * @return the rows of the index of every stripe
+     */
+    private List<TaskRow> collect(Function<Stripe, NavigableMap<Long, TaskRow>> index){
+        List<TaskRow> rows = new ArrayList<>();
+        for(Stripe stripe : stripes){
+            stripe.lock.readLock().lock();
+            try{
+                NavigableMap<Long, TaskRow> tasks = index.apply(stripe);
+                if(tasks != null){
+                    rows.addAll(tasks.values());
+                }
+            }finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return rows;
+    }
+
+    private List<Task> toTasks(List<TaskRow> rows){
+        List<Task> result = new ArrayList<>(rows.size());
+        IntObjectMap<Person> assignees = new IntObjectMap<>();
+        for(TaskRow row : rows){
+            result.add(toTask(row, assignees));
+        }
+        return result;
+    }
+
+    /**
+     * @param assignees Person objects already handed out with this result, keyed by personId, null for a single task
+     */
+    private Task toTask(TaskRow row, IntObjectMap<Person> assignees){
+        Person assignee = assignees == null ? null : assignees.get(row.personId);
+        if(assignee == null){
+            assignee = persons.findById(row.personId).orElse(null);
+            if(assignee != null && assignees != null){
+                assignees.put(row.personId, assignee);
+            }
+        }
+        return new Task(row.taskId, row.description, row.deadLine, row.done, assignee, row.version);
+    }
+
+    private List<TaskView> toViews(List<TaskRow> rows){
+        List<TaskView> result = new ArrayList<>(rows.size());
+        IntObjectMap<PersonView> assignees = new IntObjectMap<>();
+        for(TaskRow row : rows){
+            PersonView assignee = assignees.get(row.personId);
+            if(assignee == null){
+                InMemoryPersonStore.PersonRow person = persons.row(row.personId);
+                if(person != null){
+                    assignee = new PersonView(person.personId, person.firstName, person.lastName, person.birthDate);
+                    assignees.put(row.personId, assignee);
+                }
+            }
+            result.add(new TaskView(row.taskId, row.description, row.deadLine, row.done, assignee));
+        }
+        return result;
+    }
+
+    private Stripe stripe(int taskId){
+        return stripes[taskId & (stripes.length - 1)];
+    }
+
+    /**
+     * @return sort key of deadline and taskId, tasks without deadline first
+     */
+    private static long key(LocalDate deadLine, int taskId){
+        return key(deadLine == null ? Integer.MIN_VALUE : (int) deadLine.toEpochDay(), taskId);
+    }
+
+    private static long key(int epochDay, int taskId){
+        return (long) epochDay << 32 | (taskId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Tasks of one stripe and their secondary indexes
+     */
+    private static final class Stripe {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final IntObjectMap<TaskRow> rows = new IntObjectMap<>();
+        private final TreeMap<Long, TaskRow> done = new TreeMap<>();
+        private final TreeMap<Long, TaskRow> undone = new TreeMap<>();
+        private final IntObjectMap<TreeMap<Long, TaskRow>> byPerson = new IntObjectMap<>();
+        private final IntObjectMap<TreeMap<Long, TaskRow>> undoneByPerson = new IntObjectMap<>();
+
+        private TreeMap<Long, TaskRow> byDone(boolean isDone){
+            return isDone ? done : undone;
+        }
+
+        private void put(TaskRow row){
+            rows.put(row.taskId, row);
+            byDone(row.done).put(row.key, row);
+            add(byPerson, row);
+            if(!row.done){
+                add(undoneByPerson, row);
+            }
+        }
+
+        private void remove(TaskRow row){
+            rows.remove(row.taskId);
+            byDone(row.done).remove(row.key);
+            remove(byPerson, row);
+            if(!row.done){
+                remove(undoneByPerson, row);
+            }
+        }
+
+        private static void add(IntObjectMap<TreeMap<Long, TaskRow>> index, TaskRow row){
+            TreeMap<Long, TaskRow> tasks = index.get(row.personId);
+            if(tasks == null){
+                tasks = new TreeMap<>();
+                index.put(row.personId, tasks);
+            }
+            tasks.put(row.key, row);
+        }
+
+        private static void remove(IntObjectMap<TreeMap<Long, TaskRow>> index, TaskRow row){
+            TreeMap<Long, TaskRow> tasks = index.get(row.personId);
+            tasks.remove(row.key);
+            if(tasks.isEmpty()){
+                index.remove(row.personId);
+            }
+        }
+    }
+
+    /**
+     * Immutable stored state of one task
+     */
+    private static final class TaskRow {
+        private final int taskId;
+        private final int version;
+        private final int personId;
+        private final LocalDate deadLine;
+        private final boolean done;
+        private final String description;
+        private final long key;
+
+        private TaskRow(int taskId, int version, int personId, LocalDate deadLine, boolean done, String description) {
+            this.taskId = taskId;
+            this.version = version;
+            this.personId = personId;
+            this.deadLine = deadLine;
+            this.done = done;
+            this.description = description;
+            this.key = key(deadLine, taskId);
+        }
+    }
+}
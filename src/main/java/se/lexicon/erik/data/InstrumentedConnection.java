@@ -0,0 +1,144 @@
+package se.lexicon.erik.data;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Wraps a connection so every statement created from it reports to a {@link QueryListener}.
+ * A query is reported once its ResultSet is read to the end or closed, so the timing includes fetching rows.
+ * Updates and batches are reported when execute returns.
+ * @author Erik Svensson
+ */
+final class InstrumentedConnection {
+
+    private InstrumentedConnection() {
+    }
+
+    static Connection wrap(Connection connection, QueryListener listener){
+        return (Connection) Proxy.newProxyInstance(
+                InstrumentedConnection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    if(result instanceof Statement){
+                        String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                        return wrapStatement((Statement) result, method.getReturnType(), sql, listener);
+                    }
+                    return result;
+                }
+        );
+    }
+
+    private static Object wrapStatement(Statement statement, Class<?> type, String preparedSql, QueryListener listener){
+        Class<?> statementType = CallableStatement.class.isAssignableFrom(type) ? CallableStatement.class
+                : PreparedStatement.class.isAssignableFrom(type) ? PreparedStatement.class
+                : Statement.class;
+        return Proxy.newProxyInstance(
+                InstrumentedConnection.class.getClassLoader(),
+                new Class<?>[]{statementType},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if(!name.startsWith("execute")){
+                        return invoke(statement, method, args);
+                    }
+                    String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+                    long start = System.nanoTime();
+                    Object result;
+                    try{
+                        result = invoke(statement, method, args);
+                    }catch (SQLException ex){
+                        failed(listener, sql, start, ex);
+                        throw ex;
+                    }
+                    if(result instanceof ResultSet){
+                        return wrapResultSet((ResultSet) result, sql, start, listener);
+                    }
+                    completed(listener, sql, start, rows(statement, result));
+                    return result;
+                }
+        );
+    }
+
+    private static ResultSet wrapResultSet(ResultSet resultSet, String sql, long start, QueryListener listener){
+        long[] rows = new long[1];
+        boolean[] reported = new boolean[1];
+        return (ResultSet) Proxy.newProxyInstance(
+                InstrumentedConnection.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    Object result;
+                    try{
+                        result = invoke(resultSet, method, args);
+                    }catch (SQLException ex){
+                        if(!reported[0]){
+                            reported[0] = true;
+                            failed(listener, sql, start, ex);
+                        }
+                        throw ex;
+                    }
+                    if(name.equals("next")){
+                        if((Boolean) result){
+                            rows[0]++;
+                        }else if(!reported[0]){
+                            reported[0] = true;
+                            completed(listener, sql, start, rows[0]);
+                        }
+                    }else if(name.equals("close") && !reported[0]){
+                        reported[0] = true;
+                        completed(listener, sql, start, rows[0]);
+                    }
+                    return result;
+                }
+        );
+    }
+
+    private static long rows(Statement statement, Object result) throws SQLException {
+        if(result instanceof Integer || result instanceof Long){
+            return ((Number) result).longValue();
+        }
+        if(result instanceof Boolean){
+            return (Boolean) result ? 0 : Math.max(0, statement.getUpdateCount());
+        }
+        long rows = 0;
+        if(result instanceof int[]){
+            for(int count : (int[]) result){
+                rows += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, count);
+            }
+        }else if(result instanceof long[]){
+            for(long count : (long[]) result){
+                rows += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, count);
+            }
+        }
+        return rows;
+    }
+
+    private static void completed(QueryListener listener, String sql, long start, long rows){
+        try{
+            listener.queryCompleted(Queries.forQuery(sql), sql, System.nanoTime() - start, rows);
+        }catch (RuntimeException ignored){
+        }
+    }
+
+    private static void failed(QueryListener listener, String sql, long start, SQLException ex){
+        try{
+            listener.queryFailed(Queries.forQuery(sql), sql, System.nanoTime() - start, ex);
+        }catch (RuntimeException ignored){
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try{
+            return method.invoke(target, args);
+        }catch (InvocationTargetException ex){
+            throw ex.getCause();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package se.lexicon.erik.data;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from int to int with keys and values stored unboxed, for counts keyed by id.
+ * A missing key reads as 0. Not thread safe.
+ * @author Erik Svensson
+ */
+public final class IntIntMap {
+
+    /**
+     * Receives the entries of the map
+     */
+    public interface EntryConsumer {
+        void accept(int key, int value);
+    }
+
+    private static final int FREE = 0;
+
+    private int[] keys;
+    private int[] values;
+    private boolean hasZeroKey;
+    private int zeroValue;
+    private int size;
+    private int mask;
+
+    public IntIntMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize number of entries that fit without resizing
+     */
+    public IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return the value, 0 when the key is missing
+     */
+    public int get(int key){
+        if(key == FREE){
+            return zeroValue;
+        }
+        for(int i = slot(key); ; i = (i + 1) & mask){
+            int k = keys[i];
+            if(k == key){
+                return values[i];
+            }
+            if(k == FREE){
+                return 0;
+            }
+        }
+    }
+
+    public boolean containsKey(int key){
+        if(key == FREE){
+            return hasZeroKey;
+        }
+        for(int i = slot(key); ; i = (i + 1) & mask){
+            int k = keys[i];
+            if(k == key){
+                return true;
+            }
+            if(k == FREE){
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return the previous value, 0 when the key was missing
+     */
+    public int put(int key, int value){
+        if(key == FREE){
+            int previous = zeroValue;
+            zeroValue = value;
+            if(!hasZeroKey){
+                hasZeroKey = true;
+                size++;
+            }
+            return previous;
+        }
+        for(int i = slot(key); ; i = (i + 1) & mask){
+            int k = keys[i];
+            if(k == key){
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+            if(k == FREE){
+                keys[i] = key;
+                values[i] = value;
+                if(++size * 2 > keys.length){
+                    resize();
+                }
+                return 0;
+            }
+        }
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Calls the consumer for every entry in no particular order
+     * @param consumer EntryConsumer
+     */
+    public void forEach(EntryConsumer consumer){
+        if(hasZeroKey){
+            consumer.accept(FREE, zeroValue);
+        }
+        for(int i = 0; i < keys.length; i++){
+            if(keys[i] != FREE){
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    public void clear(){
+        Arrays.fill(keys, FREE);
+        Arrays.fill(values, 0);
+        hasZeroKey = false;
+        zeroValue = 0;
+        size = 0;
+    }
+
+    private int slot(int key){
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void resize(){
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        mask = keys.length - 1;
+        for(int j = 0; j < oldKeys.length; j++){
+            int key = oldKeys[j];
+            if(key != FREE){
+                int i = slot(key);
+                while(keys[i] != FREE){
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package se.lexicon.erik.data;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from int to object that stores keys unboxed, so lookups by id do not
+ * allocate an Integer per call. Not thread safe. Null values are not supported.
+ * Removal shifts the following entries of the probe sequence back, so no tombstones are left behind.
+ * @param <V> value type
+ * @author Erik Svensson
+ */
+public final class IntObjectMap<V> {
+
+    /**
+     * Receives the entries of the map
+     * @param <V> value type
+     */
+    public interface EntryConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    private static final int FREE = 0;
+
+    private int[] keys;
+    private Object[] values;
+    private V zeroValue;
+    private int size;
+    private int mask;
+
+    public IntObjectMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize number of entries that fit without resizing
+     */
+    public IntObjectMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return the value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key){
+        if(key == FREE){
+            return zeroValue;
+        }
+        for(int i = slot(key); ; i = (i + 1) & mask){
+            int k = keys[i];
+            if(k == key){
+                return (V) values[i];
+            }
+            if(k == FREE){
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the previous value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value){
+        if(value == null){
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        if(key == FREE){
+            V previous = zeroValue;
+            zeroValue = value;
+            if(previous == null){
+                size++;
+            }
+            return previous;
+        }
+        for(int i = slot(key); ; i = (i + 1) & mask){
+            int k = keys[i];
+            if(k == key){
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+            if(k == FREE){
+                keys[i] = key;
+                values[i] = value;
+                if(++size * 2 > keys.length){
+                    resize();
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the removed value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key){
+        if(key == FREE){
+            V previous = zeroValue;
+            zeroValue = null;
+            if(previous != null){
+                size--;
+            }
+            return previous;
+        }
+        for(int i = slot(key); ; i = (i + 1) & mask){
+            int k = keys[i];
+            if(k == FREE){
+                return null;
+            }
+            if(k == key){
+                V previous = (V) values[i];
+                shiftBack(i);
+                size--;
+                return previous;
+            }
+        }
+    }
+
+    public boolean containsKey(int key){
+        return get(key) != null;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Calls the consumer for every entry in no particular order
+     * @param consumer EntryConsumer
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> consumer){
+        if(zeroValue != null){
+            consumer.accept(FREE, zeroValue);
+        }
+        for(int i = 0; i < keys.length; i++){
+            if(keys[i] != FREE){
+                consumer.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    public void clear(){
+        Arrays.fill(keys, FREE);
+        Arrays.fill(values, null);
+        zeroValue = null;
+        size = 0;
+    }
+
+    private int slot(int key){
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Frees slot gap and moves later entries of its probe sequence into it when that keeps them reachable
+     */
+    private void shiftBack(int gap){
+        for(int i = (gap + 1) & mask; keys[i] != FREE; i = (i + 1) & mask){
+            int home = slot(keys[i]);
+            if(((i - home) & mask) >= ((i - gap) & mask)){
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        keys[gap] = FREE;
+        values[gap] = null;
+    }
+
+    private void resize(){
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        mask = keys.length - 1;
+        for(int j = 0; j < oldKeys.length; j++){
+            int key = oldKeys[j];
+            if(key != FREE){
+                int i = slot(key);
+                while(keys[i] != FREE){
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
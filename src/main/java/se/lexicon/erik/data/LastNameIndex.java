@@ -0,0 +1,232 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Person;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-process prefix index of last names for type-ahead lookups. Last names are normalised (lower case,
+ * accents removed, so "Åström" is found by "ast") and kept sorted, so a prefix lookup is a range read of a
+ * sorted map instead of a database query.
+ *
+ * The index is empty until {@link #load(Collection)} is called, see {@link PersonDao#loadLastNameIndex()}.
+ * It only sees writes made through PersonDao in this process.
+ *
+ * Reading all persons for a load takes a while, and persons written or deleted meanwhile may be missing
+ * from the rows read. Between {@link #startLoad()} and load the index therefore records the last name of
+ * every person put or removed and replays them on top of the loaded rows, so a load never brings back an
+ * older last name than the one last written.
+ * @author Erik Svensson
+ */
+public class LastNameIndex {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NavigableMap<String, NavigableMap<Integer, String>> byName = new TreeMap<>();
+    private final Map<Integer, String> nameById = new HashMap<>();
+    private boolean loaded;
+    private int loading;
+    private Map<Integer, String> written;
+
+    /**
+     * Starts recording puts and removes, call before reading the persons to load and end with
+     * {@link #load(Collection)} or {@link #cancelLoad()}
+     */
+    public void startLoad(){
+        lock.writeLock().lock();
+        try{
+            if(loading++ == 0){
+                written = new LinkedHashMap<>();
+            }
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ends a load started with {@link #startLoad()} without changing the index
+     */
+    public void cancelLoad(){
+        lock.writeLock().lock();
+        try{
+            endLoad();
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the content of the index. Persons put or removed since {@link #startLoad()} keep their
+     * last written state.
+     * @param people all persisted Person objects
+     */
+    public void load(Collection<Person> people){
+        lock.writeLock().lock();
+        try{
+            byName.clear();
+            nameById.clear();
+            for(Person person : people){
+                add(person.getPersonId(), person.getLastName());
+            }
+            if(loading > 0){
+                for(Map.Entry<Integer, String> entry : written.entrySet()){
+                    remove(entry.getKey());
+                    add(entry.getKey(), entry.getValue());
+                }
+                endLoad();
+            }
+            loaded = true;
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isLoaded(){
+        lock.readLock().lock();
+        try{
+            return loaded;
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the person or moves it when the last name changed
+     * @param person persisted Person
+     */
+    public void put(Person person){
+        lock.writeLock().lock();
+        try{
+            remove(person.getPersonId());
+            add(person.getPersonId(), person.getLastName());
+            record(person.getPersonId(), person.getLastName());
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removePerson(int personId){
+        lock.writeLock().lock();
+        try{
+            remove(personId);
+            record(personId, null);
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param prefix start of last name, case and accents are ignored
+     * @param limit max number of ids
+     * @return personIds ordered by last name and personId
+     */
+    public List<Integer> findPersonIds(String prefix, int limit){
+        List<Integer> result = new ArrayList<>();
+        lock.readLock().lock();
+        try{
+            for(NavigableMap<Integer, String> people : range(prefix).values()){
+                for(Integer personId : people.keySet()){
+                    if(result.size() == limit){
+                        return result;
+                    }
+                    result.add(personId);
+                }
+            }
+        }finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * @param prefix start of last name, case and accents are ignored
+     * @param limit max number of suggestions
+     * @return distinct last names in sort order
+     */
+    public List<String> suggest(String prefix, int limit){
+        List<String> result = new ArrayList<>();
+        lock.readLock().lock();
+        try{
+            for(NavigableMap<Integer, String> people : range(prefix).values()){
+                if(result.size() == limit){
+                    break;
+                }
+                result.add(people.firstEntry().getValue());
+            }
+        }finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * @return number of indexed persons
+     */
+    public int size(){
+        lock.readLock().lock();
+        try{
+            return nameById.size();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    static String normalize(String name){
+        String decomposed = Normalizer.normalize(name.trim(), Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private SortedMap<String, NavigableMap<Integer, String>> range(String prefix){
+        String from = normalize(prefix);
+        return byName.subMap(from, from + Character.MAX_VALUE);
+    }
+
+    private void add(int personId, String lastName){
+        if(lastName == null){
+            return;
+        }
+        String normalized = normalize(lastName);
+        byName.computeIfAbsent(normalized, name -> new TreeMap<>()).put(personId, lastName);
+        nameById.put(personId, normalized);
+    }
+
+    /**
+     * @param lastName last name written, null when the person was removed
+     */
+    private void record(int personId, String lastName){
+        if(loading > 0){
+            written.put(personId, lastName);
+        }
+    }
+
+    private void endLoad(){
+        if(loading > 0 && --loading == 0){
+            written = null;
+        }
+    }
+
+    private void remove(int personId){
+        String normalized = nameById.remove(personId);
+        if(normalized == null){
+            return;
+        }
+        NavigableMap<Integer, String> people = byName.get(normalized);
+        people.remove(personId);
+        if(people.isEmpty()){
+            byName.remove(normalized);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Person;
+
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * Assignee loader shared by all tasks mapped from one result set. The first task to touch its assignee
+ * loads the assignees of all of them with one {@link PersonDao#findByIds(java.util.Collection)}, every
+ * following task is served from that batch. Nothing is loaded when no task touches its assignee.
+ * @author Erik Svensson
+ */
+class LazyAssignees implements IntFunction<Person> {
+
+    private final PersonDao personDao;
+    private final Set<Integer> personIds = new LinkedHashSet<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private Map<Integer, Person> loaded;
+
+    LazyAssignees(PersonDao personDao) {
+        this.personDao = personDao;
+    }
+
+    /**
+     * Adds a personId to the batch, called while mapping the result set
+     */
+    void add(int personId){
+        lock.lock();
+        try{
+            personIds.add(personId);
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param personId personId of the assignee
+     * @return the assignee, null when the person was deleted since the task was read
+     * @throws UncheckedSQLException when the batch could not be loaded, the next call tries again
+     */
+    @Override
+    public Person apply(int personId) throws UncheckedSQLException{
+        lock.lock();
+        try{
+            if(loaded == null){
+                loaded = personDao.loadByIds(personIds);
+            }
+            return loaded.get(personId);
+        }catch (SQLException ex){
+            throw new UncheckedSQLException(ex);
+        }finally {
+            lock.unlock();
+        }
+    }
+}
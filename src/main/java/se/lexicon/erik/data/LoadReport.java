@@ -0,0 +1,62 @@
+package se.lexicon.erik.data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of one {@link TaskCsvLoader#load} run
+ * @author Erik Svensson
+ */
+public class LoadReport {
+    private final long tasksLoaded;
+    private final long personsCreated;
+    private final long rowsSkipped;
+    private final long elapsedNanos;
+
+    public LoadReport(long tasksLoaded, long personsCreated, long rowsSkipped, long elapsedNanos) {
+        this.tasksLoaded = tasksLoaded;
+        this.personsCreated = personsCreated;
+        this.rowsSkipped = rowsSkipped;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return tasks inserted by this run
+     */
+    public long getTasksLoaded() {
+        return tasksLoaded;
+    }
+
+    /**
+     * @return assignees that did not exist and were created by this run
+     */
+    public long getPersonsCreated() {
+        return personsCreated;
+    }
+
+    /**
+     * @return rows skipped since an earlier run already loaded them according to the checkpoint
+     */
+    public long getRowsSkipped() {
+        return rowsSkipped;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : tasksLoaded * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("LoadReport{");
+        sb.append("tasksLoaded=").append(tasksLoaded);
+        sb.append(", personsCreated=").append(personsCreated);
+        sb.append(", rowsSkipped=").append(rowsSkipped);
+        sb.append(", elapsedMillis=").append(getElapsedMillis());
+        sb.append(", rowsPerSecond=").append(Math.round(getRowsPerSecond()));
+        sb.append('}');
+        return sb.toString();
+    }
+}
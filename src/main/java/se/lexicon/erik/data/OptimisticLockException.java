@@ -0,0 +1,32 @@
+package se.lexicon.erik.data;
+
+/**
+ * Thrown by update when the row was changed or deleted by someone else since the object was loaded.
+ * The transaction is rolled back, reload the object and apply the change again.
+ * @author Erik Svensson
+ */
+public class OptimisticLockException extends RuntimeException {
+
+    private final int id;
+    private final int version;
+
+    public OptimisticLockException(String table, int id, int version) {
+        super("Row " + id + " in " + table + " is no longer at version " + version);
+        this.id = id;
+        this.version = version;
+    }
+
+    /**
+     * @return personId or taskId of the stale object
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return version the stale object was loaded with
+     */
+    public int getVersion() {
+        return version;
+    }
+}
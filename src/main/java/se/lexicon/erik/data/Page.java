@@ -0,0 +1,44 @@
+package se.lexicon.erik.data;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * One page of a keyset paginated query
+ * @param <T> item type
+ * @author Erik Svensson
+ */
+public class Page<T> {
+    private final List<T> items;
+    private final String nextPageToken;
+
+    public Page(List<T> items, String nextPageToken) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return Optional of the opaque token to pass to the same query for the next page, empty on the last page
+     */
+    public Optional<String> getNextPageToken() {
+        return Optional.ofNullable(nextPageToken);
+    }
+
+    public boolean hasNext(){
+        return nextPageToken != null;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("Page{");
+        sb.append("items=").append(items);
+        sb.append(", nextPageToken='").append(nextPageToken).append('\'');
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,61 @@
+package se.lexicon.erik.data;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Encodes the sort key of the last row of a page as an opaque token: an id plus the value of the
+ * column sorted on before it (deadline or last_name)
+ * @author Erik Svensson
+ */
+class PageToken {
+
+    private final int id;
+    private final String key;
+
+    private PageToken(int id, String key) {
+        this.id = id;
+        this.key = key;
+    }
+
+    static String encode(int id, Object key){
+        String raw = id + ":" + key;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param token token from {@link Page#getNextPageToken()}
+     * @return decoded PageToken
+     * @throws IllegalArgumentException when the token is malformed
+     */
+    static PageToken decode(String token) throws IllegalArgumentException{
+        try{
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            return new PageToken(Integer.parseInt(raw.substring(0, separator)), raw.substring(separator + 1));
+        }catch (IllegalArgumentException | StringIndexOutOfBoundsException ex){
+            throw new IllegalArgumentException("Invalid page token: " + token, ex);
+        }
+    }
+
+    int getId() {
+        return id;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * @throws IllegalArgumentException when the key is not a date
+     */
+    LocalDate getDateKey() throws IllegalArgumentException{
+        try{
+            return LocalDate.parse(key);
+        }catch (DateTimeParseException ex){
+            throw new IllegalArgumentException("Invalid page token", ex);
+        }
+    }
+}
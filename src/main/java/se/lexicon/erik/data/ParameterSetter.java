@@ -0,0 +1,13 @@
+package se.lexicon.erik.data;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Binds parameters to a PreparedStatement
+ * @author Erik Svensson
+ */
+@FunctionalInterface
+interface ParameterSetter {
+    void set(PreparedStatement statement) throws SQLException;
+}
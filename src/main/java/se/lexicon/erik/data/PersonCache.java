@@ -0,0 +1,186 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Person;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded, thread safe LRU cache of Person objects keyed by personId with a time to live per entry.
+ * The cache stores and hands out copies so callers can not change cached state by mutating a returned Person.
+ * @author Erik Svensson
+ */
+public class PersonCache {
+
+    private final int maximumSize;
+    private final long timeToLiveNanos;
+    private final LongSupplier ticker;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Integer, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumSize max number of cached Person objects, least recently used is evicted first
+     * @param timeToLive how long an entry is valid after it was written
+     * @param unit TimeUnit of timeToLive
+     * @throws IllegalArgumentException when maximumSize or timeToLive is less than 1
+     */
+    public PersonCache(int maximumSize, long timeToLive, TimeUnit unit) throws IllegalArgumentException{
+        this(maximumSize, timeToLive, unit, System::nanoTime);
+    }
+
+    PersonCache(int maximumSize, long timeToLive, TimeUnit unit, LongSupplier ticker) throws IllegalArgumentException{
+        if(maximumSize < 1){
+            throw new IllegalArgumentException("Cache needs to hold at least one entry");
+        }
+        if(timeToLive < 1){
+            throw new IllegalArgumentException("Time to live needs to be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.ticker = ticker;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @param personId int personId
+     * @return copy of the cached Person or null when not cached or expired
+     */
+    public Person get(int personId){
+        lock.lock();
+        try{
+            Entry entry = entries.get(personId);
+            if(entry == null){
+                misses.increment();
+                return null;
+            }
+            if(ticker.getAsLong() - entry.writtenAt >= timeToLiveNanos){
+                entries.remove(personId);
+                evictions.increment();
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return copy(entry.person);
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds or replaces the cached copy of a persisted Person. A copy with a lower version than the cached one,
+     * e.g. read from a replica that lags behind, is ignored.
+     * @param person persisted Person
+     */
+    public void put(Person person){
+        if(person.getPersonId() == 0){
+            return;
+        }
+        Entry entry = new Entry(copy(person), ticker.getAsLong());
+        lock.lock();
+        try{
+            Entry cached = entries.get(person.getPersonId());
+            if(cached != null && cached.person.getVersion() > person.getVersion()){
+                return;
+            }
+            entries.put(person.getPersonId(), entry);
+            if(entries.size() > maximumSize){
+                Iterator<Map.Entry<Integer, Entry>> eldest = entries.entrySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(int personId){
+        lock.lock();
+        try{
+            entries.remove(personId);
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateAll(){
+        lock.lock();
+        try{
+            entries.clear();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    public int size(){
+        lock.lock();
+        try{
+            return entries.size();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getHitCount(){
+        return hits.sum();
+    }
+
+    public long getMissCount(){
+        return misses.sum();
+    }
+
+    /**
+     * @return number of entries removed because the cache was full or the entry expired
+     */
+    public long getEvictionCount(){
+        return evictions.sum();
+    }
+
+    /**
+     * @return hits / (hits + misses), 1.0 when there were no lookups
+     */
+    public double getHitRate(){
+        long hitCount = getHitCount();
+        long total = hitCount + getMissCount();
+        return total == 0 ? 1.0 : (double) hitCount / total;
+    }
+
+    private static Person copy(Person person){
+        return new Person(person.getPersonId(), person.getFirstName(), person.getLastName(), person.getBirthDate(), person.getVersion());
+    }
+
+    private static class Entry {
+        private final Person person;
+        private final long writtenAt;
+
+        private Entry(Person person, long writtenAt) {
+            this.person = person;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PersonCache{");
+        sb.append("size=").append(size());
+        sb.append(", maximumSize=").append(maximumSize);
+        sb.append(", hits=").append(getHitCount());
+        sb.append(", misses=").append(getMissCount());
+        sb.append(", evictions=").append(getEvictionCount());
+        sb.append('}');
+        return sb.toString();
+    }
+}
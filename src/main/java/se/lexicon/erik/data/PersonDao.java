@@ -5,15 +5,81 @@ import se.lexicon.erik.model.Person;
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
  * @author Erik Svensson
  */
-public class PersonDao {
+public class PersonDao implements PersonStore {
 
-    public Person create(Person newPerson){
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int DEFAULT_SEARCH_LIMIT = 100;
+
+    private final PersonCache cache;
+    private final LastNameIndex lastNameIndex;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    public PersonDao() {
+        this(null);
+    }
+
+    /**
+     * @param cache read-through cache for findById that create, update and delete keep in sync, null for no caching
+     */
+    public PersonDao(PersonCache cache) {
+        this(cache, null);
+    }
+
+    /**
+     * @param cache read-through cache for findById that create, update and delete keep in sync, null for no caching
+     * @param lastNameIndex prefix index answering suggestLastNames that create, update and delete keep in sync, null for none
+     */
+    public PersonDao(PersonCache cache, LastNameIndex lastNameIndex) {
+        this.cache = cache;
+        this.lastNameIndex = lastNameIndex;
+    }
+
+    /**
+     * @return Optional of the PersonCache in front of findById
+     */
+    public Optional<PersonCache> getCache() {
+        return Optional.ofNullable(cache);
+    }
+
+    /**
+     * @return Optional of the LastNameIndex used by suggestLastNames
+     */
+    public Optional<LastNameIndex> getLastNameIndex() {
+        return Optional.ofNullable(lastNameIndex);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize max number of statements sent in one executeBatch() call by createAll and updateAll
+     * @throws IllegalArgumentException when batchSize is less than 1
+     */
+    public void setBatchSize(int batchSize) throws IllegalArgumentException{
+        if(batchSize < 1){
+            throw new IllegalArgumentException("Batch size needs to be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Persists the Person unless it already has a personId
+     * @param newPerson Person to persist
+     * @return persisted copy of newPerson, or newPerson when already persisted
+     * @throws UncheckedSQLException when the write fails
+     */
+    public Person create(Person newPerson) throws UncheckedSQLException{
         if(newPerson.getPersonId() != 0){
             return newPerson;
         }
@@ -40,11 +106,13 @@ public class PersonDao {
                     personId,                       //personId taken from getGeneratedKeys()
                     newPerson.getFirstName(),       //firstName
                     newPerson.getLastName(),        //lastName
-                    newPerson.getBirthDate()        //birthDate
+                    newPerson.getBirthDate(),       //birthDate
+                    0                               //version of a new row
             );
+            written(newPerson);
 
         }catch (SQLException ex){ //SAFETY NET
-            ex.printStackTrace();
+            throw new UncheckedSQLException(ex);
         }finally { //DESSUTOM KÖR ALLID DETTA
             try{
                 if(resultSet != null){
@@ -69,26 +137,33 @@ public class PersonDao {
         return statement;
     }
 
-    private Person personFromResultSet(ResultSet resultSet) throws SQLException {
+    static Person personFromResultSet(ResultSet resultSet) throws SQLException {
         return new Person(
             resultSet.getInt("person_id"),
             resultSet.getString("first_name"),
             resultSet.getString("last_name"),
-            resultSet.getObject("birth_date", LocalDate.class)
+            resultSet.getObject("birth_date", LocalDate.class),
+            resultSet.getInt("version")
         );
     }
 
     public Optional<Person> findById(int personId){
-        Person found = null;
+        Person found = cache == null ? null : cache.get(personId);
+        if(found != null){
+            return Optional.of(found);
+        }
 
         try(
-                Connection connection = Database.getConnection();
+                Connection connection = Database.getConnection(Queries.FIND_PERSON_BY_ID);
                 PreparedStatement statement = createFindById(connection, personId);
                 ResultSet resultSet = statement.executeQuery()
         ){
             while(resultSet.next()){
                 found = personFromResultSet(resultSet);
             }
+            if(found != null){
+                cache(found);
+            }
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -100,30 +175,103 @@ public class PersonDao {
         }
     }
 
+    /**
+     * Finds many Person objects with WHERE person_id IN (...) queries of at most batchSize ids instead of
+     * one query per id. Cached Person objects are not queried.
+     * @param personIds personIds to look up, duplicates are looked up once
+     * @return found Person objects keyed by personId in the order of personIds, missing ids are left out
+     */
+    public Map<Integer, Person> findByIds(Collection<Integer> personIds){
+        try{
+            return loadByIds(personIds);
+        }catch (SQLException ex){
+            ex.printStackTrace();
+            return new LinkedHashMap<>();
+        }
+    }
 
     /**
-     *
+     * findByIds that reports failures, used by BatchLoader to fail the waiting lookups
+     */
+    Map<Integer, Person> loadByIds(Collection<Integer> personIds) throws SQLException {
+        Map<Integer, Person> result = new LinkedHashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for(Integer personId : new LinkedHashSet<>(personIds)){
+            Person cached = cache == null ? null : cache.get(personId);
+            if(cached != null){
+                result.put(personId, cached);
+            }else{
+                result.put(personId, null);
+                missing.add(personId);
+            }
+        }
+        if(!missing.isEmpty()){
+            try(Connection connection = Database.getConnection(Queries.FIND_PERSONS_WHERE_PERSON_ID_IN)){
+                for(int from = 0; from < missing.size(); from += batchSize){
+                    List<Integer> chunk = missing.subList(from, Math.min(from + batchSize, missing.size()));
+                    int size = InList.paddedSize(chunk.size(), batchSize);
+                    try(PreparedStatement statement = connection.prepareStatement(Queries.FIND_PERSONS_WHERE_PERSON_ID_IN.withInList(size))){
+                        InList.setInts(statement, 1, chunk, size);
+                        try(ResultSet resultSet = statement.executeQuery()){
+                            while(resultSet.next()){
+                                Person found = personFromResultSet(resultSet);
+                                result.put(found.getPersonId(), found);
+                                cache(found);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        result.values().removeIf(person -> person == null);
+        return result;
+    }
+
+    /**
+     * Writes the changed columns of the Person and bumps its version. Does not touch the database when
+     * nothing changed since the Person was loaded or last written. A detached Person, see
+     * {@link Person#UNKNOWN_VERSION}, overwrites the row without the version check.
      * @param person Person to update
      * @return Updated person
      * @throws IllegalArgumentException when Person is not yet persisted
+     * @throws OptimisticLockException when the row was changed or deleted since the Person was loaded
+     * @throws UncheckedSQLException when the write fails
      */
-    public Person update(Person person) throws IllegalArgumentException{
+    public Person update(Person person) throws IllegalArgumentException, OptimisticLockException, UncheckedSQLException{
         if(person.getPersonId() == 0){
             throw new IllegalArgumentException("Can not update object, person is not yet persisted");
         }
+        if(!person.isDirty()){
+            return person;
+        }
+        boolean versioned = person.getVersion() != Person.UNKNOWN_VERSION;
+        Queries query = versioned ? Queries.UPDATE_PERSON : Queries.OVERWRITE_PERSON;
         try(
                 Connection connection = Database.getConnection();
-                PreparedStatement statement = connection.prepareStatement(Queries.UPDATE_PERSON.getQuery())
+                PreparedStatement statement = connection.prepareStatement(query.withSetColumns(person.getDirtyFields()))
         ){
-
-            statement.setString(1,person.getFirstName());   //UPDATE first_name
-            statement.setString(2,person.getLastName());    //UPDATE last_name
-            statement.setObject(3,person.getBirthDate());   //UPDATE birth_date
-            statement.setInt(4, person.getPersonId());      //WHERE person_id = personId
-            statement.execute();
+            int parameter = 1;
+            if((person.getDirtyFields() & Person.FIRST_NAME) != 0){
+                statement.setString(parameter++, person.getFirstName());    //UPDATE first_name
+            }
+            if((person.getDirtyFields() & Person.LAST_NAME) != 0){
+                statement.setString(parameter++, person.getLastName());     //UPDATE last_name
+            }
+            if((person.getDirtyFields() & Person.BIRTH_DATE) != 0){
+                statement.setObject(parameter++, person.getBirthDate());    //UPDATE birth_date
+            }
+            statement.setInt(parameter++, person.getPersonId());            //WHERE person_id = personId
+            if(versioned){
+                statement.setInt(parameter, person.getVersion());           //AND version = version
+            }
+            if(statement.executeUpdate() == 0){
+                throw new OptimisticLockException("persons", person.getPersonId(), person.getVersion());
+            }
+            markWritten(person);
+            written(person);
 
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new UncheckedSQLException(e);
         }
         return person;
     }
@@ -134,6 +282,10 @@ public class PersonDao {
      * @return boolean true if removed
      */
     public boolean delete(int id){
+        if(cache != null){
+            cache.invalidate(id);
+            UnitOfWork.afterCommit(() -> cache.invalidate(id));
+        }
         boolean deleted = false;
         try(
                 Connection connection = Database.getConnection();
@@ -142,6 +294,9 @@ public class PersonDao {
             statement.setInt(1,id);
             int numUpdates = statement.executeUpdate();
             deleted = numUpdates > 0;
+            if(deleted && lastNameIndex != null){
+                UnitOfWork.afterCommit(() -> lastNameIndex.removePerson(id));
+            }
 
 
         }catch (SQLException ex){
@@ -151,11 +306,225 @@ public class PersonDao {
         return deleted;
     }
 
+    /**
+     * Persists all non persisted Person objects using JDBC batching in a single transaction.
+     * Already persisted Person objects are returned as they are.
+     * @param newPeople Person objects to persist
+     * @return Persisted Person objects in the same order as newPeople
+     */
+    public List<Person> createAll(Collection<Person> newPeople){
+        List<Person> result = new ArrayList<>(newPeople);
+        try{
+            result = Database.inTransaction(connection -> createAll(connection, newPeople, batchSize));
+            List<Person> created = new ArrayList<>();
+            int i = 0;
+            for(Person person : newPeople){
+                if(person.getPersonId() == 0){
+                    created.add(result.get(i));
+                }
+                i++;
+            }
+            writtenAll(created);
+        }catch (SQLException ex){
+            ex.printStackTrace();
+        }
+        return result;
+    }
+
+    /**
+     * Updates all changed Person objects using JDBC batching in a single transaction. Unchanged Person
+     * objects are not written.
+     * @param people Person objects to update
+     * @return the updated Person objects
+     * @throws IllegalArgumentException when any Person is not yet persisted
+     * @throws OptimisticLockException when any row was changed or deleted since its Person was loaded, nothing is written
+     */
+    public List<Person> updateAll(Collection<Person> people) throws IllegalArgumentException, OptimisticLockException{
+        for(Person person : people){
+            if(person.getPersonId() == 0){
+                throw new IllegalArgumentException("Can not update object, person is not yet persisted");
+            }
+        }
+        try{
+            writtenAll(Database.inTransaction(connection -> updateAll(connection, people, batchSize)));
+        }catch (SQLException ex){
+            ex.printStackTrace();
+        }
+        return new ArrayList<>(people);
+    }
+
+    /**
+     * Marks the written Person clean at the next version, and dirty at its old version again when the
+     * transaction is rolled back so a retry writes the changes. A detached Person stays at the unknown version.
+     */
+    private static void markWritten(Person person){
+        int version = person.getVersion();
+        int dirtyFields = person.getDirtyFields();
+        person.markClean(version == Person.UNKNOWN_VERSION ? version : version + 1);
+        UnitOfWork.afterRollback(() -> person.markDirty(version, dirtyFields));
+    }
+
+    /**
+     * Writes the Person through to the cache once the write is committed. A detached Person has no version
+     * to cache, its cache entry is dropped instead.
+     */
+    private void cache(Person person){
+        if(cache != null && person.getVersion() == Person.UNKNOWN_VERSION){
+            int personId = person.getPersonId();
+            UnitOfWork.afterCommit(() -> cache.invalidate(personId));
+        }else if(cache != null){
+            Person written = new Person(person.getPersonId(), person.getFirstName(), person.getLastName(), person.getBirthDate(), person.getVersion());
+            UnitOfWork.afterCommit(() -> cache.put(written));
+        }
+    }
+
+    /**
+     * Writes a created or updated Person through to the cache and last name index once the write is committed
+     */
+    private void written(Person person){
+        cache(person);
+        if(lastNameIndex != null){
+            Person written = new Person(person.getPersonId(), person.getFirstName(), person.getLastName(), person.getBirthDate(), person.getVersion());
+            UnitOfWork.afterCommit(() -> lastNameIndex.put(written));
+        }
+    }
+
+    /**
+     * Writes created or updated Person objects through to the cache and last name index once the write is committed
+     * @param people persisted Person objects
+     */
+    void writtenAll(Collection<Person> people){
+        for(Person person : people){
+            written(person);
+        }
+    }
+
+    List<Person> createAll(Connection connection, Collection<Person> newPeople, int batchSize) throws SQLException {
+        List<Person> result = new ArrayList<>(newPeople);
+        List<Integer> pending = new ArrayList<>(batchSize);
+        try(PreparedStatement statement = connection.prepareStatement(Queries.PERSIST_PERSON.getQuery(), Statement.RETURN_GENERATED_KEYS)){
+            for(int i = 0; i < result.size(); i++){
+                Person person = result.get(i);
+                if(person.getPersonId() != 0){
+                    continue;
+                }
+                statement.setString(1, person.getFirstName());
+                statement.setString(2, person.getLastName());
+                statement.setObject(3, person.getBirthDate());
+                statement.addBatch();
+                pending.add(i);
+                if(pending.size() == batchSize){
+                    executePersistBatch(statement, pending, result);
+                }
+            }
+            if(!pending.isEmpty()){
+                executePersistBatch(statement, pending, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Executes the batch and replaces each pending position in result with its persisted copy
+     */
+    private void executePersistBatch(PreparedStatement statement, List<Integer> pending, List<Person> result) throws SQLException {
+        statement.executeBatch();
+        try(ResultSet keySet = statement.getGeneratedKeys()){
+            for(int index : pending){
+                Person person = result.get(index);
+                if(!keySet.next()){
+                    throw new SQLException("Missing generated key for " + person);
+                }
+                result.set(index, new Person(keySet.getInt(1), person.getFirstName(), person.getLastName(), person.getBirthDate(), 0));
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Writes all columns of the changed Person objects with the versioned UPDATE_PERSON, and of detached
+     * ones with OVERWRITE_PERSON
+     * @return the written Person objects
+     * @throws OptimisticLockException when a row was changed or deleted since its Person was loaded
+     */
+    List<Person> updateAll(Connection connection, Collection<Person> people, int batchSize) throws SQLException, OptimisticLockException {
+        List<Person> versioned = new ArrayList<>();
+        List<Person> detached = new ArrayList<>();
+        for(Person person : people){
+            if(person.isDirty()){
+                (person.getVersion() == Person.UNKNOWN_VERSION ? detached : versioned).add(person);
+            }
+        }
+        List<Person> written = new ArrayList<>();
+        updateAll(connection, Queries.UPDATE_PERSON, versioned, batchSize, written);
+        updateAll(connection, Queries.OVERWRITE_PERSON, detached, batchSize, written);
+        return written;
+    }
+
+    private void updateAll(Connection connection, Queries query, List<Person> people, int batchSize, List<Person> written) throws SQLException, OptimisticLockException {
+        if(people.isEmpty()){
+            return;
+        }
+        try(PreparedStatement statement = connection.prepareStatement(query.getQuery())){
+            List<Person> pending = new ArrayList<>(batchSize);
+            for(Person person : people){
+                statement.setString(1,person.getFirstName());   //UPDATE first_name
+                statement.setString(2,person.getLastName());    //UPDATE last_name
+                statement.setObject(3,person.getBirthDate());   //UPDATE birth_date
+                statement.setInt(4, person.getPersonId());      //WHERE person_id = personId
+                if(query == Queries.UPDATE_PERSON){
+                    statement.setInt(5, person.getVersion());   //AND version = version
+                }
+                statement.addBatch();
+                pending.add(person);
+                if(pending.size() == batchSize){
+                    executeUpdateBatch(statement, pending, written);
+                }
+            }
+            if(!pending.isEmpty()){
+                executeUpdateBatch(statement, pending, written);
+            }
+        }
+    }
+
+    /**
+     * Executes the batch, checks that every row matched its version and marks the pending Person objects clean
+     */
+    private void executeUpdateBatch(PreparedStatement statement, List<Person> pending, List<Person> written) throws SQLException {
+        int[] counts = statement.executeBatch();
+        for(int i = 0; i < pending.size(); i++){
+            if(counts[i] == 0){
+                Person stale = pending.get(i);
+                throw new OptimisticLockException("persons", stale.getPersonId(), stale.getVersion());
+            }
+        }
+        for(Person person : pending){
+            markWritten(person);
+        }
+        written.addAll(pending);
+        pending.clear();
+    }
+
+    /**
+     * Finds the first {@link #DEFAULT_SEARCH_LIMIT} Person objects whose last name starts with lastName
+     * @param lastName start of last name
+     * @return matching Person objects ordered by last name and personId
+     */
     public List<Person> findByLastName(String lastName){
+        return findByLastName(lastName, DEFAULT_SEARCH_LIMIT);
+    }
+
+    /**
+     * Finds Person objects whose last name starts with lastName. The prefix LIKE query can use an index on last_name.
+     * @param lastName start of last name
+     * @param limit max number of results
+     * @return matching Person objects ordered by last name and personId
+     */
+    public List<Person> findByLastName(String lastName, int limit){
         List<Person> result = new ArrayList<>();
         try(
-                Connection connection = Database.getConnection();
-                PreparedStatement statement = createFindByLastName(connection, lastName);
+                Connection connection = Database.getConnection(Queries.FIND_PEOPLE_BY_LAST_NAME);
+                PreparedStatement statement = createFindByLastName(connection, lastName, limit);
                 ResultSet resultSet = statement.executeQuery();
                 ){
 
@@ -169,9 +538,131 @@ public class PersonDao {
         return result;
     }
 
-    private PreparedStatement createFindByLastName(Connection connection, String lastName) throws SQLException {
+    /**
+     * Finds one page of Person objects whose last name starts with lastNamePrefix ordered by last name and personId.
+     * Uses keyset pagination so the last page costs the same as the first.
+     * @param lastNamePrefix start of last name
+     * @param pageSize max number of items on the page
+     * @param pageToken token from the previous page, null for the first page
+     * @return Page of matching Person objects
+     * @throws IllegalArgumentException when pageSize is less than 1 or pageToken is invalid
+     */
+    public Page<Person> findByLastName(String lastNamePrefix, int pageSize, String pageToken) throws IllegalArgumentException{
+        if(pageSize < 1){
+            throw new IllegalArgumentException("Page size needs to be at least 1");
+        }
+        PageToken position = pageToken == null ? null : PageToken.decode(pageToken);
+        Queries query = position == null ? Queries.SELECT_PERSONS_PAGE_BY_LAST_NAME_FIRST : Queries.SELECT_PERSONS_PAGE_BY_LAST_NAME_AFTER;
+
+        List<Person> items = new ArrayList<>(pageSize + 1);
+        try(
+                Connection connection = Database.getConnection(query);
+                PreparedStatement statement = connection.prepareStatement(query.getQuery())
+                ){
+            int parameter = 1;
+            statement.setString(parameter++, likePrefix(lastNamePrefix));
+            if(position != null){
+                statement.setString(parameter++, position.getKey());    //last_name >=
+                statement.setString(parameter++, position.getKey());    //last_name >
+                statement.setInt(parameter++, position.getId());        //person_id >
+            }
+            statement.setInt(parameter, pageSize + 1);
+            try(ResultSet resultSet = statement.executeQuery()){
+                while(resultSet.next()){
+                    items.add(personFromResultSet(resultSet));
+                }
+            }
+        }catch (SQLException ex){
+            ex.printStackTrace();
+        }
+
+        String nextPageToken = null;
+        if(items.size() > pageSize){
+            items.remove(pageSize);
+            Person last = items.get(pageSize - 1);
+            nextPageToken = PageToken.encode(last.getPersonId(), last.getLastName());
+        }
+        return new Page<>(items, nextPageToken);
+    }
+
+    /**
+     * @param prefix start of a value
+     * @return LIKE pattern matching values starting with prefix, with LIKE wildcards in prefix escaped
+     */
+    static String likePrefix(String prefix){
+        StringBuilder pattern = new StringBuilder(prefix.length() + 1);
+        for(char c : prefix.toCharArray()){
+            if(c == '%' || c == '_' || c == '\\'){
+                pattern.append('\\');
+            }
+            pattern.append(c);
+        }
+        return pattern.append('%').toString();
+    }
+
+    /**
+     * Suggests distinct last names starting with prefix for type-ahead. Answered from the LastNameIndex
+     * when it is loaded, otherwise from the database.
+     * @param prefix start of last name
+     * @param limit max number of suggestions
+     * @return distinct last names in sort order
+     */
+    public List<String> suggestLastNames(String prefix, int limit){
+        if(lastNameIndex != null && lastNameIndex.isLoaded()){
+            return lastNameIndex.suggest(prefix, limit);
+        }
+        List<String> result = new ArrayList<>();
+        try(
+                Connection connection = Database.getConnection(Queries.SELECT_LAST_NAMES_BY_PREFIX);
+                PreparedStatement statement = connection.prepareStatement(Queries.SELECT_LAST_NAMES_BY_PREFIX.getQuery())
+                ){
+            statement.setString(1, likePrefix(prefix));
+            statement.setInt(2, limit);
+            try(ResultSet resultSet = statement.executeQuery()){
+                while(resultSet.next()){
+                    result.add(resultSet.getString("last_name"));
+                }
+            }
+        }catch (SQLException ex){
+            ex.printStackTrace();
+        }
+        return result;
+    }
+
+    /**
+     * Loads all persons into the LastNameIndex. Reads the primary, since the index is kept current from
+     * commits and a lagging replica could leave out a committed person. Persons written or deleted through
+     * this PersonDao while the rows are read keep their written state.
+     * @return true when the index was loaded
+     * @throws IllegalStateException when the PersonDao has no LastNameIndex
+     */
+    public boolean loadLastNameIndex() throws IllegalStateException{
+        if(lastNameIndex == null){
+            throw new IllegalStateException("PersonDao has no LastNameIndex");
+        }
+        List<Person> people = new ArrayList<>();
+        lastNameIndex.startLoad();
+        try(
+                Connection connection = Database.getConnection();
+                PreparedStatement statement = connection.prepareStatement(Queries.SELECT_ALL_PERSONS.getQuery());
+                ResultSet resultSet = statement.executeQuery()
+                ){
+            while(resultSet.next()){
+                people.add(personFromResultSet(resultSet));
+            }
+        }catch (SQLException ex){
+            ex.printStackTrace();
+            lastNameIndex.cancelLoad();
+            return false;
+        }
+        lastNameIndex.load(people);
+        return true;
+    }
+
+    private PreparedStatement createFindByLastName(Connection connection, String lastName, int limit) throws SQLException {
         PreparedStatement statement = connection.prepareStatement(Queries.FIND_PEOPLE_BY_LAST_NAME.getQuery());
-        statement.setString(1, lastName.concat("%"));
+        statement.setString(1, likePrefix(lastName));
+        statement.setInt(2, limit);
         return statement;
     }
 
@@ -0,0 +1,89 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Person;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Storage of Person objects. {@link PersonDao} keeps them in the database, {@link InMemoryPersonStore} in
+ * the heap of this process. Both pass the same contract tests.
+ * @author Erik Svensson
+ */
+public interface PersonStore {
+
+    /**
+     * @param newPerson Person to persist, returned as it is when already persisted
+     * @return persisted copy of newPerson
+     */
+    Person create(Person newPerson);
+
+    /**
+     * @param newPeople Person objects to persist, already persisted ones are returned as they are
+     * @return persisted Person objects in the same order as newPeople
+     */
+    List<Person> createAll(Collection<Person> newPeople);
+
+    Optional<Person> findById(int personId);
+
+    /**
+     * @param personIds personIds to look up, duplicates are looked up once
+     * @return found Person objects keyed by personId in the order of personIds, missing ids are left out
+     */
+    Map<Integer, Person> findByIds(Collection<Integer> personIds);
+
+    /**
+     * Finds the first {@link PersonDao#DEFAULT_SEARCH_LIMIT} Person objects whose last name starts with lastName
+     * @param lastName start of last name
+     * @return matching Person objects ordered by last name and personId
+     */
+    default List<Person> findByLastName(String lastName){
+        return findByLastName(lastName, PersonDao.DEFAULT_SEARCH_LIMIT);
+    }
+
+    /**
+     * @param lastName start of last name
+     * @param limit max number of results
+     * @return matching Person objects ordered by last name and personId
+     */
+    List<Person> findByLastName(String lastName, int limit);
+
+    /**
+     * @param lastNamePrefix start of last name
+     * @param pageSize max number of items on the page
+     * @param pageToken token from the previous page, null for the first page
+     * @return Page of matching Person objects ordered by last name and personId
+     * @throws IllegalArgumentException when pageSize is less than 1 or pageToken is invalid
+     */
+    Page<Person> findByLastName(String lastNamePrefix, int pageSize, String pageToken) throws IllegalArgumentException;
+
+    /**
+     * @param prefix start of last name
+     * @param limit max number of suggestions
+     * @return distinct last names in sort order
+     */
+    List<String> suggestLastNames(String prefix, int limit);
+
+    /**
+     * Writes the changed fields of the Person and bumps its version
+     * @return the updated Person
+     * @throws IllegalArgumentException when Person is not yet persisted
+     * @throws OptimisticLockException when the Person was changed or deleted since it was loaded
+     */
+    Person update(Person person) throws IllegalArgumentException, OptimisticLockException;
+
+    /**
+     * @return the updated Person objects
+     * @throws IllegalArgumentException when any Person is not yet persisted
+     * @throws OptimisticLockException when any Person was changed or deleted since it was loaded, nothing is written
+     */
+    List<Person> updateAll(Collection<Person> people) throws IllegalArgumentException, OptimisticLockException;
+
+    /**
+     * @param id personId
+     * @return true if removed, false when missing or still assigned to tasks
+     */
+    boolean delete(int id);
+}
@@ -0,0 +1,53 @@
+package se.lexicon.erik.data;
+
+/**
+ * Snapshot of connection pool usage
+ * @author Erik Svensson
+ */
+public class PoolStats {
+    private final int activeConnections;
+    private final int idleConnections;
+    private final int totalConnections;
+    private final int threadsAwaitingConnection;
+    private final int maximumPoolSize;
+
+    public PoolStats(int activeConnections, int idleConnections, int totalConnections, int threadsAwaitingConnection, int maximumPoolSize) {
+        this.activeConnections = activeConnections;
+        this.idleConnections = idleConnections;
+        this.totalConnections = totalConnections;
+        this.threadsAwaitingConnection = threadsAwaitingConnection;
+        this.maximumPoolSize = maximumPoolSize;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    public int getTotalConnections() {
+        return totalConnections;
+    }
+
+    public int getThreadsAwaitingConnection() {
+        return threadsAwaitingConnection;
+    }
+
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PoolStats{");
+        sb.append("activeConnections=").append(activeConnections);
+        sb.append(", idleConnections=").append(idleConnections);
+        sb.append(", totalConnections=").append(totalConnections);
+        sb.append(", threadsAwaitingConnection=").append(threadsAwaitingConnection);
+        sb.append(", maximumPoolSize=").append(maximumPoolSize);
+        sb.append('}');
+        return sb.toString();
+    }
+}
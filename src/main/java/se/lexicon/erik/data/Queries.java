@@ -1,22 +1,137 @@
 package se.lexicon.erik.data;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Contains all SQL queries as String constants
+ *
+ * The *_PAGE_* queries use keyset pagination: the first page is read with *_FIRST and every following page
+ * seeks past the sort key of the previous page's last row with *_AFTER, so every page costs the same.
+ * They need these indexes to seek instead of scan:
+ * <pre>
+ *     CREATE INDEX idx_tasks_done_deadline ON tasks (done, deadline, task_id);
+ *     CREATE INDEX idx_tasks_person_deadline ON tasks (person_id, deadline, task_id);
+ *     CREATE INDEX idx_persons_last_name ON persons (last_name, person_id);
+ * </pre>
+ * Tasks without deadline are not part of the task pages. The *_TASKS_ONLY_PAGE_* queries are the same pages
+ * without the join, used when assignees are loaded lazily.
+ *
+ * The *_GROUP_BY_PERSON_ID aggregates read only person_id, done and deadline, so this index covers them and
+ * they never touch the table rows:
+ * <pre>
+ *     CREATE INDEX idx_tasks_person_done_deadline ON tasks (person_id, done, deadline);
+ * </pre>
+ *
+ * UPDATE_PERSON and UPDATE_TASK are versioned: they bump the version column and only match the row version
+ * the object was loaded with, see {@link #withSetColumns(int)}. OVERWRITE_PERSON and OVERWRITE_TASK write
+ * detached objects, whose version is unknown, without matching it. Both tables need the column:
+ * <pre>
+ *     ALTER TABLE persons ADD COLUMN version INT NOT NULL DEFAULT 0;
+ *     ALTER TABLE tasks ADD COLUMN version INT NOT NULL DEFAULT 0;
+ * </pre>
+ *
+ * Every UPDATE also sets updated_at, which *_CHANGED_SINCE read to catch a {@link DataSnapshot} up:
+ * <pre>
+ *     ALTER TABLE persons ADD COLUMN updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP;
+ *     ALTER TABLE tasks ADD COLUMN updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP;
+ *     CREATE INDEX idx_persons_updated_at ON persons (updated_at);
+ *     CREATE INDEX idx_tasks_updated_at ON tasks (updated_at);
+ * </pre>
  * @author Erik Svensson
  */
 public enum Queries {
     PERSIST_PERSON("INSERT INTO persons (first_name, last_name, birth_date) VALUES(?, ?, ?)"),
     FIND_PERSON_BY_ID("SELECT * FROM persons WHERE person_id = ?"),
-    UPDATE_PERSON("UPDATE persons SET first_name = ?, last_name = ?, birth_date = ? WHERE person_id = ?"),
+    UPDATE_PERSON("UPDATE persons SET first_name = ?, last_name = ?, birth_date = ?, version = version + 1, updated_at = CURRENT_TIMESTAMP WHERE person_id = ? AND version = ?"),
+    OVERWRITE_PERSON("UPDATE persons SET first_name = ?, last_name = ?, birth_date = ?, version = version + 1, updated_at = CURRENT_TIMESTAMP WHERE person_id = ?"),
     DELETE_PERSON("DELETE FROM persons WHERE person_id = ?"),
-    FIND_PEOPLE_BY_LAST_NAME("DELETE FROM persons WHERE person_id = ?"),
+    FIND_PEOPLE_BY_LAST_NAME("SELECT * FROM persons WHERE last_name LIKE ? ORDER BY last_name, person_id LIMIT ?"),
     PERSIST_TASK( "INSERT INTO tasks (description, deadline, done, person_id) VALUES (?,?,?,?)"),
-    FIND_TASK_BY_TASK_ID("SELECT * FROM tasks WHERE task_id = ?"),
-    SELECT_FROM_TASKS_WHERE_DONE("SELECT * FROM tasks WHERE done = ?"),
-    SELECT_FROM_TASKS_WHERE_PERSON_ID("SELECT * FROM tasks WHERE person_id = ? ORDER BY deadline ASC"),
-    SELECT_CLOSEST_UNDONE_TASK_BY_PERSON_ID("SELECT *  FROM tasks  WHERE person_id = ? AND done = false ORDER BY ABS( DATEDIFF( deadline, NOW()) )  LIMIT 1"),
-    UPDATE_TASK("UPDATE tasks SET description = ?, deadline = ?, done = ?, person_id = ? WHERE task_id = ?");
+    FIND_TASK_BY_TASK_ID(Constants.TASK + "WHERE task_id = ?"),
+    SELECT_FROM_TASKS_WHERE_DONE(Constants.TASK + "WHERE done = ?"),
+    SELECT_FROM_TASKS_WHERE_PERSON_ID(Constants.TASK + "WHERE person_id = ? ORDER BY deadline ASC"),
+    UPDATE_TASK("UPDATE tasks SET description = ?, deadline = ?, done = ?, person_id = ?, version = version + 1, updated_at = CURRENT_TIMESTAMP WHERE task_id = ? AND version = ?"),
+    OVERWRITE_TASK("UPDATE tasks SET description = ?, deadline = ?, done = ?, person_id = ?, version = version + 1, updated_at = CURRENT_TIMESTAMP WHERE task_id = ?"),
+    FIND_TASK_JOIN_PERSON_BY_TASK_ID(Constants.TASK_JOIN_PERSON + "WHERE t.task_id = ?"),
+    SELECT_FROM_TASKS_JOIN_PERSONS_WHERE_DONE(Constants.TASK_JOIN_PERSON + "WHERE t.done = ?"),
+    SELECT_FROM_TASKS_JOIN_PERSONS_WHERE_PERSON_ID(Constants.TASK_JOIN_PERSON + "WHERE t.person_id = ? ORDER BY t.deadline ASC"),
+    SELECT_CLOSEST_UNDONE_TASK_JOIN_PERSON_BY_PERSON_ID(Constants.TASK_JOIN_PERSON + "WHERE t.person_id = ? AND t.done = false AND t.deadline IS NOT NULL ORDER BY ABS( TIMESTAMPDIFF(DAY, CURRENT_DATE, t.deadline) ), t.deadline, t.task_id  LIMIT 1"),
+    SELECT_UNDONE_TASKS_BY_PERSON_ID("SELECT task_id, description, deadline, done, version AS task_version FROM tasks WHERE person_id = ? AND done = false"),
+    SELECT_TASKS_PAGE_WHERE_DONE_FIRST(Constants.taskPage("done = ? AND deadline IS NOT NULL")),
+    SELECT_TASKS_PAGE_WHERE_DONE_AFTER(Constants.taskPage("done = ? AND deadline >= ? AND (deadline > ? OR task_id > ?)")),
+    SELECT_TASKS_PAGE_WHERE_PERSON_ID_FIRST(Constants.taskPage("person_id = ? AND deadline IS NOT NULL")),
+    SELECT_TASKS_PAGE_WHERE_PERSON_ID_AFTER(Constants.taskPage("person_id = ? AND deadline >= ? AND (deadline > ? OR task_id > ?)")),
+    SELECT_PERSONS_PAGE_BY_LAST_NAME_FIRST("SELECT * FROM persons WHERE last_name LIKE ? ORDER BY last_name, person_id LIMIT ?"),
+    SELECT_PERSONS_PAGE_BY_LAST_NAME_AFTER("SELECT * FROM persons WHERE last_name LIKE ? AND last_name >= ? AND (last_name > ? OR person_id > ?) ORDER BY last_name, person_id LIMIT ?"),
+    SELECT_LAST_NAMES_BY_PREFIX("SELECT DISTINCT last_name FROM persons WHERE last_name LIKE ? ORDER BY last_name LIMIT ?"),
+    SELECT_ALL_PERSONS("SELECT * FROM persons"),
+    FIND_PERSON_BY_NAME_AND_BIRTH_DATE("SELECT * FROM persons WHERE first_name = ? AND last_name = ? AND birth_date = ? ORDER BY person_id LIMIT 1"),
+    FIND_PERSON_BY_NAME_WITHOUT_BIRTH_DATE("SELECT * FROM persons WHERE first_name = ? AND last_name = ? AND birth_date IS NULL ORDER BY person_id LIMIT 1"),
+    UPDATE_TASKS_DONE_WHERE_TASK_ID_IN("UPDATE tasks SET done = ?, version = version + 1, updated_at = CURRENT_TIMESTAMP WHERE task_id IN (?)"),
+    SELECT_PERSON_IDS_WHERE_TASK_ID_IN("SELECT DISTINCT person_id FROM tasks WHERE task_id IN (?)"),
+    FIND_PERSONS_WHERE_PERSON_ID_IN("SELECT * FROM persons WHERE person_id IN (?)"),
+    FIND_TASKS_JOIN_PERSON_WHERE_TASK_ID_IN(Constants.TASK_JOIN_PERSON + "WHERE t.task_id IN (?)"),
+    FIND_TASKS_WHERE_TASK_ID_IN(Constants.TASK + "WHERE task_id IN (?)"),
+    SELECT_TASKS_ONLY_PAGE_WHERE_DONE_FIRST(Constants.TASK + "WHERE done = ? AND deadline IS NOT NULL ORDER BY deadline, task_id LIMIT ?"),
+    SELECT_TASKS_ONLY_PAGE_WHERE_DONE_AFTER(Constants.TASK + "WHERE done = ? AND deadline >= ? AND (deadline > ? OR task_id > ?) ORDER BY deadline, task_id LIMIT ?"),
+    SELECT_TASKS_ONLY_PAGE_WHERE_PERSON_ID_FIRST(Constants.TASK + "WHERE person_id = ? AND deadline IS NOT NULL ORDER BY deadline, task_id LIMIT ?"),
+    SELECT_TASKS_ONLY_PAGE_WHERE_PERSON_ID_AFTER(Constants.TASK + "WHERE person_id = ? AND deadline >= ? AND (deadline > ? OR task_id > ?) ORDER BY deadline, task_id LIMIT ?"),
+    COUNT_TASKS_GROUP_BY_PERSON_ID_WHERE_DONE("SELECT person_id, COUNT(*) AS task_count FROM tasks WHERE done = ? GROUP BY person_id"),
+    COUNT_OVERDUE_TASKS_GROUP_BY_PERSON_ID("SELECT person_id, COUNT(*) AS task_count FROM tasks WHERE done = false AND deadline < ? GROUP BY person_id"),
+    SELECT_NEXT_DEADLINE_GROUP_BY_PERSON_ID("SELECT person_id, MIN(deadline) AS next_deadline FROM tasks WHERE done = false AND deadline >= ? GROUP BY person_id"),
+    SELECT_TASK_STATS_GROUP_BY_PERSON_ID("SELECT person_id, " +
+            "SUM(CASE WHEN done = true THEN 1 ELSE 0 END) AS done_count, " +
+            "SUM(CASE WHEN done = false THEN 1 ELSE 0 END) AS undone_count, " +
+            "SUM(CASE WHEN done = false AND deadline < ? THEN 1 ELSE 0 END) AS overdue_count, " +
+            "MIN(CASE WHEN done = false AND deadline >= ? THEN deadline END) AS next_deadline " +
+            "FROM tasks GROUP BY person_id"),
+    SELECT_ALL_TASKS(Constants.TASK.trim()),
+    SELECT_PERSONS_CHANGED_SINCE("SELECT * FROM persons WHERE updated_at >= ?"),
+    SELECT_TASKS_CHANGED_SINCE(Constants.TASK + "WHERE updated_at >= ?"),
+    SELECT_ALL_PERSON_IDS("SELECT person_id FROM persons"),
+    SELECT_ALL_TASK_IDS("SELECT task_id FROM tasks"),
+    SELECT_CURRENT_TIMESTAMP("SELECT CURRENT_TIMESTAMP");
+
+
+    private static class Constants {
+        /**
+         * Task columns without the assignee, for TaskDao reads with lazy assignees
+         */
+        private static final String TASK =
+                "SELECT task_id, description, deadline, done, person_id, version AS task_version FROM tasks ";
+
+        private static final String TASK_JOIN_PERSON =
+                "SELECT t.task_id, t.description, t.deadline, t.done, t.version AS task_version, " +
+                "p.person_id, p.first_name, p.last_name, p.birth_date, p.version " +
+                "FROM tasks t JOIN persons p ON t.person_id = p.person_id ";
+
+        /**
+         * Picks the page from tasks alone, where the index can serve both WHERE and ORDER BY,
+         * and joins persons to only the rows on the page
+         */
+        private static String taskPage(String where){
+            return "SELECT t.task_id, t.description, t.deadline, t.done, t.version AS task_version, " +
+                    "p.person_id, p.first_name, p.last_name, p.birth_date, p.version " +
+                    "FROM (SELECT task_id, description, deadline, done, person_id, version FROM tasks WHERE " + where +
+                    " ORDER BY deadline, task_id LIMIT ?) t JOIN persons p ON t.person_id = p.person_id ORDER BY t.deadline, t.task_id";
+        }
+    }
 
+    private static final Map<String, Queries> BY_QUERY = new HashMap<>();
+
+    static {
+        for(Queries query : values()){
+            BY_QUERY.putIfAbsent(query.query, query);
+        }
+    }
+
+    /** Caps the SQL remembered by {@link #derived(String)}, beyond it derived SQL is reported as OTHER */
+    private static final int MAX_DERIVED = 4096;
+
+    /** SQL built by withInList, withSetColumns and multiRow, mapped to the constant it was built from */
+    private static final Map<String, Queries> BY_DERIVED = new ConcurrentHashMap<>();
 
     private String query;
 
@@ -24,6 +139,26 @@ public enum Queries {
         this.query = query;
     }
 
+    /**
+     * @param sql SQL text
+     * @return the constant with exactly this SQL, the first declared one when several share it,
+     *         the constant the SQL was derived from, or null
+     */
+    static Queries forQuery(String sql){
+        if(sql == null){
+            return null;
+        }
+        Queries query = BY_QUERY.get(sql);
+        return query != null ? query : BY_DERIVED.get(sql);
+    }
+
+    private String derived(String sql){
+        if(BY_DERIVED.size() < MAX_DERIVED){
+            BY_DERIVED.putIfAbsent(sql, this);
+        }
+        return sql;
+    }
+
     public String toString(){
         return this.query;
     }
@@ -32,5 +167,70 @@ public enum Queries {
         return toString();
     }
 
+    /**
+     * @return true for SELECT queries, which {@link Database#getConnection(Queries)} may send to a read replica
+     */
+    boolean isReadOnly(){
+        return query.startsWith("SELECT");
+    }
+
+    /**
+     * @param size number of values, at least 1
+     * @return this query with its single IN (?) expanded to size placeholders
+     * @throws IllegalStateException when this query has no IN (?)
+     */
+    String withInList(int size) throws IllegalStateException{
+        int in = query.indexOf("IN (?)");
+        if(in < 0){
+            throw new IllegalStateException(name() + " has no IN (?) list");
+        }
+        StringBuilder sql = new StringBuilder(query.length() + size * 2).append(query, 0, in).append("IN (?");
+        for(int i = 1; i < size; i++){
+            sql.append(",?");
+        }
+        return derived(sql.append(query, in + "IN (?".length(), query.length()).toString());
+    }
+
+    /**
+     * @param columns bit set selecting SET assignments in declared order, bit 0 for the first one,
+     *                see Person.FIRST_NAME and Task.DESCRIPTION
+     * @return this versioned UPDATE writing only the selected columns and the version
+     * @throws IllegalStateException when this is not a versioned UPDATE
+     */
+    String withSetColumns(int columns) throws IllegalStateException{
+        int set = query.indexOf(" SET ");
+        int version = query.indexOf("version = version + 1");
+        if(!query.startsWith("UPDATE") || set < 0 || version < set){
+            throw new IllegalStateException(name() + " is not a versioned UPDATE statement");
+        }
+        set += " SET ".length();
+        String[] assignments = query.substring(set, version).split(", ");
+        StringBuilder sql = new StringBuilder(query.length()).append(query, 0, set);
+        for(int i = 0; i < assignments.length; i++){
+            if((columns & (1 << i)) != 0){
+                sql.append(assignments[i]).append(", ");
+            }
+        }
+        return derived(sql.append(query, version, query.length()).toString());
+    }
+
+    /**
+     * @param rows number of rows, at least 1
+     * @return this INSERT with its VALUES tuple repeated for rows rows
+     * @throws IllegalStateException when this is not an INSERT ... VALUES (...) statement
+     */
+    String multiRow(int rows) throws IllegalStateException{
+        int values = query.lastIndexOf("VALUES");
+        if(!query.startsWith("INSERT") || values < 0){
+            throw new IllegalStateException(name() + " is not an INSERT ... VALUES statement");
+        }
+        String tuple = query.substring(values + "VALUES".length()).trim();
+        StringBuilder sql = new StringBuilder(query.length() + rows * (tuple.length() + 1)).append(query);
+        for(int i = 1; i < rows; i++){
+            sql.append(',').append(tuple);
+        }
+        return derived(sql.toString());
+    }
+
 
 }
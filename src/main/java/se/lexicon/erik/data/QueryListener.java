@@ -0,0 +1,46 @@
+package se.lexicon.erik.data;
+
+import java.sql.SQLException;
+
+/**
+ * Receives timings of every statement run by the DAOs and of every connection borrowed from the pool.
+ * Install one with {@link Database#setQueryListener(QueryListener)}, {@link QueryMetrics} is the built in
+ * implementation. While no listener is installed connections and statements are not wrapped at all.
+ *
+ * Callbacks run on the thread that ran the statement, so they should be quick and must be thread safe.
+ * Exceptions thrown by a listener are ignored.
+ * @author Erik Svensson
+ */
+public interface QueryListener {
+
+    /**
+     * @param query Queries constant the SQL belongs to, null when the SQL is not one of them
+     * @param sql the executed SQL
+     * @param elapsedNanos time from execute until the ResultSet was read to the end or closed
+     * @param rows rows read from the ResultSet, or rows changed by an update or batch
+     */
+    default void queryCompleted(Queries query, String sql, long elapsedNanos, long rows){
+    }
+
+    /**
+     * @param query Queries constant the SQL belongs to, null when the SQL is not one of them
+     * @param sql the executed SQL
+     * @param elapsedNanos time from execute until the failure
+     * @param ex the failure
+     */
+    default void queryFailed(Queries query, String sql, long elapsedNanos, SQLException ex){
+    }
+
+    /**
+     * @param waitNanos time spent waiting for a connection from the pool
+     */
+    default void connectionAcquired(long waitNanos){
+    }
+
+    /**
+     * @param waitNanos time spent waiting before the pool gave up
+     * @param ex the failure
+     */
+    default void connectionFailed(long waitNanos, SQLException ex){
+    }
+}
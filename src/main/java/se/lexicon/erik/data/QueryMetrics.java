@@ -0,0 +1,245 @@
+package se.lexicon.erik.data;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-process registry of statement and connection timings fed by {@link Database}. Keeps a latency
+ * histogram, row count and error count per {@link Queries} constant, the time spent waiting for pooled
+ * connections and the number of errors per exception class. Statements slower than the slow query
+ * threshold are logged as a warning to the {@code se.lexicon.erik.data.QueryMetrics} logger.
+ * <pre>
+ *     QueryMetrics metrics = new QueryMetrics(250, TimeUnit.MILLISECONDS);
+ *     Database.setQueryListener(metrics);
+ *     metrics.registerMBean();
+ * </pre>
+ * @author Erik Svensson
+ */
+public class QueryMetrics implements QueryListener, QueryMetricsMXBean {
+
+    public static final String OBJECT_NAME = "se.lexicon.erik.data:type=QueryMetrics";
+    static final String OTHER = "OTHER";
+
+    private static final Logger LOGGER = Logger.getLogger(QueryMetrics.class.getName());
+
+    private final ConcurrentMap<String, Timer> queries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final Timer connections = new Timer();
+    private volatile long slowQueryThresholdNanos;
+
+    /**
+     * Creates metrics without slow query log
+     */
+    public QueryMetrics() {
+        this(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param slowQueryThreshold statements taking longer are logged, 0 to switch the slow query log off
+     * @param unit TimeUnit of slowQueryThreshold
+     */
+    public QueryMetrics(long slowQueryThreshold, TimeUnit unit) {
+        this.slowQueryThresholdNanos = unit.toNanos(slowQueryThreshold);
+    }
+
+    @Override
+    public void queryCompleted(Queries query, String sql, long elapsedNanos, long rows) {
+        timer(query).record(elapsedNanos, rows);
+        long threshold = slowQueryThresholdNanos;
+        if(threshold > 0 && elapsedNanos > threshold && LOGGER.isLoggable(Level.WARNING)){
+            LOGGER.warning(String.format("Slow query %s took %d ms and returned %d rows: %s",
+                    name(query), TimeUnit.NANOSECONDS.toMillis(elapsedNanos), rows, sql));
+        }
+    }
+
+    @Override
+    public void queryFailed(Queries query, String sql, long elapsedNanos, SQLException ex) {
+        timer(query).errors.increment();
+        countError(ex);
+    }
+
+    @Override
+    public void connectionAcquired(long waitNanos) {
+        connections.record(waitNanos, 0);
+    }
+
+    @Override
+    public void connectionFailed(long waitNanos, SQLException ex) {
+        connections.errors.increment();
+        countError(ex);
+    }
+
+    /**
+     * @param query Queries constant
+     * @return stats of the query, all zero when it never ran
+     */
+    public QueryStats getQueryStats(Queries query){
+        Timer timer = queries.get(query.name());
+        return timer == null ? new Timer().snapshot() : timer.snapshot();
+    }
+
+    @Override
+    public Map<String, QueryStats> getQueryStats() {
+        Map<String, QueryStats> result = new TreeMap<>();
+        queries.forEach((name, timer) -> result.put(name, timer.snapshot()));
+        return result;
+    }
+
+    @Override
+    public QueryStats getConnectionStats() {
+        return connections.snapshot();
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        errors.forEach((type, count) -> result.put(type, count.sum()));
+        return result;
+    }
+
+    @Override
+    public long getSlowQueryThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowQueryThresholdNanos);
+    }
+
+    @Override
+    public void setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+        this.slowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdMillis);
+    }
+
+    @Override
+    public void reset() {
+        queries.clear();
+        errors.clear();
+        connections.reset();
+    }
+
+    /**
+     * Registers this as {@value #OBJECT_NAME} in the platform MBeanServer, replacing any QueryMetrics
+     * registered before
+     * @return true when registered
+     */
+    public boolean registerMBean(){
+        try{
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if(server.isRegistered(name)){
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            return true;
+        }catch (JMException ex){
+            ex.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Removes {@value #OBJECT_NAME} from the platform MBeanServer
+     */
+    public static void unregisterMBean(){
+        try{
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if(server.isRegistered(name)){
+                server.unregisterMBean(name);
+            }
+        }catch (JMException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    private Timer timer(Queries query){
+        return queries.computeIfAbsent(name(query), name -> new Timer());
+    }
+
+    private void countError(SQLException ex){
+        errors.computeIfAbsent(ex.getClass().getSimpleName(), type -> new LongAdder()).increment();
+    }
+
+    private static String name(Queries query){
+        return query == null ? OTHER : query.name();
+    }
+
+    private static class Timer {
+        private static final int BUCKETS = 65;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+        private Timer() {
+            for(int i = 0; i < BUCKETS; i++){
+                histogram[i] = new LongAdder();
+            }
+        }
+
+        private void record(long nanos, long rowCount){
+            count.increment();
+            rows.add(rowCount);
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            histogram[Long.SIZE - Long.numberOfLeadingZeros(micros)].increment();
+        }
+
+        private void reset(){
+            count.reset();
+            errors.reset();
+            rows.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+            for(LongAdder bucket : histogram){
+                bucket.reset();
+            }
+        }
+
+        private QueryStats snapshot(){
+            long[] buckets = new long[BUCKETS];
+            long total = 0;
+            for(int i = 0; i < BUCKETS; i++){
+                buckets[i] = histogram[i].sum();
+                total += buckets[i];
+            }
+            return new QueryStats(
+                    count.sum(),
+                    errors.sum(),
+                    rows.sum(),
+                    TimeUnit.NANOSECONDS.toMicros(totalNanos.sum()),
+                    TimeUnit.NANOSECONDS.toMicros(maxNanos.get()),
+                    percentile(buckets, total, 0.5),
+                    percentile(buckets, total, 0.99)
+            );
+        }
+
+        /**
+         * @return upper bound in micros of the bucket holding the percentile
+         */
+        private static long percentile(long[] buckets, long total, double percentile){
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++){
+                seen += buckets[i];
+                if(seen >= rank && seen > 0){
+                    return i >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                }
+            }
+            return 0;
+        }
+    }
+}
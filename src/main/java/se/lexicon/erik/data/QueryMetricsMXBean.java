@@ -0,0 +1,28 @@
+package se.lexicon.erik.data;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link QueryMetrics}, registered as {@value QueryMetrics#OBJECT_NAME}
+ * @author Erik Svensson
+ */
+public interface QueryMetricsMXBean {
+
+    /**
+     * @return stats per Queries constant name, SQL that is not a Queries constant is counted as OTHER
+     */
+    Map<String, QueryStats> getQueryStats();
+
+    QueryStats getConnectionStats();
+
+    /**
+     * @return number of failed statements and connection requests per exception class
+     */
+    Map<String, Long> getErrorCounts();
+
+    long getSlowQueryThresholdMillis();
+
+    void setSlowQueryThresholdMillis(long slowQueryThresholdMillis);
+
+    void reset();
+}
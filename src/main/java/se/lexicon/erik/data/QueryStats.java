@@ -0,0 +1,75 @@
+package se.lexicon.erik.data;
+
+/**
+ * Snapshot of the timings recorded by {@link QueryMetrics} for one query or for connection acquisition.
+ * Percentiles are read from a histogram with power of two buckets and are exact to within a factor of two.
+ * @author Erik Svensson
+ */
+public class QueryStats {
+    private final long count;
+    private final long errors;
+    private final long rows;
+    private final long totalMicros;
+    private final long maxMicros;
+    private final long p50Micros;
+    private final long p99Micros;
+
+    public QueryStats(long count, long errors, long rows, long totalMicros, long maxMicros, long p50Micros, long p99Micros) {
+        this.count = count;
+        this.errors = errors;
+        this.rows = rows;
+        this.totalMicros = totalMicros;
+        this.maxMicros = maxMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+    }
+
+    /**
+     * @return number of successful executions
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getTotalMicros() {
+        return totalMicros;
+    }
+
+    public long getMeanMicros() {
+        return count == 0 ? 0 : totalMicros / count;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("QueryStats{");
+        sb.append("count=").append(count);
+        sb.append(", errors=").append(errors);
+        sb.append(", rows=").append(rows);
+        sb.append(", meanMicros=").append(getMeanMicros());
+        sb.append(", p50Micros=").append(p50Micros);
+        sb.append(", p99Micros=").append(p99Micros);
+        sb.append(", maxMicros=").append(maxMicros);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,116 @@
+package se.lexicon.erik.data;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The read replica pools of {@link Database} and the policy picking one of them for a read.
+ *
+ * Replicas are configured as replica.1.url, replica.2.url and so on, numbered without gaps. Each replica
+ * gets its own pool with the same pool.* and dataSource.* settings as the primary. replica.N.user and
+ * replica.N.password default to the user and password of the primary. replica.selection is round-robin
+ * (default) or least-busy, which picks the pool with the fewest borrowed and awaited connections.
+ * @author Erik Svensson
+ */
+class ReplicaRouter {
+
+    enum Selection { ROUND_ROBIN, LEAST_BUSY }
+
+    private static final String PREFIX = "replica.";
+
+    private final List<HikariDataSource> pools;
+    private final Selection selection;
+    private final AtomicInteger next = new AtomicInteger();
+
+    ReplicaRouter(List<HikariDataSource> pools, Selection selection) {
+        this.pools = Collections.unmodifiableList(new ArrayList<>(pools));
+        this.selection = selection;
+    }
+
+    /**
+     * @param properties Database properties
+     * @return router over one pool per configured replica, null when no replica is configured
+     * @throws IllegalArgumentException when replica.selection is unknown
+     */
+    static ReplicaRouter create(Properties properties) throws IllegalArgumentException{
+        Selection selection = selection(properties.getProperty(PREFIX + "selection", "round-robin"));
+        List<HikariDataSource> pools = new ArrayList<>();
+        for(int n = 1; properties.getProperty(PREFIX + n + ".url") != null; n++){
+            Properties replica = new Properties();
+            replica.putAll(properties);
+            replica.setProperty("url", properties.getProperty(PREFIX + n + ".url"));
+            copy(properties, PREFIX + n + ".user", replica, "user");
+            copy(properties, PREFIX + n + ".password", replica, "password");
+            pools.add(new HikariDataSource(Database.createConfig(replica, Database.POOL_NAME + "-replica-" + n)));
+        }
+        return pools.isEmpty() ? null : new ReplicaRouter(pools, selection);
+    }
+
+    private static Selection selection(String value) throws IllegalArgumentException{
+        switch (value.trim().toLowerCase(Locale.ROOT)){
+            case "round-robin":
+                return Selection.ROUND_ROBIN;
+            case "least-busy":
+                return Selection.LEAST_BUSY;
+            default:
+                throw new IllegalArgumentException("Unknown replica.selection " + value);
+        }
+    }
+
+    private static void copy(Properties from, String fromKey, Properties to, String toKey){
+        String value = from.getProperty(fromKey);
+        if(value != null){
+            to.setProperty(toKey, value);
+        }
+    }
+
+    /**
+     * @return pool to borrow the next read connection from
+     */
+    HikariDataSource select(){
+        if(selection == Selection.ROUND_ROBIN || pools.size() == 1){
+            return pools.get(Math.floorMod(next.getAndIncrement(), pools.size()));
+        }
+        int start = Math.floorMod(next.getAndIncrement(), pools.size());
+        HikariDataSource best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for(int i = 0; i < pools.size(); i++){
+            HikariDataSource pool = pools.get((start + i) % pools.size());
+            int load = load(pool);
+            if(load < bestLoad){
+                best = pool;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Ties are broken by rotating the start of the scan in select()
+     */
+    private static int load(HikariDataSource pool){
+        HikariPoolMXBean bean = pool.getHikariPoolMXBean();
+        return bean == null ? 0 : bean.getActiveConnections() + bean.getThreadsAwaitingConnection();
+    }
+
+    List<HikariDataSource> getPools(){
+        return pools;
+    }
+
+    Selection getSelection(){
+        return selection;
+    }
+
+    void close(){
+        for(HikariDataSource pool : pools){
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package se.lexicon.erik.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Spliterator reading one row at a time from an open ResultSet. The ResultSet, its statement and
+ * the connection are owned by the spliterator and released by {@link #close()}.
+ * @param <T> mapped type
+ * @author Erik Svensson
+ */
+class ResultSetSpliterator<T> extends Spliterators.AbstractSpliterator<T> implements AutoCloseable {
+
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final RowMapper<T> mapper;
+    private boolean closed;
+
+    ResultSetSpliterator(Connection connection, PreparedStatement statement, ResultSet resultSet, RowMapper<T> mapper) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.mapper = mapper;
+    }
+
+    /**
+     * @return sequential Stream that closes the underlying resources on Stream.close()
+     */
+    Stream<T> stream(){
+        return StreamSupport.stream(this, false).onClose(this::close);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if(closed){
+            return false;
+        }
+        try{
+            if(!resultSet.next()){
+                close();
+                return false;
+            }
+            action.accept(mapper.map(resultSet));
+            return true;
+        }catch (SQLException ex){
+            close();
+            throw new UncheckedSQLException(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        if(closed){
+            return;
+        }
+        closed = true;
+        try{
+            resultSet.close();
+        }catch (SQLException ex){
+            ex.printStackTrace();
+        }
+        try{
+            statement.close();
+        }catch (SQLException ex){
+            ex.printStackTrace();
+        }
+        try{
+            connection.close();
+        }catch (SQLException ex){
+            ex.printStackTrace();
+        }
+    }
+}
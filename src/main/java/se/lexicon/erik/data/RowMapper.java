@@ -0,0 +1,14 @@
+package se.lexicon.erik.data;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a ResultSet to an object
+ * @param <T> mapped type
+ * @author Erik Svensson
+ */
+@FunctionalInterface
+interface RowMapper<T> {
+    T map(ResultSet resultSet) throws SQLException;
+}
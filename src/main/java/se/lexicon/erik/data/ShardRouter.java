@@ -0,0 +1,126 @@
+package se.lexicon.erik.data;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The shard pools of {@link Database} and the mapping of generated ids to shards.
+ *
+ * Shards are configured as shard.1.url, shard.2.url and so on, numbered without gaps. Each shard gets its
+ * own pool with the same pool.* and dataSource.* settings as the primary. shard.N.user and shard.N.password
+ * default to the user and password of the primary.
+ *
+ * Every shard hands out ids from its own stride of the id space: with N shards, shard.k generates
+ * k, k + N, k + 2N and so on, so the shard of a personId or taskId is (id - 1) mod N without any lookup.
+ * For MySQL urls every pooled connection is opened with
+ * <pre>
+ *     SET SESSION auto_increment_increment = N, auto_increment_offset = k
+ * </pre>
+ * Other databases need the stride in the schema of each shard, e.g. for H2
+ * <pre>
+ *     ALTER TABLE persons ALTER COLUMN person_id RESTART WITH k SET INCREMENT BY N
+ * </pre>
+ * and the same for tasks.task_id. The sharded stores check every generated id against its shard.
+ *
+ * When borrowers are limited, see {@link Database#setLimitBorrowers(boolean)}, each shard pool has its own
+ * {@link ConnectionPermits} sized to the pool.
+ * @author Erik Svensson
+ */
+class ShardRouter {
+
+    private static final String PREFIX = "shard.";
+
+    private final List<HikariDataSource> pools;
+    private volatile ConnectionPermits[] permits;
+
+    ShardRouter(List<HikariDataSource> pools) {
+        this.pools = Collections.unmodifiableList(new ArrayList<>(pools));
+    }
+
+    /**
+     * @param properties Database properties
+     * @return router over one pool per configured shard, null when no shard is configured
+     */
+    static ShardRouter create(Properties properties){
+        int count = 0;
+        while(properties.getProperty(PREFIX + (count + 1) + ".url") != null){
+            count++;
+        }
+        List<HikariDataSource> pools = new ArrayList<>();
+        for(int n = 1; n <= count; n++){
+            Properties shard = new Properties();
+            shard.putAll(properties);
+            shard.setProperty("url", properties.getProperty(PREFIX + n + ".url"));
+            copy(properties, PREFIX + n + ".user", shard, "user");
+            copy(properties, PREFIX + n + ".password", shard, "password");
+            HikariConfig config = Database.createConfig(shard, Database.POOL_NAME + "-shard-" + n);
+            if(config.getJdbcUrl().startsWith("jdbc:mysql:")){
+                config.setConnectionInitSql("SET SESSION auto_increment_increment = " + count + ", auto_increment_offset = " + n);
+            }
+            pools.add(new HikariDataSource(config));
+        }
+        return pools.isEmpty() ? null : new ShardRouter(pools);
+    }
+
+    private static void copy(Properties from, String fromKey, Properties to, String toKey){
+        String value = from.getProperty(fromKey);
+        if(value != null){
+            to.setProperty(toKey, value);
+        }
+    }
+
+    /**
+     * @param id personId or taskId generated by a shard
+     * @param shards number of shards
+     * @return index of the shard that generated the id, counted from 0
+     */
+    static int shardOf(int id, int shards){
+        return Math.floorMod(id - 1, shards);
+    }
+
+    /**
+     * @param shard index of the shard counted from 0
+     */
+    HikariDataSource getPool(int shard){
+        return pools.get(shard);
+    }
+
+    List<HikariDataSource> getPools(){
+        return pools;
+    }
+
+    /**
+     * @param enabled true to give every shard pool its own permits, false to borrow without permits
+     */
+    void setLimitBorrowers(boolean enabled){
+        if(!enabled){
+            permits = null;
+            return;
+        }
+        ConnectionPermits[] created = new ConnectionPermits[pools.size()];
+        for(int shard = 0; shard < created.length; shard++){
+            created[shard] = new ConnectionPermits(pools.get(shard).getMaximumPoolSize());
+        }
+        permits = created;
+    }
+
+    /**
+     * @param shard index of the shard counted from 0
+     * @return permits of the shard pool, null when borrowers are not limited
+     */
+    ConnectionPermits getPermits(int shard){
+        ConnectionPermits[] current = permits;
+        return current == null ? null : current[shard];
+    }
+
+    void close(){
+        for(HikariDataSource pool : pools){
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Person;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * PersonStore spreading persons over the shards configured in {@link Database}, see {@link ShardRouter}.
+ *
+ * New persons are placed on the shards in turn and their tasks follow them, see {@link ShardedTaskStore}.
+ * The shard of a person is known from its personId, so lookups by id read one shard. Each shard is served
+ * by a plain {@link PersonDao} called inside {@link Database#onShard(int, Supplier)}. Searches by last
+ * name read every shard in parallel on the DaoExecutor and merge.
+ *
+ * Writes spanning several shards are one transaction per shard, not one over all of them. updateAll
+ * checks every version before writing, but a writer slipping in between can still make one shard fail
+ * after the others committed.
+ * @author Erik Svensson
+ */
+public class ShardedPersonStore implements PersonStore {
+
+    private static final Comparator<Person> BY_LAST_NAME =
+            Comparator.comparing(Person::getLastName).thenComparingInt(Person::getPersonId);
+
+    private final PersonDao[] daos;
+    private final DaoExecutor executor;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Creates a store reading the shards in parallel on a DaoExecutor with one thread per shard
+     * @throws IllegalStateException when no shards are configured
+     */
+    public ShardedPersonStore() throws IllegalStateException{
+        this(new DaoExecutor(requireShards(), DaoExecutor.DEFAULT_QUEUE_CAPACITY));
+    }
+
+    /**
+     * @param executor runs the calls to several shards in parallel, shared with the ShardedTaskStore
+     * @throws IllegalStateException when no shards are configured
+     */
+    public ShardedPersonStore(DaoExecutor executor) throws IllegalStateException{
+        this.daos = new PersonDao[requireShards()];
+        for(int shard = 0; shard < daos.length; shard++){
+            daos[shard] = new PersonDao();
+        }
+        this.executor = executor;
+    }
+
+    private static int requireShards() throws IllegalStateException{
+        int shards = Database.getShardCount();
+        if(shards == 0){
+            throw new IllegalStateException("No shards are configured");
+        }
+        return shards;
+    }
+
+    @Override
+    public Person create(Person newPerson){
+        if(newPerson.getPersonId() != 0){
+            return newPerson;
+        }
+        int shard = nextShard();
+        Person created = onShard(shard, () -> daos[shard].create(newPerson));
+        checkShard("persons", created.getPersonId(), shard);
+        return created;
+    }
+
+    /**
+     * Places the new persons on the shards in turn and persists each shard's share in parallel
+     */
+    @Override
+    public List<Person> createAll(Collection<Person> newPeople){
+        List<Person> people = new ArrayList<>(newPeople);
+        List<List<Integer>> positions = emptyGroups();
+        for(int i = 0; i < people.size(); i++){
+            if(people.get(i).getPersonId() == 0){
+                positions.get(nextShard()).add(i);
+            }
+        }
+        List<Integer> used = usedShards(positions);
+        List<List<Person>> created = onShards(used, shard -> daos[shard].createAll(select(people, positions.get(shard))));
+        for(int i = 0; i < used.size(); i++){
+            int shard = used.get(i);
+            List<Integer> shardPositions = positions.get(shard);
+            for(int j = 0; j < shardPositions.size(); j++){
+                Person person = created.get(i).get(j);
+                checkShard("persons", person.getPersonId(), shard);
+                people.set(shardPositions.get(j), person);
+            }
+        }
+        return people;
+    }
+
+    @Override
+    public Optional<Person> findById(int personId){
+        int shard = shardOf(personId);
+        return onShard(shard, () -> daos[shard].findById(personId));
+    }
+
+    @Override
+    public Map<Integer, Person> findByIds(Collection<Integer> personIds){
+        List<Integer> ids = new ArrayList<>(new LinkedHashSet<>(personIds));
+        List<List<Integer>> groups = emptyGroups();
+        for(Integer personId : ids){
+            groups.get(shardOf(personId)).add(personId);
+        }
+        Map<Integer, Person> found = new LinkedHashMap<>();
+        for(Map<Integer, Person> shardFound : onShards(usedShards(groups), shard -> daos[shard].findByIds(groups.get(shard)))){
+            found.putAll(shardFound);
+        }
+        Map<Integer, Person> result = new LinkedHashMap<>();
+        for(Integer personId : ids){
+            Person person = found.get(personId);
+            if(person != null){
+                result.put(personId, person);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Takes up to limit matches from every shard and merges them
+     */
+    @Override
+    public List<Person> findByLastName(String lastName, int limit){
+        List<Person> result = new ArrayList<>();
+        for(List<Person> shardResult : onEachShard(shard -> daos[shard].findByLastName(lastName, limit))){
+            result.addAll(shardResult);
+        }
+        result.sort(BY_LAST_NAME);
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * Reads the page after the same position from every shard and merges them. The token is the position of
+     * the last person, which every shard continues after.
+     */
+    @Override
+    public Page<Person> findByLastName(String lastNamePrefix, int pageSize, String pageToken) throws IllegalArgumentException{
+        if(pageSize < 1){
+            throw new IllegalArgumentException("Page size needs to be at least 1");
+        }
+        List<Person> items = new ArrayList<>();
+        boolean more = false;
+        for(Page<Person> page : onEachShard(shard -> daos[shard].findByLastName(lastNamePrefix, pageSize, pageToken))){
+            items.addAll(page.getItems());
+            more |= page.hasNext();
+        }
+        items.sort(BY_LAST_NAME);
+        more |= items.size() > pageSize;
+        if(items.size() > pageSize){
+            items = new ArrayList<>(items.subList(0, pageSize));
+        }
+        String nextPageToken = null;
+        if(more){
+            Person last = items.get(items.size() - 1);
+            nextPageToken = PageToken.encode(last.getPersonId(), last.getLastName());
+        }
+        return new Page<>(items, nextPageToken);
+    }
+
+    @Override
+    public List<String> suggestLastNames(String prefix, int limit){
+        TreeSet<String> lastNames = new TreeSet<>();
+        for(List<String> shardResult : onEachShard(shard -> daos[shard].suggestLastNames(prefix, limit))){
+            lastNames.addAll(shardResult);
+        }
+        List<String> result = new ArrayList<>(Math.min(limit, lastNames.size()));
+        for(String lastName : lastNames){
+            if(result.size() == limit){
+                break;
+            }
+            result.add(lastName);
+        }
+        return result;
+    }
+
+    @Override
+    public Person update(Person person) throws IllegalArgumentException, OptimisticLockException{
+        if(person.getPersonId() == 0){
+            throw new IllegalArgumentException("Can not update object, person is not yet persisted");
+        }
+        int shard = shardOf(person.getPersonId());
+        return onShard(shard, () -> daos[shard].update(person));
+    }
+
+    /**
+     * Updates each shard's share in its own transaction. When the persons span several shards every
+     * version is checked first, so a stale person normally fails the call before anything is written.
+     */
+    @Override
+    public List<Person> updateAll(Collection<Person> people) throws IllegalArgumentException, OptimisticLockException{
+        List<List<Person>> groups = emptyGroups();
+        for(Person person : people){
+            if(person.getPersonId() == 0){
+                throw new IllegalArgumentException("Can not update object, person is not yet persisted");
+            }
+            if(person.isDirty()){
+                groups.get(shardOf(person.getPersonId())).add(person);
+            }
+        }
+        List<Integer> used = usedShards(groups);
+        if(used.size() > 1){
+            List<Integer> ids = new ArrayList<>();
+            for(Person person : people){
+                if(person.isDirty()){
+                    ids.add(person.getPersonId());
+                }
+            }
+            Map<Integer, Person> current = findByIds(ids);
+            for(Person person : people){
+                Person stored = current.get(person.getPersonId());
+                if(person.isDirty() && (stored == null || person.getVersion() != Person.UNKNOWN_VERSION && stored.getVersion() != person.getVersion())){
+                    throw new OptimisticLockException("persons", person.getPersonId(), person.getVersion());
+                }
+            }
+        }
+        onShards(used, shard -> daos[shard].updateAll(groups.get(shard)));
+        return new ArrayList<>(people);
+    }
+
+    @Override
+    public boolean delete(int id){
+        int shard = shardOf(id);
+        return onShard(shard, () -> daos[shard].delete(id));
+    }
+
+    int shardCount(){
+        return daos.length;
+    }
+
+    /**
+     * @return index of the shard holding the person or task with the id
+     */
+    int shardOf(int id){
+        return ShardRouter.shardOf(id, daos.length);
+    }
+
+    /**
+     * @return shard for a new person, in turn
+     */
+    int nextShard(){
+        return Math.floorMod(next.getAndIncrement(), daos.length);
+    }
+
+    PersonDao dao(int shard){
+        return daos[shard];
+    }
+
+    /**
+     * @throws IllegalStateException when the id was not generated in the stride of the shard
+     */
+    void checkShard(String table, int id, int shard) throws IllegalStateException{
+        if(id != 0 && shardOf(id) != shard){
+            throw new IllegalStateException("Id " + id + " generated for " + table + " on shard " + (shard + 1)
+                    + " belongs to shard " + (shardOf(id) + 1) + ", ids need a stride of " + daos.length + " per shard");
+        }
+    }
+
+    <T> T onShard(int shard, Supplier<T> work){
+        return Database.onShard(shard, work);
+    }
+
+    <T> List<T> onEachShard(IntFunction<T> work){
+        List<Integer> all = new ArrayList<>(daos.length);
+        for(int shard = 0; shard < daos.length; shard++){
+            all.add(shard);
+        }
+        return onShards(all, work);
+    }
+
+    /**
+     * Runs the work on each of the shards, in parallel on the executor when there is more than one. Waits
+     * for all of them before rethrowing the first failure.
+     * @return results in the order of shards
+     */
+    <T> List<T> onShards(List<Integer> shards, IntFunction<T> work){
+        List<T> results = new ArrayList<>(shards.size());
+        if(shards.size() == 1){
+            int shard = shards.get(0);
+            results.add(onShard(shard, () -> work.apply(shard)));
+            return results;
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+        for(int shard : shards){
+            futures.add(executor.submit(() -> onShard(shard, () -> work.apply(shard))));
+        }
+        RuntimeException failure = null;
+        for(CompletableFuture<T> future : futures){
+            try{
+                results.add(future.join());
+            }catch (CompletionException ex){
+                if(failure == null){
+                    failure = ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex;
+                }
+            }
+        }
+        if(failure != null){
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * @return one empty list per shard
+     */
+    <T> List<List<T>> emptyGroups(){
+        List<List<T>> groups = new ArrayList<>(daos.length);
+        for(int shard = 0; shard < daos.length; shard++){
+            groups.add(new ArrayList<>());
+        }
+        return groups;
+    }
+
+    /**
+     * @return indexes of the shards with a non empty group
+     */
+    static List<Integer> usedShards(List<? extends List<?>> groups){
+        List<Integer> used = new ArrayList<>();
+        for(int shard = 0; shard < groups.size(); shard++){
+            if(!groups.get(shard).isEmpty()){
+                used.add(shard);
+            }
+        }
+        return used;
+    }
+
+    static <T> List<T> select(List<T> items, List<Integer> positions){
+        List<T> selected = new ArrayList<>(positions.size());
+        for(int position : positions){
+            selected.add(items.get(position));
+        }
+        return selected;
+    }
+}
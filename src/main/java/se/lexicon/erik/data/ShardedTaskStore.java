@@ -0,0 +1,443 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+import se.lexicon.erik.model.TaskView;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * TaskStore keeping every task on the shard of its assignee, see {@link ShardedPersonStore}.
+ *
+ * Since a person and all of its tasks live on one shard, the queries by personId read one shard, and so
+ * do lookups by taskId as the shard is known from the id. Queries by done status, the per person
+ * aggregates and the pages read every shard in parallel and merge. Each shard is served by a plain
+ * {@link TaskDao} sharing the shard's PersonDao.
+ *
+ * A task can not move to an assignee on another shard, as its taskId belongs to its shard. Like for
+ * persons, writes spanning several shards are one transaction per shard.
+ * @author Erik Svensson
+ */
+public class ShardedTaskStore implements TaskStore {
+
+    /**
+     * Max number of tasks read ahead from the shards by streamByDoneStatus
+     */
+    public static final int STREAM_BUFFER = 1000;
+
+    private static final Comparator<Task> BY_DEADLINE =
+            Comparator.comparing(Task::getDeadLine).thenComparingInt(Task::getTaskId);
+    private static final AtomicInteger STREAM_NUMBER = new AtomicInteger();
+
+    private final ShardedPersonStore personStore;
+    private final TaskDao[] daos;
+
+    /**
+     * @param personStore the store of the assignees, whose shards and executor are used
+     */
+    public ShardedTaskStore(ShardedPersonStore personStore) {
+        this.personStore = personStore;
+        this.daos = new TaskDao[personStore.shardCount()];
+        for(int shard = 0; shard < daos.length; shard++){
+            daos[shard] = new TaskDao(personStore.dao(shard));
+        }
+    }
+
+    /**
+     * Persists the task on the shard of its assignee, a new assignee is placed like by ShardedPersonStore
+     */
+    @Override
+    public Task create(Task newTask) throws IllegalArgumentException{
+        if(newTask.getAssignee() == null){
+            throw new IllegalArgumentException("Task had no assignee.");
+        }
+        int shard = shardOf(newTask.getAssignee());
+        Task created = personStore.onShard(shard, () -> daos[shard].create(newTask));
+        personStore.checkShard("tasks", created.getTaskId(), shard);
+        personStore.checkShard("persons", created.getAssignee().getPersonId(), shard);
+        return created;
+    }
+
+    /**
+     * Persists each shard's share in parallel, tasks sharing a new assignee go to the same shard
+     */
+    @Override
+    public List<Task> createAll(Collection<Task> newTasks) throws IllegalArgumentException{
+        List<Task> tasks = new ArrayList<>(newTasks);
+        Map<Person, Integer> newAssignees = new HashMap<>();
+        List<List<Integer>> positions = personStore.emptyGroups();
+        for(int i = 0; i < tasks.size(); i++){
+            Person assignee = tasks.get(i).getAssignee();
+            if(assignee == null){
+                throw new IllegalArgumentException("Task had no assignee.");
+            }
+            int shard = assignee.getPersonId() != 0 ? personStore.shardOf(assignee.getPersonId())
+                    : newAssignees.computeIfAbsent(assignee, person -> personStore.nextShard());
+            positions.get(shard).add(i);
+        }
+        List<Integer> used = ShardedPersonStore.usedShards(positions);
+        List<List<Task>> created = personStore.onShards(used, shard -> daos[shard].createAll(ShardedPersonStore.select(tasks, positions.get(shard))));
+        for(int i = 0; i < used.size(); i++){
+            int shard = used.get(i);
+            List<Integer> shardPositions = positions.get(shard);
+            for(int j = 0; j < shardPositions.size(); j++){
+                Task task = created.get(i).get(j);
+                personStore.checkShard("tasks", task.getTaskId(), shard);
+                personStore.checkShard("persons", task.getAssignee().getPersonId(), shard);
+                tasks.set(shardPositions.get(j), task);
+            }
+        }
+        return tasks;
+    }
+
+    @Override
+    public Optional<Task> findByTaskId(int taskId){
+        int shard = personStore.shardOf(taskId);
+        return personStore.onShard(shard, () -> daos[shard].findByTaskId(taskId));
+    }
+
+    @Override
+    public Map<Integer, Task> findByTaskIds(Collection<Integer> taskIds){
+        List<Integer> ids = new ArrayList<>(new LinkedHashSet<>(taskIds));
+        List<List<Integer>> groups = personStore.emptyGroups();
+        for(Integer taskId : ids){
+            groups.get(personStore.shardOf(taskId)).add(taskId);
+        }
+        Map<Integer, Task> found = new HashMap<>();
+        for(Map<Integer, Task> shardFound : personStore.onShards(ShardedPersonStore.usedShards(groups), shard -> daos[shard].findByTaskIds(groups.get(shard)))){
+            found.putAll(shardFound);
+        }
+        Map<Integer, Task> result = new LinkedHashMap<>();
+        for(Integer taskId : ids){
+            Task task = found.get(taskId);
+            if(task != null){
+                result.put(taskId, task);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Task> findByDoneStatus(boolean isDone){
+        return concat(personStore.onEachShard(shard -> daos[shard].findByDoneStatus(isDone)));
+    }
+
+    @Override
+    public List<Task> findByPersonId(int personId){
+        int shard = personStore.shardOf(personId);
+        return personStore.onShard(shard, () -> daos[shard].findByPersonId(personId));
+    }
+
+    @Override
+    public List<TaskView> findViewsByDoneStatus(boolean isDone){
+        return concat(personStore.onEachShard(shard -> daos[shard].findViewsByDoneStatus(isDone)));
+    }
+
+    @Override
+    public List<TaskView> findViewsByPersonId(int personId){
+        int shard = personStore.shardOf(personId);
+        return personStore.onShard(shard, () -> daos[shard].findViewsByPersonId(personId));
+    }
+
+    /**
+     * Reads the page after the same position from every shard and merges them by deadline and taskId
+     */
+    @Override
+    public Page<Task> findByDoneStatus(boolean isDone, int pageSize, String pageToken) throws IllegalArgumentException{
+        if(pageSize < 1){
+            throw new IllegalArgumentException("Page size needs to be at least 1");
+        }
+        List<Task> items = new ArrayList<>();
+        boolean more = false;
+        for(Page<Task> page : personStore.onEachShard(shard -> daos[shard].findByDoneStatus(isDone, pageSize, pageToken))){
+            items.addAll(page.getItems());
+            more |= page.hasNext();
+        }
+        items.sort(BY_DEADLINE);
+        more |= items.size() > pageSize;
+        if(items.size() > pageSize){
+            items = new ArrayList<>(items.subList(0, pageSize));
+        }
+        String nextPageToken = null;
+        if(more){
+            Task last = items.get(items.size() - 1);
+            nextPageToken = PageToken.encode(last.getTaskId(), last.getDeadLine());
+        }
+        return new Page<>(items, nextPageToken);
+    }
+
+    @Override
+    public Page<Task> findByPersonId(int personId, int pageSize, String pageToken) throws IllegalArgumentException{
+        int shard = personStore.shardOf(personId);
+        return personStore.onShard(shard, () -> daos[shard].findByPersonId(personId, pageSize, pageToken));
+    }
+
+    /**
+     * Streams every shard at once, one reader thread per shard feeding a buffer of {@link #STREAM_BUFFER}
+     * tasks, so memory use does not grow with the number of rows. Tasks come in the order they arrive from
+     * the shards. Each reader holds a connection of its shard until the stream is exhausted or closed.
+     * @return Stream of matching Task items, must be closed
+     * @throws UncheckedSQLException when reading the next row of a shard fails
+     */
+    @Override
+    public Stream<Task> streamByDoneStatus(boolean isDone){
+        MergingSpliterator merged = new MergingSpliterator(daos.length);
+        int number = STREAM_NUMBER.incrementAndGet();
+        for(int shard = 0; shard < daos.length; shard++){
+            int reading = shard;
+            Thread reader = new Thread(() -> merged.read(reading, () -> daos[reading].streamByDoneStatus(isDone)),
+                    "shard-stream-" + number + "-" + (shard + 1));
+            reader.setDaemon(true);
+            reader.start();
+        }
+        return StreamSupport.stream(merged, false).onClose(merged::close);
+    }
+
+    @Override
+    public Stream<Task> streamByPersonId(int personId){
+        int shard = personStore.shardOf(personId);
+        return personStore.onShard(shard, () -> daos[shard].streamByPersonId(personId));
+    }
+
+    @Override
+    public Optional<Task> findClosestUndoneTaskByPersonId(int personId){
+        int shard = personStore.shardOf(personId);
+        return personStore.onShard(shard, () -> daos[shard].findClosestUndoneTaskByPersonId(personId));
+    }
+
+    /**
+     * The shards hold disjoint persons, so their counts are merged without adding up
+     */
+    @Override
+    public IntIntMap countByPersonId(boolean isDone){
+        return merge(personStore.onEachShard(shard -> daos[shard].countByPersonId(isDone)));
+    }
+
+    @Override
+    public IntIntMap countOverdueByPersonId(LocalDate today){
+        return merge(personStore.onEachShard(shard -> daos[shard].countOverdueByPersonId(today)));
+    }
+
+    @Override
+    public IntObjectMap<LocalDate> findNextDeadlineByPersonId(LocalDate today){
+        return mergeObjects(personStore.onEachShard(shard -> daos[shard].findNextDeadlineByPersonId(today)));
+    }
+
+    @Override
+    public IntObjectMap<TaskStats> findStatsByPersonId(LocalDate today){
+        return mergeObjects(personStore.onEachShard(shard -> daos[shard].findStatsByPersonId(today)));
+    }
+
+    /**
+     * @throws IllegalArgumentException also when the task is assigned to a person on another shard
+     */
+    @Override
+    public Task update(Task task) throws IllegalArgumentException, OptimisticLockException{
+        int shard = shardOfUpdate(task);
+        return personStore.onShard(shard, () -> daos[shard].update(task));
+    }
+
+    /**
+     * Updates each shard's share in its own transaction. When the tasks span several shards the version of
+     * every changed task is checked first, so a stale task normally fails the call before anything is written.
+     * @throws IllegalArgumentException also when any task is assigned to a person on another shard
+     */
+    @Override
+    public List<Task> updateAll(Collection<Task> tasks) throws IllegalArgumentException, OptimisticLockException{
+        List<List<Task>> groups = personStore.emptyGroups();
+        for(Task task : tasks){
+            groups.get(shardOfUpdate(task)).add(task);
+        }
+        List<Integer> used = ShardedPersonStore.usedShards(groups);
+        if(used.size() > 1){
+            List<Integer> ids = new ArrayList<>();
+            for(Task task : tasks){
+                if(task.isDirty()){
+                    ids.add(task.getTaskId());
+                }
+            }
+            Map<Integer, Task> current = findByTaskIds(ids);
+            for(Task task : tasks){
+                Task stored = current.get(task.getTaskId());
+                if(task.isDirty() && (stored == null || task.getVersion() != Task.UNKNOWN_VERSION && stored.getVersion() != task.getVersion())){
+                    throw new OptimisticLockException("tasks", task.getTaskId(), task.getVersion());
+                }
+            }
+        }
+        personStore.onShards(used, shard -> daos[shard].updateAll(groups.get(shard)));
+        return new ArrayList<>(tasks);
+    }
+
+    @Override
+    public int setDone(Collection<Integer> taskIds, boolean done){
+        List<List<Integer>> groups = personStore.emptyGroups();
+        for(Integer taskId : new LinkedHashSet<>(taskIds)){
+            groups.get(personStore.shardOf(taskId)).add(taskId);
+        }
+        int updated = 0;
+        for(int shardUpdated : personStore.onShards(ShardedPersonStore.usedShards(groups), shard -> daos[shard].setDone(groups.get(shard), done))){
+            updated += shardUpdated;
+        }
+        return updated;
+    }
+
+    /**
+     * @return shard of the assignee, or the next shard for a new assignee
+     */
+    private int shardOf(Person assignee){
+        return assignee.getPersonId() != 0 ? personStore.shardOf(assignee.getPersonId()) : personStore.nextShard();
+    }
+
+    /**
+     * @return shard of the task
+     * @throws IllegalArgumentException when the task has no assignee, is not yet persisted or is assigned
+     * to a persisted person on another shard
+     */
+    private int shardOfUpdate(Task task) throws IllegalArgumentException{
+        if(task.getAssigneeId() == 0 && task.getAssignee() == null){
+            throw new IllegalArgumentException("Task has no assignee.");
+        }
+        if(task.getTaskId() == 0){
+            throw new IllegalArgumentException("Task with id "+ task.getTaskId() +" need to be stored in the database before updating");
+        }
+        int shard = personStore.shardOf(task.getTaskId());
+        int assigneeId = task.isAssigneeLoaded() ? task.getAssignee().getPersonId() : task.getAssigneeId();
+        if(assigneeId != 0 && personStore.shardOf(assigneeId) != shard){
+            throw new IllegalArgumentException("Task with id " + task.getTaskId() + " can not be assigned to person "
+                    + assigneeId + " on another shard");
+        }
+        return shard;
+    }
+
+    private static <T> List<T> concat(List<List<T>> lists){
+        int size = 0;
+        for(List<T> list : lists){
+            size += list.size();
+        }
+        List<T> result = new ArrayList<>(size);
+        for(List<T> list : lists){
+            result.addAll(list);
+        }
+        return result;
+    }
+
+    private static IntIntMap merge(List<IntIntMap> maps){
+        IntIntMap result = new IntIntMap();
+        for(IntIntMap map : maps){
+            map.forEach(result::put);
+        }
+        return result;
+    }
+
+    private static <V> IntObjectMap<V> mergeObjects(List<IntObjectMap<V>> maps){
+        IntObjectMap<V> result = new IntObjectMap<>();
+        for(IntObjectMap<V> map : maps){
+            map.forEach(result::put);
+        }
+        return result;
+    }
+
+    /**
+     * Hands out the tasks put into a bounded queue by one reader thread per shard. A reader puts an end
+     * marker when its shard is exhausted, or the failure that stopped it, which the spliterator rethrows.
+     * Closing makes the readers stop and close their shard streams.
+     */
+    private final class MergingSpliterator extends Spliterators.AbstractSpliterator<Task> implements AutoCloseable {
+
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(STREAM_BUFFER);
+        private final Object end = new Object();
+        private final int readers;
+        private int ended;
+        private volatile boolean closed;
+
+        private MergingSpliterator(int readers) {
+            super(Long.MAX_VALUE, Spliterator.NONNULL);
+            this.readers = readers;
+        }
+
+        /**
+         * Runs on the reader thread of the shard
+         */
+        private void read(int shard, Supplier<Stream<Task>> stream){
+            Object last = end;
+            try(Stream<Task> tasks = personStore.onShard(shard, stream)){
+                Iterator<Task> iterator = tasks.iterator();
+                while(!closed && iterator.hasNext()){
+                    if(!offer(iterator.next())){
+                        return;
+                    }
+                }
+            }catch (RuntimeException ex){
+                last = ex;
+            }
+            offer(last);
+        }
+
+        /**
+         * @return false when closed while waiting for room in the queue
+         */
+        private boolean offer(Object item){
+            try{
+                while(!queue.offer(item, 100, TimeUnit.MILLISECONDS)){
+                    if(closed){
+                        return false;
+                    }
+                }
+                return true;
+            }catch (InterruptedException ex){
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Task> action) {
+            while(ended < readers && !closed){
+                Object item;
+                try{
+                    item = queue.take();
+                }catch (InterruptedException ex){
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new IllegalStateException("Interrupted while waiting for shards", ex);
+                }
+                if(item == end){
+                    ended++;
+                }else if(item instanceof RuntimeException){
+                    close();
+                    throw (RuntimeException) item;
+                }else{
+                    action.accept((Task) item);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            queue.clear();
+        }
+    }
+}
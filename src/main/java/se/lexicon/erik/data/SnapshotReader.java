@@ -0,0 +1,137 @@
+package se.lexicon.erik.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+
+import static se.lexicon.erik.data.SnapshotWriter.*;
+
+/**
+ * Reads a snapshot written by {@link SnapshotWriter}. Every block is mapped from the file with a read only
+ * MappedByteBuffer and its columns are copied out with bulk int reads, so no row is parsed field by field
+ * and the page cache serves a recently written snapshot without copying it through the heap first.
+ * Identical strings of one block are handed out as the same String instance.
+ * @author Erik Svensson
+ */
+final class SnapshotReader {
+
+    /**
+     * Receives the rows of a snapshot in file order. Task deadlines are passed as epoch days, NO_DATE for none,
+     * so a receiver that keeps them as numbers does not allocate a LocalDate per row.
+     */
+    interface Sink {
+        /**
+         * Called before the first row
+         */
+        void begin(int persons, int tasks);
+
+        void person(int personId, int version, String firstName, String lastName, LocalDate birthDate);
+
+        void task(int taskId, int version, int personId, int deadline, boolean done, String description);
+    }
+
+    private SnapshotReader() {
+    }
+
+    /**
+     * @param file snapshot file
+     * @param sink receives every row
+     * @return epoch millis of the database clock the snapshot is current to
+     * @throws IOException when the file can not be read, is not a snapshot or is truncated
+     */
+    static long read(Path file, Sink sink) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size < HEADER_BYTES){
+                throw new IOException(file + " is not a snapshot");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if(header.getInt() != MAGIC){
+                throw new IOException(file + " is not a snapshot");
+            }
+            int version = header.getInt();
+            if(version != FORMAT_VERSION){
+                throw new IOException(file + " has snapshot format " + version + ", expected " + FORMAT_VERSION);
+            }
+            long takenAt = header.getLong();
+            sink.begin(header.getInt(), header.getInt());
+
+            int[][] columns = new int[5][BLOCK_ROWS];
+            int persons = 0;
+            int tasks = 0;
+            long position = HEADER_BYTES;
+            while(position + 5 <= size){
+                MappedByteBuffer blockHeader = channel.map(FileChannel.MapMode.READ_ONLY, position, 5);
+                byte kind = blockHeader.get();
+                int length = blockHeader.getInt();
+                position += 5;
+                if(length < 0 || position + length > size){
+                    break;
+                }
+                MappedByteBuffer body = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                position += length;
+                if(kind == END){
+                    if(body.getInt() != persons || body.getInt() != tasks){
+                        throw new IOException(file + " has a corrupt end block");
+                    }
+                    return takenAt;
+                }
+                int rows = body.getInt();
+                if(rows < 0 || rows > BLOCK_ROWS){
+                    throw new IOException(file + " has a corrupt block");
+                }
+                String[] strings = readStrings(body);
+                readColumns(body, columns, rows);
+                if(kind == PERSONS){
+                    for(int row = 0; row < rows; row++){
+                        sink.person(columns[0][row], columns[1][row], string(strings, columns[2][row]),
+                                string(strings, columns[3][row]), date(columns[4][row]));
+                    }
+                    persons += rows;
+                }else if(kind == TASKS){
+                    for(int row = 0; row < rows; row++){
+                        boolean done = (body.get(body.position() + row / 8) & (1 << (row % 8))) != 0;
+                        sink.task(columns[0][row], columns[1][row], columns[2][row], columns[3][row],
+                                done, string(strings, columns[4][row]));
+                    }
+                    tasks += rows;
+                }else{
+                    throw new IOException(file + " has a block of unknown kind " + kind);
+                }
+            }
+            throw new IOException(file + " is truncated");
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer body){
+        String[] strings = new String[body.getInt()];
+        for(int i = 0; i < strings.length; i++){
+            byte[] bytes = new byte[body.getInt()];
+            body.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    private static void readColumns(ByteBuffer body, int[][] columns, int rows){
+        for(int[] column : columns){
+            IntBuffer ints = body.asIntBuffer();
+            ints.get(column, 0, rows);
+            body.position(body.position() + rows * 4);
+        }
+    }
+
+    private static String string(String[] strings, int index){
+        return index == NO_STRING ? null : strings[index];
+    }
+
+    static LocalDate date(int epochDay){
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+}
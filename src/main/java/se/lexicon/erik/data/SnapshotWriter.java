@@ -0,0 +1,212 @@
+package se.lexicon.erik.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the binary snapshot format read by {@link SnapshotReader}. Rows are collected into blocks of
+ * BLOCK_ROWS rows and every full block is written right away, so memory use does not grow with the number
+ * of rows. The row counts in the header are filled in last so a reader can size its structures up front.
+ * The file is written next to its final name and moved in place by finish(), so a crash never
+ * leaves a partial snapshot.
+ * <pre>
+ *     file:    int MAGIC, int FORMAT_VERSION, long taken at (epoch millis), int persons, int tasks, block*, end block
+ *     block:   byte kind, int body length, body
+ *     persons: int rows, string table, int[rows] person_id, version, first_name, last_name, birth_date
+ *     tasks:   int rows, string table, int[rows] task_id, version, person_id, deadline, description,
+ *              byte[(rows + 7) / 8] done bits
+ *     end:     int persons, int tasks
+ *     strings: int count, count times int length and UTF-8 bytes
+ * </pre>
+ * Strings are stored as indexes into the string table of their block, -1 for null, so repeated names and
+ * descriptions are stored once per block. Dates are stored as epoch days, NO_DATE for null.
+ * @author Erik Svensson
+ */
+final class SnapshotWriter implements AutoCloseable {
+
+    static final int MAGIC = 0x50445342;
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_BYTES = 24;
+    static final byte PERSONS = 1;
+    static final byte TASKS = 2;
+    static final byte END = 3;
+    static final int NO_DATE = Integer.MIN_VALUE;
+    static final int NO_STRING = -1;
+    static final int BLOCK_ROWS = 4096;
+
+    private final Path file;
+    private final Path temporary;
+    private final FileChannel channel;
+    private final Block persons = new Block(5);
+    private final Block tasks = new Block(5);
+    private final boolean[] done = new boolean[BLOCK_ROWS];
+    private int personCount;
+    private int taskCount;
+    private boolean finished;
+
+    /**
+     * @param file snapshot file, replaced by finish()
+     * @param takenAt epoch millis of the database clock the snapshot is current to
+     * @throws IOException when the temporary file can not be written
+     */
+    SnapshotWriter(Path file, long takenAt) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        this.file = absolute;
+        this.temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(takenAt).putInt(0).putInt(0).flip();
+        write(header);
+    }
+
+    void person(int personId, int version, String firstName, String lastName, LocalDate birthDate) throws IOException {
+        int row = persons.rows++;
+        persons.columns[0][row] = personId;
+        persons.columns[1][row] = version;
+        persons.columns[2][row] = persons.intern(firstName);
+        persons.columns[3][row] = persons.intern(lastName);
+        persons.columns[4][row] = epochDay(birthDate);
+        personCount++;
+        if(persons.rows == BLOCK_ROWS){
+            flush(PERSONS, persons);
+        }
+    }
+
+    /**
+     * @param deadline epoch day of the deadline, NO_DATE for none
+     */
+    void task(int taskId, int version, int personId, int deadline, boolean isDone, String description) throws IOException {
+        int row = tasks.rows++;
+        tasks.columns[0][row] = taskId;
+        tasks.columns[1][row] = version;
+        tasks.columns[2][row] = personId;
+        tasks.columns[3][row] = deadline;
+        tasks.columns[4][row] = tasks.intern(description);
+        done[row] = isDone;
+        taskCount++;
+        if(tasks.rows == BLOCK_ROWS){
+            flush(TASKS, tasks);
+        }
+    }
+
+    /**
+     * Writes the last blocks and moves the snapshot in place
+     * @throws IOException when writing or moving fails
+     */
+    void finish() throws IOException {
+        flush(PERSONS, persons);
+        flush(TASKS, tasks);
+        ByteBuffer end = ByteBuffer.allocate(1 + 4 + 8);
+        end.put(END).putInt(8).putInt(personCount).putInt(taskCount).flip();
+        write(end);
+        ByteBuffer counts = ByteBuffer.allocate(8);
+        counts.putInt(personCount).putInt(taskCount).flip();
+        while(counts.hasRemaining()){
+            channel.write(counts, HEADER_BYTES - 8 + counts.position());
+        }
+        channel.force(true);
+        channel.close();
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+    }
+
+    /**
+     * Deletes the temporary file unless finish() was called
+     */
+    @Override
+    public void close() throws IOException {
+        if(!finished){
+            channel.close();
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void flush(byte kind, Block block) throws IOException {
+        if(block.rows == 0){
+            return;
+        }
+        int rows = block.rows;
+        int strings = 4;
+        for(byte[] string : block.strings){
+            strings += 4 + string.length;
+        }
+        int length = 4 + strings + block.columns.length * rows * 4 + (kind == TASKS ? (rows + 7) / 8 : 0);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + length);
+        buffer.put(kind).putInt(length).putInt(rows).putInt(block.strings.size());
+        for(byte[] string : block.strings){
+            buffer.putInt(string.length).put(string);
+        }
+        for(int[] column : block.columns){
+            buffer.asIntBuffer().put(column, 0, rows);
+            buffer.position(buffer.position() + rows * 4);
+        }
+        if(kind == TASKS){
+            for(int from = 0; from < rows; from += 8){
+                int bits = 0;
+                for(int i = from; i < Math.min(from + 8, rows); i++){
+                    if(done[i]){
+                        bits |= 1 << (i - from);
+                    }
+                }
+                buffer.put((byte) bits);
+            }
+        }
+        buffer.flip();
+        write(buffer);
+        block.clear();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    static int epochDay(LocalDate date){
+        return date == null ? NO_DATE : (int) date.toEpochDay();
+    }
+
+    /**
+     * Columns and string table of the block being collected
+     */
+    private static final class Block {
+        private final int[][] columns;
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<byte[]> strings = new ArrayList<>();
+        private int rows;
+
+        private Block(int columnCount) {
+            this.columns = new int[columnCount][BLOCK_ROWS];
+        }
+
+        private int intern(String string){
+            if(string == null){
+                return NO_STRING;
+            }
+            Integer index = indexes.get(string);
+            if(index == null){
+                index = strings.size();
+                indexes.put(string, index);
+                strings.add(string.getBytes(StandardCharsets.UTF_8));
+            }
+            return index;
+        }
+
+        private void clear(){
+            indexes.clear();
+            strings.clear();
+            rows = 0;
+        }
+    }
+}
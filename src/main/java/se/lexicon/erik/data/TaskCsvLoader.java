@@ -0,0 +1,387 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Streams tasks from a CSV file into the database. The file is read line by line and written in chunks,
+ * so memory use depends on the chunk size and not on the size of the file.
+ *
+ * The first line is a header naming the columns, in any order:
+ * <pre>
+ *     description,deadline,done,first_name,last_name,birth_date
+ * </pre>
+ * deadline and birth_date are ISO dates or empty, done is true/false or 1/0 and defaults to false.
+ * Fields containing commas or quotes are quoted with " and quotes inside them are doubled. Line breaks
+ * inside fields are not supported.
+ *
+ * Assignees are matched on first name, last name and birth date. A person that does not exist yet is
+ * created once and remembered in a bounded local map, so later rows for the same person neither query nor
+ * insert. Each chunk of tasks is written as one multi-row INSERT in the same transaction as its new assignees.
+ *
+ * With a checkpoint file the number of loaded rows is written to it after every committed chunk, and a
+ * later run with the same checkpoint continues after those rows. A crash between a commit and the checkpoint
+ * write loads that one chunk again. Given an {@link UndoneTaskIndex}, the assignees of the undone tasks in a
+ * chunk are invalidated in it after the chunk commits, so the index warms them again with the loaded tasks.
+ * @author Erik Svensson
+ */
+public class TaskCsvLoader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    public static final int DEFAULT_PERSON_CACHE_SIZE = 100_000;
+
+    private static final List<String> COLUMNS = Arrays.asList("description", "deadline", "done", "first_name", "last_name", "birth_date");
+    private static final String CHECKPOINT_SOURCE = "source";
+    private static final String CHECKPOINT_ROWS = "rows";
+
+    private final PersonDao personDao;
+    private final UndoneTaskIndex undoneTaskIndex;
+    private final int chunkSize;
+    private final Map<PersonKey, Integer> personIds;
+    private final String chunkInsert;
+
+    public TaskCsvLoader() {
+        this(new PersonDao(), DEFAULT_CHUNK_SIZE, DEFAULT_PERSON_CACHE_SIZE);
+    }
+
+    /**
+     * @param personDao PersonDao whose cache and index learn about created assignees
+     * @param chunkSize rows per transaction and multi-row INSERT
+     * @param personCacheSize max number of assignee ids remembered between chunks
+     * @throws IllegalArgumentException when chunkSize or personCacheSize is less than 1
+     */
+    public TaskCsvLoader(PersonDao personDao, int chunkSize, int personCacheSize) throws IllegalArgumentException{
+        this(personDao, null, chunkSize, personCacheSize);
+    }
+
+    /**
+     * @param personDao PersonDao whose cache and index learn about created assignees
+     * @param undoneTaskIndex index invalidated for the assignees of loaded undone tasks, null for none
+     * @param chunkSize rows per transaction and multi-row INSERT
+     * @param personCacheSize max number of assignee ids remembered between chunks
+     * @throws IllegalArgumentException when chunkSize or personCacheSize is less than 1
+     */
+    public TaskCsvLoader(PersonDao personDao, UndoneTaskIndex undoneTaskIndex, int chunkSize, int personCacheSize) throws IllegalArgumentException{
+        if(chunkSize < 1 || personCacheSize < 1){
+            throw new IllegalArgumentException("Chunk size and person cache size need to be positive");
+        }
+        this.personDao = personDao;
+        this.undoneTaskIndex = undoneTaskIndex;
+        this.chunkSize = chunkSize;
+        this.personIds = new LinkedHashMap<PersonKey, Integer>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PersonKey, Integer> eldest) {
+                return size() > personCacheSize;
+            }
+        };
+        this.chunkInsert = Queries.PERSIST_TASK.multiRow(chunkSize);
+    }
+
+    /**
+     * Loads all rows of the file
+     * @param csv CSV file with header
+     * @return LoadReport with counts and throughput
+     * @throws IOException when the file can not be read
+     * @throws SQLException when writing a chunk fails, earlier chunks stay committed
+     * @throws IllegalArgumentException when the header or a row is malformed
+     */
+    public LoadReport load(Path csv) throws IOException, SQLException, IllegalArgumentException{
+        return load(csv, null);
+    }
+
+    /**
+     * Loads the rows of the file that are not yet recorded in the checkpoint
+     * @param csv CSV file with header
+     * @param checkpoint file recording loaded rows, created when missing, null to load without checkpoint
+     * @return LoadReport with counts and throughput
+     * @throws IOException when the file can not be read or the checkpoint not written
+     * @throws SQLException when writing a chunk fails, earlier chunks stay committed and checkpointed
+     * @throws IllegalArgumentException when the header or a row is malformed or the checkpoint belongs to another file
+     */
+    public LoadReport load(Path csv, Path checkpoint) throws IOException, SQLException, IllegalArgumentException{
+        long start = System.nanoTime();
+        String source = csv.toAbsolutePath().normalize().toString();
+        long loadedRows = checkpoint == null ? 0 : readCheckpoint(checkpoint, source);
+        long tasksLoaded = 0;
+        long personsCreated = 0;
+        long row = 0;
+        List<Task> chunk = new ArrayList<>(chunkSize);
+
+        try(BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)){
+            int[] columns = readHeader(reader.readLine());
+            long lineNumber = 1;
+            String line;
+            while((line = reader.readLine()) != null){
+                lineNumber++;
+                if(line.trim().isEmpty()){
+                    continue;
+                }
+                row++;
+                if(row <= loadedRows){
+                    continue;
+                }
+                chunk.add(parseTask(line, columns, lineNumber));
+                if(chunk.size() == chunkSize){
+                    personsCreated += writeChunk(chunk);
+                    tasksLoaded += chunk.size();
+                    chunk.clear();
+                    if(checkpoint != null){
+                        writeCheckpoint(checkpoint, source, row);
+                    }
+                }
+            }
+        }
+        if(!chunk.isEmpty()){
+            personsCreated += writeChunk(chunk);
+            tasksLoaded += chunk.size();
+            if(checkpoint != null){
+                writeCheckpoint(checkpoint, source, row);
+            }
+        }
+        return new LoadReport(tasksLoaded, personsCreated, Math.min(row, loadedRows), System.nanoTime() - start);
+    }
+
+    /**
+     * Writes new assignees and the tasks of the chunk in one transaction and invalidates the assignees of
+     * its undone tasks in the UndoneTaskIndex after the commit
+     * @return number of created assignees
+     */
+    private int writeChunk(List<Task> chunk) throws SQLException {
+        Map<PersonKey, Integer> resolved = new HashMap<>();
+        List<Person> created = Database.inTransaction(connection -> {
+            List<Person> newPeople = resolveAssignees(connection, chunk, resolved);
+            insertTasks(connection, chunk, resolved);
+            if(undoneTaskIndex != null){
+                Set<Integer> personIds = new LinkedHashSet<>();
+                for(Task task : chunk){
+                    if(!task.isDone()){
+                        personIds.add(resolved.get(new PersonKey(task.getAssignee())));
+                    }
+                }
+                UnitOfWork.afterCommit(() -> personIds.forEach(undoneTaskIndex::invalidate));
+            }
+            return newPeople;
+        });
+        personIds.putAll(resolved);
+        personDao.writtenAll(created);
+        return created.size();
+    }
+
+    private List<Person> resolveAssignees(Connection connection, List<Task> chunk, Map<PersonKey, Integer> resolved) throws SQLException {
+        Map<PersonKey, Person> missing = new LinkedHashMap<>();
+        try(
+                PreparedStatement withBirthDate = connection.prepareStatement(Queries.FIND_PERSON_BY_NAME_AND_BIRTH_DATE.getQuery());
+                PreparedStatement withoutBirthDate = connection.prepareStatement(Queries.FIND_PERSON_BY_NAME_WITHOUT_BIRTH_DATE.getQuery())
+                ){
+            for(Task task : chunk){
+                PersonKey key = new PersonKey(task.getAssignee());
+                if(resolved.containsKey(key) || missing.containsKey(key)){
+                    continue;
+                }
+                Integer known = personIds.get(key);
+                if(known == null){
+                    known = findPersonId(key.birthDate == null ? withoutBirthDate : withBirthDate, key);
+                }
+                if(known == null){
+                    missing.put(key, task.getAssignee());
+                }else{
+                    resolved.put(key, known);
+                }
+            }
+        }
+        List<Person> created = personDao.createAll(connection, missing.values(), chunkSize);
+        for(Person person : created){
+            resolved.put(new PersonKey(person), person.getPersonId());
+        }
+        return created;
+    }
+
+    private Integer findPersonId(PreparedStatement statement, PersonKey key) throws SQLException {
+        statement.setString(1, key.firstName);
+        statement.setString(2, key.lastName);
+        if(key.birthDate != null){
+            statement.setObject(3, key.birthDate);
+        }
+        try(ResultSet resultSet = statement.executeQuery()){
+            return resultSet.next() ? resultSet.getInt("person_id") : null;
+        }
+    }
+
+    private void insertTasks(Connection connection, List<Task> chunk, Map<PersonKey, Integer> resolved) throws SQLException {
+        String sql = chunk.size() == chunkSize ? chunkInsert : Queries.PERSIST_TASK.multiRow(chunk.size());
+        try(PreparedStatement statement = connection.prepareStatement(sql)){
+            int parameter = 1;
+            for(Task task : chunk){
+                statement.setString(parameter++, task.getDescription());
+                statement.setObject(parameter++, task.getDeadLine());
+                statement.setBoolean(parameter++, task.isDone());
+                statement.setInt(parameter++, resolved.get(new PersonKey(task.getAssignee())));
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    private static int[] readHeader(String header) throws IllegalArgumentException{
+        if(header == null){
+            throw new IllegalArgumentException("CSV file is empty");
+        }
+        List<String> names = parseLine(header.startsWith("\uFEFF") ? header.substring(1) : header, 1);
+        int[] columns = new int[COLUMNS.size()];
+        for(int i = 0; i < columns.length; i++){
+            columns[i] = names.indexOf(COLUMNS.get(i));
+        }
+        if(columns[0] < 0 || columns[3] < 0 || columns[4] < 0){
+            throw new IllegalArgumentException("CSV header needs description, first_name and last_name columns, was: " + header);
+        }
+        return columns;
+    }
+
+    private static Task parseTask(String line, int[] columns, long lineNumber) throws IllegalArgumentException{
+        List<String> fields = parseLine(line, lineNumber);
+        try{
+            Person assignee = new Person(field(fields, columns[3]), field(fields, columns[4]), date(field(fields, columns[5])));
+            return new Task(0, field(fields, columns[0]), date(field(fields, columns[1])), bool(field(fields, columns[2]), lineNumber), assignee);
+        }catch (DateTimeParseException ex){
+            throw new IllegalArgumentException("Invalid date on line " + lineNumber + ": " + ex.getParsedString(), ex);
+        }
+    }
+
+    /**
+     * Splits one CSV line into fields, honouring double quoted fields with "" as escaped quote
+     */
+    static List<String> parseLine(String line, long lineNumber) throws IllegalArgumentException{
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for(int i = 0; i < line.length(); i++){
+            char c = line.charAt(i);
+            if(quoted){
+                if(c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"'){
+                    field.append('"');
+                    i++;
+                }else if(c == '"'){
+                    quoted = false;
+                }else{
+                    field.append(c);
+                }
+            }else if(c == '"'){
+                quoted = true;
+            }else if(c == ','){
+                fields.add(field.toString());
+                field.setLength(0);
+            }else{
+                field.append(c);
+            }
+        }
+        if(quoted){
+            throw new IllegalArgumentException("Unterminated quote on line " + lineNumber);
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String field(List<String> fields, int column){
+        if(column < 0 || column >= fields.size()){
+            return null;
+        }
+        String value = fields.get(column).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static LocalDate date(String value){
+        return value == null ? null : LocalDate.parse(value);
+    }
+
+    private static boolean bool(String value, long lineNumber) throws IllegalArgumentException{
+        if(value == null || value.equals("0") || value.equalsIgnoreCase("false")){
+            return false;
+        }
+        if(value.equals("1") || value.equalsIgnoreCase("true")){
+            return true;
+        }
+        throw new IllegalArgumentException("Invalid done value on line " + lineNumber + ": " + value);
+    }
+
+    private static long readCheckpoint(Path checkpoint, String source) throws IOException, IllegalArgumentException{
+        if(!Files.exists(checkpoint)){
+            return 0;
+        }
+        Properties properties = new Properties();
+        try(Reader reader = Files.newBufferedReader(checkpoint, StandardCharsets.UTF_8)){
+            properties.load(reader);
+        }
+        if(!source.equals(properties.getProperty(CHECKPOINT_SOURCE))){
+            throw new IllegalArgumentException("Checkpoint " + checkpoint + " belongs to " + properties.getProperty(CHECKPOINT_SOURCE));
+        }
+        return Long.parseLong(properties.getProperty(CHECKPOINT_ROWS, "0"));
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file and moves it in place, so a crash never leaves a partial checkpoint
+     */
+    private static void writeCheckpoint(Path checkpoint, String source, long rows) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(CHECKPOINT_SOURCE, source);
+        properties.setProperty(CHECKPOINT_ROWS, String.valueOf(rows));
+        Path absolute = checkpoint.toAbsolutePath();
+        Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try(Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)){
+            properties.store(writer, "TaskCsvLoader checkpoint");
+        }
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static final class PersonKey {
+        private final String firstName;
+        private final String lastName;
+        private final LocalDate birthDate;
+        private final int hash;
+
+        private PersonKey(Person person) {
+            this.firstName = person.getFirstName();
+            this.lastName = person.getLastName();
+            this.birthDate = person.getBirthDate();
+            this.hash = Objects.hash(firstName, lastName, birthDate);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PersonKey)) return false;
+            PersonKey other = (PersonKey) o;
+            return Objects.equals(firstName, other.firstName) &&
+                    Objects.equals(lastName, other.lastName) &&
+                    Objects.equals(birthDate, other.birthDate);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,19 +1,93 @@
 package se.lexicon.erik.data;
 
+import se.lexicon.erik.model.Person;
 import se.lexicon.erik.model.Task;
+import se.lexicon.erik.model.TaskView;
 
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * @author Erik Svensson
  */
-public class TaskDao {
+public class TaskDao implements TaskStore {
 
-    private PersonDao personDao = new PersonDao();
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private final PersonDao personDao;
+    private final UndoneTaskIndex undoneTaskIndex;
+    private int batchSize = PersonDao.DEFAULT_BATCH_SIZE;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private boolean lazyAssignees;
+
+    public TaskDao() {
+        this(new PersonDao());
+    }
+
+    /**
+     * @param personDao PersonDao used to persist and update assignees
+     */
+    public TaskDao(PersonDao personDao) {
+        this(personDao, null);
+    }
+
+    /**
+     * @param personDao PersonDao used to persist and update assignees
+     * @param undoneTaskIndex index answering findClosestUndoneTaskByPersonId, null to always query the database
+     */
+    public TaskDao(PersonDao personDao, UndoneTaskIndex undoneTaskIndex) {
+        this.personDao = personDao;
+        this.undoneTaskIndex = undoneTaskIndex;
+    }
+
+    /**
+     * @return Optional of the UndoneTaskIndex used by findClosestUndoneTaskByPersonId
+     */
+    public Optional<UndoneTaskIndex> getUndoneTaskIndex() {
+        return Optional.ofNullable(undoneTaskIndex);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize max number of statements sent in one executeBatch() call by createAll and updateAll
+     * @throws IllegalArgumentException when batchSize is less than 1
+     */
+    public void setBatchSize(int batchSize) throws IllegalArgumentException{
+        if(batchSize < 1){
+            throw new IllegalArgumentException("Batch size needs to be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public boolean isLazyAssignees() {
+        return lazyAssignees;
+    }
+
+    /**
+     * With lazy assignees findByTaskId, findByTaskIds, findByDoneStatus and findByPersonId, pages included,
+     * read only the tasks table. Each returned Task knows the personId of its assignee and the first
+     * getAssignee() call on any of them loads the assignees of the whole result with one findByIds.
+     * Callers that never touch the assignee pay only for the tasks query. Streams and
+     * findClosestUndoneTaskByPersonId always load the assignee.
+     * @param lazyAssignees true to load assignees on first access, false to join them in (default)
+     */
+    public void setLazyAssignees(boolean lazyAssignees) {
+        this.lazyAssignees = lazyAssignees;
+    }
 
     /**
      * Responsible for persisting a new Task to the database. The task need to have a Person assigned to it.
@@ -21,10 +95,11 @@ public class TaskDao {
      * @param newTask - Non persisted Task object
      * @throws IllegalArgumentException when no assignee to the task is detected
      * @throws IllegalArgumentException when Task is already persisted
+     * @throws UncheckedSQLException when the write fails, nothing is written and newTask keeps its assignee
      * @return Persisted task
      *
      */
-    public Task create(Task newTask) throws IllegalArgumentException{
+    public Task create(Task newTask) throws IllegalArgumentException, UncheckedSQLException{
         if(newTask.getAssignee() == null){
             throw new IllegalArgumentException("Task had no assignee.");
         }
@@ -32,39 +107,25 @@ public class TaskDao {
             throw new IllegalArgumentException("Task with id "+ newTask.getTaskId() +" is already created in the database");
         }
 
-        if(newTask.getAssignee().getPersonId() == 0){
-            newTask.setAssignee(personDao.create(newTask.getAssignee()));
-        }
-
-        ResultSet keySet = null;
-
-        try(
-                Connection connection = Database.getConnection();
-                PreparedStatement statement = createPersistStatement(connection, newTask)
-                ){
-
-            statement.execute();
-            keySet = statement.getGeneratedKeys();
-            int taskId = 0;
-            while(keySet.next()){
-                taskId = keySet.getInt(1);
-            }
-
-            newTask = new Task(taskId, newTask.getDescription(), newTask.getDeadLine(),newTask.isDone(),newTask.getAssignee());
-
-        }catch (SQLException ex){
-            ex.printStackTrace();
-        }finally {
-            if(keySet != null){
-                try {
-                    keySet.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
+        try{
+            return Database.inTransaction(connection -> {
+                assign(newTask, personDao.create(newTask.getAssignee()));
+                try(PreparedStatement statement = createPersistStatement(connection, newTask)){
+                    statement.execute();
+                    int taskId = 0;
+                    try(ResultSet keySet = statement.getGeneratedKeys()){
+                        while(keySet.next()){
+                            taskId = keySet.getInt(1);
+                        }
+                    }
+                    Task persisted = new Task(taskId, newTask.getDescription(), newTask.getDeadLine(), newTask.isDone(), newTask.getAssignee(), 0);
+                    index(persisted);
+                    return persisted;
                 }
-            }
+            });
+        }catch (SQLException ex){
+            throw new UncheckedSQLException(ex);
         }
-
-        return newTask;
     }
 
     /**
@@ -74,14 +135,14 @@ public class TaskDao {
      */
     public Optional<Task> findByTaskId(int taskId){
         Task task = null;
-        try(Connection connection = Database.getConnection();
-            PreparedStatement statement = createFindByTaskId(connection, taskId);
+        Queries query = select(Queries.FIND_TASK_JOIN_PERSON_BY_TASK_ID, Queries.FIND_TASK_BY_TASK_ID);
+        try(Connection connection = Database.getConnection(query);
+            PreparedStatement statement = createFindByTaskId(connection, query, taskId);
             ResultSet resultSet = statement.executeQuery();
         ) {
-
+            RowMapper<Task> mapper = taskMapper();
             while(resultSet.next()){
-                task = createTaskFromResultSet(resultSet);
-                task.setAssignee(personDao.findById(resultSet.getInt("person_id")).orElseThrow(IllegalArgumentException::new));
+                task = mapper.map(resultSet);
             }
 
         } catch (Exception e) {
@@ -90,6 +151,54 @@ public class TaskDao {
         return task == null ? Optional.empty() : Optional.of(task);
     }
 
+    /**
+     * Finds many tasks with WHERE task_id IN (...) queries of at most batchSize ids instead of one query per id.
+     * Tasks of the same person share the same assignee instance.
+     * @param taskIds taskIds to look up, duplicates are looked up once
+     * @return found tasks keyed by taskId in the order of taskIds, missing ids are left out
+     */
+    public Map<Integer, Task> findByTaskIds(Collection<Integer> taskIds){
+        try{
+            return loadByTaskIds(taskIds);
+        }catch (SQLException ex){
+            ex.printStackTrace();
+            return new LinkedHashMap<>();
+        }
+    }
+
+    /**
+     * findByTaskIds that reports failures, used by BatchLoader to fail the waiting lookups
+     */
+    Map<Integer, Task> loadByTaskIds(Collection<Integer> taskIds) throws SQLException {
+        Map<Integer, Task> result = new LinkedHashMap<>();
+        List<Integer> ids = new ArrayList<>(new LinkedHashSet<>(taskIds));
+        if(ids.isEmpty()){
+            return result;
+        }
+        for(Integer taskId : ids){
+            result.put(taskId, null);
+        }
+        Queries query = select(Queries.FIND_TASKS_JOIN_PERSON_WHERE_TASK_ID_IN, Queries.FIND_TASKS_WHERE_TASK_ID_IN);
+        try(Connection connection = Database.getConnection(query)){
+            RowMapper<Task> mapper = taskMapper();
+            for(int from = 0; from < ids.size(); from += batchSize){
+                List<Integer> chunk = ids.subList(from, Math.min(from + batchSize, ids.size()));
+                int size = InList.paddedSize(chunk.size(), batchSize);
+                try(PreparedStatement statement = connection.prepareStatement(query.withInList(size))){
+                    InList.setInts(statement, 1, chunk, size);
+                    try(ResultSet resultSet = statement.executeQuery()){
+                        while(resultSet.next()){
+                            Task task = mapper.map(resultSet);
+                            result.put(task.getTaskId(), task);
+                        }
+                    }
+                }
+            }
+        }
+        result.values().removeIf(task -> task == null);
+        return result;
+    }
+
     /**
      * Finds all Task items with matching done status
      * @param  isDone  boolean isDone
@@ -97,15 +206,15 @@ public class TaskDao {
      */
     public List<Task>  findByDoneStatus(boolean isDone){
         List<Task> result = new ArrayList<>();
+        Queries query = select(Queries.SELECT_FROM_TASKS_JOIN_PERSONS_WHERE_DONE, Queries.SELECT_FROM_TASKS_WHERE_DONE);
         try(
-                Connection connection = Database.getConnection();
-                PreparedStatement statement = createFindByDone(connection, isDone);
+                Connection connection = Database.getConnection(query);
+                PreparedStatement statement = createFindByDone(connection, query, isDone);
                 ResultSet resultSet = statement.executeQuery()
                 ) {
+            RowMapper<Task> mapper = taskMapper();
             while(resultSet.next()){
-                Task task = createTaskFromResultSet(resultSet);
-                task.setAssignee(personDao.findById(resultSet.getInt("person_id")).orElseThrow(IllegalArgumentException::new));
-                result.add(task);
+                result.add(mapper.map(resultSet));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -120,15 +229,15 @@ public class TaskDao {
      */
     public List<Task> findByPersonId(int personId){
         List<Task> result = new ArrayList<>();
+        Queries query = select(Queries.SELECT_FROM_TASKS_JOIN_PERSONS_WHERE_PERSON_ID, Queries.SELECT_FROM_TASKS_WHERE_PERSON_ID);
         try(
-                Connection connection = Database.getConnection();
-                PreparedStatement statement = createFindByPersonId(connection, personId);
+                Connection connection = Database.getConnection(query);
+                PreparedStatement statement = createFindByPersonId(connection, query, personId);
                 ResultSet resultSet = statement.executeQuery();
                 ) {
+            RowMapper<Task> mapper = taskMapper();
             while(resultSet.next()){
-                Task task = createTaskFromResultSet(resultSet);
-                task.setAssignee(personDao.findById(personId).orElseThrow(IllegalArgumentException::new));
-                result.add(task);
+                result.add(mapper.map(resultSet));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -137,21 +246,222 @@ public class TaskDao {
     }
 
     /**
-     * Finds the the closest Task with done status false that is assigned to a particular Person
+     * Finds all tasks with matching done status as read-only views. Allocates less than
+     * findByDoneStatus(boolean) since assignees are shared and no mutable copies are made.
+     * @param isDone boolean isDone
+     * @return List of TaskView for all matching tasks
+     */
+    public List<TaskView> findViewsByDoneStatus(boolean isDone){
+        List<TaskView> result = new ArrayList<>();
+        try(
+                Connection connection = Database.getConnection(Queries.SELECT_FROM_TASKS_JOIN_PERSONS_WHERE_DONE);
+                PreparedStatement statement = createFindByDone(connection, Queries.SELECT_FROM_TASKS_JOIN_PERSONS_WHERE_DONE, isDone);
+                ResultSet resultSet = statement.executeQuery()
+                ) {
+            TaskViewMapper mapper = new TaskViewMapper();
+            while(resultSet.next()){
+                result.add(mapper.map(resultSet));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    /**
+     * Finds all tasks assigned to a person as read-only views ordered by deadline
+     * @param personId int personId
+     * @return List of TaskView for all tasks assigned to the person
+     */
+    public List<TaskView> findViewsByPersonId(int personId){
+        List<TaskView> result = new ArrayList<>();
+        try(
+                Connection connection = Database.getConnection(Queries.SELECT_FROM_TASKS_JOIN_PERSONS_WHERE_PERSON_ID);
+                PreparedStatement statement = createFindByPersonId(connection, Queries.SELECT_FROM_TASKS_JOIN_PERSONS_WHERE_PERSON_ID, personId);
+                ResultSet resultSet = statement.executeQuery()
+                ) {
+            TaskViewMapper mapper = new TaskViewMapper();
+            while(resultSet.next()){
+                result.add(mapper.map(resultSet));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    /**
+     * Finds one page of Task items with matching done status ordered by deadline and taskId.
+     * Uses keyset pagination so the last page costs the same as the first.
+     * @param isDone boolean isDone
+     * @param pageSize max number of items on the page
+     * @param pageToken token from the previous page, null for the first page
+     * @return Page of matching Task items
+     * @throws IllegalArgumentException when pageSize is less than 1 or pageToken is invalid
+     */
+    public Page<Task> findByDoneStatus(boolean isDone, int pageSize, String pageToken) throws IllegalArgumentException{
+        return findPage(select(Queries.SELECT_TASKS_PAGE_WHERE_DONE_FIRST, Queries.SELECT_TASKS_ONLY_PAGE_WHERE_DONE_FIRST),
+                select(Queries.SELECT_TASKS_PAGE_WHERE_DONE_AFTER, Queries.SELECT_TASKS_ONLY_PAGE_WHERE_DONE_AFTER),
+                statement -> statement.setBoolean(1, isDone), pageSize, pageToken);
+    }
+
+    /**
+     * Finds one page of Task items assigned to a particular Person ordered by deadline and taskId.
+     * Uses keyset pagination so the last page costs the same as the first.
+     * @param personId int personId
+     * @param pageSize max number of items on the page
+     * @param pageToken token from the previous page, null for the first page
+     * @return Page of matching Task items
+     * @throws IllegalArgumentException when pageSize is less than 1 or pageToken is invalid
+     */
+    public Page<Task> findByPersonId(int personId, int pageSize, String pageToken) throws IllegalArgumentException{
+        return findPage(select(Queries.SELECT_TASKS_PAGE_WHERE_PERSON_ID_FIRST, Queries.SELECT_TASKS_ONLY_PAGE_WHERE_PERSON_ID_FIRST),
+                select(Queries.SELECT_TASKS_PAGE_WHERE_PERSON_ID_AFTER, Queries.SELECT_TASKS_ONLY_PAGE_WHERE_PERSON_ID_AFTER),
+                statement -> statement.setInt(1, personId), pageSize, pageToken);
+    }
+
+    /**
+     * @param filter sets the first parameter of both queries
+     */
+    private Page<Task> findPage(Queries first, Queries after, ParameterSetter filter, int pageSize, String pageToken) throws IllegalArgumentException{
+        if(pageSize < 1){
+            throw new IllegalArgumentException("Page size needs to be at least 1");
+        }
+        PageToken position = pageToken == null ? null : PageToken.decode(pageToken);
+        LocalDate deadline = position == null ? null : position.getDateKey();
+
+        List<Task> items = new ArrayList<>(pageSize + 1);
+        try(
+                Connection connection = Database.getConnection(position == null ? first : after);
+                PreparedStatement statement = connection.prepareStatement(position == null ? first.getQuery() : after.getQuery())
+                ){
+            filter.set(statement);
+            int parameter = 2;
+            if(position != null){
+                statement.setObject(parameter++, deadline);     //deadline >=
+                statement.setObject(parameter++, deadline);     //deadline >
+                statement.setInt(parameter++, position.getId()); //task_id >
+            }
+            statement.setInt(parameter, pageSize + 1);
+            try(ResultSet resultSet = statement.executeQuery()){
+                RowMapper<Task> mapper = taskMapper();
+                while(resultSet.next()){
+                    items.add(mapper.map(resultSet));
+                }
+            }
+        }catch (SQLException ex){
+            ex.printStackTrace();
+        }
+
+        String nextPageToken = null;
+        if(items.size() > pageSize){
+            items.remove(pageSize);
+            Task last = items.get(pageSize - 1);
+            nextPageToken = PageToken.encode(last.getTaskId(), last.getDeadLine());
+        }
+        return new Page<>(items, nextPageToken);
+    }
+
+    /**
+     * Streams all Task items with matching done status without loading them all into memory.
+     * The rows are read through a forward only, read only cursor fetching {@link #getFetchSize()} rows at a time.
+     * The connection is held until the stream is exhausted or closed, so use try-with-resources.
+     * @param isDone boolean isDone
+     * @return Stream of matching Task items, must be closed
+     * @throws UncheckedSQLException when reading the next row fails
+     */
+    public Stream<Task> streamByDoneStatus(boolean isDone){
+        return stream(Queries.SELECT_FROM_TASKS_JOIN_PERSONS_WHERE_DONE, statement -> statement.setBoolean(1, isDone));
+    }
+
+    /**
+     * Streams all Task items assigned to a particular Person ordered by deadline without loading them all into memory.
+     * The connection is held until the stream is exhausted or closed, so use try-with-resources.
+     * @param personId int personId
+     * @return Stream of matching Task items, must be closed
+     * @throws UncheckedSQLException when reading the next row fails
+     */
+    public Stream<Task> streamByPersonId(int personId){
+        return stream(Queries.SELECT_FROM_TASKS_JOIN_PERSONS_WHERE_PERSON_ID, statement -> statement.setInt(1, personId));
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Number of rows the driver fetches per round-trip when streaming. With MySQL Connector/J a positive
+     * fetch size needs useCursorFetch=true, which {@link Database} sets for MySQL urls unless configured
+     * otherwise. Integer.MIN_VALUE streams row by row without it.
+     * @param fetchSize rows per fetch
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    private Stream<Task> stream(Queries query, ParameterSetter parameters){
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try{
+            connection = Database.getConnection(query);
+            statement = connection.prepareStatement(query.getQuery(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            parameters.set(statement);
+            ResultSet resultSet = statement.executeQuery();
+            return new ResultSetSpliterator<>(connection, statement, resultSet, streamingTaskMapper()).stream();
+        }catch (SQLException ex){
+            ex.printStackTrace();
+            try{
+                if(statement != null){
+                    statement.close();
+                }
+                if(connection != null){
+                    connection.close();
+                }
+            }catch (SQLException e){
+                e.printStackTrace();
+            }
+        }
+        return Stream.empty();
+    }
+
+    /**
+     * Mapper that shares the assignee between consecutive rows of the same person while keeping
+     * only one Person in memory, so memory use does not grow with the number of rows.
+     */
+    private RowMapper<Task> streamingTaskMapper(){
+        Map<Integer, Person> previous = new HashMap<>(2);
+        return resultSet -> {
+            if(!previous.containsKey(resultSet.getInt("person_id"))){
+                previous.clear();
+            }
+            return createTaskWithAssigneeFromResultSet(resultSet, previous);
+        };
+    }
+
+    /**
+     * Finds the the closest Task with done status false that is assigned to a particular Person. Tasks without
+     * deadline are left out, on equal distance the earlier deadline and then the lower taskId wins, like
+     * in the UndoneTaskIndex.
      * @param personId int personId belonging to Person
      * @return Optional of task if matching task was found Optional.empty otherwise
      */
     public Optional<Task> findClosestUndoneTaskByPersonId(int personId){
+        if(undoneTaskIndex != null && warmIndex(personId)){
+            return undoneTaskIndex.findClosest(personId, LocalDate.now()).map(task -> new Task(
+                    task.getTaskId(), task.getDescription(), task.getDeadLine(), task.isDone(),
+                    personDao.findById(personId).orElseThrow(IllegalArgumentException::new), task.getVersion()));
+        }
+
         Task task = null;
         try(
-                Connection connection = Database.getConnection();
+                Connection connection = Database.getConnection(Queries.SELECT_CLOSEST_UNDONE_TASK_JOIN_PERSON_BY_PERSON_ID);
                 PreparedStatement statement = createClosestUndoneTaskByPersonId(connection, personId);
                 ResultSet resultSet = statement.executeQuery();
                 ){
 
             while(resultSet.next()){
-                task = createTaskFromResultSet(resultSet);
-                task.setAssignee(personDao.findById(personId).orElseThrow(IllegalArgumentException::new));
+                task = createTaskWithAssigneeFromResultSet(resultSet, new HashMap<>());
             }
 
         } catch (Exception e) {
@@ -160,79 +470,618 @@ public class TaskDao {
         return task != null ? Optional.of(task) : Optional.empty();
     }
 
+    /**
+     * Counts tasks per person with one GROUP BY in the database
+     * @param isDone boolean isDone
+     * @return number of tasks with matching done status keyed by personId, persons without any are left out
+     */
+    public IntIntMap countByPersonId(boolean isDone){
+        return countByPersonId(Queries.COUNT_TASKS_GROUP_BY_PERSON_ID_WHERE_DONE, statement -> statement.setBoolean(1, isDone));
+    }
+
+    /**
+     * Counts undone tasks past their deadline per person with one GROUP BY in the database
+     * @param today tasks with a deadline before this day are overdue
+     * @return number of overdue tasks keyed by personId, persons without any are left out
+     */
+    public IntIntMap countOverdueByPersonId(LocalDate today){
+        return countByPersonId(Queries.COUNT_OVERDUE_TASKS_GROUP_BY_PERSON_ID, statement -> statement.setObject(1, today));
+    }
+
+    private IntIntMap countByPersonId(Queries query, ParameterSetter parameters){
+        IntIntMap result = new IntIntMap();
+        try(
+                Connection connection = Database.getConnection(query);
+                PreparedStatement statement = connection.prepareStatement(query.getQuery())
+                ){
+            parameters.set(statement);
+            try(ResultSet resultSet = statement.executeQuery()){
+                while(resultSet.next()){
+                    result.put(resultSet.getInt(1), resultSet.getInt(2));
+                }
+            }
+        }catch (SQLException ex){
+            ex.printStackTrace();
+        }
+        return result;
+    }
+
+    /**
+     * Finds the earliest upcoming deadline of undone tasks per person with one GROUP BY in the database
+     * @param today first day counted as upcoming
+     * @return next deadline keyed by personId, persons without upcoming undone tasks are left out
+     */
+    public IntObjectMap<LocalDate> findNextDeadlineByPersonId(LocalDate today){
+        IntObjectMap<LocalDate> result = new IntObjectMap<>();
+        try(
+                Connection connection = Database.getConnection(Queries.SELECT_NEXT_DEADLINE_GROUP_BY_PERSON_ID);
+                PreparedStatement statement = connection.prepareStatement(Queries.SELECT_NEXT_DEADLINE_GROUP_BY_PERSON_ID.getQuery())
+                ){
+            statement.setObject(1, today);
+            try(ResultSet resultSet = statement.executeQuery()){
+                while(resultSet.next()){
+                    result.put(resultSet.getInt(1), resultSet.getObject(2, LocalDate.class));
+                }
+            }
+        }catch (SQLException ex){
+            ex.printStackTrace();
+        }
+        return result;
+    }
+
+    /**
+     * Computes done, undone and overdue counts and the next deadline of every person with tasks in a single
+     * GROUP BY, so no task rows leave the database
+     * @param today tasks with a deadline before this day are overdue, the next deadline is on or after it
+     * @return TaskStats keyed by personId, persons without tasks are left out
+     */
+    public IntObjectMap<TaskStats> findStatsByPersonId(LocalDate today){
+        IntObjectMap<TaskStats> result = new IntObjectMap<>();
+        try(
+                Connection connection = Database.getConnection(Queries.SELECT_TASK_STATS_GROUP_BY_PERSON_ID);
+                PreparedStatement statement = connection.prepareStatement(Queries.SELECT_TASK_STATS_GROUP_BY_PERSON_ID.getQuery())
+                ){
+            statement.setObject(1, today);  //overdue before
+            statement.setObject(2, today);  //next deadline from
+            try(ResultSet resultSet = statement.executeQuery()){
+                while(resultSet.next()){
+                    int personId = resultSet.getInt("person_id");
+                    result.put(personId, new TaskStats(
+                            personId,
+                            resultSet.getInt("done_count"),
+                            resultSet.getInt("undone_count"),
+                            resultSet.getInt("overdue_count"),
+                            resultSet.getObject("next_deadline", LocalDate.class)
+                    ));
+                }
+            }
+        }catch (SQLException ex){
+            ex.printStackTrace();
+        }
+        return result;
+    }
+
     /**
      * Updates a task in the database. Task needs to have person assigned to it.
-     * The method will update or persist assigned person if needed.
+     * The method will update or persist assigned person if needed. Only changed columns are written and
+     * nothing is written when neither the task nor its assignee changed. A detached Task, see
+     * {@link Task#UNKNOWN_VERSION}, overwrites the row without the version check.
      * @param task A Task object
      * @return updated Task object
      * @throws IllegalArgumentException when assignee is null
      * @throws IllegalArgumentException when task is not yet persisted in the database
+     * @throws OptimisticLockException when the task or assignee row was changed or deleted since it was loaded
+     * @throws UncheckedSQLException when the write fails, nothing is written and task keeps its assignee
      */
-    public Task update(Task task) throws IllegalArgumentException{
-        if(task.getAssignee() == null){
+    public Task update(Task task) throws IllegalArgumentException, OptimisticLockException, UncheckedSQLException{
+        if(!hasAssignee(task)){
             throw new IllegalArgumentException("Task has no assignee.");
         }
         if(task.getTaskId() == 0){
             throw new IllegalArgumentException("Task with id "+ task.getTaskId() +" need to be stored in the database before updating");
         }
+        if(!task.isDirty() && (!task.isAssigneeLoaded() || task.getAssigneeId() != 0 && !task.getAssignee().isDirty())){
+            return task;
+        }
+
+        try{
+            Database.inTransaction(connection -> {
+                if(task.isAssigneeLoaded()){
+                    assign(task, task.getAssigneeId() == 0 ? personDao.create(task.getAssignee()) : personDao.update(task.getAssignee()));
+                }
+                if(task.isDirty()){
+                    try(PreparedStatement statement = createUpdateTask(connection, task)){
+                        if(statement.executeUpdate() == 0){
+                            throw new OptimisticLockException("tasks", task.getTaskId(), task.getVersion());
+                        }
+                    }
+                    markWritten(task);
+                    index(task);
+                }
+                return task;
+            });
+        }catch (SQLException ex){
+            throw new UncheckedSQLException(ex);
+        }
+        return task;
+
+    }
+
+    /**
+     * Marks one task as done with a single UPDATE of the done column, the assignee is not touched
+     * @param taskId int taskId
+     * @return true when the task exists
+     */
+    public boolean markDone(int taskId){
+        return setDone(Collections.singletonList(taskId), true) == 1;
+    }
+
+    /**
+     * Marks tasks as done in one transaction with UPDATE ... WHERE task_id IN (...) in chunks of batchSize
+     * @param taskIds taskIds of the tasks
+     * @return number of updated tasks
+     */
+    public int markDone(Collection<Integer> taskIds){
+        return setDone(taskIds, true);
+    }
+
+    /**
+     * Sets the done status of tasks in one transaction with UPDATE ... WHERE task_id IN (...) in chunks of
+     * batchSize. Only the done column is written.
+     * @param taskIds taskIds of the tasks
+     * @param done new done status
+     * @return number of updated tasks
+     */
+    public int setDone(Collection<Integer> taskIds, boolean done){
+        if(taskIds.isEmpty()){
+            return 0;
+        }
+        try{
+            return updateDone(taskIds, done);
+        }catch (SQLException ex){
+            ex.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * setDone that reports failures, used by TaskDoneBuffer to keep changes that could not be written
+     */
+    int updateDone(Collection<Integer> taskIds, boolean done) throws SQLException {
+        List<Integer> ids = new ArrayList<>(new LinkedHashSet<>(taskIds));
+        return Database.inTransaction(connection -> {
+            int updated = 0;
+            for(int from = 0; from < ids.size(); from += batchSize){
+                List<Integer> chunk = ids.subList(from, Math.min(from + batchSize, ids.size()));
+                try(PreparedStatement statement = connection.prepareStatement(Queries.UPDATE_TASKS_DONE_WHERE_TASK_ID_IN.withInList(chunk.size()))){
+                    statement.setBoolean(1, done);
+                    InList.setInts(statement, 2, chunk, chunk.size());
+                    updated += statement.executeUpdate();
+                }
+            }
+            if(undoneTaskIndex != null){
+                if(done){
+                    UnitOfWork.afterCommit(() -> ids.forEach(undoneTaskIndex::removeTask));
+                }else{
+                    List<Integer> personIds = findPersonIds(connection, ids);
+                    UnitOfWork.afterCommit(() -> personIds.forEach(undoneTaskIndex::invalidate));
+                }
+            }
+            return updated;
+        });
+    }
+
+    /**
+     * @return distinct personIds of the assignees of the tasks
+     */
+    private List<Integer> findPersonIds(Connection connection, List<Integer> taskIds) throws SQLException {
+        List<Integer> result = new ArrayList<>();
+        for(int from = 0; from < taskIds.size(); from += batchSize){
+            List<Integer> chunk = taskIds.subList(from, Math.min(from + batchSize, taskIds.size()));
+            try(PreparedStatement statement = connection.prepareStatement(Queries.SELECT_PERSON_IDS_WHERE_TASK_ID_IN.withInList(chunk.size()))){
+                InList.setInts(statement, 1, chunk, chunk.size());
+                try(ResultSet resultSet = statement.executeQuery()){
+                    while(resultSet.next()){
+                        result.add(resultSet.getInt("person_id"));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Persists all Task objects using JDBC batching in a single transaction. Non persisted assignees
+     * are persisted first in one batch, each distinct Person object only once.
+     * @param newTasks Non persisted Task objects
+     * @return Persisted Task objects in the same order as newTasks
+     * @throws IllegalArgumentException when any Task has no assignee or is already persisted
+     */
+    public List<Task> createAll(Collection<Task> newTasks) throws IllegalArgumentException{
+        for(Task newTask : newTasks){
+            if(newTask.getAssignee() == null){
+                throw new IllegalArgumentException("Task had no assignee.");
+            }
+            if(newTask.getTaskId() > 0){
+                throw new IllegalArgumentException("Task with id "+ newTask.getTaskId() +" is already created in the database");
+            }
+        }
+
+        List<Task> result = new ArrayList<>(newTasks);
+        List<Person> created = new ArrayList<>();
+        try{
+            result = Database.inTransaction(connection -> {
+                Map<Person, Person> assignees = persistAssignees(connection, newTasks);
+                created.addAll(assignees.values());
+                return persistAll(connection, newTasks, assignees);
+            });
+            for(Task task : result){
+                index(task);
+            }
+            personDao.writtenAll(created);
+        }catch (SQLException ex){
+            ex.printStackTrace();
+        }
+        return result;
+    }
+
+    /**
+     * Updates all changed Task objects using JDBC batching in a single transaction. Non persisted assignees are
+     * persisted and changed persisted assignees are updated, each distinct Person object only once.
+     * @param tasks Task objects to update
+     * @return the updated Task objects
+     * @throws IllegalArgumentException when any Task has no assignee or is not yet persisted
+     * @throws OptimisticLockException when any task or assignee row was changed or deleted since it was loaded, nothing is written
+     * @throws UncheckedSQLException when the write fails, nothing is written and the tasks keep their assignees
+     */
+    public List<Task> updateAll(Collection<Task> tasks) throws IllegalArgumentException, OptimisticLockException, UncheckedSQLException{
+        for(Task task : tasks){
+            if(!hasAssignee(task)){
+                throw new IllegalArgumentException("Task has no assignee.");
+            }
+            if(task.getTaskId() == 0){
+                throw new IllegalArgumentException("Task with id "+ task.getTaskId() +" need to be stored in the database before updating");
+            }
+        }
+
+        try{
+            List<Task> written = Database.inTransaction(connection -> {
+                Map<Person, Person> persisted = persistAssignees(connection, tasks);
+                Map<Person, Person> existing = new IdentityHashMap<>();
+                for(Task task : tasks){
+                    if(!task.isAssigneeLoaded()){
+                        continue;
+                    }
+                    if(persisted.containsKey(task.getAssignee())){
+                        assign(task, persisted.get(task.getAssignee()));
+                    }else{
+                        existing.put(task.getAssignee(), task.getAssignee());
+                    }
+                }
+                personDao.updateAll(connection, existing.keySet(), batchSize);
+                return updateAll(connection, tasks);
+            });
+            List<Person> assignees = new ArrayList<>(tasks.size());
+            for(Task task : tasks){
+                if(task.isAssigneeLoaded()){
+                    assignees.add(task.getAssignee());
+                }
+            }
+            for(Task task : written){
+                index(task);
+            }
+            personDao.writtenAll(assignees);
+        }catch (SQLException ex){
+            throw new UncheckedSQLException(ex);
+        }
+        return new ArrayList<>(tasks);
+    }
+
+    /**
+     * @return map from each distinct non persisted assignee to its persisted copy
+     */
+    private Map<Person, Person> persistAssignees(Connection connection, Collection<Task> tasks) throws SQLException {
+        Map<Person, Person> assignees = new IdentityHashMap<>();
+        for(Task task : tasks){
+            if(task.getAssigneeId() == 0){
+                assignees.put(task.getAssignee(), task.getAssignee());
+            }
+        }
+        List<Person> unsaved = new ArrayList<>(assignees.keySet());
+        List<Person> persisted = personDao.createAll(connection, unsaved, batchSize);
+        for(int i = 0; i < unsaved.size(); i++){
+            assignees.put(unsaved.get(i), persisted.get(i));
+        }
+        return assignees;
+    }
+
+    private List<Task> persistAll(Connection connection, Collection<Task> newTasks, Map<Person, Person> assignees) throws SQLException {
+        List<Task> result = new ArrayList<>(newTasks.size());
+        List<Task> pending = new ArrayList<>(batchSize);
+        try(PreparedStatement statement = connection.prepareStatement(Queries.PERSIST_TASK.getQuery(), Statement.RETURN_GENERATED_KEYS)){
+            for(Task newTask : newTasks){
+                Person assignee = assignees.getOrDefault(newTask.getAssignee(), newTask.getAssignee());
+                statement.setString(1,newTask.getDescription());
+                statement.setObject(2,newTask.getDeadLine());
+                statement.setBoolean(3, newTask.isDone());
+                statement.setInt(4,assignee.getPersonId());
+                statement.addBatch();
+                pending.add(new Task(0, newTask.getDescription(), newTask.getDeadLine(), newTask.isDone(), assignee));
+                if(pending.size() == batchSize){
+                    executePersistBatch(statement, pending, result);
+                }
+            }
+            if(!pending.isEmpty()){
+                executePersistBatch(statement, pending, result);
+            }
+        }
+        return result;
+    }
 
-        task.setAssignee(task.getAssignee().getPersonId() == 0 ? personDao.create(task.getAssignee()) : personDao.update(task.getAssignee()));
+    private void executePersistBatch(PreparedStatement statement, List<Task> pending, List<Task> result) throws SQLException {
+        statement.executeBatch();
+        try(ResultSet keySet = statement.getGeneratedKeys()){
+            for(Task task : pending){
+                if(!keySet.next()){
+                    throw new SQLException("Missing generated key for " + task);
+                }
+                result.add(new Task(keySet.getInt(1), task.getDescription(), task.getDeadLine(), task.isDone(), task.getAssignee(), 0));
+            }
+        }
+        pending.clear();
+    }
 
+    /**
+     * Writes all columns of the changed Task objects with the versioned UPDATE_TASK, and of detached ones
+     * with OVERWRITE_TASK
+     * @return the written Task objects
+     */
+    private List<Task> updateAll(Connection connection, Collection<Task> tasks) throws SQLException, OptimisticLockException {
+        List<Task> versioned = new ArrayList<>();
+        List<Task> detached = new ArrayList<>();
+        for(Task task : tasks){
+            if(task.isDirty()){
+                (task.getVersion() == Task.UNKNOWN_VERSION ? detached : versioned).add(task);
+            }
+        }
+        List<Task> written = new ArrayList<>();
+        updateAll(connection, Queries.UPDATE_TASK, versioned, written);
+        updateAll(connection, Queries.OVERWRITE_TASK, detached, written);
+        return written;
+    }
+
+    private void updateAll(Connection connection, Queries query, List<Task> tasks, List<Task> written) throws SQLException, OptimisticLockException {
+        if(tasks.isEmpty()){
+            return;
+        }
+        try(PreparedStatement statement = connection.prepareStatement(query.getQuery())){
+            List<Task> pending = new ArrayList<>(batchSize);
+            for(Task task : tasks){
+                statement.setString(1,task.getDescription());           //DESCRIPTION
+                statement.setObject(2,task.getDeadLine());              //DEADLINE
+                statement.setBoolean(3, task.isDone());                 //DONE
+                statement.setInt(4,task.getAssigneeId());               //ASSIGNEE_ID
+                statement.setInt(5,task.getTaskId());                   //TASK_ID
+                if(query == Queries.UPDATE_TASK){
+                    statement.setInt(6,task.getVersion());              //VERSION
+                }
+                statement.addBatch();
+                pending.add(task);
+                if(pending.size() == batchSize){
+                    executeUpdateBatch(statement, pending, written);
+                }
+            }
+            if(!pending.isEmpty()){
+                executeUpdateBatch(statement, pending, written);
+            }
+        }
+    }
+
+    /**
+     * Executes the batch, checks that every row matched its version and marks the pending Task objects clean
+     */
+    private void executeUpdateBatch(PreparedStatement statement, List<Task> pending, List<Task> written) throws SQLException {
+        int[] counts = statement.executeBatch();
+        for(int i = 0; i < pending.size(); i++){
+            if(counts[i] == 0){
+                Task stale = pending.get(i);
+                throw new OptimisticLockException("tasks", stale.getTaskId(), stale.getVersion());
+            }
+        }
+        for(Task task : pending){
+            markWritten(task);
+        }
+        written.addAll(pending);
+        pending.clear();
+    }
+
+    /**
+     * Loads the undone tasks of a cold person into the index. Reads the primary, since the index is kept
+     * current from commits and a lagging replica could leave out a committed task.
+     * @return true when the person is warm, false when the read failed or the person's tasks changed while
+     * they were read, the database answers then
+     */
+    private boolean warmIndex(int personId){
+        if(undoneTaskIndex.isWarm(personId)){
+            return true;
+        }
+        long epoch = undoneTaskIndex.startWarm(personId);
+        List<Task> undone = new ArrayList<>();
         try(
                 Connection connection = Database.getConnection();
-                PreparedStatement statement = createUpdateTask(connection, task)
+                PreparedStatement statement = connection.prepareStatement(Queries.SELECT_UNDONE_TASKS_BY_PERSON_ID.getQuery())
                 ){
-
-            statement.execute();
-
-        }catch (Exception ex){
+            statement.setInt(1, personId);
+            try(ResultSet resultSet = statement.executeQuery()){
+                while(resultSet.next()){
+                    undone.add(createTaskFromResultSet(resultSet, null));
+                }
+            }
+        }catch (SQLException ex){
             ex.printStackTrace();
+            return false;
         }
-        return task;
+        return undoneTaskIndex.warm(personId, epoch, undone);
+    }
 
+    /**
+     * Updates the undone task index once the write is committed. A detached Task has no version to index,
+     * it is dropped and its assignee warmed again instead.
+     */
+    private void index(Task task){
+        if(undoneTaskIndex != null && task.getVersion() == Task.UNKNOWN_VERSION){
+            int taskId = task.getTaskId();
+            int personId = task.getAssigneeId();
+            UnitOfWork.afterCommit(() -> {
+                undoneTaskIndex.removeTask(taskId);
+                undoneTaskIndex.invalidate(personId);
+            });
+        }else if(undoneTaskIndex != null){
+            Task written = task.isAssigneeLoaded()
+                    ? new Task(task.getTaskId(), task.getDescription(), task.getDeadLine(), task.isDone(), task.getAssignee(), task.getVersion())
+                    : new Task(task.getTaskId(), task.getDescription(), task.getDeadLine(), task.isDone(), task.getAssigneeId(), personId -> task.getAssignee(), task.getVersion());
+            UnitOfWork.afterCommit(() -> undoneTaskIndex.put(written));
+        }
     }
 
+    /**
+     * @return UPDATE of only the changed columns of the task
+     */
     private PreparedStatement createUpdateTask(Connection connection, Task task) throws SQLException {
-        PreparedStatement statement = connection.prepareStatement(Queries.UPDATE_TASK.getQuery());
-        statement.setString(1,task.getDescription());           //DESCRIPTION
-        statement.setObject(2,task.getDeadLine());              //DEADLINE
-        statement.setBoolean(3, task.isDone());                 //DONE
-        statement.setInt(4,task.getAssignee().getPersonId());   //ASSIGNEE_ID
-        statement.setInt(5,task.getTaskId());                   //TASK_ID
+        int dirty = task.getDirtyFields();
+        boolean versioned = task.getVersion() != Task.UNKNOWN_VERSION;
+        PreparedStatement statement = connection.prepareStatement((versioned ? Queries.UPDATE_TASK : Queries.OVERWRITE_TASK).withSetColumns(dirty));
+        int parameter = 1;
+        if((dirty & Task.DESCRIPTION) != 0){
+            statement.setString(parameter++, task.getDescription());            //DESCRIPTION
+        }
+        if((dirty & Task.DEAD_LINE) != 0){
+            statement.setObject(parameter++, task.getDeadLine());               //DEADLINE
+        }
+        if((dirty & Task.DONE) != 0){
+            statement.setBoolean(parameter++, task.isDone());                   //DONE
+        }
+        if((dirty & Task.ASSIGNEE) != 0){
+            statement.setInt(parameter++, task.getAssigneeId());                //ASSIGNEE_ID
+        }
+        statement.setInt(parameter++, task.getTaskId());                        //TASK_ID
+        if(versioned){
+            statement.setInt(parameter, task.getVersion());                     //VERSION
+        }
         return statement;
     }
 
     private PreparedStatement createClosestUndoneTaskByPersonId(Connection connection, int personId) throws SQLException {
-        PreparedStatement statement = connection.prepareStatement(Queries.SELECT_CLOSEST_UNDONE_TASK_BY_PERSON_ID.getQuery());
+        PreparedStatement statement = connection.prepareStatement(Queries.SELECT_CLOSEST_UNDONE_TASK_JOIN_PERSON_BY_PERSON_ID.getQuery());
         statement.setInt(1, personId);
         return statement;
     }
 
-    private PreparedStatement createFindByPersonId(Connection connection, int personId) throws SQLException {
-        PreparedStatement statement = connection.prepareStatement(Queries.SELECT_FROM_TASKS_WHERE_PERSON_ID.getQuery());
+    private PreparedStatement createFindByPersonId(Connection connection, Queries query, int personId) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(query.getQuery());
         statement.setInt(1, personId);
         return statement;
     }
 
 
-    private PreparedStatement createFindByDone(Connection connection, boolean isDone) throws SQLException {
-        PreparedStatement statement = connection.prepareStatement(Queries.SELECT_FROM_TASKS_WHERE_DONE.getQuery());
+    private PreparedStatement createFindByDone(Connection connection, Queries query, boolean isDone) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(query.getQuery());
         statement.setBoolean(1 ,isDone);
         return statement;
     }
 
-    private Task createTaskFromResultSet(ResultSet resultSet) throws SQLException {
+    private Task createTaskFromResultSet(ResultSet resultSet, Person assignee) throws SQLException {
         return new Task(
             resultSet.getInt("task_id"),
             resultSet.getString("description"),
             resultSet.getObject("deadline", LocalDate.class),
             resultSet.getBoolean("done"),
-            null
+            assignee,
+            resultSet.getInt("task_version")
         );
     }
 
-    private PreparedStatement createFindByTaskId(Connection connection, int taskId) throws SQLException {
-        PreparedStatement statement = connection.prepareStatement(Queries.FIND_TASK_BY_TASK_ID.getQuery());
+    /**
+     * Maps a row from one of the tasks JOIN persons queries. Rows sharing the same person_id
+     * within a result set share the same Person instance.
+     * @param resultSet ResultSet positioned on a row
+     * @param assignees Person objects already mapped from this ResultSet, keyed by personId
+     * @return Task with assignee set
+     */
+    private Task createTaskWithAssigneeFromResultSet(ResultSet resultSet, Map<Integer, Person> assignees) throws SQLException {
+        int personId = resultSet.getInt("person_id");
+        Person assignee = assignees.get(personId);
+        if(assignee == null){
+            assignee = PersonDao.personFromResultSet(resultSet);
+            assignees.put(personId, assignee);
+        }
+        return createTaskFromResultSet(resultSet, assignee);
+    }
+
+    /**
+     * Marks the written Task clean at the next version, and dirty at its old version again when the
+     * transaction is rolled back so a retry writes the changes. A detached Task stays at the unknown version.
+     */
+    private static void markWritten(Task task){
+        int version = task.getVersion();
+        int dirtyFields = task.getDirtyFields();
+        task.markClean(version == Task.UNKNOWN_VERSION ? version : version + 1);
+        UnitOfWork.afterRollback(() -> task.markDirty(version, dirtyFields));
+    }
+
+    /**
+     * Sets the persisted copy of the assignee on the task, and the original assignee back when the
+     * transaction is rolled back, since the persisted copy's row is then gone
+     */
+    private static void assign(Task task, Person persisted){
+        Person assignee = task.getAssignee();
+        if(persisted != assignee){
+            task.setAssignee(persisted);
+            UnitOfWork.afterRollback(() -> task.setAssignee(assignee));
+        }
+    }
+
+    /**
+     * @return true when the task has an assignee, without resolving a lazy one
+     */
+    private static boolean hasAssignee(Task task){
+        return task.getAssigneeId() != 0 || task.getAssignee() != null;
+    }
+
+    /**
+     * @return the tasks only query when assignees are lazy, otherwise the one joining persons
+     */
+    private Queries select(Queries joined, Queries tasksOnly){
+        return lazyAssignees ? tasksOnly : joined;
+    }
+
+    /**
+     * @return mapper for one result set of the query picked by select(Queries, Queries). Joined rows of the
+     * same person share one Person, lazy rows share one LazyAssignees.
+     */
+    private RowMapper<Task> taskMapper(){
+        if(lazyAssignees){
+            LazyAssignees assignees = new LazyAssignees(personDao);
+            return resultSet -> {
+                int personId = resultSet.getInt("person_id");
+                assignees.add(personId);
+                return new Task(
+                        resultSet.getInt("task_id"),
+                        resultSet.getString("description"),
+                        resultSet.getObject("deadline", LocalDate.class),
+                        resultSet.getBoolean("done"),
+                        personId,
+                        assignees,
+                        resultSet.getInt("task_version")
+                );
+            };
+        }
+        Map<Integer, Person> assignees = new HashMap<>();
+        return resultSet -> createTaskWithAssigneeFromResultSet(resultSet, assignees);
+    }
+
+    private PreparedStatement createFindByTaskId(Connection connection, Queries query, int taskId) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(query.getQuery());
         statement.setInt(1,taskId);
         return statement;
     }
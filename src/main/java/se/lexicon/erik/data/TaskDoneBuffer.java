@@ -0,0 +1,237 @@
+package se.lexicon.erik.data;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer for task done status. Changes are collected in memory, repeated changes to the same
+ * task are coalesced to the last one, and written with {@link TaskDao#setDone(java.util.Collection, boolean)}
+ * in UPDATE ... WHERE task_id IN (...) statements when maxPending tasks are waiting or every flush interval,
+ * whichever comes first.
+ *
+ * Reads through TaskDao do not see buffered changes before they are flushed, use {@link #getPending(int)}
+ * or {@link #flush()} where that matters. Changes that fail to be written are kept and retried with the next
+ * flush unless the task was changed again meanwhile. {@link #close()} flushes everything still buffered and
+ * a JVM shutdown hook does the same when the buffer was not closed.
+ * @author Erik Svensson
+ */
+public class TaskDoneBuffer implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_PENDING = 1000;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    private final TaskDao taskDao;
+    private final int maxPending;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Thread shutdownHook;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+    private Map<Integer, Boolean> pending = new LinkedHashMap<>();
+    private boolean closed;
+
+    public TaskDoneBuffer(TaskDao taskDao) {
+        this(taskDao, DEFAULT_MAX_PENDING, DEFAULT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param taskDao TaskDao that writes the changes
+     * @param maxPending number of buffered tasks that triggers a flush
+     * @param flushInterval max time a change waits in the buffer
+     * @param unit TimeUnit of flushInterval
+     * @throws IllegalArgumentException when maxPending or flushInterval is less than 1
+     */
+    public TaskDoneBuffer(TaskDao taskDao, int maxPending, long flushInterval, TimeUnit unit) throws IllegalArgumentException{
+        if(maxPending < 1 || flushInterval < 1){
+            throw new IllegalArgumentException("Max pending and flush interval need to be positive");
+        }
+        this.taskDao = taskDao;
+        this.maxPending = maxPending;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "task-done-buffer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, unit);
+        this.shutdownHook = new Thread(this::flushQuietly, "task-done-buffer-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * @param taskId int taskId of task to mark as done
+     * @throws IllegalStateException when the buffer is closed
+     */
+    public void markDone(int taskId) throws IllegalStateException{
+        setDone(taskId, true);
+    }
+
+    /**
+     * @param taskId int taskId
+     * @param done new done status
+     * @throws IllegalStateException when the buffer is closed
+     */
+    public void setDone(int taskId, boolean done) throws IllegalStateException{
+        boolean full;
+        lock.lock();
+        try{
+            if(closed){
+                throw new IllegalStateException("Buffer is closed");
+            }
+            if(pending.put(taskId, done) != null){
+                coalesced.increment();
+            }
+            full = pending.size() >= maxPending;
+        }finally {
+            lock.unlock();
+        }
+        if(full && flushScheduled.compareAndSet(false, true)){
+            try{
+                scheduler.execute(() -> {
+                    flushScheduled.set(false);
+                    flushQuietly();
+                });
+            }catch (RejectedExecutionException ex){
+                flushScheduled.set(false);
+                flushQuietly();
+            }
+        }
+    }
+
+    /**
+     * @param taskId int taskId
+     * @return Optional of the buffered done status that is not yet written
+     */
+    public Optional<Boolean> getPending(int taskId){
+        lock.lock();
+        try{
+            return Optional.ofNullable(pending.get(taskId));
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPendingCount(){
+        lock.lock();
+        try{
+            return pending.size();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of task updates written by flushes
+     */
+    public long getWrittenCount(){
+        return written.sum();
+    }
+
+    /**
+     * @return number of changes replaced by a later change to the same task before being written
+     */
+    public long getCoalescedCount(){
+        return coalesced.sum();
+    }
+
+    public long getFailedFlushCount(){
+        return failedFlushes.sum();
+    }
+
+    /**
+     * Writes all buffered changes now. Flushes run one at a time so an older change never overwrites a newer one.
+     * @return number of updated tasks
+     * @throws SQLException when writing fails, the changes stay buffered
+     */
+    public int flush() throws SQLException {
+        flushLock.lock();
+        try{
+            Map<Integer, Boolean> batch;
+            lock.lock();
+            try{
+                if(pending.isEmpty()){
+                    return 0;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+            }finally {
+                lock.unlock();
+            }
+            List<Integer> done = new ArrayList<>();
+            List<Integer> undone = new ArrayList<>();
+            batch.forEach((taskId, isDone) -> (isDone ? done : undone).add(taskId));
+            try{
+                int updated = 0;
+                if(!done.isEmpty()){
+                    updated += taskDao.updateDone(done, true);
+                }
+                if(!undone.isEmpty()){
+                    updated += taskDao.updateDone(undone, false);
+                }
+                written.add(updated);
+                return updated;
+            }catch (SQLException ex){
+                failedFlushes.increment();
+                lock.lock();
+                try{
+                    batch.forEach(pending::putIfAbsent);
+                }finally {
+                    lock.unlock();
+                }
+                throw ex;
+            }
+        }finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the flush timer and writes everything still buffered. Changes are refused from the moment the buffer
+     * is closed, so none arrive after the final flush.
+     * @throws SQLException when the final flush fails, the changes are lost
+     */
+    @Override
+    public void close() throws SQLException {
+        lock.lock();
+        try{
+            if(closed){
+                return;
+            }
+            closed = true;
+        }finally {
+            lock.unlock();
+        }
+        scheduler.shutdown();
+        try{
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }
+        try{
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        }catch (IllegalStateException ignored){
+        }
+        flush();
+    }
+
+    private void flushQuietly(){
+        try{
+            flush();
+        }catch (SQLException ex){
+            ex.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package se.lexicon.erik.data;
+
+import java.time.LocalDate;
+
+/**
+ * Task workload of one person, computed by the database in one GROUP BY
+ * @author Erik Svensson
+ */
+public class TaskStats {
+    private final int personId;
+    private final int doneCount;
+    private final int undoneCount;
+    private final int overdueCount;
+    private final LocalDate nextDeadline;
+
+    public TaskStats(int personId, int doneCount, int undoneCount, int overdueCount, LocalDate nextDeadline) {
+        this.personId = personId;
+        this.doneCount = doneCount;
+        this.undoneCount = undoneCount;
+        this.overdueCount = overdueCount;
+        this.nextDeadline = nextDeadline;
+    }
+
+    public int getPersonId() {
+        return personId;
+    }
+
+    public int getDoneCount() {
+        return doneCount;
+    }
+
+    public int getUndoneCount() {
+        return undoneCount;
+    }
+
+    /**
+     * @return number of undone tasks with a deadline before the day the stats were computed for
+     */
+    public int getOverdueCount() {
+        return overdueCount;
+    }
+
+    /**
+     * @return earliest deadline of an undone task on or after the day the stats were computed for, or null
+     */
+    public LocalDate getNextDeadline() {
+        return nextDeadline;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("TaskStats{");
+        sb.append("personId=").append(personId);
+        sb.append(", doneCount=").append(doneCount);
+        sb.append(", undoneCount=").append(undoneCount);
+        sb.append(", overdueCount=").append(overdueCount);
+        sb.append(", nextDeadline=").append(nextDeadline);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Task;
+import se.lexicon.erik.model.TaskView;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Storage of Task objects and their assignees. {@link TaskDao} keeps them in the database,
+ * {@link InMemoryTaskStore} in the heap of this process. Both pass the same contract tests.
+ * @author Erik Svensson
+ */
+public interface TaskStore {
+
+    /**
+     * Persists a new Task and its assignee when the assignee is not yet persisted
+     * @param newTask Non persisted Task object
+     * @return Persisted task
+     * @throws IllegalArgumentException when the task has no assignee or is already persisted
+     */
+    Task create(Task newTask) throws IllegalArgumentException;
+
+    /**
+     * @param newTasks Non persisted Task objects
+     * @return Persisted Task objects in the same order as newTasks
+     * @throws IllegalArgumentException when any Task has no assignee or is already persisted
+     */
+    List<Task> createAll(Collection<Task> newTasks) throws IllegalArgumentException;
+
+    Optional<Task> findByTaskId(int taskId);
+
+    /**
+     * @param taskIds taskIds to look up, duplicates are looked up once
+     * @return found tasks keyed by taskId in the order of taskIds, missing ids are left out
+     */
+    Map<Integer, Task> findByTaskIds(Collection<Integer> taskIds);
+
+    List<Task> findByDoneStatus(boolean isDone);
+
+    /**
+     * @return all tasks assigned to the person ordered by deadline
+     */
+    List<Task> findByPersonId(int personId);
+
+    List<TaskView> findViewsByDoneStatus(boolean isDone);
+
+    /**
+     * @return all tasks assigned to the person as views ordered by deadline
+     */
+    List<TaskView> findViewsByPersonId(int personId);
+
+    /**
+     * One page of tasks with a deadline ordered by deadline and taskId
+     * @throws IllegalArgumentException when pageSize is less than 1 or pageToken is invalid
+     */
+    Page<Task> findByDoneStatus(boolean isDone, int pageSize, String pageToken) throws IllegalArgumentException;
+
+    /**
+     * One page of tasks with a deadline ordered by deadline and taskId
+     * @throws IllegalArgumentException when pageSize is less than 1 or pageToken is invalid
+     */
+    Page<Task> findByPersonId(int personId, int pageSize, String pageToken) throws IllegalArgumentException;
+
+    /**
+     * @return Stream of matching Task items, must be closed
+     */
+    Stream<Task> streamByDoneStatus(boolean isDone);
+
+    /**
+     * @return Stream of matching Task items ordered by deadline, must be closed
+     */
+    Stream<Task> streamByPersonId(int personId);
+
+    /**
+     * @return the undone task of the person with the deadline closest to today
+     */
+    Optional<Task> findClosestUndoneTaskByPersonId(int personId);
+
+    /**
+     * @return number of tasks with matching done status keyed by personId, persons without any are left out
+     */
+    IntIntMap countByPersonId(boolean isDone);
+
+    /**
+     * @param today tasks with a deadline before this day are overdue
+     * @return number of overdue tasks keyed by personId, persons without any are left out
+     */
+    IntIntMap countOverdueByPersonId(LocalDate today);
+
+    /**
+     * @param today first day counted as upcoming
+     * @return next deadline keyed by personId, persons without upcoming undone tasks are left out
+     */
+    IntObjectMap<LocalDate> findNextDeadlineByPersonId(LocalDate today);
+
+    /**
+     * @param today tasks with a deadline before this day are overdue, the next deadline is on or after it
+     * @return TaskStats keyed by personId, persons without tasks are left out
+     */
+    IntObjectMap<TaskStats> findStatsByPersonId(LocalDate today);
+
+    /**
+     * Writes the changed fields of the task and persists or updates its assignee when needed
+     * @return updated Task object
+     * @throws IllegalArgumentException when the task has no assignee or is not yet persisted
+     * @throws OptimisticLockException when the task or assignee was changed or deleted since it was loaded
+     */
+    Task update(Task task) throws IllegalArgumentException, OptimisticLockException;
+
+    /**
+     * @return the updated Task objects
+     * @throws IllegalArgumentException when any Task has no assignee or is not yet persisted
+     * @throws OptimisticLockException when any task or assignee was changed or deleted since it was loaded
+     */
+    List<Task> updateAll(Collection<Task> tasks) throws IllegalArgumentException, OptimisticLockException;
+
+    /**
+     * @return true when the task exists
+     */
+    default boolean markDone(int taskId){
+        return setDone(Collections.singletonList(taskId), true) == 1;
+    }
+
+    /**
+     * @return number of updated tasks
+     */
+    default int markDone(Collection<Integer> taskIds){
+        return setDone(taskIds, true);
+    }
+
+    /**
+     * Sets the done status of tasks, nothing else is written
+     * @return number of updated tasks
+     */
+    int setDone(Collection<Integer> taskIds, boolean done);
+}
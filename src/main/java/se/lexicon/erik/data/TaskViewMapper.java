@@ -0,0 +1,64 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.PersonView;
+import se.lexicon.erik.model.TaskView;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * Maps rows of one tasks JOIN persons ResultSet to TaskView. Column positions are looked up by name on the
+ * first row only and every assignee is mapped once per ResultSet, later rows reuse its PersonView
+ * found by unboxed personId.
+ * Not thread safe, use one instance per ResultSet.
+ * @author Erik Svensson
+ */
+final class TaskViewMapper implements RowMapper<TaskView> {
+
+    private final IntObjectMap<PersonView> assignees = new IntObjectMap<>();
+    private int[] columns;
+    private PersonView lastAssignee;
+
+    @Override
+    public TaskView map(ResultSet resultSet) throws SQLException {
+        if(columns == null){
+            columns = new int[]{
+                    resultSet.findColumn("task_id"),
+                    resultSet.findColumn("description"),
+                    resultSet.findColumn("deadline"),
+                    resultSet.findColumn("done"),
+                    resultSet.findColumn("person_id"),
+                    resultSet.findColumn("first_name"),
+                    resultSet.findColumn("last_name"),
+                    resultSet.findColumn("birth_date")
+            };
+        }
+        return new TaskView(
+                resultSet.getInt(columns[0]),
+                resultSet.getString(columns[1]),
+                resultSet.getObject(columns[2], LocalDate.class),
+                resultSet.getBoolean(columns[3]),
+                assignee(resultSet)
+        );
+    }
+
+    private PersonView assignee(ResultSet resultSet) throws SQLException {
+        int personId = resultSet.getInt(columns[4]);
+        if(lastAssignee != null && lastAssignee.getPersonId() == personId){
+            return lastAssignee;
+        }
+        PersonView assignee = assignees.get(personId);
+        if(assignee == null){
+            assignee = new PersonView(
+                    personId,
+                    resultSet.getString(columns[5]),
+                    resultSet.getString(columns[6]),
+                    resultSet.getObject(columns[7], LocalDate.class)
+            );
+            assignees.put(personId, assignee);
+        }
+        lastAssignee = assignee;
+        return assignee;
+    }
+}
@@ -0,0 +1,19 @@
+package se.lexicon.erik.data;
+
+import java.sql.SQLException;
+
+/**
+ * Wraps a SQLException where the calling API can not declare it, e.g. inside a Stream
+ * @author Erik Svensson
+ */
+public class UncheckedSQLException extends RuntimeException {
+
+    public UncheckedSQLException(SQLException cause) {
+        super(cause);
+    }
+
+    @Override
+    public SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+}
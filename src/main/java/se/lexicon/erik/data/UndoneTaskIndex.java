@@ -0,0 +1,272 @@
+package se.lexicon.erik.data;
+
+import se.lexicon.erik.model.Task;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of undone tasks per person sorted by deadline, used by
+ * {@link TaskDao#findClosestUndoneTaskByPersonId(int)} to find the closest deadline with a floor/ceiling
+ * lookup instead of scanning the person's tasks in the database.
+ *
+ * A person is cold until {@link #warm(int, Collection)} loads all of that person's undone tasks. Only warm
+ * persons are kept current by {@link #put(Task)}. The index only sees writes made through TaskDao in this
+ * process, call {@link #invalidate(int)} or {@link #clear()} when tasks are changed elsewhere.
+ * Tasks without deadline are not indexed and never the closest task. Indexed tasks are stored without assignee.
+ *
+ * Loading a cold person reads the database without holding the index lock, so a write committed meanwhile
+ * could be missing from what was read. Every change bumps an epoch of the person it concerns, and
+ * {@link #warm(int, long, Collection)} drops what was read when the epoch taken by {@link #startWarm(int)}
+ * before the read has moved on. A change that can not be tied to a person, like the removal of a task of a
+ * cold person, bumps the epoch of every person.
+ * @author Erik Svensson
+ */
+public class UndoneTaskIndex {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, NavigableMap<LocalDate, NavigableMap<Integer, Task>>> byPerson = new HashMap<>();
+    private final Map<Integer, Entry> byTaskId = new HashMap<>();
+    private final IntIntMap epochs = new IntIntMap();
+    private int globalEpoch;
+
+    /**
+     * @param personId int personId
+     * @return true when the undone tasks of the person are loaded
+     */
+    public boolean isWarm(int personId){
+        lock.readLock().lock();
+        try{
+            return byPerson.containsKey(personId);
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the indexed tasks of a person
+     * @param personId int personId
+     * @param undoneTasks all undone tasks assigned to the person
+     */
+    public void warm(int personId, Collection<Task> undoneTasks){
+        lock.writeLock().lock();
+        try{
+            replace(personId, undoneTasks);
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param personId int personId
+     * @return epoch to pass to {@link #warm(int, long, Collection)}, take it before reading the person's tasks
+     */
+    public long startWarm(int personId){
+        lock.readLock().lock();
+        try{
+            return epoch(personId);
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the indexed tasks of a person unless the person's tasks changed since startWarm
+     * @param personId int personId
+     * @param epoch epoch returned by startWarm before undoneTasks were read
+     * @param undoneTasks all undone tasks assigned to the person
+     * @return true when the person is warm
+     */
+    public boolean warm(int personId, long epoch, Collection<Task> undoneTasks){
+        lock.writeLock().lock();
+        try{
+            if(epoch(personId) != epoch){
+                return false;
+            }
+            replace(personId, undoneTasks);
+            return true;
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds, moves or removes the task depending on its done status, deadline and assignee
+     * @param task persisted Task, a lazy assignee is not resolved
+     */
+    public void put(Task task){
+        lock.writeLock().lock();
+        try{
+            Entry previous = remove(task.getTaskId());
+            if(previous != null){
+                bump(previous.personId);
+            }else if(task.getVersion() > 0){
+                globalEpoch++;
+            }
+            int personId = task.getAssigneeId();
+            bump(personId);
+            if(byPerson.containsKey(personId)){
+                add(personId, task);
+            }
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param taskId int taskId of task to drop from the index
+     */
+    public void removeTask(int taskId){
+        lock.writeLock().lock();
+        try{
+            Entry removed = remove(taskId);
+            if(removed != null){
+                bump(removed.personId);
+            }else{
+                globalEpoch++;
+            }
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the undone task with the deadline closest to the given date, earliest deadline and then lowest
+     * taskId wins a tie.
+     * @param personId int personId of a warm person
+     * @param today date to measure distance from
+     * @return Optional of a copy of the closest task without assignee
+     * @throws IllegalStateException when the person is cold
+     */
+    public Optional<Task> findClosest(int personId, LocalDate today) throws IllegalStateException{
+        lock.readLock().lock();
+        try{
+            NavigableMap<LocalDate, NavigableMap<Integer, Task>> deadlines = byPerson.get(personId);
+            if(deadlines == null){
+                throw new IllegalStateException("Person with id " + personId + " is not indexed");
+            }
+            Map.Entry<LocalDate, NavigableMap<Integer, Task>> before = deadlines.floorEntry(today);
+            Map.Entry<LocalDate, NavigableMap<Integer, Task>> after = deadlines.ceilingEntry(today);
+            Map.Entry<LocalDate, NavigableMap<Integer, Task>> closest;
+            if(before == null){
+                closest = after;
+            }else if(after == null){
+                closest = before;
+            }else{
+                long daysBefore = ChronoUnit.DAYS.between(before.getKey(), today);
+                long daysAfter = ChronoUnit.DAYS.between(today, after.getKey());
+                closest = daysAfter < daysBefore ? after : before;
+            }
+            return closest == null ? Optional.empty() : Optional.of(copy(closest.getValue().firstEntry().getValue()));
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void invalidate(int personId){
+        lock.writeLock().lock();
+        try{
+            removePerson(personId);
+            bump(personId);
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear(){
+        lock.writeLock().lock();
+        try{
+            byPerson.clear();
+            byTaskId.clear();
+            globalEpoch++;
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of indexed tasks
+     */
+    public int size(){
+        lock.readLock().lock();
+        try{
+            return byTaskId.size();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void replace(int personId, Collection<Task> undoneTasks){
+        removePerson(personId);
+        byPerson.put(personId, new TreeMap<>());
+        for(Task task : undoneTasks){
+            add(personId, task);
+        }
+    }
+
+    private long epoch(int personId){
+        return (long) globalEpoch << 32 | epochs.get(personId) & 0xFFFFFFFFL;
+    }
+
+    private void bump(int personId){
+        epochs.put(personId, epochs.get(personId) + 1);
+    }
+
+    private void add(int personId, Task task){
+        if(task.isDone() || task.getDeadLine() == null){
+            return;
+        }
+        Task indexed = copy(task);
+        byPerson.get(personId)
+                .computeIfAbsent(task.getDeadLine(), deadline -> new TreeMap<>())
+                .put(task.getTaskId(), indexed);
+        byTaskId.put(task.getTaskId(), new Entry(personId, task.getDeadLine()));
+    }
+
+    /**
+     * @return the entry of the removed task, null when it was not indexed
+     */
+    private Entry remove(int taskId){
+        Entry entry = byTaskId.remove(taskId);
+        if(entry == null){
+            return null;
+        }
+        NavigableMap<LocalDate, NavigableMap<Integer, Task>> deadlines = byPerson.get(entry.personId);
+        NavigableMap<Integer, Task> tasks = deadlines.get(entry.deadline);
+        tasks.remove(taskId);
+        if(tasks.isEmpty()){
+            deadlines.remove(entry.deadline);
+        }
+        return entry;
+    }
+
+    private void removePerson(int personId){
+        NavigableMap<LocalDate, NavigableMap<Integer, Task>> deadlines = byPerson.remove(personId);
+        if(deadlines != null){
+            for(NavigableMap<Integer, Task> tasks : deadlines.values()){
+                byTaskId.keySet().removeAll(tasks.keySet());
+            }
+        }
+    }
+
+    private static Task copy(Task task){
+        return new Task(task.getTaskId(), task.getDescription(), task.getDeadLine(), task.isDone(), null, task.getVersion());
+    }
+
+    private static class Entry {
+        private final int personId;
+        private final LocalDate deadline;
+
+        private Entry(int personId, LocalDate deadline) {
+            this.personId = personId;
+            this.deadline = deadline;
+        }
+    }
+}
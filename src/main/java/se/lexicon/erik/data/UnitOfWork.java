@@ -0,0 +1,266 @@
+package se.lexicon.erik.data;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups DAO calls made on the current thread into one transaction on one connection.
+ * <pre>
+ *     try(UnitOfWork work = UnitOfWork.begin()){
+ *         personDao.update(person);
+ *         taskDao.create(task);
+ *         work.commit();
+ *     }
+ * </pre>
+ * While a unit of work is open, {@link Database#getConnection()} hands out its connection, so every
+ * PersonDao and TaskDao call on this thread joins the transaction. Closing a unit of work that was not
+ * committed rolls it back. A failing statement marks the unit rollback only, even when the DAO catches the
+ * exception, and commit() then rolls back and throws.
+ *
+ * Calling begin() while a unit of work is open joins it: commit() of the inner unit does nothing and
+ * closing it without commit marks the outer unit rollback only.
+ * @author Erik Svensson
+ */
+public class UnitOfWork implements AutoCloseable {
+
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    private final UnitOfWork root;
+    private final Connection connection;
+    private final Connection shared;
+    private final boolean autoCommit;
+    private final List<Runnable> afterCommit;
+    private final List<Runnable> afterRollback;
+    private boolean rollbackOnly;
+    private boolean committed;
+    private boolean closed;
+
+    private UnitOfWork(Connection connection) throws SQLException {
+        this.root = this;
+        this.connection = connection;
+        this.shared = shareConnection(connection);
+        this.autoCommit = connection.getAutoCommit();
+        this.afterCommit = new ArrayList<>();
+        this.afterRollback = new ArrayList<>();
+    }
+
+    private UnitOfWork(UnitOfWork root) {
+        this.root = root;
+        this.connection = root.connection;
+        this.shared = root.shared;
+        this.autoCommit = false;
+        this.afterCommit = root.afterCommit;
+        this.afterRollback = root.afterRollback;
+    }
+
+    /**
+     * Starts a unit of work on the current thread, or joins the one already open
+     * @return UnitOfWork to commit and close
+     * @throws SQLException when no connection could be borrowed
+     */
+    public static UnitOfWork begin() throws SQLException {
+        UnitOfWork current = CURRENT.get();
+        if(current != null){
+            return new UnitOfWork(current);
+        }
+        Connection connection = Database.borrowConnection();
+        try{
+            UnitOfWork work = new UnitOfWork(connection);
+            connection.setAutoCommit(false);
+            CURRENT.set(work);
+            return work;
+        }catch (SQLException ex){
+            connection.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return true when a unit of work is open on the current thread
+     */
+    public static boolean isActive(){
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * @return the connection of the unit of work open on the current thread, or null
+     */
+    static Connection currentConnection(){
+        UnitOfWork current = CURRENT.get();
+        return current == null ? null : current.shared;
+    }
+
+    /**
+     * Runs the action once the open unit of work on the current thread commits, or right away when none is open.
+     * Used to keep caches from seeing writes that are later rolled back.
+     * @param action Runnable to run after commit
+     */
+    static void afterCommit(Runnable action){
+        UnitOfWork current = CURRENT.get();
+        if(current == null){
+            action.run();
+        }else{
+            current.afterCommit.add(action);
+        }
+    }
+
+    /**
+     * Runs the action if the open unit of work on the current thread is rolled back, not at all when none is
+     * open since the write is then already committed. Actions run in reverse order of registration.
+     * Used to undo changes made to in-memory objects by writes that are later rolled back.
+     * @param action Runnable to run after rollback
+     */
+    static void afterRollback(Runnable action){
+        UnitOfWork current = CURRENT.get();
+        if(current != null){
+            current.afterRollback.add(action);
+        }
+    }
+
+    /**
+     * @return connection shared by all DAO calls in this unit of work. Closing it has no effect.
+     */
+    public Connection getConnection() {
+        return shared;
+    }
+
+    /**
+     * Marks the transaction so that it will be rolled back instead of committed
+     */
+    public void setRollbackOnly(){
+        root.rollbackOnly = true;
+    }
+
+    public boolean isRollbackOnly(){
+        return root.rollbackOnly;
+    }
+
+    /**
+     * Commits the transaction. Does nothing for a unit of work that joined an outer one.
+     * @throws SQLException when the commit fails or the unit of work was marked rollback only
+     * @throws IllegalStateException when already closed
+     */
+    public void commit() throws SQLException {
+        if(closed){
+            throw new IllegalStateException("Unit of work is closed");
+        }
+        committed = true;
+        if(root != this){
+            return;
+        }
+        if(rollbackOnly){
+            connection.rollback();
+            rolledBack();
+            throw new SQLException("Unit of work was rolled back since one of its statements failed");
+        }
+        try{
+            connection.commit();
+        }catch (SQLException ex){
+            rolledBack();
+            throw ex;
+        }
+        afterRollback.clear();
+        for(Runnable action : afterCommit){
+            action.run();
+        }
+        afterCommit.clear();
+    }
+
+    private void rolledBack(){
+        afterCommit.clear();
+        for(int i = afterRollback.size() - 1; i >= 0; i--){
+            afterRollback.get(i).run();
+        }
+        afterRollback.clear();
+    }
+
+    /**
+     * Rolls back if not committed and returns the connection to the pool
+     * @throws SQLException when rollback or returning the connection fails
+     */
+    @Override
+    public void close() throws SQLException {
+        if(closed){
+            return;
+        }
+        closed = true;
+        if(root != this){
+            if(!committed){
+                root.rollbackOnly = true;
+            }
+            return;
+        }
+        CURRENT.remove();
+        try{
+            if(!committed){
+                try{
+                    connection.rollback();
+                }finally {
+                    rolledBack();
+                }
+            }
+            connection.setAutoCommit(autoCommit);
+        }finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * @return proxy that ignores close() and transaction control and marks this unit of work rollback only
+     * when a statement created from it throws a SQLException
+     */
+    private Connection shareConnection(Connection connection){
+        return (Connection) Proxy.newProxyInstance(
+                UnitOfWork.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()){
+                        case "close":
+                            return null;
+                        case "commit":
+                        case "rollback":
+                        case "setAutoCommit":
+                            throw new SQLException("Transaction is managed by the unit of work");
+                        default:
+                            Object result = invoke(connection, method, args);
+                            if(result instanceof Statement){
+                                return watchStatement((Statement) result, method.getReturnType());
+                            }
+                            return result;
+                    }
+                }
+        );
+    }
+
+    private Object watchStatement(Statement statement, Class<?> type){
+        Class<?> statementType = CallableStatement.class.isAssignableFrom(type) ? CallableStatement.class
+                : PreparedStatement.class.isAssignableFrom(type) ? PreparedStatement.class
+                : Statement.class;
+        InvocationHandler handler = (proxy, method, args) -> {
+            try{
+                return invoke(statement, method, args);
+            }catch (SQLException ex){
+                root.rollbackOnly = true;
+                throw ex;
+            }
+        };
+        return Proxy.newProxyInstance(UnitOfWork.class.getClassLoader(), new Class<?>[]{statementType}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try{
+            return method.invoke(target, args);
+        }catch (InvocationTargetException ex){
+            throw ex.getCause();
+        }
+    }
+}
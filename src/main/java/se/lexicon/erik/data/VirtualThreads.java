@@ -0,0 +1,49 @@
+package se.lexicon.erik.data;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads (JDK 21+) while the code base still compiles for Java 8. The JDK API is
+ * looked up reflectively once, on older runtimes {@link #isSupported()} is false.
+ * @author Erik Svensson
+ */
+public final class VirtualThreads {
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = lookup();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true when the running JDK has virtual threads
+     */
+    public static boolean isSupported(){
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * @return ExecutorService starting a new virtual thread for every task
+     * @throws UnsupportedOperationException when the running JDK has no virtual threads
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() throws UnsupportedOperationException{
+        if(NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null){
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or later, running on " + System.getProperty("java.version"));
+        }
+        try{
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        }catch (IllegalAccessException | InvocationTargetException ex){
+            throw new UnsupportedOperationException("Could not create virtual thread executor", ex);
+        }
+    }
+
+    private static Method lookup(){
+        try{
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }catch (NoSuchMethodException ex){
+            return null;
+        }
+    }
+}
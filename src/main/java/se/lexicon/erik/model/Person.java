@@ -3,18 +3,45 @@ package se.lexicon.erik.model;
 import java.time.LocalDate;
 import java.util.Objects;
 
+/**
+ * A Person keeps track of which fields were changed since it was loaded or last written, so the data layer
+ * can write only those columns or skip the write altogether. The version is the row version it was loaded
+ * with and is used to detect concurrent updates. A Person is clean when constructed with its version.
+ *
+ * A persisted Person constructed without a version, i.e. not loaded by the data layer, is detached: its
+ * version is {@link #UNKNOWN_VERSION} and every field counts as changed, so an update overwrites the row
+ * without checking the version.
+ */
 public class Person {
 
+    public static final int FIRST_NAME = 1;
+    public static final int LAST_NAME = 2;
+    public static final int BIRTH_DATE = 4;
+    public static final int UNKNOWN_VERSION = -1;
+
+    private static final int ALL_FIELDS = FIRST_NAME | LAST_NAME | BIRTH_DATE;
+
     private int personId;
     private String firstName;
     private String lastName;
     private LocalDate birthDate;
+    private int version;
+    private int dirtyFields;
 
-    public Person(int personId, String firstName, String lastName, LocalDate birthDate) {
+    public Person(int personId, String firstName, String lastName, LocalDate birthDate, int version) {
         this.personId = personId;
         setFirstName(firstName);
         setLastName(lastName);
         setBirthDate(birthDate);
+        this.version = version;
+        this.dirtyFields = version == UNKNOWN_VERSION ? ALL_FIELDS : 0;
+    }
+
+    /**
+     * @param personId personId, a Person with a personId is detached
+     */
+    public Person(int personId, String firstName, String lastName, LocalDate birthDate) {
+        this(personId, firstName, lastName, birthDate, personId == 0 ? 0 : UNKNOWN_VERSION);
     }
 
     public Person(String firstName, String lastName, LocalDate birthDate) {
@@ -30,6 +57,9 @@ public class Person {
     }
 
     public void setFirstName(String firstName) {
+        if(!Objects.equals(this.firstName, firstName)){
+            dirtyFields |= FIRST_NAME;
+        }
         this.firstName = firstName;
     }
 
@@ -38,6 +68,9 @@ public class Person {
     }
 
     public void setLastName(String lastName) {
+        if(!Objects.equals(this.lastName, lastName)){
+            dirtyFields |= LAST_NAME;
+        }
         this.lastName = lastName;
     }
 
@@ -46,9 +79,49 @@ public class Person {
     }
 
     public void setBirthDate(LocalDate birthDate) {
+        if(!Objects.equals(this.birthDate, birthDate)){
+            dirtyFields |= BIRTH_DATE;
+        }
         this.birthDate = birthDate;
     }
 
+    /**
+     * @return row version this Person was loaded or last written with, UNKNOWN_VERSION when detached
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return bit set of FIRST_NAME, LAST_NAME and BIRTH_DATE changed since load or last write
+     */
+    public int getDirtyFields() {
+        return dirtyFields;
+    }
+
+    public boolean isDirty() {
+        return dirtyFields != 0;
+    }
+
+    /**
+     * Called by the data layer once this Person is written
+     * @param version the new row version
+     */
+    public void markClean(int version) {
+        this.version = version;
+        this.dirtyFields = 0;
+    }
+
+    /**
+     * Called by the data layer when a write of this Person is rolled back, so the changes are written again
+     * @param version the row version before the write
+     * @param dirtyFields the fields written
+     */
+    public void markDirty(int version, int dirtyFields) {
+        this.version = version;
+        this.dirtyFields |= dirtyFields;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -62,7 +135,10 @@ public class Person {
 
     @Override
     public int hashCode() {
-        return Objects.hash(personId, firstName, lastName, birthDate);
+        int result = 31 + personId;
+        result = 31 * result + Objects.hashCode(firstName);
+        result = 31 * result + Objects.hashCode(lastName);
+        return 31 * result + Objects.hashCode(birthDate);
     }
 
     @Override
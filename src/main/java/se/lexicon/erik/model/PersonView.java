@@ -0,0 +1,84 @@
+package se.lexicon.erik.model;
+
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * Immutable read-only projection of a Person. Safe to share between tasks and threads,
+ * the hash code is computed once.
+ */
+public final class PersonView {
+
+    private final int personId;
+    private final String firstName;
+    private final String lastName;
+    private final LocalDate birthDate;
+    private final int hash;
+
+    public PersonView(int personId, String firstName, String lastName, LocalDate birthDate) {
+        this.personId = personId;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.birthDate = birthDate;
+        int result = 31 + personId;
+        result = 31 * result + Objects.hashCode(firstName);
+        result = 31 * result + Objects.hashCode(lastName);
+        this.hash = 31 * result + Objects.hashCode(birthDate);
+    }
+
+    public static PersonView of(Person person){
+        return new PersonView(person.getPersonId(), person.getFirstName(), person.getLastName(), person.getBirthDate());
+    }
+
+    /**
+     * @return new mutable Person with the same state. Views carry no row version, so load the Person
+     * again before updating it.
+     */
+    public Person toPerson(){
+        return new Person(personId, firstName, lastName, birthDate);
+    }
+
+    public int getPersonId() {
+        return personId;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public LocalDate getBirthDate() {
+        return birthDate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PersonView person = (PersonView) o;
+        return personId == person.personId &&
+                hash == person.hash &&
+                Objects.equals(firstName, person.firstName) &&
+                Objects.equals(lastName, person.lastName) &&
+                Objects.equals(birthDate, person.birthDate);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PersonView{");
+        sb.append("personId=").append(personId);
+        sb.append(", firstName='").append(firstName).append('\'');
+        sb.append(", lastName='").append(lastName).append('\'');
+        sb.append(", birthDate=").append(birthDate);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -1,20 +1,63 @@
 package se.lexicon.erik.model;
 
 import java.time.LocalDate;
+import java.util.Objects;
+import java.util.function.IntFunction;
 
+/**
+ * Tracks changed fields and the row version like {@link Person}. Changing the assignee only counts as a
+ * change when the personId differs. A Task is clean when constructed with its version, and detached like a
+ * Person when constructed with a taskId but without a version.
+ *
+ * A Task loaded with a lazy assignee only knows the personId until {@link #getAssignee()} is first called,
+ * which resolves the Person through the given loader.
+ */
 public class Task {
+
+    public static final int DESCRIPTION = 1;
+    public static final int DEAD_LINE = 2;
+    public static final int DONE = 4;
+    public static final int ASSIGNEE = 8;
+    public static final int UNKNOWN_VERSION = -1;
+
+    private static final int ALL_FIELDS = DESCRIPTION | DEAD_LINE | DONE | ASSIGNEE;
+
     private int taskId;
     private String description;
     private LocalDate deadLine;
     private boolean done;
     private Person assignee;
+    private int assigneeId;
+    private IntFunction<Person> assigneeLoader;
+    private int version;
+    private int dirtyFields;
 
-    public Task(int taskId, String description, LocalDate deadLine, boolean done, Person assignee) {
+    public Task(int taskId, String description, LocalDate deadLine, boolean done, Person assignee, int version) {
         this.taskId = taskId;
         this.description = description;
         this.deadLine = deadLine;
         this.done = done;
         this.assignee = assignee;
+        this.assigneeId = personId(assignee);
+        this.version = version;
+        this.dirtyFields = version == UNKNOWN_VERSION ? ALL_FIELDS : 0;
+    }
+
+    /**
+     * @param assigneeId personId of the assignee
+     * @param assigneeLoader resolves the assignee from its personId on the first call to getAssignee()
+     */
+    public Task(int taskId, String description, LocalDate deadLine, boolean done, int assigneeId, IntFunction<Person> assigneeLoader, int version) {
+        this(taskId, description, deadLine, done, null, version);
+        this.assigneeId = assigneeId;
+        this.assigneeLoader = assigneeLoader;
+    }
+
+    /**
+     * @param taskId taskId, a Task with a taskId is detached
+     */
+    public Task(int taskId, String description, LocalDate deadLine, boolean done, Person assignee) {
+        this(taskId, description, deadLine, done, assignee, taskId == 0 ? 0 : UNKNOWN_VERSION);
     }
 
     public Task(String description, LocalDate deadLine) {
@@ -30,6 +73,9 @@ public class Task {
     }
 
     public void setDescription(String description) {
+        if(!Objects.equals(this.description, description)){
+            dirtyFields |= DESCRIPTION;
+        }
         this.description = description;
     }
 
@@ -38,6 +84,9 @@ public class Task {
     }
 
     public void setDeadLine(LocalDate deadLine) {
+        if(!Objects.equals(this.deadLine, deadLine)){
+            dirtyFields |= DEAD_LINE;
+        }
         this.deadLine = deadLine;
     }
 
@@ -46,15 +95,88 @@ public class Task {
     }
 
     public void setDone(boolean done) {
+        if(this.done != done){
+            dirtyFields |= DONE;
+        }
         this.done = done;
     }
 
+    /**
+     * @return the assignee, resolved first when it is lazy
+     */
     public Person getAssignee() {
+        if(assigneeLoader != null){
+            assignee = assigneeLoader.apply(assigneeId);
+            assigneeLoader = null;
+        }
         return assignee;
     }
 
     public void setAssignee(Person assignee) {
+        if(assigneeId != personId(assignee)){
+            dirtyFields |= ASSIGNEE;
+        }
         this.assignee = assignee;
+        this.assigneeId = personId(assignee);
+        this.assigneeLoader = null;
+    }
+
+    /**
+     * @return personId of the assignee without resolving a lazy assignee, 0 when none or not yet persisted
+     */
+    public int getAssigneeId() {
+        return assigneeId;
+    }
+
+    /**
+     * @return false while a lazy assignee is not yet resolved
+     */
+    public boolean isAssigneeLoaded() {
+        return assigneeLoader == null;
+    }
+
+    /**
+     * @return row version this Task was loaded or last written with, UNKNOWN_VERSION when detached
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return bit set of DESCRIPTION, DEAD_LINE, DONE and ASSIGNEE changed since load or last write
+     */
+    public int getDirtyFields() {
+        return dirtyFields;
+    }
+
+    /**
+     * @return true when a field of this Task changed, changes to the assignee itself are not included
+     */
+    public boolean isDirty() {
+        return dirtyFields != 0;
+    }
+
+    /**
+     * Called by the data layer once this Task is written
+     * @param version the new row version
+     */
+    public void markClean(int version) {
+        this.version = version;
+        this.dirtyFields = 0;
+    }
+
+    /**
+     * Called by the data layer when a write of this Task is rolled back, so the changes are written again
+     * @param version the row version before the write
+     * @param dirtyFields the fields written
+     */
+    public void markDirty(int version, int dirtyFields) {
+        this.version = version;
+        this.dirtyFields |= dirtyFields;
+    }
+
+    private static int personId(Person person){
+        return person == null ? 0 : person.getPersonId();
     }
 
     @Override
@@ -64,7 +186,11 @@ public class Task {
         sb.append(", description='").append(description).append('\'');
         sb.append(", deadLine=").append(deadLine);
         sb.append(", done=").append(done);
-        sb.append(", assignee=").append(assignee);
+        if(isAssigneeLoaded()){
+            sb.append(", assignee=").append(assignee);
+        }else{
+            sb.append(", assigneeId=").append(assigneeId);
+        }
         sb.append('}');
         return sb.toString();
     }
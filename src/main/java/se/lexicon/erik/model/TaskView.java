@@ -0,0 +1,87 @@
+package se.lexicon.erik.model;
+
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * Immutable read-only projection of a Task for list queries. Tasks read from the same
+ * result set share one PersonView per assignee. The hash code is not cached since a field for it would
+ * make every TaskView 8 bytes larger, it is computed without boxing from the cached PersonView hash.
+ */
+public final class TaskView {
+
+    private final int taskId;
+    private final String description;
+    private final LocalDate deadLine;
+    private final boolean done;
+    private final PersonView assignee;
+
+    public TaskView(int taskId, String description, LocalDate deadLine, boolean done, PersonView assignee) {
+        this.taskId = taskId;
+        this.description = description;
+        this.deadLine = deadLine;
+        this.done = done;
+        this.assignee = assignee;
+    }
+
+    /**
+     * @return new mutable Task with a new mutable assignee. Views carry no row version, so load the Task
+     * again before updating it.
+     */
+    public Task toTask(){
+        return new Task(taskId, description, deadLine, done, assignee == null ? null : assignee.toPerson());
+    }
+
+    public int getTaskId() {
+        return taskId;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public LocalDate getDeadLine() {
+        return deadLine;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public PersonView getAssignee() {
+        return assignee;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TaskView task = (TaskView) o;
+        return taskId == task.taskId &&
+                done == task.done &&
+                Objects.equals(description, task.description) &&
+                Objects.equals(deadLine, task.deadLine) &&
+                Objects.equals(assignee, task.assignee);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 31 + taskId;
+        result = 31 * result + Objects.hashCode(description);
+        result = 31 * result + Objects.hashCode(deadLine);
+        result = 31 * result + Boolean.hashCode(done);
+        return 31 * result + Objects.hashCode(assignee);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("TaskView{");
+        sb.append("taskId=").append(taskId);
+        sb.append(", description='").append(description).append('\'');
+        sb.append(", deadLine=").append(deadLine);
+        sb.append(", done=").append(done);
+        sb.append(", assignee=").append(assignee);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,104 @@
+package se.lexicon.erik.data;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+public class AsyncTaskDaoTest {
+
+    private DaoExecutor executor;
+    private AsyncTaskDao testObject;
+
+    @BeforeClass
+    public static void startDatabase() throws Exception {
+        TestDatabase.start("async_task_dao_test");
+    }
+
+    @AfterClass
+    public static void stopDatabase() {
+        Database.shutdown();
+    }
+
+    @Before
+    public void setUp() {
+        executor = new DaoExecutor();
+        testObject = new AsyncTaskDao(new TaskDao(), executor);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.close();
+        TestDatabase.clear();
+    }
+
+    @Test
+    public void independent_lookups_are_combined() throws Exception {
+        Task task = new Task("Write tests", LocalDate.now().plusDays(2));
+        task.setAssignee(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+        Task created = testObject.createAsync(task).get();
+        int personId = created.getAssignee().getPersonId();
+
+        CompletableFuture<Optional<Task>> byId = testObject.findByTaskIdAsync(created.getTaskId());
+        CompletableFuture<Optional<Task>> closest = testObject.findClosestUndoneTaskByPersonIdAsync(personId);
+
+        assertTrue(byId.thenCombine(closest, (a, b) -> a.get().getTaskId() == b.get().getTaskId()).get());
+    }
+
+    @Test
+    public void markDone_and_aggregates_run_on_the_executor() throws Exception {
+        Task task = new Task("Write tests", LocalDate.now().plusDays(2));
+        task.setAssignee(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+        Task created = testObject.createAsync(task).get();
+        int personId = created.getAssignee().getPersonId();
+
+        assertTrue(testObject.markDoneAsync(created.getTaskId()).get());
+
+        assertEquals(1, testObject.countByPersonIdAsync(true).get().get(personId));
+        assertTrue(testObject.findByTaskIdsAsync(Collections.singletonList(created.getTaskId())).get().get(created.getTaskId()).isDone());
+        assertEquals(1, testObject.findByPersonIdAsync(personId, 10, null).get().getItems().size());
+        assertEquals(1, (int) testObject.setDoneAsync(Collections.singletonList(created.getTaskId()), false).get());
+        assertEquals(1, testObject.findViewsByDoneStatusAsync(false).get().size());
+    }
+
+    @Test
+    public void submit_rejects_when_queue_is_full() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try(DaoExecutor small = new DaoExecutor(1, 1)){
+            small.submit(() -> await(release));
+            small.submit(() -> await(release));
+
+            CompletableFuture<Boolean> rejected = small.submit(() -> true);
+            release.countDown();
+
+            try{
+                rejected.get();
+                fail("Expected rejection");
+            }catch (ExecutionException ex){
+                assertTrue(ex.getCause() instanceof RejectedExecutionException);
+            }
+        }
+    }
+
+    private static boolean await(CountDownLatch latch){
+        try{
+            latch.await();
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+}
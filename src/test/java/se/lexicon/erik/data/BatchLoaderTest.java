@@ -0,0 +1,127 @@
+package se.lexicon.erik.data;
+
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BatchLoaderTest {
+
+    private final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+    private Map<Integer, String> load(List<Integer> ids){
+        batches.add(ids);
+        Map<Integer, String> result = new HashMap<>();
+        for(int id : ids){
+            if(id >= 0){
+                result.put(id, "v" + id);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void concurrent_lookups_are_coalesced_and_deduplicated() throws Exception {
+        int threads = 64;
+        ExecutorService callers = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try(BatchLoader<String> testObject = new BatchLoader<>(this::load, 1000, 50, TimeUnit.MILLISECONDS)){
+            List<Future<Optional<String>>> results = new ArrayList<>();
+            for(int i = 0; i < threads; i++){
+                int id = i % 32;
+                results.add(callers.submit(() -> {
+                    start.await();
+                    return testObject.get(id);
+                }));
+            }
+            start.countDown();
+            for(int i = 0; i < threads; i++){
+                assertEquals(Optional.of("v" + (i % 32)), results.get(i).get(5, TimeUnit.SECONDS));
+            }
+
+            assertEquals(threads, testObject.getRequestCount());
+            assertTrue("Expected few batches but got " + batches.size(), batches.size() <= 4);
+            int loadedIds = batches.stream().mapToInt(List::size).sum();
+            assertEquals(threads, loadedIds + testObject.getDeduplicatedCount());
+        }finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void full_batch_is_loaded_before_window_closes() {
+        try(BatchLoader<String> testObject = new BatchLoader<>(this::load, 2, 1, TimeUnit.HOURS)){
+            CompletableFuture<Optional<String>> first = testObject.load(1);
+            CompletableFuture<Optional<String>> missing = testObject.load(-1);
+
+            assertEquals(Optional.of("v1"), first.join());
+            assertEquals(Optional.empty(), missing.join());
+            assertEquals(1, testObject.getBatchCount());
+        }
+    }
+
+    @Test
+    public void failed_batch_fails_every_waiting_lookup() {
+        BatchLoader<String> testObject = new BatchLoader<>(ids -> {
+            throw new SQLException("Database is down");
+        }, 10, 1, TimeUnit.MILLISECONDS);
+        try{
+            testObject.get(1);
+            fail("Expected the lookup to fail");
+        }catch (UncheckedSQLException ex){
+            assertEquals("Database is down", ex.getCause().getMessage());
+        }finally {
+            testObject.close();
+        }
+    }
+
+    @Test
+    public void close_loads_waiting_lookups() {
+        BatchLoader<String> testObject = new BatchLoader<>(this::load, 10, 1, TimeUnit.HOURS);
+        CompletableFuture<Optional<String>> waiting = testObject.load(7);
+
+        testObject.close();
+
+        assertEquals(Optional.of("v7"), waiting.getNow(null));
+    }
+
+    @Test
+    public void deduplicated_lookups_get_their_own_person() throws Exception {
+        TestDatabase.start("batch_loader_test");
+        try{
+            PersonDao personDao = new PersonDao();
+            Person erik = personDao.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+            try(BatchLoader<Person> testObject = BatchLoader.persons(personDao, 1, TimeUnit.HOURS)){
+                CompletableFuture<Optional<Person>> first = testObject.load(erik.getPersonId());
+                CompletableFuture<Optional<Person>> second = testObject.load(erik.getPersonId());
+                testObject.close();
+
+                Person firstPerson = first.join().get();
+                Person secondPerson = second.join().get();
+                assertNotSame(firstPerson, secondPerson);
+                firstPerson.setFirstName("Erika");
+                assertEquals("Erik", secondPerson.getFirstName());
+                assertEquals(erik.getVersion(), secondPerson.getVersion());
+                assertEquals(1, testObject.getDeduplicatedCount());
+            }
+        }finally {
+            TestDatabase.clear();
+            Database.shutdown();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package se.lexicon.erik.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class ConnectionPermitsTest {
+
+    @Before
+    public void setUp() throws Exception {
+        Properties properties = TestDatabase.properties("connection_permits_test");
+        properties.setProperty("pool.maximumPoolSize", "2");
+        properties.setProperty("pool.connectionTimeout", "250");
+        properties.setProperty("pool.limitBorrowers", "true");
+        TestDatabase.start(properties);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.clear();
+        Database.shutdown();
+    }
+
+    @Test
+    public void permits_are_returned_when_connections_close() throws Exception {
+        assertTrue(Database.isLimitBorrowers());
+        for(int i = 0; i < 10; i++){
+            try(Connection first = Database.getConnection(); Connection second = Database.getConnection()){
+                assertTrue(first.isValid(1) && second.isValid(1));
+                second.close();
+            }
+        }
+        assertEquals(0, Database.getPoolStats().getActiveConnections());
+    }
+
+    @Test(expected = SQLTimeoutException.class)
+    public void borrower_times_out_when_all_permits_are_taken() throws Exception {
+        try(Connection first = Database.getConnection(); Connection second = Database.getConnection();
+            Connection third = Database.getConnection()){
+            fail();
+        }
+    }
+
+    @Test
+    public void many_callers_share_few_connections() throws Exception {
+        PersonDao personDao = new PersonDao();
+        Person person = personDao.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+        try(DaoExecutor executor = new DaoExecutor(50, 1000)){
+            List<CompletableFuture<Boolean>> lookups = new ArrayList<>();
+            for(int i = 0; i < 500; i++){
+                lookups.add(executor.submit(() -> personDao.findById(person.getPersonId()).isPresent()));
+            }
+            for(CompletableFuture<Boolean> lookup : lookups){
+                assertTrue(lookup.get());
+            }
+        }
+    }
+
+    @Test
+    public void virtual_thread_executor_runs_dao_calls() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+        Database.setLimitBorrowers(false);
+        PersonDao personDao = new PersonDao();
+        Person person = personDao.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+        try(DaoExecutor executor = DaoExecutor.virtualThreads()){
+            assertTrue(Database.isLimitBorrowers());
+            List<CompletableFuture<Boolean>> lookups = new ArrayList<>();
+            for(int i = 0; i < 10_000; i++){
+                lookups.add(executor.submit(() -> personDao.findById(person.getPersonId()).isPresent()));
+            }
+            for(CompletableFuture<Boolean> lookup : lookups){
+                assertTrue(lookup.get());
+            }
+        }
+        assertFalse(Database.isLimitBorrowers());
+    }
+
+    @Test
+    public void limit_stays_on_until_last_hold_is_released() {
+        Database.setLimitBorrowers(false);
+        Database.holdLimitBorrowers();
+        Database.holdLimitBorrowers();
+        Database.releaseLimitBorrowers();
+        assertTrue(Database.isLimitBorrowers());
+        Database.releaseLimitBorrowers();
+        assertFalse(Database.isLimitBorrowers());
+
+        Database.setLimitBorrowers(true);
+        Database.holdLimitBorrowers();
+        Database.releaseLimitBorrowers();
+        assertTrue(Database.isLimitBorrowers());
+    }
+
+    @Test
+    public void closing_one_virtual_thread_executor_keeps_limit_for_the_other() {
+        assumeTrue(VirtualThreads.isSupported());
+        Database.setLimitBorrowers(false);
+        try(DaoExecutor second = DaoExecutor.virtualThreads()){
+            DaoExecutor first = DaoExecutor.virtualThreads();
+            first.close();
+            first.close();
+            assertTrue(Database.isLimitBorrowers());
+        }
+        assertFalse(Database.isLimitBorrowers());
+    }
+
+    @Test(expected = SQLTimeoutException.class)
+    public void shard_borrower_times_out_when_all_shard_permits_are_taken() throws Throwable {
+        Database.shutdown();
+        Properties properties = TestDatabase.shardedProperties("connection_permits_test", 2);
+        properties.setProperty("pool.maximumPoolSize", "2");
+        properties.setProperty("pool.connectionTimeout", "250");
+        properties.setProperty("pool.limitBorrowers", "true");
+        TestDatabase.start(properties);
+        try(Connection first = Database.getConnection(); Connection second = Database.getConnection()){
+            Database.onShard(1, () -> {
+                try(Connection third = Database.getConnection(); Connection fourth = Database.getConnection();
+                    Connection fifth = Database.getConnection()){
+                    fail();
+                    return null;
+                }catch (SQLException ex){
+                    throw new UncheckedSQLException(ex);
+                }
+            });
+        }catch (UncheckedSQLException ex){
+            throw ex.getCause();
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void virtual_thread_executor_needs_jdk_21() {
+        assumeTrue(!VirtualThreads.isSupported());
+        DaoExecutor.virtualThreads();
+    }
+}
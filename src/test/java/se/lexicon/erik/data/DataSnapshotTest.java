@@ -0,0 +1,144 @@
+package se.lexicon.erik.data;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DataSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final PersonDao personDao = new PersonDao();
+    private final TaskDao taskDao = new TaskDao(personDao);
+
+    @BeforeClass
+    public static void startDatabase() throws Exception {
+        TestDatabase.start("data_snapshot_test");
+    }
+
+    @AfterClass
+    public static void stopDatabase() {
+        Database.shutdown();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.clear();
+    }
+
+    @Test
+    public void export_and_read_round_trip_over_several_blocks() throws Exception {
+        List<Person> persons = personDao.createAll(Arrays.asList(
+                new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")),
+                new Person("Åsa", null, null)));
+        List<Task> tasks = new ArrayList<>();
+        for(int i = 0; i < SnapshotWriter.BLOCK_ROWS + 10; i++){
+            tasks.add(new Task(0, "Task " + i % 3, i % 2 == 0 ? LocalDate.parse("2021-10-01").plusDays(i) : null,
+                    i % 3 == 0, persons.get(i % 2)));
+        }
+        tasks = taskDao.createAll(tasks);
+        Path file = folder.getRoot().toPath().resolve("data.snapshot");
+
+        assertEquals(2 + tasks.size(), DataSnapshot.export(file));
+        DataSnapshot snapshot = DataSnapshot.read(file);
+
+        assertEquals(2, snapshot.getPersonCount());
+        assertEquals(tasks.size(), snapshot.getTaskCount());
+        assertEquals(persons.get(1), snapshot.findPerson(persons.get(1).getPersonId()).get());
+        for(Task task : Arrays.asList(tasks.get(0), tasks.get(1), tasks.get(tasks.size() - 1))){
+            Task read = snapshot.findTask(task.getTaskId()).get();
+            assertEquals(task.getDescription(), read.getDescription());
+            assertEquals(task.getDeadLine(), read.getDeadLine());
+            assertEquals(task.isDone(), read.isDone());
+            assertFalse(read.isAssigneeLoaded());
+            assertEquals(task.getAssignee(), read.getAssignee());
+        }
+        assertSame(snapshot.findTask(tasks.get(0).getTaskId()).get().getAssignee(),
+                snapshot.findTask(tasks.get(2).getTaskId()).get().getAssignee());
+        assertFalse(Files.exists(file.resolveSibling("data.snapshot.tmp")));
+    }
+
+    @Test
+    public void catchUp_applies_rows_changed_since_snapshot_and_drops_deleted() throws Exception {
+        Person erik = personDao.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+        Person gone = personDao.create(new Person("Nils", "Nilsson", null));
+        Task task = new Task("Write tests", LocalDate.now().plusDays(1));
+        task.setAssignee(erik);
+        task = taskDao.create(task);
+        Path file = folder.getRoot().toPath().resolve("data.snapshot");
+        DataSnapshot.export(file);
+
+        erik.setLastName("Andersson");
+        personDao.update(erik);
+        personDao.delete(gone.getPersonId());
+        taskDao.markDone(task.getTaskId());
+        Task added = new Task("Review", LocalDate.now().plusDays(2));
+        added.setAssignee(erik);
+        added = taskDao.create(added);
+
+        DataSnapshot snapshot = DataSnapshot.read(file);
+        assertEquals("Svensson", snapshot.findPerson(erik.getPersonId()).get().getLastName());
+        assertEquals(4, snapshot.catchUp(0, TimeUnit.MILLISECONDS));
+
+        assertEquals("Andersson", snapshot.findTask(task.getTaskId()).get().getAssignee().getLastName());
+        assertFalse(snapshot.findPerson(gone.getPersonId()).isPresent());
+        assertTrue(snapshot.findTask(task.getTaskId()).get().isDone());
+        assertEquals(erik.getVersion(), snapshot.findPerson(erik.getPersonId()).get().getVersion());
+        assertSame(snapshot.findPerson(erik.getPersonId()).get(), snapshot.findTask(added.getTaskId()).get().getAssignee());
+    }
+
+    @Test
+    public void warmStart_warms_indexes_and_rewrites_snapshot() throws Exception {
+        Person erik = personDao.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+        Task task = new Task("Write tests", LocalDate.now().plusDays(1));
+        task.setAssignee(erik);
+        task = taskDao.create(task);
+        Path file = folder.getRoot().toPath().resolve("data.snapshot");
+
+        DataSnapshot.warmStart(file, personDao, taskDao);
+        assertTrue(Files.exists(file));
+
+        LastNameIndex lastNameIndex = new LastNameIndex();
+        PersonCache cache = new PersonCache(10, 1, TimeUnit.MINUTES);
+        UndoneTaskIndex undoneTaskIndex = new UndoneTaskIndex();
+        PersonDao warmPersonDao = new PersonDao(cache, lastNameIndex);
+        DataSnapshot snapshot = DataSnapshot.warmStart(file, warmPersonDao, new TaskDao(warmPersonDao, undoneTaskIndex));
+
+        assertEquals(1, snapshot.getTaskCount());
+        assertEquals(Arrays.asList("Svensson"), lastNameIndex.suggest("sv", 10));
+        assertEquals(erik, cache.get(erik.getPersonId()));
+        assertTrue(undoneTaskIndex.isWarm(erik.getPersonId()));
+        assertEquals(task.getTaskId(), undoneTaskIndex.findClosest(erik.getPersonId(), LocalDate.now()).get().getTaskId());
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejects_truncated_snapshot() throws Exception {
+        personDao.create(new Person("Erik", "Svensson", null));
+        Path file = folder.getRoot().toPath().resolve("data.snapshot");
+        DataSnapshot.export(file);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)){
+            channel.truncate(channel.size() - 1);
+        }
+
+        DataSnapshot.read(file);
+    }
+}
@@ -0,0 +1,96 @@
+package se.lexicon.erik.data;
+
+import com.zaxxer.hikari.HikariConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class DatabaseTest {
+
+    @Before
+    public void setUp() throws Exception {
+        TestDatabase.start("database_test");
+    }
+
+    @After
+    public void tearDown() {
+        Database.shutdown();
+    }
+
+    @Test
+    public void createConfig_reads_pool_settings() {
+        Properties properties = TestDatabase.properties("config_test");
+        properties.setProperty("pool.maximumPoolSize", "7");
+        properties.setProperty("pool.idleTimeout", "20000");
+        properties.setProperty("pool.maxLifetime", "60000");
+        properties.setProperty("pool.leakDetectionThreshold", "5000");
+
+        HikariConfig config = Database.createConfig(properties);
+
+        assertEquals(7, config.getMaximumPoolSize());
+        assertEquals(1, config.getMinimumIdle());
+        assertEquals(20000, config.getIdleTimeout());
+        assertEquals(60000, config.getMaxLifetime());
+        assertEquals(5000, config.getLeakDetectionThreshold());
+    }
+
+    @Test
+    public void createConfig_passes_dataSource_properties_to_driver() {
+        Properties properties = TestDatabase.properties("config_test");
+        properties.setProperty("dataSource.QUERY_CACHE_SIZE", "32");
+
+        HikariConfig config = Database.createConfig(properties);
+
+        assertEquals("32", config.getDataSourceProperties().getProperty("QUERY_CACHE_SIZE"));
+        assertEquals(1, config.getDataSourceProperties().size());
+    }
+
+    @Test
+    public void createConfig_enables_statement_cache_for_mysql_by_default() {
+        Properties properties = new Properties();
+        properties.setProperty("url", "jdbc:mysql://localhost:3306/demo");
+
+        HikariConfig config = Database.createConfig(properties);
+
+        assertEquals("true", config.getDataSourceProperties().getProperty("cachePrepStmts"));
+        assertEquals("true", config.getDataSourceProperties().getProperty("useServerPrepStmts"));
+        assertEquals("true", config.getDataSourceProperties().getProperty("useCursorFetch"));
+    }
+
+    @Test
+    public void createConfig_enables_cursor_fetch_for_mysql_with_other_driver_properties() {
+        Properties properties = new Properties();
+        properties.setProperty("url", "jdbc:mysql://localhost:3306/demo");
+        properties.setProperty("dataSource.cachePrepStmts", "false");
+
+        HikariConfig config = Database.createConfig(properties);
+
+        assertEquals("true", config.getDataSourceProperties().getProperty("useCursorFetch"));
+        properties.setProperty("dataSource.useCursorFetch", "false");
+        assertEquals("false", Database.createConfig(properties).getDataSourceProperties().getProperty("useCursorFetch"));
+    }
+
+    @Test
+    public void connections_are_borrowed_from_and_returned_to_pool() throws Exception {
+        try(Connection connection = Database.getConnection()){
+            assertTrue(connection.isValid(1));
+            assertEquals(1, Database.getPoolStats().getActiveConnections());
+        }
+
+        PoolStats stats = Database.getPoolStats();
+        assertEquals(0, stats.getActiveConnections());
+        assertEquals(4, stats.getMaximumPoolSize());
+        assertTrue(stats.getTotalConnections() >= 1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void pool_stats_not_available_after_shutdown() {
+        Database.shutdown();
+        Database.getPoolStats();
+    }
+}
@@ -0,0 +1,18 @@
+package se.lexicon.erik.data;
+
+/**
+ * Runs the StoreContract against InMemoryPersonStore and InMemoryTaskStore, with two stripes so that
+ * writes and queries span stripes
+ */
+public class InMemoryStoreTest extends StoreContract {
+
+    @Override
+    protected PersonStore newPersonStore() {
+        return new InMemoryPersonStore(2);
+    }
+
+    @Override
+    protected TaskStore newTaskStore(PersonStore personStore) {
+        return new InMemoryTaskStore((InMemoryPersonStore) personStore, 2);
+    }
+}
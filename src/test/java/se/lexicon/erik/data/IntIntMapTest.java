@@ -0,0 +1,49 @@
+package se.lexicon.erik.data;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class IntIntMapTest {
+
+    @Test
+    public void put_get_and_forEach_survive_resizing() {
+        IntIntMap testObject = new IntIntMap(2);
+        for(int i = -1000; i <= 1000; i++){
+            assertEquals(0, testObject.put(i, i * 2));
+        }
+
+        assertEquals(2001, testObject.size());
+        for(int i = -1000; i <= 1000; i++){
+            assertEquals(i * 2, testObject.get(i));
+            assertTrue(testObject.containsKey(i));
+        }
+        assertEquals(0, testObject.get(5000));
+        assertFalse(testObject.containsKey(5000));
+        AtomicInteger sum = new AtomicInteger();
+        AtomicInteger entries = new AtomicInteger();
+        testObject.forEach((key, value) -> {
+            assertEquals(key * 2, value);
+            sum.addAndGet(value);
+            entries.incrementAndGet();
+        });
+        assertEquals(0, sum.get());
+        assertEquals(2001, entries.get());
+    }
+
+    @Test
+    public void zero_key_is_a_normal_entry_until_clear() {
+        IntIntMap testObject = new IntIntMap();
+        assertFalse(testObject.containsKey(0));
+
+        testObject.put(0, 0);
+
+        assertTrue(testObject.containsKey(0));
+        assertEquals(1, testObject.size());
+        testObject.clear();
+        assertFalse(testObject.containsKey(0));
+        assertEquals(0, testObject.size());
+    }
+}
@@ -0,0 +1,57 @@
+package se.lexicon.erik.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IntObjectMapTest {
+
+    @Test
+    public void put_and_get_survive_resizing() {
+        IntObjectMap<String> testObject = new IntObjectMap<>(2);
+        for(int i = -1000; i <= 1000; i++){
+            assertNull(testObject.put(i, "v" + i));
+        }
+
+        assertEquals(2001, testObject.size());
+        for(int i = -1000; i <= 1000; i++){
+            assertEquals("v" + i, testObject.get(i));
+        }
+        assertNull(testObject.get(5000));
+    }
+
+    @Test
+    public void put_replaces_value_and_clear_empties() {
+        IntObjectMap<String> testObject = new IntObjectMap<>();
+        testObject.put(0, "zero");
+        testObject.put(7, "seven");
+
+        assertEquals("seven", testObject.put(7, "SEVEN"));
+        assertEquals("zero", testObject.put(0, "ZERO"));
+        assertEquals(2, testObject.size());
+        assertEquals("SEVEN", testObject.get(7));
+
+        testObject.clear();
+        assertNull(testObject.get(0));
+        assertNull(testObject.get(7));
+        assertEquals(0, testObject.size());
+    }
+
+    @Test
+    public void remove_keeps_colliding_keys_reachable() {
+        IntObjectMap<String> testObject = new IntObjectMap<>(4);
+        for(int i = 0; i < 1000; i++){
+            testObject.put(i, "v" + i);
+        }
+
+        for(int i = 0; i < 1000; i += 3){
+            assertEquals("v" + i, testObject.remove(i));
+        }
+        assertNull(testObject.remove(3));
+
+        assertEquals(666, testObject.size());
+        for(int i = 0; i < 1000; i++){
+            assertEquals(i % 3 == 0 ? null : "v" + i, testObject.get(i));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package se.lexicon.erik.data;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+/**
+ * Runs the StoreContract against PersonDao and TaskDao
+ */
+public class JdbcStoreTest extends StoreContract {
+
+    @BeforeClass
+    public static void startDatabase() throws Exception {
+        TestDatabase.start("jdbc_store_test");
+    }
+
+    @AfterClass
+    public static void stopDatabase() {
+        Database.shutdown();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.clear();
+    }
+
+    @Override
+    protected PersonStore newPersonStore() {
+        return new PersonDao();
+    }
+
+    @Override
+    protected TaskStore newTaskStore(PersonStore personStore) {
+        return new TaskDao((PersonDao) personStore);
+    }
+}
@@ -0,0 +1,69 @@
+package se.lexicon.erik.data;
+
+import org.junit.Before;
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LastNameIndexTest {
+
+    private LastNameIndex testObject;
+
+    @Before
+    public void setUp() {
+        testObject = new LastNameIndex();
+        testObject.load(Arrays.asList(
+                new Person(1, "Erik", "Svensson", null),
+                new Person(2, "Anna", "Svensson", null),
+                new Person(3, "Nils", "Svenning", null),
+                new Person(4, "Ulla", "Åström", null),
+                new Person(5, "Bo", "Andersson", null)
+        ));
+    }
+
+    @Test
+    public void findPersonIds_returns_prefix_matches_ordered_by_name_and_id() {
+        assertEquals(Arrays.asList(3, 1, 2), testObject.findPersonIds("sven", 10));
+        assertEquals(Arrays.asList(3, 1), testObject.findPersonIds("Sven", 2));
+        assertTrue(testObject.findPersonIds("x", 10).isEmpty());
+    }
+
+    @Test
+    public void suggest_ignores_case_and_accents_and_returns_distinct_names() {
+        assertEquals(Arrays.asList("Svenning", "Svensson"), testObject.suggest("SVEN", 10));
+        assertEquals(Arrays.asList("Åström"), testObject.suggest("ast", 10));
+        assertEquals(Arrays.asList("Andersson", "Åström"), testObject.suggest("a", 10));
+    }
+
+    @Test
+    public void put_moves_person_when_last_name_changes() {
+        testObject.put(new Person(3, "Nils", "Nilsson", null));
+        testObject.removePerson(1);
+
+        assertEquals(Arrays.asList("Svensson"), testObject.suggest("sven", 10));
+        assertEquals(Arrays.asList(3), testObject.findPersonIds("nil", 10));
+        assertEquals(4, testObject.size());
+    }
+
+    @Test
+    public void load_keeps_persons_written_since_startLoad() {
+        testObject.startLoad();
+        testObject.put(new Person(3, "Nils", "Nilsson", null));
+        testObject.put(new Person(6, "Eva", "Svedberg", null));
+        testObject.removePerson(1);
+        testObject.load(Arrays.asList(
+                new Person(1, "Erik", "Svensson", null),
+                new Person(3, "Nils", "Svenning", null)
+        ));
+
+        assertEquals(Arrays.asList("Svedberg"), testObject.suggest("sve", 10));
+        assertEquals(Arrays.asList(3), testObject.findPersonIds("nil", 10));
+        assertEquals(2, testObject.size());
+
+        testObject.load(Arrays.asList(new Person(1, "Erik", "Svensson", null)));
+        assertEquals(Arrays.asList(1), testObject.findPersonIds("sve", 10));
+    }
+}
@@ -0,0 +1,82 @@
+package se.lexicon.erik.data;
+
+import org.junit.Before;
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class PersonCacheTest {
+
+    private AtomicLong time;
+    private PersonCache testObject;
+
+    @Before
+    public void setUp() {
+        time = new AtomicLong();
+        testObject = new PersonCache(2, 10, TimeUnit.SECONDS, time::get);
+    }
+
+    private Person person(int id){
+        return new Person(id, "First" + id, "Last" + id, LocalDate.parse("1990-01-01"));
+    }
+
+    @Test
+    public void get_returns_copy_and_counts_hits_and_misses() {
+        Person person = person(1);
+        testObject.put(person);
+        person.setFirstName("Changed");
+
+        Person cached = testObject.get(1);
+
+        assertEquals("First1", cached.getFirstName());
+        assertNotSame(cached, testObject.get(1));
+        assertNull(testObject.get(2));
+        assertEquals(2, testObject.getHitCount());
+        assertEquals(1, testObject.getMissCount());
+    }
+
+    @Test
+    public void put_ignores_copy_older_than_cached_version() {
+        testObject.put(new Person(1, "Updated", "Last1", null, 2));
+        testObject.put(new Person(1, "Stale", "Last1", null, 1));
+
+        assertEquals("Updated", testObject.get(1).getFirstName());
+        assertEquals(2, testObject.get(1).getVersion());
+    }
+
+    @Test
+    public void put_evicts_least_recently_used() {
+        testObject.put(person(1));
+        testObject.put(person(2));
+        testObject.get(1);
+        testObject.put(person(3));
+
+        assertNotNull(testObject.get(1));
+        assertNull(testObject.get(2));
+        assertNotNull(testObject.get(3));
+        assertEquals(1, testObject.getEvictionCount());
+    }
+
+    @Test
+    public void get_expires_entries_after_time_to_live() {
+        testObject.put(person(1));
+        time.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        assertNull(testObject.get(1));
+        assertEquals(0, testObject.size());
+        assertEquals(1, testObject.getEvictionCount());
+    }
+
+    @Test
+    public void invalidate_removes_entry() {
+        testObject.put(person(1));
+        testObject.invalidate(1);
+
+        assertNull(testObject.get(1));
+    }
+}
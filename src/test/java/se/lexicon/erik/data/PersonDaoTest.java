@@ -0,0 +1,227 @@
+package se.lexicon.erik.data;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PersonDaoTest {
+
+    private PersonDao testObject;
+
+    @BeforeClass
+    public static void startDatabase() throws Exception {
+        TestDatabase.start("person_dao_test");
+    }
+
+    @AfterClass
+    public static void stopDatabase() {
+        Database.shutdown();
+    }
+
+    @Before
+    public void setUp() {
+        testObject = new PersonDao();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.clear();
+    }
+
+    @Test
+    public void create_and_findById() {
+        Person created = testObject.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+
+        assertTrue(created.getPersonId() > 0);
+        assertEquals(created, testObject.findById(created.getPersonId()).orElseThrow(AssertionError::new));
+    }
+
+    @Test
+    public void createAll_returns_generated_ids_in_input_order() {
+        testObject.setBatchSize(2);
+        Person persisted = testObject.create(new Person("Nils", "Nilsson", LocalDate.parse("1980-01-01")));
+        List<Person> people = Arrays.asList(
+                new Person("Anna", "Andersson", LocalDate.parse("1990-01-01")),
+                persisted,
+                new Person("Bertil", "Berg", LocalDate.parse("1991-02-02")),
+                new Person("Cecilia", "Carlsson", LocalDate.parse("1992-03-03"))
+        );
+
+        List<Person> result = testObject.createAll(people);
+
+        assertEquals(4, result.size());
+        assertSame(persisted, result.get(1));
+        assertEquals("Anna", result.get(0).getFirstName());
+        assertEquals("Bertil", result.get(2).getFirstName());
+        assertEquals("Cecilia", result.get(3).getFirstName());
+        assertTrue(result.get(0).getPersonId() < result.get(2).getPersonId());
+        assertTrue(result.get(2).getPersonId() < result.get(3).getPersonId());
+        for(Person person : result){
+            assertEquals(person, testObject.findById(person.getPersonId()).orElseThrow(AssertionError::new));
+        }
+    }
+
+    @Test
+    public void updateAll_updates_every_person() {
+        List<Person> people = testObject.createAll(Arrays.asList(
+                new Person("Anna", "Andersson", LocalDate.parse("1990-01-01")),
+                new Person("Bertil", "Berg", LocalDate.parse("1991-02-02"))
+        ));
+        people.get(0).setLastName("Berg");
+        people.get(1).setFirstName("Bert");
+
+        testObject.updateAll(people);
+
+        assertEquals("Berg", testObject.findById(people.get(0).getPersonId()).get().getLastName());
+        assertEquals("Bert", testObject.findById(people.get(1).getPersonId()).get().getFirstName());
+    }
+
+    @Test
+    public void findByIds_returns_found_persons_in_request_order() {
+        testObject.setBatchSize(2);
+        List<Person> people = testObject.createAll(Arrays.asList(
+                new Person("Anna", "Andersson", LocalDate.parse("1990-01-01")),
+                new Person("Bertil", "Berg", LocalDate.parse("1991-02-02")),
+                new Person("Cecilia", "Carlsson", LocalDate.parse("1992-03-03"))
+        ));
+        int anna = people.get(0).getPersonId();
+        int bertil = people.get(1).getPersonId();
+        int cecilia = people.get(2).getPersonId();
+
+        Map<Integer, Person> result = testObject.findByIds(Arrays.asList(cecilia, -1, anna, cecilia, bertil));
+
+        assertEquals(Arrays.asList(cecilia, anna, bertil), new ArrayList<>(result.keySet()));
+        assertEquals(people.get(2), result.get(cecilia));
+        assertEquals(people.get(0), result.get(anna));
+        assertTrue(testObject.findByIds(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void update_skips_unchanged_person_and_rejects_stale_version() {
+        Person created = testObject.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+        Person stale = testObject.findById(created.getPersonId()).get();
+
+        testObject.update(created);
+        assertEquals(0, created.getVersion());
+
+        created.setLastName("Berg");
+        assertEquals(Person.LAST_NAME, created.getDirtyFields());
+        testObject.update(created);
+        assertEquals(1, created.getVersion());
+        assertFalse(created.isDirty());
+
+        stale.setFirstName("Nils");
+        try{
+            testObject.update(stale);
+            fail("Stale person was written");
+        }catch (OptimisticLockException ex){
+            assertEquals(0, ex.getVersion());
+        }
+        Person found = testObject.findById(created.getPersonId()).get();
+        assertEquals(created, found);
+        assertEquals(1, found.getVersion());
+    }
+
+    @Test
+    public void update_sets_only_changed_columns() {
+        assertEquals("UPDATE persons SET last_name = ?, birth_date = ?, version = version + 1, updated_at = CURRENT_TIMESTAMP WHERE person_id = ? AND version = ?",
+                Queries.UPDATE_PERSON.withSetColumns(Person.LAST_NAME | Person.BIRTH_DATE));
+        assertEquals(Queries.UPDATE_PERSON.getQuery(),
+                Queries.UPDATE_PERSON.withSetColumns(Person.FIRST_NAME | Person.LAST_NAME | Person.BIRTH_DATE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updateAll_rejects_non_persisted_person() {
+        testObject.updateAll(Arrays.asList(new Person("Anna", "Andersson", LocalDate.parse("1990-01-01"))));
+    }
+
+    @Test
+    public void cache_is_populated_by_create_and_kept_in_sync() {
+        PersonCache cache = new PersonCache(10, 1, TimeUnit.MINUTES);
+        testObject = new PersonDao(cache);
+
+        Person created = testObject.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+        assertEquals(created, testObject.findById(created.getPersonId()).get());
+        assertEquals(1, cache.getHitCount());
+
+        created.setLastName("Karlsson");
+        testObject.update(created);
+        assertEquals("Karlsson", testObject.findById(created.getPersonId()).get().getLastName());
+
+        testObject.delete(created.getPersonId());
+        assertFalse(testObject.findById(created.getPersonId()).isPresent());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void findByLastName_pages_through_prefix_matches() {
+        testObject.createAll(Arrays.asList(
+                new Person("A", "Svensson", null),
+                new Person("B", "Svensson", null),
+                new Person("C", "Svenning", null),
+                new Person("D", "Sven_son", null),
+                new Person("E", "Andersson", null)
+        ));
+
+        Page<Person> first = testObject.findByLastName("Sven", 2, null);
+        Page<Person> second = testObject.findByLastName("Sven", 2, first.getNextPageToken().get());
+
+        assertEquals("Sven_son", first.getItems().get(0).getLastName());
+        assertEquals("Svenning", first.getItems().get(1).getLastName());
+        assertEquals(2, second.getItems().size());
+        assertEquals("A", second.getItems().get(0).getFirstName());
+        assertEquals("B", second.getItems().get(1).getFirstName());
+        assertFalse(second.hasNext());
+        assertEquals(1, testObject.findByLastName("Sven_", 10, null).getItems().size());
+    }
+
+    @Test
+    public void findByLastName_returns_prefix_matches_up_to_limit() throws Exception {
+        testObject.createAll(Arrays.asList(
+                new Person("A", "Svensson", null),
+                new Person("B", "Svenning", null),
+                new Person("C", "Andersson", null)
+        ));
+
+        List<Person> result = testObject.findByLastName("Sven");
+
+        assertEquals(2, result.size());
+        assertEquals("Svenning", result.get(0).getLastName());
+        assertEquals("Svensson", result.get(1).getLastName());
+        assertEquals(1, testObject.findByLastName("Sven", 1).size());
+        assertEquals(3, TestDatabase.count("persons"));
+    }
+
+    @Test
+    public void suggestLastNames_uses_loaded_index_kept_in_sync_with_writes() {
+        LastNameIndex index = new LastNameIndex();
+        testObject = new PersonDao(null, index);
+        Person erik = testObject.create(new Person("Erik", "Svensson", null));
+        testObject.create(new Person("Anna", "Svensson", null));
+        assertEquals(Arrays.asList("Svensson"), testObject.suggestLastNames("Sv", 10));
+        assertFalse(index.isLoaded());
+
+        assertTrue(testObject.loadLastNameIndex());
+        erik.setLastName("Svenning");
+        testObject.update(erik);
+        Person nils = testObject.create(new Person("Nils", "Sven_", null));
+        assertEquals(Arrays.asList("Sven_", "Svenning", "Svensson"), testObject.suggestLastNames("sven", 10));
+
+        testObject.delete(nils.getPersonId());
+        assertEquals(Arrays.asList("Svenning", "Svensson"), testObject.suggestLastNames("sv", 10));
+        assertEquals(testObject.suggestLastNames("Sv", 10), new PersonDao().suggestLastNames("Sv", 10));
+    }
+}
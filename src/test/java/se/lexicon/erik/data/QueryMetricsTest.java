@@ -0,0 +1,175 @@
+package se.lexicon.erik.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class QueryMetricsTest {
+
+    private QueryMetrics metrics;
+    private PersonDao personDao;
+
+    @Before
+    public void setUp() throws Exception {
+        TestDatabase.start("query_metrics_test");
+        metrics = new QueryMetrics();
+        Database.setQueryListener(metrics);
+        personDao = new PersonDao();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.clear();
+        Database.setQueryListener(null);
+        QueryMetrics.unregisterMBean();
+        Database.shutdown();
+    }
+
+    @Test
+    public void records_latency_and_rows_per_query() {
+        personDao.createAll(Arrays.asList(
+                new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")),
+                new Person("Anna", "Svensson", LocalDate.parse("1980-01-01"))
+        ));
+        Person person = personDao.create(new Person("Nils", "Nilsson", null));
+        personDao.findById(person.getPersonId());
+
+        assertEquals(2, personDao.findByLastName("Sven").size());
+
+        QueryStats search = metrics.getQueryStats(Queries.FIND_PEOPLE_BY_LAST_NAME);
+        assertEquals(1, search.getCount());
+        assertEquals(2, search.getRows());
+        assertTrue(search.getMaxMicros() >= search.getP50Micros() / 2);
+        QueryStats persist = metrics.getQueryStats(Queries.PERSIST_PERSON);
+        assertEquals(2, persist.getCount());
+        assertEquals(3, persist.getRows());
+        assertEquals(1, metrics.getQueryStats(Queries.FIND_PERSON_BY_ID).getCount());
+        assertEquals(0, metrics.getQueryStats(Queries.DELETE_PERSON).getCount());
+        assertTrue(metrics.getConnectionStats().getCount() >= 4);
+    }
+
+    @Test
+    public void derived_statements_are_counted_under_their_query() {
+        Person first = personDao.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+        Person second = personDao.create(new Person("Anna", "Svensson", null));
+        first.setFirstName("Erika");
+        personDao.update(first);
+        personDao.findByIds(Arrays.asList(first.getPersonId(), second.getPersonId()));
+
+        QueryStats update = metrics.getQueryStats(Queries.UPDATE_PERSON);
+        assertEquals(1, update.getCount());
+        assertEquals(1, update.getRows());
+        assertEquals(1, metrics.getQueryStats(Queries.FIND_PERSONS_WHERE_PERSON_ID_IN).getCount());
+        assertFalse(metrics.getQueryStats().containsKey(QueryMetrics.OTHER));
+    }
+
+    @Test
+    public void counts_errors_by_query_and_type() throws Exception {
+        char[] tooLong = new char[300];
+        Arrays.fill(tooLong, 'x');
+        try{
+            personDao.create(new Person("Erik", new String(tooLong), null));
+            fail();
+        }catch (UncheckedSQLException expected){
+        }
+        try(Connection connection = Database.getConnection();
+            Statement statement = connection.createStatement()){
+            statement.executeQuery("SELECT * FROM missing");
+            fail();
+        }catch (SQLException expected){
+        }
+
+        assertEquals(1, metrics.getQueryStats(Queries.PERSIST_PERSON).getErrors());
+        assertEquals(0, metrics.getQueryStats(Queries.PERSIST_PERSON).getCount());
+        assertEquals(1, metrics.getQueryStats().get(QueryMetrics.OTHER).getErrors());
+        assertEquals(2, metrics.getErrorCounts().values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    public void logs_statements_slower_than_threshold() {
+        List<LogRecord> records = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(QueryMetrics.class.getName());
+        logger.addHandler(handler);
+        try{
+            Database.setQueryListener(new QueryMetrics(1, TimeUnit.NANOSECONDS));
+            personDao.findById(1);
+        }finally {
+            logger.removeHandler(handler);
+        }
+
+        assertEquals(1, records.size());
+        assertTrue(records.get(0).getMessage().contains("FIND_PERSON_BY_ID"));
+    }
+
+    @Test
+    public void connections_are_not_wrapped_without_listener() throws Exception {
+        Database.setQueryListener(null);
+        try(Connection connection = Database.getConnection()){
+            assertFalse(Proxy.isProxyClass(connection.getClass()));
+        }
+    }
+
+    @Test
+    public void metrics_enabled_by_properties_are_exported_through_jmx() throws Exception {
+        Database.setQueryListener(null);
+        Properties properties = TestDatabase.properties("query_metrics_test");
+        properties.setProperty("metrics.enabled", "true");
+        properties.setProperty("metrics.slowQueryThresholdMillis", "500");
+        Database.configure(properties);
+        personDao.findById(1);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(QueryMetrics.OBJECT_NAME);
+        assertEquals(500L, server.getAttribute(name, "SlowQueryThresholdMillis"));
+        TabularData queries = (TabularData) server.getAttribute(name, "QueryStats");
+        CompositeData findById = (CompositeData) queries.get(new Object[]{Queries.FIND_PERSON_BY_ID.name()}).get("value");
+        assertEquals(1L, findById.get("count"));
+        assertTrue(Database.getQueryListener().get() instanceof QueryMetrics);
+    }
+
+    @Test
+    public void configure_without_metrics_removes_previous_listener() throws Exception {
+        Database.configure(TestDatabase.properties("query_metrics_test"));
+
+        assertFalse(Database.getQueryListener().isPresent());
+        try(Connection connection = Database.getConnection()){
+            assertFalse(Proxy.isProxyClass(connection.getClass()));
+        }
+    }
+}
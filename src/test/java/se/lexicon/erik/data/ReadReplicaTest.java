@@ -0,0 +1,105 @@
+package se.lexicon.erik.data;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * Uses two more embedded databases as replicas. They are not replicated from the primary, which makes it
+ * visible where each read went.
+ */
+public class ReadReplicaTest {
+
+    private static final int REPLICA_PERSON_ID = 1000;
+
+    private Properties properties;
+
+    @Before
+    public void setUp() throws Exception {
+        properties = TestDatabase.properties("replica_primary");
+        for(int n = 1; n <= 2; n++){
+            String url = TestDatabase.properties("replica_" + n).getProperty("url");
+            properties.setProperty("replica." + n + ".url", url);
+            try(Connection connection = DriverManager.getConnection(url, "sa", "");
+                Statement statement = connection.createStatement()){
+                statement.execute("RUNSCRIPT FROM 'classpath:schema.sql'");
+                statement.execute("DELETE FROM persons");
+                statement.execute("INSERT INTO persons (person_id, first_name, last_name) VALUES (" + REPLICA_PERSON_ID + ", 'Replica', '" + n + "')");
+            }
+        }
+        TestDatabase.start(properties);
+        TestDatabase.clear();
+    }
+
+    @After
+    public void tearDown() {
+        Database.shutdown();
+    }
+
+    @Test
+    public void reads_go_round_robin_to_replicas_and_writes_to_primary() throws Exception {
+        PersonDao personDao = new PersonDao();
+
+        Person created = personDao.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+
+        assertEquals(2, Database.getReplicaCount());
+        assertEquals(1, TestDatabase.count("persons"));
+        assertFalse(personDao.findById(created.getPersonId()).isPresent());
+        String first = personDao.findById(REPLICA_PERSON_ID).get().getLastName();
+        String second = personDao.findById(REPLICA_PERSON_ID).get().getLastName();
+        assertNotEquals(first, second);
+        assertEquals(first, personDao.findById(REPLICA_PERSON_ID).get().getLastName());
+    }
+
+    @Test
+    public void unit_of_work_reads_its_own_writes_from_primary() throws Exception {
+        PersonDao personDao = new PersonDao();
+
+        try(UnitOfWork work = UnitOfWork.begin()){
+            Person created = personDao.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+            assertEquals(created, personDao.findById(created.getPersonId()).orElseThrow(AssertionError::new));
+            assertFalse(personDao.findById(REPLICA_PERSON_ID).isPresent());
+            work.commit();
+        }
+    }
+
+    @Test
+    public void least_busy_selection_avoids_replica_with_borrowed_connections() throws SQLException {
+        properties.setProperty("replica.selection", "least-busy");
+        ReplicaRouter router = ReplicaRouter.create(properties);
+        try{
+            assertEquals(ReplicaRouter.Selection.LEAST_BUSY, router.getSelection());
+            HikariDataSource busy = router.getPools().get(0);
+            try(Connection held = busy.getConnection()){
+                for(int i = 0; i < 4; i++){
+                    assertSame(router.getPools().get(1), router.select());
+                }
+            }
+        }finally {
+            router.close();
+        }
+    }
+
+    @Test
+    public void without_replicas_reads_use_primary() throws Exception {
+        TestDatabase.start("replica_primary");
+        PersonDao personDao = new PersonDao();
+
+        Person created = personDao.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+
+        assertEquals(0, Database.getReplicaCount());
+        assertTrue(Database.getReplicaPoolStats().isEmpty());
+        assertEquals(created, personDao.findById(created.getPersonId()).orElseThrow(AssertionError::new));
+    }
+}
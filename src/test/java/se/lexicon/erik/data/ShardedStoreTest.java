@@ -0,0 +1,167 @@
+package se.lexicon.erik.data;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the StoreContract against ShardedPersonStore and ShardedTaskStore over three embedded databases,
+ * each handing out ids in its own stride
+ */
+public class ShardedStoreTest extends StoreContract {
+
+    private static final int SHARDS = 3;
+
+    private static DaoExecutor executor;
+
+    private final LocalDate today = LocalDate.now();
+
+    @BeforeClass
+    public static void startDatabase() throws Exception {
+        TestDatabase.startShards("sharded_store_test", SHARDS);
+        executor = new DaoExecutor(SHARDS, DaoExecutor.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    @AfterClass
+    public static void stopDatabase() {
+        executor.close();
+        Database.shutdown();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.clearShards();
+    }
+
+    @Override
+    protected PersonStore newPersonStore() {
+        return new ShardedPersonStore(executor);
+    }
+
+    @Override
+    protected TaskStore newTaskStore(PersonStore personStore) {
+        return new ShardedTaskStore((ShardedPersonStore) personStore);
+    }
+
+    /**
+     * Replaces the contract test, a task can only be reassigned to a person on its own shard
+     */
+    @Override
+    @Test
+    public void update_task_writes_assignee_change_and_rejects_stale_task() {
+        List<Person> people = personStore.createAll(newPersons(SHARDS + 1));
+        Task task = taskStore.create(task("Write tests", today, people.get(0)));
+        Task stale = taskStore.findByTaskId(task.getTaskId()).get();
+
+        task.setAssignee(people.get(SHARDS));
+        task.setDescription("Review tests");
+        taskStore.update(task);
+
+        Task found = taskStore.findByTaskId(task.getTaskId()).get();
+        assertEquals(people.get(SHARDS), found.getAssignee());
+        assertEquals(1, found.getVersion());
+        stale.setDone(true);
+        try{
+            taskStore.updateAll(Collections.singletonList(stale));
+            fail("Expected OptimisticLockException");
+        }catch (OptimisticLockException expected){
+            assertFalse(taskStore.findByTaskId(task.getTaskId()).get().isDone());
+        }
+        found.setAssignee(people.get(1));
+        try{
+            taskStore.update(found);
+            fail("Expected IllegalArgumentException");
+        }catch (IllegalArgumentException expected){
+            assertEquals(people.get(SHARDS), taskStore.findByTaskId(task.getTaskId()).get().getAssignee());
+        }
+    }
+
+    @Test
+    public void persons_spread_over_shards_and_their_tasks_follow_them() {
+        List<Person> people = personStore.createAll(newPersons(SHARDS));
+        List<Task> tasks = new ArrayList<>();
+        for(Person person : people){
+            tasks.add(task("First", today, person));
+            tasks.add(task("Second", today.plusDays(1), person));
+        }
+        tasks.add(task("New assignee", today, new Person("Nils", "Nilsson", null)));
+        tasks = taskStore.createAll(tasks);
+
+        for(int i = 0; i < SHARDS; i++){
+            int personId = people.get(i).getPersonId();
+            assertEquals(i, ShardRouter.shardOf(personId, SHARDS));
+            List<Task> onShard = Database.onShard(i, () -> new TaskDao().findByPersonId(personId));
+            assertEquals(2, onShard.size());
+            for(Task task : onShard){
+                assertEquals(i, ShardRouter.shardOf(task.getTaskId(), SHARDS));
+            }
+        }
+        Task last = tasks.get(tasks.size() - 1);
+        assertEquals(ShardRouter.shardOf(last.getAssignee().getPersonId(), SHARDS), ShardRouter.shardOf(last.getTaskId(), SHARDS));
+        assertEquals(SHARDS * 2 + 1, taskStore.findByDoneStatus(false).size());
+    }
+
+    @Test
+    public void stream_merges_every_shard_and_can_be_closed_early() throws Exception {
+        List<Person> people = personStore.createAll(newPersons(SHARDS));
+        List<Task> tasks = new ArrayList<>();
+        for(int i = 0; i < ShardedTaskStore.STREAM_BUFFER * 2; i++){
+            tasks.add(task("Task " + i, today.plusDays(i % 30), people.get(i % SHARDS)));
+        }
+        taskStore.createAll(tasks);
+
+        try(Stream<Task> stream = taskStore.streamByDoneStatus(false)){
+            assertEquals(tasks.size(), stream.count());
+        }
+        try(Stream<Task> stream = taskStore.streamByDoneStatus(false)){
+            Iterator<Task> iterator = stream.iterator();
+            assertTrue(iterator.hasNext());
+            iterator.next();
+        }
+        for(int i = 0; i < 50 && activeShardConnections() > 0; i++){
+            Thread.sleep(20);
+        }
+        assertEquals(0, activeShardConnections());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void onShard_rejects_open_unit_of_work() throws Exception {
+        try(UnitOfWork ignored = UnitOfWork.begin()){
+            Database.onShard(0, () -> null);
+        }
+    }
+
+    private static int activeShardConnections(){
+        int active = 0;
+        for(PoolStats stats : Database.getShardPoolStats()){
+            active += stats.getActiveConnections();
+        }
+        return active;
+    }
+
+    private static List<Person> newPersons(int count){
+        List<Person> people = new ArrayList<>();
+        for(int i = 0; i < count; i++){
+            people.add(new Person("Person", "Number " + i, null));
+        }
+        return people;
+    }
+
+    private static Task task(String description, LocalDate deadLine, Person assignee){
+        Task task = new Task(description, deadLine);
+        task.setAssignee(assignee);
+        return task;
+    }
+}
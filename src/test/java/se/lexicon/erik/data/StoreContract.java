@@ -0,0 +1,339 @@
+package se.lexicon.erik.data;
+
+import org.junit.Before;
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+import se.lexicon.erik.model.TaskView;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Behaviour every PersonStore and TaskStore implementation shares, run against each implementation by a subclass
+ */
+public abstract class StoreContract {
+
+    protected PersonStore personStore;
+    protected TaskStore taskStore;
+    private final LocalDate today = LocalDate.now();
+
+    protected abstract PersonStore newPersonStore();
+
+    protected abstract TaskStore newTaskStore(PersonStore personStore);
+
+    @Before
+    public void createStores() {
+        personStore = newPersonStore();
+        taskStore = newTaskStore(personStore);
+    }
+
+    @Test
+    public void create_and_find_person_by_id() {
+        Person erik = personStore.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+
+        assertNotEquals(0, erik.getPersonId());
+        assertSame(erik, personStore.create(erik));
+        assertEquals(erik, personStore.findById(erik.getPersonId()).get());
+        assertFalse(personStore.findById(erik.getPersonId() + 1000).isPresent());
+    }
+
+    @Test
+    public void findByIds_leaves_out_missing_ids() {
+        List<Person> people = personStore.createAll(Arrays.asList(new Person("Erik", "Svensson", null), new Person("Nils", "Nilsson", null)));
+
+        Map<Integer, Person> found = personStore.findByIds(Arrays.asList(people.get(1).getPersonId(), -1, people.get(0).getPersonId()));
+
+        assertEquals(Arrays.asList(people.get(1).getPersonId(), people.get(0).getPersonId()), new ArrayList<>(found.keySet()));
+        assertEquals(people.get(0), found.get(people.get(0).getPersonId()));
+    }
+
+    @Test
+    public void update_bumps_version_and_rejects_stale_person() {
+        Person erik = personStore.create(new Person("Erik", "Svensson", null));
+        Person stale = personStore.findById(erik.getPersonId()).get();
+
+        erik.setLastName("Andersson");
+        personStore.update(erik);
+
+        assertEquals(1, erik.getVersion());
+        assertEquals("Andersson", personStore.findById(erik.getPersonId()).get().getLastName());
+        stale.setFirstName("Nils");
+        try{
+            personStore.update(stale);
+            fail("Expected OptimisticLockException");
+        }catch (OptimisticLockException expected){
+            assertEquals(erik.getPersonId(), expected.getId());
+        }
+    }
+
+    @Test
+    public void update_of_detached_objects_overwrites_rows() {
+        Person erik = personStore.create(new Person("Erik", "Svensson", null));
+        erik.setLastName("Andersson");
+        personStore.update(erik);
+        Task task = taskStore.create(task("Write tests", today, erik));
+        int personId = erik.getPersonId();
+
+        personStore.update(new Person(personId, "Changed", "Andersson", null));
+        assertEquals("Changed", personStore.findById(personId).get().getFirstName());
+        personStore.updateAll(Arrays.asList(new Person(personId, "Erik", "Svensson", null)));
+        assertEquals("Svensson", personStore.findById(personId).get().getLastName());
+
+        taskStore.update(new Task(task.getTaskId(), "Review tests", today.plusDays(1), true, erik));
+        Task found = taskStore.findByTaskId(task.getTaskId()).get();
+        assertEquals("Review tests", found.getDescription());
+        assertTrue(found.isDone());
+        taskStore.updateAll(Arrays.asList(new Task(task.getTaskId(), "Write tests", today, false, erik)));
+        assertEquals("Write tests", taskStore.findByTaskId(task.getTaskId()).get().getDescription());
+        assertEquals(task.getTaskId(), taskStore.findClosestUndoneTaskByPersonId(personId).get().getTaskId());
+    }
+
+    @Test
+    public void updateAll_writes_nothing_when_any_person_is_stale() {
+        List<Person> people = personStore.createAll(Arrays.asList(new Person("Erik", "Svensson", null), new Person("Nils", "Nilsson", null)));
+        Person stale = personStore.findById(people.get(1).getPersonId()).get();
+        people.get(1).setFirstName("Nisse");
+        personStore.update(people.get(1));
+
+        people.get(0).setFirstName("Erk");
+        stale.setFirstName("Nils-Erik");
+        try{
+            personStore.updateAll(Arrays.asList(people.get(0), stale));
+            fail("Expected OptimisticLockException");
+        }catch (OptimisticLockException expected){
+            assertEquals("Erik", personStore.findById(people.get(0).getPersonId()).get().getFirstName());
+        }
+    }
+
+    @Test
+    public void delete_removes_person_unless_tasks_are_assigned() {
+        Person erik = personStore.create(new Person("Erik", "Svensson", null));
+        Person nils = personStore.create(new Person("Nils", "Nilsson", null));
+        taskStore.create(task("Write tests", today, erik));
+
+        assertTrue(personStore.delete(nils.getPersonId()));
+        assertFalse(personStore.delete(nils.getPersonId()));
+        assertFalse(personStore.delete(erik.getPersonId()));
+        assertFalse(personStore.findById(nils.getPersonId()).isPresent());
+        assertTrue(personStore.findById(erik.getPersonId()).isPresent());
+    }
+
+    @Test
+    public void findByLastName_pages_by_last_name_and_personId() {
+        personStore.createAll(Arrays.asList(
+                new Person("A", "Svensson", null), new Person("B", "Andersson", null), new Person("C", "Svanberg", null),
+                new Person("D", "Svensson", null), new Person("E", "Svensson", null), new Person("F", null, null)));
+
+        List<String> walked = new ArrayList<>();
+        String token = null;
+        do{
+            Page<Person> page = personStore.findByLastName("Sv", 2, token);
+            page.getItems().forEach(person -> walked.add(person.getFirstName()));
+            token = page.getNextPageToken().orElse(null);
+        }while(token != null);
+
+        assertEquals(Arrays.asList("C", "A", "D", "E"), walked);
+        assertEquals(Arrays.asList("C", "A"), personStore.findByLastName("Sv", 2).stream().map(Person::getFirstName).collect(Collectors.toList()));
+        assertEquals(Arrays.asList("Svanberg", "Svensson"), personStore.suggestLastNames("Sv", 10));
+    }
+
+    @Test
+    public void create_task_persists_assignee_and_findByTaskIds_shares_it() {
+        Task first = taskStore.create(task("Write tests", today.plusDays(1), new Person("Erik", "Svensson", null)));
+        Person erik = first.getAssignee();
+        Task second = taskStore.create(task("Review", today.plusDays(2), erik));
+
+        assertNotEquals(0, erik.getPersonId());
+        assertEquals(erik, personStore.findById(erik.getPersonId()).get());
+        Task found = taskStore.findByTaskId(first.getTaskId()).get();
+        assertEquals("Write tests", found.getDescription());
+        assertEquals(today.plusDays(1), found.getDeadLine());
+        assertEquals(erik, found.getAssignee());
+        Map<Integer, Task> both = taskStore.findByTaskIds(Arrays.asList(second.getTaskId(), first.getTaskId(), -1));
+        assertEquals(Arrays.asList(second.getTaskId(), first.getTaskId()), new ArrayList<>(both.keySet()));
+        assertSame(both.get(first.getTaskId()).getAssignee(), both.get(second.getTaskId()).getAssignee());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_task_without_assignee_throws() {
+        taskStore.create(new Task("Write tests", today));
+    }
+
+    @Test
+    public void setDone_moves_tasks_between_done_statuses() {
+        Person erik = personStore.create(new Person("Erik", "Svensson", null));
+        List<Task> tasks = taskStore.createAll(Arrays.asList(
+                task("A", today, erik), task("B", today.plusDays(1), erik), task("C", null, erik)));
+
+        assertTrue(taskStore.markDone(tasks.get(0).getTaskId()));
+        assertFalse(taskStore.markDone(-1));
+        assertEquals(2, taskStore.setDone(Arrays.asList(tasks.get(1).getTaskId(), tasks.get(2).getTaskId(), -1), true));
+        assertEquals(1, taskStore.setDone(Arrays.asList(tasks.get(2).getTaskId()), false));
+
+        assertEquals(ids(tasks.get(0), tasks.get(1)), new HashSet<>(ids(taskStore.findByDoneStatus(true))));
+        assertEquals(ids(tasks.get(2)), new HashSet<>(ids(taskStore.findByDoneStatus(false))));
+        assertEquals(2, taskStore.findViewsByDoneStatus(true).size());
+        assertEquals(2, taskStore.findByTaskId(tasks.get(2).getTaskId()).get().getVersion());
+    }
+
+    @Test
+    public void findByPersonId_orders_by_deadline() {
+        Person erik = personStore.create(new Person("Erik", "Svensson", null));
+        Person nils = personStore.create(new Person("Nils", "Nilsson", null));
+        List<Task> tasks = taskStore.createAll(Arrays.asList(
+                task("Later", today.plusDays(5), erik), task("Other", today, nils), task("Sooner", today.plusDays(1), erik)));
+
+        assertEquals(Arrays.asList("Sooner", "Later"),
+                taskStore.findByPersonId(erik.getPersonId()).stream().map(Task::getDescription).collect(Collectors.toList()));
+        List<TaskView> views = taskStore.findViewsByPersonId(erik.getPersonId());
+        assertEquals(Arrays.asList(tasks.get(2).getTaskId(), tasks.get(0).getTaskId()),
+                views.stream().map(TaskView::getTaskId).collect(Collectors.toList()));
+        assertEquals("Svensson", views.get(0).getAssignee().getLastName());
+        assertEquals(1, taskStore.streamByPersonId(nils.getPersonId()).count());
+        assertEquals(3, taskStore.streamByDoneStatus(false).count());
+    }
+
+    @Test
+    public void pages_walk_dated_tasks_by_deadline_and_taskId() {
+        Person erik = personStore.create(new Person("Erik", "Svensson", null));
+        List<Task> created = new ArrayList<>();
+        for(int i = 0; i < 7; i++){
+            created.add(task("Task " + i, i == 3 ? null : today.plusDays(i % 3), erik));
+        }
+        created = taskStore.createAll(created);
+
+        List<Integer> walked = new ArrayList<>();
+        String token = null;
+        do{
+            Page<Task> page = taskStore.findByPersonId(erik.getPersonId(), 2, token);
+            page.getItems().forEach(task -> walked.add(task.getTaskId()));
+            token = page.getNextPageToken().orElse(null);
+        }while(token != null);
+
+        List<Integer> expected = Arrays.asList(0, 6, 1, 4, 2, 5).stream().map(created::get).map(Task::getTaskId).collect(Collectors.toList());
+        assertEquals(expected, walked);
+        assertEquals(expected.subList(0, 3), ids(taskStore.findByDoneStatus(false, 3, null).getItems()));
+    }
+
+    @Test
+    public void findClosestUndoneTaskByPersonId_ignores_done_tasks() {
+        Person erik = personStore.create(new Person("Erik", "Svensson", null));
+        List<Task> tasks = taskStore.createAll(Arrays.asList(
+                task("Far", today.plusDays(10), erik), task("Yesterday", today.minusDays(1), erik),
+                task("Later", today.plusDays(2), erik), task("Today", today, erik), task("Undated", null, erik)));
+        taskStore.markDone(tasks.get(3).getTaskId());
+
+        Task closest = taskStore.findClosestUndoneTaskByPersonId(erik.getPersonId()).get();
+
+        assertEquals(tasks.get(1).getTaskId(), closest.getTaskId());
+        assertEquals(erik, closest.getAssignee());
+        assertFalse(taskStore.findClosestUndoneTaskByPersonId(erik.getPersonId() + 1000).isPresent());
+    }
+
+    @Test
+    public void aggregates_count_per_person() {
+        Person erik = personStore.create(new Person("Erik", "Svensson", null));
+        Person nils = personStore.create(new Person("Nils", "Nilsson", null));
+        List<Task> tasks = taskStore.createAll(Arrays.asList(
+                task("Overdue", today.minusDays(2), erik), task("Next", today.plusDays(1), erik),
+                task("Done", today.minusDays(1), erik), task("Undated", null, nils), task("Later", today.plusDays(4), nils)));
+        taskStore.markDone(tasks.get(2).getTaskId());
+
+        assertEquals(2, taskStore.countByPersonId(false).get(erik.getPersonId()));
+        assertEquals(1, taskStore.countByPersonId(true).get(erik.getPersonId()));
+        assertFalse(taskStore.countByPersonId(true).containsKey(nils.getPersonId()));
+        assertEquals(1, taskStore.countOverdueByPersonId(today).get(erik.getPersonId()));
+        assertFalse(taskStore.countOverdueByPersonId(today).containsKey(nils.getPersonId()));
+        assertEquals(today.plusDays(4), taskStore.findNextDeadlineByPersonId(today).get(nils.getPersonId()));
+        TaskStats stats = taskStore.findStatsByPersonId(today).get(erik.getPersonId());
+        assertEquals(1, stats.getDoneCount());
+        assertEquals(2, stats.getUndoneCount());
+        assertEquals(1, stats.getOverdueCount());
+        assertEquals(today.plusDays(1), stats.getNextDeadline());
+        assertEquals(2, taskStore.findStatsByPersonId(today).get(nils.getPersonId()).getUndoneCount());
+    }
+
+    @Test
+    public void update_task_writes_assignee_change_and_rejects_stale_task() {
+        Task task = taskStore.create(task("Write tests", today, new Person("Erik", "Svensson", null)));
+        Task stale = taskStore.findByTaskId(task.getTaskId()).get();
+        Person nils = personStore.create(new Person("Nils", "Nilsson", null));
+
+        task.setAssignee(nils);
+        task.setDescription("Review tests");
+        taskStore.update(task);
+
+        Task found = taskStore.findByTaskId(task.getTaskId()).get();
+        assertEquals(nils, found.getAssignee());
+        assertEquals("Review tests", found.getDescription());
+        assertEquals(1, found.getVersion());
+        assertTrue(taskStore.findByPersonId(nils.getPersonId()).size() == 1);
+        stale.setDone(true);
+        try{
+            taskStore.updateAll(Arrays.asList(stale));
+            fail("Expected OptimisticLockException");
+        }catch (OptimisticLockException expected){
+            assertFalse(taskStore.findByTaskId(task.getTaskId()).get().isDone());
+        }
+    }
+
+    @Test
+    public void concurrent_writers_keep_every_task() throws Exception {
+        List<Person> people = personStore.createAll(Arrays.asList(new Person("Erik", "Svensson", null), new Person("Nils", "Nilsson", null)));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try{
+            List<Future<List<Integer>>> futures = new ArrayList<>();
+            for(int thread = 0; thread < 4; thread++){
+                Person assignee = people.get(thread % 2);
+                futures.add(executor.submit(() -> {
+                    List<Integer> ids = new ArrayList<>();
+                    for(int i = 0; i < 50; i++){
+                        Task created = taskStore.create(task("Task " + i, today.plusDays(i), assignee));
+                        assertNotEquals("Task " + i + " was not created", 0, created.getTaskId());
+                        if(i % 2 == 0){
+                            taskStore.markDone(created.getTaskId());
+                        }
+                        ids.add(created.getTaskId());
+                    }
+                    return ids;
+                }));
+            }
+            Set<Integer> ids = new HashSet<>();
+            for(Future<List<Integer>> future : futures){
+                ids.addAll(future.get());
+            }
+            assertEquals(200, ids.size());
+        }finally {
+            executor.shutdown();
+        }
+        assertEquals(100, taskStore.findByPersonId(people.get(0).getPersonId()).size());
+        assertEquals(100, taskStore.findByDoneStatus(true).size());
+        assertEquals(50, taskStore.countByPersonId(false).get(people.get(1).getPersonId()));
+    }
+
+    private static Task task(String description, LocalDate deadLine, Person assignee){
+        Task task = new Task(description, deadLine);
+        task.setAssignee(assignee);
+        return task;
+    }
+
+    private static Set<Integer> ids(Task... tasks){
+        return Arrays.stream(tasks).map(Task::getTaskId).collect(Collectors.toSet());
+    }
+
+    private static List<Integer> ids(List<Task> tasks){
+        return tasks.stream().map(Task::getTaskId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,139 @@
+package se.lexicon.erik.data;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TaskCsvLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void startDatabase() throws Exception {
+        TestDatabase.start("task_csv_loader_test");
+    }
+
+    @AfterClass
+    public static void stopDatabase() {
+        Database.shutdown();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.clear();
+    }
+
+    private Path csv(String... lines) throws Exception {
+        Path file = folder.newFile().toPath();
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    @Test
+    public void load_creates_each_assignee_once_and_reuses_existing_persons() throws Exception {
+        Person existing = new PersonDao().create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+        Path file = csv(
+                "first_name,last_name,birth_date,description,deadline,done",
+                "Erik,Svensson,1976-09-11,Write report,2021-10-20,false",
+                "Anna,Andersson,,\"Buy milk, bread\",,1",
+                "Anna,Andersson,,\"Say \"\"hi\"\"\",2021-11-01,0",
+                "",
+                "Erik,Svensson,1976-09-11,Review,2021-10-21,true"
+        );
+
+        LoadReport report = new TaskCsvLoader(new PersonDao(), 3, 10).load(file);
+
+        assertEquals(4, report.getTasksLoaded());
+        assertEquals(1, report.getPersonsCreated());
+        assertEquals(2, TestDatabase.count("persons"));
+        List<Task> tasks = new TaskDao().findByPersonId(existing.getPersonId());
+        assertEquals(2, tasks.size());
+        assertEquals("Write report", tasks.get(0).getDescription());
+        List<Task> done = new TaskDao().findByDoneStatus(true);
+        assertEquals(2, done.size());
+        assertTrue(done.stream().anyMatch(task -> task.getDescription().equals("Buy milk, bread") && task.getDeadLine() == null));
+        assertTrue(new TaskDao().findByDoneStatus(false).stream().anyMatch(task -> task.getDescription().equals("Say \"hi\"")));
+    }
+
+    @Test
+    public void load_resumes_after_last_checkpointed_chunk() throws Exception {
+        String header = "description,deadline,done,first_name,last_name,birth_date";
+        Path file = csv(header,
+                "T1,2021-10-01,false,Erik,Svensson,",
+                "T2,2021-10-02,false,Erik,Svensson,",
+                "T3,2021-10-03,false,Anna,Andersson,",
+                "T4,2021-10-04,false,Anna,Andersson,",
+                "T5,not a date,false,Anna,Andersson,",
+                "T6,2021-10-06,false,Anna,Andersson,");
+        Path checkpoint = folder.getRoot().toPath().resolve("tasks.checkpoint");
+        try{
+            new TaskCsvLoader(new PersonDao(), 2, 10).load(file, checkpoint);
+            fail();
+        }catch (IllegalArgumentException expected){
+            assertTrue(expected.getMessage().contains("line 6"));
+        }
+        assertEquals(4, TestDatabase.count("tasks"));
+
+        Files.write(file, Arrays.asList(header,
+                "T1,2021-10-01,false,Erik,Svensson,",
+                "T2,2021-10-02,false,Erik,Svensson,",
+                "T3,2021-10-03,false,Anna,Andersson,",
+                "T4,2021-10-04,false,Anna,Andersson,",
+                "T5,2021-10-05,false,Anna,Andersson,",
+                "T6,2021-10-06,false,Anna,Andersson,"), StandardCharsets.UTF_8);
+        LoadReport report = new TaskCsvLoader(new PersonDao(), 2, 10).load(file, checkpoint);
+
+        assertEquals(4, report.getRowsSkipped());
+        assertEquals(2, report.getTasksLoaded());
+        assertEquals(0, report.getPersonsCreated());
+        assertEquals(6, TestDatabase.count("tasks"));
+        assertEquals(2, TestDatabase.count("persons"));
+        assertEquals(0, new TaskCsvLoader().load(file, checkpoint).getTasksLoaded());
+    }
+
+    @Test
+    public void load_invalidates_assignees_of_undone_tasks_in_undone_task_index() throws Exception {
+        PersonDao personDao = new PersonDao();
+        TaskDao taskDao = new TaskDao(personDao, new UndoneTaskIndex());
+        LocalDate today = LocalDate.now();
+        Task existing = new Task("Write report", today.plusDays(10));
+        existing.setAssignee(new Person("Erik", "Svensson", null));
+        existing = taskDao.create(existing);
+        int personId = existing.getAssignee().getPersonId();
+        assertEquals("Write report", taskDao.findClosestUndoneTaskByPersonId(personId).get().getDescription());
+
+        new TaskCsvLoader(personDao, taskDao.getUndoneTaskIndex().get(), 2, 10).load(csv(
+                "description,deadline,done,first_name,last_name,birth_date",
+                "Review," + today.plusDays(1) + ",false,Erik,Svensson,",
+                "Buy milk," + today + ",true,Erik,Svensson,"
+        ));
+
+        assertEquals("Review", taskDao.findClosestUndoneTaskByPersonId(personId).get().getDescription());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void load_rejects_header_without_assignee_columns() throws Exception {
+        new TaskCsvLoader().load(csv("description,deadline", "T1,2021-10-01"));
+    }
+
+    @Test
+    public void multiRow_repeats_values_tuple() {
+        assertEquals("INSERT INTO tasks (description, deadline, done, person_id) VALUES (?,?,?,?),(?,?,?,?)",
+                Queries.PERSIST_TASK.multiRow(2));
+    }
+}
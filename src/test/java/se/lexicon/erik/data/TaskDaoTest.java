@@ -0,0 +1,376 @@
+package se.lexicon.erik.data;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.PersonView;
+import se.lexicon.erik.model.Task;
+import se.lexicon.erik.model.TaskView;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class TaskDaoTest {
+
+    private TaskDao testObject;
+    private Person erik;
+    private Task first;
+    private Task second;
+
+    @BeforeClass
+    public static void startDatabase() throws Exception {
+        TestDatabase.start("task_dao_test");
+    }
+
+    @AfterClass
+    public static void stopDatabase() {
+        Database.shutdown();
+    }
+
+    @Before
+    public void setUp() {
+        testObject = new TaskDao();
+        erik = new Person("Erik", "Svensson", LocalDate.parse("1976-09-11"));
+
+        Task task = new Task("Write tests", LocalDate.now().plusDays(3));
+        task.setAssignee(erik);
+        first = testObject.create(task);
+        erik = first.getAssignee();
+
+        task = new Task("Review code", LocalDate.now().plusDays(1));
+        task.setAssignee(erik);
+        second = testObject.create(task);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.clear();
+    }
+
+    @Test
+    public void findByTaskId_returns_task_with_assignee() {
+        Task found = testObject.findByTaskId(first.getTaskId()).orElseThrow(AssertionError::new);
+
+        assertEquals("Write tests", found.getDescription());
+        assertEquals(erik, found.getAssignee());
+    }
+
+    @Test
+    public void findByTaskIds_returns_found_tasks_sharing_assignee() {
+        testObject.setBatchSize(1);
+
+        Map<Integer, Task> result = testObject.findByTaskIds(Arrays.asList(second.getTaskId(), -1, first.getTaskId(), second.getTaskId()));
+
+        assertEquals(Arrays.asList(second.getTaskId(), first.getTaskId()), new ArrayList<>(result.keySet()));
+        assertEquals("Review code", result.get(second.getTaskId()).getDescription());
+        assertEquals(erik, result.get(first.getTaskId()).getAssignee());
+        assertSame(result.get(first.getTaskId()).getAssignee(), result.get(second.getTaskId()).getAssignee());
+    }
+
+    @Test
+    public void findByPersonId_shares_assignee_between_tasks() {
+        List<Task> result = testObject.findByPersonId(erik.getPersonId());
+
+        assertEquals(2, result.size());
+        assertEquals(second.getTaskId(), result.get(0).getTaskId());
+        assertEquals(erik, result.get(0).getAssignee());
+        assertSame(result.get(0).getAssignee(), result.get(1).getAssignee());
+    }
+
+    @Test
+    public void findByDoneStatus_returns_matching_tasks() {
+        first.setDone(true);
+        testObject.update(first);
+
+        List<Task> done = testObject.findByDoneStatus(true);
+        List<Task> undone = testObject.findByDoneStatus(false);
+
+        assertEquals(1, done.size());
+        assertEquals(first.getTaskId(), done.get(0).getTaskId());
+        assertEquals(1, undone.size());
+        assertEquals(erik, undone.get(0).getAssignee());
+    }
+
+    @Test
+    public void findClosestUndoneTaskByPersonId_returns_nearest_deadline() {
+        Task found = testObject.findClosestUndoneTaskByPersonId(erik.getPersonId()).orElseThrow(AssertionError::new);
+
+        assertEquals(second.getTaskId(), found.getTaskId());
+        assertEquals(erik, found.getAssignee());
+    }
+
+    @Test
+    public void createAll_persists_shared_new_assignee_once() {
+        Person anna = new Person("Anna", "Andersson", LocalDate.parse("1990-01-01"));
+        Task one = new Task("One", LocalDate.now().plusDays(5));
+        one.setAssignee(anna);
+        Task two = new Task("Two", LocalDate.now().plusDays(6));
+        two.setAssignee(anna);
+        Task three = new Task("Three", LocalDate.now().plusDays(7));
+        three.setAssignee(erik);
+        testObject.setBatchSize(2);
+
+        List<Task> result = testObject.createAll(Arrays.asList(one, two, three));
+
+        assertEquals(3, result.size());
+        assertEquals("One", result.get(0).getDescription());
+        assertEquals("Three", result.get(2).getDescription());
+        assertTrue(result.get(0).getAssignee().getPersonId() > 0);
+        assertSame(result.get(0).getAssignee(), result.get(1).getAssignee());
+        assertSame(erik, result.get(2).getAssignee());
+        assertEquals(2, testObject.findByPersonId(result.get(0).getAssignee().getPersonId()).size());
+        assertEquals(3, testObject.findByPersonId(erik.getPersonId()).size());
+    }
+
+    @Test
+    public void update_writes_only_changed_task_and_skips_clean_assignee() {
+        second.setDescription("Review more code");
+
+        testObject.update(second);
+
+        assertEquals(1, second.getVersion());
+        assertFalse(second.isDirty());
+        Task found = testObject.findByTaskId(second.getTaskId()).get();
+        assertEquals("Review more code", found.getDescription());
+        assertEquals(1, found.getVersion());
+        assertEquals(0, found.getAssignee().getVersion());
+
+        testObject.update(found);
+        assertEquals(1, testObject.findByTaskId(second.getTaskId()).get().getVersion());
+
+        Task stale = new Task(second.getTaskId(), "Review code", second.getDeadLine(), false, erik, 0);
+        stale.setDone(true);
+        try{
+            testObject.update(stale);
+            fail("Stale task was written");
+        }catch (OptimisticLockException ex){
+            assertEquals(second.getTaskId(), ex.getId());
+        }
+        assertFalse(testObject.findByTaskId(second.getTaskId()).get().isDone());
+    }
+
+    @Test
+    public void aggregates_are_computed_per_person() {
+        Task overdue = new Task("Overdue", LocalDate.now().minusDays(2));
+        overdue.setAssignee(erik);
+        testObject.create(overdue);
+        Task done = new Task("Done", LocalDate.now().minusDays(5));
+        done.setAssignee(new Person("Anna", "Andersson", LocalDate.parse("1990-01-01")));
+        done.setDone(true);
+        int anna = testObject.create(done).getAssignee().getPersonId();
+        LocalDate today = LocalDate.now();
+
+        IntIntMap undone = testObject.countByPersonId(false);
+        IntIntMap overdueCounts = testObject.countOverdueByPersonId(today);
+        IntObjectMap<LocalDate> nextDeadlines = testObject.findNextDeadlineByPersonId(today);
+        IntObjectMap<TaskStats> stats = testObject.findStatsByPersonId(today);
+
+        assertEquals(3, undone.get(erik.getPersonId()));
+        assertFalse(undone.containsKey(anna));
+        assertEquals(1, testObject.countByPersonId(true).get(anna));
+        assertEquals(1, overdueCounts.get(erik.getPersonId()));
+        assertEquals(1, overdueCounts.size());
+        assertEquals(second.getDeadLine(), nextDeadlines.get(erik.getPersonId()));
+        assertNull(nextDeadlines.get(anna));
+        TaskStats erikStats = stats.get(erik.getPersonId());
+        assertEquals(0, erikStats.getDoneCount());
+        assertEquals(3, erikStats.getUndoneCount());
+        assertEquals(1, erikStats.getOverdueCount());
+        assertEquals(second.getDeadLine(), erikStats.getNextDeadline());
+        assertEquals(1, stats.get(anna).getDoneCount());
+        assertNull(stats.get(anna).getNextDeadline());
+    }
+
+    @Test
+    public void updateAll_updates_tasks_and_assignees() {
+        erik.setFirstName("Erik Gustaf");
+        first.setDone(true);
+        second.setDescription("Review more code");
+        second.setAssignee(new Person("Anna", "Andersson", LocalDate.parse("1990-01-01")));
+
+        testObject.updateAll(Arrays.asList(first, second));
+
+        Task foundFirst = testObject.findByTaskId(first.getTaskId()).get();
+        Task foundSecond = testObject.findByTaskId(second.getTaskId()).get();
+        assertTrue(foundFirst.isDone());
+        assertEquals("Erik Gustaf", foundFirst.getAssignee().getFirstName());
+        assertEquals("Review more code", foundSecond.getDescription());
+        assertEquals("Anna", foundSecond.getAssignee().getFirstName());
+        assertEquals(second.getAssignee(), foundSecond.getAssignee());
+    }
+
+    @Test
+    public void streamByPersonId_streams_tasks_and_releases_connection() {
+        try(Stream<Task> stream = testObject.streamByPersonId(erik.getPersonId())){
+            assertEquals(1, Database.getPoolStats().getActiveConnections());
+            List<Task> result = stream.collect(Collectors.toList());
+
+            assertEquals(2, result.size());
+            assertEquals(second.getTaskId(), result.get(0).getTaskId());
+            assertSame(result.get(0).getAssignee(), result.get(1).getAssignee());
+        }
+        assertEquals(0, Database.getPoolStats().getActiveConnections());
+    }
+
+    @Test
+    public void streamByDoneStatus_releases_connection_when_closed_early() {
+        testObject.setFetchSize(1);
+        try(Stream<Task> stream = testObject.streamByDoneStatus(false)){
+            assertEquals(erik, stream.findFirst().orElseThrow(AssertionError::new).getAssignee());
+        }
+        assertEquals(0, Database.getPoolStats().getActiveConnections());
+    }
+
+    @Test
+    public void findClosestUndoneTaskByPersonId_uses_index_kept_current_by_update() {
+        UndoneTaskIndex index = new UndoneTaskIndex();
+        testObject = new TaskDao(new PersonDao(), index);
+
+        assertEquals(second.getTaskId(), testObject.findClosestUndoneTaskByPersonId(erik.getPersonId()).get().getTaskId());
+        assertTrue(index.isWarm(erik.getPersonId()));
+        assertEquals(2, index.size());
+
+        second.setDone(true);
+        testObject.update(second);
+        Task found = testObject.findClosestUndoneTaskByPersonId(erik.getPersonId()).get();
+
+        assertEquals(first.getTaskId(), found.getTaskId());
+        assertEquals(erik, found.getAssignee());
+
+        Task task = new Task("Today", LocalDate.now());
+        task.setAssignee(erik);
+        Task today = testObject.create(task);
+        assertEquals(today.getTaskId(), testObject.findClosestUndoneTaskByPersonId(erik.getPersonId()).get().getTaskId());
+    }
+
+    @Test
+    public void findByPersonId_pages_through_all_tasks_in_deadline_order() {
+        List<Task> more = new ArrayList<>();
+        for(int i = 0; i < 5; i++){
+            more.add(new Task(0, "Same deadline " + i, LocalDate.now().plusDays(2), false, erik));
+        }
+        testObject.createAll(more);
+
+        List<Task> all = new ArrayList<>();
+        String token = null;
+        int pages = 0;
+        do{
+            Page<Task> page = testObject.findByPersonId(erik.getPersonId(), 3, token);
+            all.addAll(page.getItems());
+            token = page.getNextPageToken().orElse(null);
+            pages++;
+        }while (token != null);
+
+        assertEquals(3, pages);
+        assertEquals(7, all.size());
+        assertEquals(second.getTaskId(), all.get(0).getTaskId());
+        assertEquals(first.getTaskId(), all.get(6).getTaskId());
+        for(int i = 1; i < all.size(); i++){
+            Task previous = all.get(i - 1);
+            Task current = all.get(i);
+            assertTrue(previous.getDeadLine().isBefore(current.getDeadLine())
+                    || previous.getDeadLine().equals(current.getDeadLine()) && previous.getTaskId() < current.getTaskId());
+        }
+    }
+
+    @Test
+    public void findByDoneStatus_page_has_no_token_on_last_page() {
+        Page<Task> page = testObject.findByDoneStatus(false, 2, null);
+
+        assertEquals(2, page.getItems().size());
+        assertFalse(page.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findByDoneStatus_page_rejects_invalid_token() {
+        testObject.findByDoneStatus(false, 2, "not a token");
+    }
+
+    @Test
+    public void findViews_match_mutable_results_and_share_assignee() {
+        List<TaskView> views = testObject.findViewsByPersonId(erik.getPersonId());
+
+        assertEquals(2, views.size());
+        assertEquals(second.getTaskId(), views.get(0).getTaskId());
+        assertEquals("Review code", views.get(0).getDescription());
+        assertSame(views.get(0).getAssignee(), views.get(1).getAssignee());
+        assertEquals(erik, views.get(0).getAssignee().toPerson());
+        assertEquals(PersonView.of(erik).hashCode(), views.get(0).getAssignee().hashCode());
+        assertEquals(erik.hashCode(), PersonView.of(erik).hashCode());
+
+        List<TaskView> undone = testObject.findViewsByDoneStatus(false);
+        assertEquals(2, undone.size());
+        assertTrue(testObject.findViewsByDoneStatus(true).isEmpty());
+        assertEquals(views.get(0), undone.stream().filter(view -> view.getTaskId() == second.getTaskId()).findFirst().get());
+    }
+
+    @Test
+    public void markDone_updates_only_done_status_and_keeps_index_in_sync() {
+        UndoneTaskIndex index = new UndoneTaskIndex();
+        testObject = new TaskDao(new PersonDao(), index);
+        assertEquals(second.getTaskId(), testObject.findClosestUndoneTaskByPersonId(erik.getPersonId()).get().getTaskId());
+
+        assertTrue(testObject.markDone(second.getTaskId()));
+        assertFalse(testObject.markDone(-1));
+
+        assertTrue(testObject.findByTaskId(second.getTaskId()).get().isDone());
+        assertEquals(first.getTaskId(), testObject.findClosestUndoneTaskByPersonId(erik.getPersonId()).get().getTaskId());
+
+        assertEquals(2, testObject.markDone(Arrays.asList(first.getTaskId(), second.getTaskId(), first.getTaskId())));
+        assertFalse(testObject.findClosestUndoneTaskByPersonId(erik.getPersonId()).isPresent());
+
+        assertEquals(1, testObject.setDone(Arrays.asList(second.getTaskId()), false));
+        assertFalse(index.isWarm(erik.getPersonId()));
+        assertEquals(second.getTaskId(), testObject.findClosestUndoneTaskByPersonId(erik.getPersonId()).get().getTaskId());
+    }
+
+    @Test
+    public void lazy_assignees_are_loaded_together_on_first_access() {
+        Task task = new Task("Plan sprint", LocalDate.now().plusDays(2));
+        task.setAssignee(new Person("Anna", "Andersson", null));
+        Person anna = testObject.create(task).getAssignee();
+        AtomicInteger personQueries = new AtomicInteger();
+        Database.setQueryListener(new QueryListener() {
+            @Override
+            public void queryCompleted(Queries query, String sql, long elapsedNanos, long rows) {
+                if(sql.contains("FROM persons") || sql.contains("JOIN persons")){
+                    personQueries.incrementAndGet();
+                }
+            }
+        });
+        try{
+            testObject.setLazyAssignees(true);
+            List<Task> undone = testObject.findByDoneStatus(false);
+            assertEquals(3, undone.size());
+            assertTrue(undone.stream().noneMatch(Task::isAssigneeLoaded));
+            assertEquals(1, testObject.findByPersonId(anna.getPersonId()).size());
+            assertEquals(2, testObject.findByDoneStatus(false, 2, null).getItems().size());
+
+            Task lazy = undone.stream().filter(found -> found.getTaskId() == first.getTaskId()).findFirst().get();
+            lazy.setDescription("Write more tests");
+            testObject.update(lazy);
+            assertFalse(lazy.isAssigneeLoaded());
+            assertEquals(erik.getPersonId(), lazy.getAssigneeId());
+            assertEquals(0, personQueries.get());
+
+            for(Task found : undone){
+                assertEquals(found.getAssigneeId() == anna.getPersonId() ? anna : erik, found.getAssignee());
+            }
+            assertEquals(1, personQueries.get());
+        }finally {
+            Database.setQueryListener(null);
+        }
+        assertEquals("Write more tests", testObject.findByTaskId(first.getTaskId()).get().getDescription());
+    }
+}
@@ -0,0 +1,139 @@
+package se.lexicon.erik.data;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TaskDoneBufferTest {
+
+    private TaskDao taskDao;
+    private List<Task> tasks;
+
+    @BeforeClass
+    public static void startDatabase() throws Exception {
+        TestDatabase.start("task_done_buffer_test");
+    }
+
+    @AfterClass
+    public static void stopDatabase() {
+        Database.shutdown();
+    }
+
+    @Before
+    public void setUp() {
+        taskDao = new TaskDao();
+        Person erik = new Person("Erik", "Svensson", LocalDate.parse("1976-09-11"));
+        List<Task> newTasks = new ArrayList<>();
+        for(int i = 0; i < 5; i++){
+            Task task = new Task("Task " + i, LocalDate.now().plusDays(i));
+            task.setAssignee(erik);
+            newTasks.add(task);
+        }
+        tasks = taskDao.createAll(newTasks);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.clear();
+    }
+
+    private boolean isDone(Task task){
+        return taskDao.findByTaskId(task.getTaskId()).get().isDone();
+    }
+
+    @Test
+    public void repeated_changes_are_coalesced_and_written_on_close() throws Exception {
+        TaskDoneBuffer buffer = new TaskDoneBuffer(taskDao, 100, 1, TimeUnit.HOURS);
+        buffer.markDone(tasks.get(0).getTaskId());
+        buffer.setDone(tasks.get(0).getTaskId(), false);
+        buffer.markDone(tasks.get(0).getTaskId());
+        buffer.markDone(tasks.get(1).getTaskId());
+
+        assertEquals(2, buffer.getPendingCount());
+        assertEquals(2, buffer.getCoalescedCount());
+        assertTrue(buffer.getPending(tasks.get(0).getTaskId()).get());
+        assertFalse(isDone(tasks.get(0)));
+
+        buffer.close();
+
+        assertTrue(isDone(tasks.get(0)));
+        assertTrue(isDone(tasks.get(1)));
+        assertFalse(isDone(tasks.get(2)));
+        assertEquals(2, buffer.getWrittenCount());
+        assertEquals(0, buffer.getPendingCount());
+    }
+
+    @Test
+    public void full_buffer_is_flushed_in_background() throws Exception {
+        try(TaskDoneBuffer buffer = new TaskDoneBuffer(taskDao, 3, 1, TimeUnit.HOURS)){
+            for(int i = 0; i < 3; i++){
+                buffer.markDone(tasks.get(i).getTaskId());
+            }
+            waitForEmpty(buffer);
+            assertTrue(isDone(tasks.get(2)));
+            assertFalse(isDone(tasks.get(3)));
+        }
+    }
+
+    @Test
+    public void buffer_is_flushed_on_timer() throws Exception {
+        try(TaskDoneBuffer buffer = new TaskDoneBuffer(taskDao, 100, 20, TimeUnit.MILLISECONDS)){
+            buffer.markDone(tasks.get(4).getTaskId());
+            waitForEmpty(buffer);
+            assertTrue(isDone(tasks.get(4)));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closed_buffer_rejects_changes() throws Exception {
+        TaskDoneBuffer buffer = new TaskDoneBuffer(taskDao);
+        buffer.close();
+        buffer.markDone(tasks.get(0).getTaskId());
+    }
+
+    @Test
+    public void changes_accepted_while_closing_are_written() throws Exception {
+        TaskDoneBuffer buffer = new TaskDoneBuffer(taskDao, 100, 1, TimeUnit.HOURS);
+        boolean[] accepted = new boolean[tasks.size()];
+        Thread writer = new Thread(() -> {
+            for(int i = 0; ; i++){
+                int index = i % tasks.size();
+                boolean done = (i / tasks.size()) % 2 == 0;
+                try{
+                    buffer.setDone(tasks.get(index).getTaskId(), done);
+                }catch (IllegalStateException closed){
+                    return;
+                }
+                accepted[index] = done;
+            }
+        });
+        writer.start();
+        Thread.sleep(20);
+        buffer.close();
+        writer.join();
+
+        assertEquals(0, buffer.getPendingCount());
+        for(int i = 0; i < tasks.size(); i++){
+            assertEquals(accepted[i], isDone(tasks.get(i)));
+        }
+    }
+
+    private static void waitForEmpty(TaskDoneBuffer buffer) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(buffer.getWrittenCount() == 0 && System.nanoTime() < deadline){
+            Thread.sleep(10);
+        }
+        assertEquals(0, buffer.getPendingCount());
+    }
+}
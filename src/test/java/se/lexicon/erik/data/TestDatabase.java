@@ -0,0 +1,112 @@
+package se.lexicon.erik.data;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * Points {@link Database} at an embedded H2 database. H2 runs in its own mode, as in MySQL mode it moves the
+ * AUTO_INCREMENT sequence back after concurrent inserts and hands out duplicate ids.
+ */
+public class TestDatabase {
+
+    public static Properties properties(String name){
+        Properties properties = new Properties();
+        properties.setProperty("url", "jdbc:h2:mem:" + name + ";DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+        properties.setProperty("pool.maximumPoolSize", "4");
+        properties.setProperty("pool.minimumIdle", "1");
+        return properties;
+    }
+
+    public static void start(String name) throws SQLException {
+        start(properties(name));
+    }
+
+    public static void start(Properties properties) throws SQLException {
+        Database.configure(properties);
+        try(Connection connection = Database.getConnection();
+            Statement statement = connection.createStatement()){
+            statement.execute("RUNSCRIPT FROM 'classpath:schema.sql'");
+        }
+    }
+
+    /**
+     * @return properties of the primary database name with shards name_shard_1 to name_shard_N
+     */
+    public static Properties shardedProperties(String name, int shards){
+        Properties properties = properties(name);
+        for(int n = 1; n <= shards; n++){
+            properties.setProperty("shard." + n + ".url", properties(name + "_shard_" + n).getProperty("url"));
+        }
+        return properties;
+    }
+
+    /**
+     * Starts the primary and shards of {@link #shardedProperties(String, int)} with the schema on each shard
+     * and the ids of shard k starting at k with a stride of shards
+     */
+    public static void startShards(String name, int shards) throws SQLException {
+        start(shardedProperties(name, shards));
+        for(int shard = 0; shard < shards; shard++){
+            onShard(shard, statement -> statement.execute("RUNSCRIPT FROM 'classpath:schema.sql'"));
+        }
+        clearShards();
+    }
+
+    /**
+     * Empties every shard and restarts its ids, so ids follow creation order again
+     */
+    public static void clearShards() throws SQLException {
+        int shards = Database.getShardCount();
+        for(int shard = 0; shard < shards; shard++){
+            int first = shard + 1;
+            onShard(shard, statement -> {
+                statement.execute("DELETE FROM tasks");
+                statement.execute("DELETE FROM persons");
+                statement.execute("ALTER TABLE persons ALTER COLUMN person_id RESTART WITH " + first + " SET INCREMENT BY " + shards);
+                statement.execute("ALTER TABLE tasks ALTER COLUMN task_id RESTART WITH " + first + " SET INCREMENT BY " + shards);
+            });
+        }
+    }
+
+    private interface StatementCallback {
+        void execute(Statement statement) throws SQLException;
+    }
+
+    private static void onShard(int shard, StatementCallback callback) throws SQLException {
+        try{
+            Database.onShard(shard, () -> {
+                try(Connection connection = Database.getConnection();
+                    Statement statement = connection.createStatement()){
+                    callback.execute(statement);
+                    return null;
+                }catch (SQLException ex){
+                    throw new UncheckedSQLException(ex);
+                }
+            });
+        }catch (UncheckedSQLException ex){
+            throw ex.getCause();
+        }
+    }
+
+    public static void clear() throws SQLException {
+        try(Connection connection = Database.getConnection();
+            Statement statement = connection.createStatement()){
+            statement.execute("DELETE FROM tasks");
+            statement.execute("DELETE FROM persons");
+        }
+    }
+
+    public static int count(String table) throws SQLException {
+        try(Connection connection = Database.getConnection();
+            Statement statement = connection.createStatement();
+            ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + table)){
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package se.lexicon.erik.data;
+
+import org.junit.Before;
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class UndoneTaskIndexTest {
+
+    private static final LocalDate TODAY = LocalDate.parse("2021-10-15");
+
+    private UndoneTaskIndex testObject;
+    private Person erik;
+    private Person anna;
+
+    @Before
+    public void setUp() {
+        testObject = new UndoneTaskIndex();
+        erik = new Person(1, "Erik", "Svensson", null);
+        anna = new Person(2, "Anna", "Andersson", null);
+        testObject.warm(1, Arrays.asList(
+                new Task(10, "Past", TODAY.minusDays(3), false, erik),
+                new Task(11, "Future", TODAY.plusDays(5), false, erik),
+                new Task(12, "Done", TODAY, true, erik)
+        ));
+        testObject.warm(2, Collections.emptyList());
+    }
+
+    @Test
+    public void findClosest_picks_nearest_deadline_on_either_side() {
+        assertEquals(10, testObject.findClosest(1, TODAY).get().getTaskId());
+        assertEquals(11, testObject.findClosest(1, TODAY.plusDays(2)).get().getTaskId());
+        assertFalse(testObject.findClosest(2, TODAY).isPresent());
+    }
+
+    @Test
+    public void put_moves_and_removes_tasks() {
+        testObject.put(new Task(11, "Future", TODAY.plusDays(1), false, erik));
+        assertEquals(11, testObject.findClosest(1, TODAY).get().getTaskId());
+
+        testObject.put(new Task(11, "Future", TODAY.plusDays(1), false, anna));
+        assertEquals(10, testObject.findClosest(1, TODAY).get().getTaskId());
+        assertEquals(11, testObject.findClosest(2, TODAY).get().getTaskId());
+
+        testObject.put(new Task(11, "Future", TODAY.plusDays(1), true, anna));
+        assertFalse(testObject.findClosest(2, TODAY).isPresent());
+        assertEquals(1, testObject.size());
+    }
+
+    @Test
+    public void warm_drops_read_when_tasks_changed_meanwhile() {
+        long epoch = testObject.startWarm(3);
+        testObject.put(new Task(20, "Committed meanwhile", TODAY, false, new Person(3, "Cold", "Person", null)));
+        assertFalse(testObject.warm(3, epoch, Collections.emptyList()));
+        assertFalse(testObject.isWarm(3));
+
+        epoch = testObject.startWarm(3);
+        testObject.removeTask(21);
+        assertFalse(testObject.warm(3, epoch, Collections.singletonList(new Task(21, "Done meanwhile", TODAY, false, null))));
+
+        epoch = testObject.startWarm(3);
+        testObject.put(new Task(22, "Other person", TODAY, false, erik));
+        assertTrue(testObject.warm(3, epoch, Collections.singletonList(new Task(20, "Committed meanwhile", TODAY, false, null))));
+        assertEquals(20, testObject.findClosest(3, TODAY).get().getTaskId());
+    }
+
+    @Test
+    public void put_ignores_cold_person() {
+        testObject.put(new Task(20, "Cold", TODAY, false, new Person(3, "Cold", "Person", null)));
+
+        assertFalse(testObject.isWarm(3));
+        assertEquals(2, testObject.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void findClosest_throws_for_cold_person() {
+        testObject.findClosest(3, TODAY);
+    }
+
+    @Test
+    public void invalidate_makes_person_cold() {
+        testObject.invalidate(1);
+
+        assertFalse(testObject.isWarm(1));
+        assertEquals(0, testObject.size());
+    }
+}
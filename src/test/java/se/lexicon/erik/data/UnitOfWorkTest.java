@@ -0,0 +1,215 @@
+package se.lexicon.erik.data;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import se.lexicon.erik.model.Person;
+import se.lexicon.erik.model.Task;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UnitOfWorkTest {
+
+    private final PersonCache cache = new PersonCache(10, 1, TimeUnit.MINUTES);
+    private final PersonDao personDao = new PersonDao(cache);
+    private final TaskDao taskDao = new TaskDao(personDao);
+
+    @BeforeClass
+    public static void startDatabase() throws Exception {
+        TestDatabase.start("unit_of_work_test");
+    }
+
+    @AfterClass
+    public static void stopDatabase() {
+        Database.shutdown();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        assertFalse(UnitOfWork.isActive());
+        TestDatabase.clear();
+    }
+
+    private Task newTask(Person assignee){
+        return new Task(0, "Write tests", LocalDate.now().plusDays(1), false, assignee);
+    }
+
+    @Test
+    public void operations_share_one_connection_and_commit_once() throws Exception {
+        Task created;
+        try(UnitOfWork work = UnitOfWork.begin()){
+            Person erik = personDao.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+            created = taskDao.create(newTask(erik));
+            created.setDone(true);
+            taskDao.update(created);
+
+            assertEquals(1, Database.getPoolStats().getActiveConnections());
+            assertEquals(0, cache.size());
+            work.commit();
+        }
+
+        assertTrue(taskDao.findByTaskId(created.getTaskId()).get().isDone());
+        assertEquals(1, cache.size());
+        assertEquals(0, Database.getPoolStats().getActiveConnections());
+    }
+
+    @Test
+    public void close_without_commit_rolls_back() throws Exception {
+        Person erik;
+        try(UnitOfWork work = UnitOfWork.begin()){
+            erik = personDao.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+            assertTrue(personDao.findById(erik.getPersonId()).isPresent());
+        }
+
+        assertFalse(personDao.findById(erik.getPersonId()).isPresent());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void failing_statement_rolls_back_whole_unit() throws Exception {
+        Person erik;
+        try(UnitOfWork work = UnitOfWork.begin()){
+            erik = personDao.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+            try{
+                taskDao.create(newTask(new Person(Integer.MAX_VALUE, "Not", "Stored", null)));
+                fail("Expected UncheckedSQLException");
+            }catch (UncheckedSQLException expected){
+                assertTrue(work.isRollbackOnly());
+            }
+            try{
+                work.commit();
+                fail("Expected commit to fail");
+            }catch (SQLException expected){
+                //rolled back
+            }
+        }
+
+        assertFalse(personDao.findById(erik.getPersonId()).isPresent());
+    }
+
+    @Test
+    public void task_create_rolls_back_new_assignee_when_task_insert_fails() throws Exception {
+        Person erik = new Person("Erik", "Svensson", LocalDate.parse("1976-09-11"));
+        Task invalid = newTask(erik);
+        invalid.setDescription(new String(new char[300]).replace('\0', 'x'));
+
+        try{
+            taskDao.create(invalid);
+            fail("Expected UncheckedSQLException");
+        }catch (UncheckedSQLException expected){
+            assertSame(erik, invalid.getAssignee());
+            assertEquals(0, TestDatabase.count("persons"));
+        }
+        invalid.setDescription("Write tests");
+        Task created = taskDao.create(invalid);
+        assertEquals(created.getAssignee().getPersonId(), taskDao.findByTaskId(created.getTaskId()).get().getAssignee().getPersonId());
+    }
+
+    @Test
+    public void rolled_back_task_update_restores_new_assignee_and_retry_writes_it() throws Exception {
+        Person erik = personDao.create(new Person("Erik", "Svensson", null));
+        Task task = taskDao.create(newTask(erik));
+        Task stale = taskDao.findByTaskId(task.getTaskId()).get();
+        task.setDone(true);
+        taskDao.update(task);
+
+        Person nils = new Person("Nils", "Nilsson", null);
+        stale.setAssignee(nils);
+        try{
+            taskDao.update(stale);
+            fail("Expected OptimisticLockException");
+        }catch (OptimisticLockException expected){
+            assertSame(nils, stale.getAssignee());
+            assertEquals(0, stale.getAssigneeId());
+            assertEquals(1, TestDatabase.count("persons"));
+        }
+
+        Task fresh = taskDao.findByTaskId(task.getTaskId()).get();
+        fresh.setAssignee(stale.getAssignee());
+        taskDao.update(fresh);
+        assertEquals("Nils", taskDao.findByTaskId(task.getTaskId()).get().getAssignee().getFirstName());
+    }
+
+    @Test(expected = UncheckedSQLException.class)
+    public void failing_task_update_reaches_caller() {
+        Person erik = personDao.create(new Person("Erik", "Svensson", null));
+        Person gone = personDao.create(new Person("Nils", "Nilsson", null));
+        Task task = taskDao.create(newTask(erik));
+        personDao.delete(gone.getPersonId());
+
+        task.setAssignee(gone);
+        taskDao.update(task);
+    }
+
+    @Test
+    public void rollback_after_update_leaves_person_dirty_at_old_version() throws Exception {
+        Person erik = personDao.create(new Person("Erik", "Svensson", LocalDate.parse("1976-09-11")));
+        try(UnitOfWork work = UnitOfWork.begin()){
+            erik.setFirstName("Erk");
+            personDao.update(erik);
+            assertFalse(erik.isDirty());
+            assertEquals(1, erik.getVersion());
+        }
+
+        assertTrue(erik.isDirty());
+        assertEquals(0, erik.getVersion());
+        personDao.update(erik);
+        Person found = personDao.findById(erik.getPersonId()).get();
+        assertEquals("Erk", found.getFirstName());
+        assertEquals(1, found.getVersion());
+    }
+
+    @Test
+    public void stale_task_in_later_batch_leaves_earlier_tasks_dirty() throws Exception {
+        TaskDao batchOfOne = new TaskDao(personDao);
+        batchOfOne.setBatchSize(1);
+        Person erik = personDao.create(new Person("Erik", "Svensson", null));
+        Task first = taskDao.create(newTask(erik));
+        Task second = taskDao.create(newTask(erik));
+        Task stale = taskDao.findByTaskId(second.getTaskId()).get();
+        second.setDone(true);
+        taskDao.update(second);
+
+        first.setDescription("Review tests");
+        stale.setDescription("Stale");
+        try{
+            batchOfOne.updateAll(Arrays.asList(first, stale));
+            fail("Expected OptimisticLockException");
+        }catch (OptimisticLockException expected){
+            assertTrue(first.isDirty());
+            assertEquals(0, first.getVersion());
+        }
+        assertEquals("Write tests", taskDao.findByTaskId(first.getTaskId()).get().getDescription());
+    }
+
+    @Test
+    public void createAll_does_not_cache_unsaved_edits_of_persisted_assignee() {
+        Person erik = personDao.create(new Person("Erik", "Svensson", null));
+        erik.setFirstName("NotSaved");
+
+        taskDao.createAll(Arrays.asList(newTask(erik), newTask(new Person("Nils", "Nilsson", null))));
+
+        assertEquals("Erik", personDao.findById(erik.getPersonId()).get().getFirstName());
+        assertEquals("Erik", cache.get(erik.getPersonId()).getFirstName());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void person_createAll_does_not_cache_unsaved_edits_of_persisted_person() {
+        Person anna = personDao.create(new Person("Anna", "Andersson", null));
+        cache.invalidate(anna.getPersonId());
+        anna.setFirstName("NotSaved");
+
+        personDao.createAll(Arrays.asList(anna, new Person("Nils", "Nilsson", null)));
+
+        assertNull(cache.get(anna.getPersonId()));
+        assertEquals("Anna", personDao.findById(anna.getPersonId()).get().getFirstName());
+        assertEquals(2, cache.size());
+    }
+}
@@ -0,0 +1,28 @@
+CREATE TABLE IF NOT EXISTS persons (
+    person_id INT NOT NULL AUTO_INCREMENT,
+    first_name VARCHAR(255),
+    last_name VARCHAR(255),
+    birth_date DATE,
+    version INT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (person_id)
+);
+
+CREATE TABLE IF NOT EXISTS tasks (
+    task_id INT NOT NULL AUTO_INCREMENT,
+    description VARCHAR(255),
+    deadline DATE,
+    done BOOLEAN NOT NULL DEFAULT FALSE,
+    person_id INT,
+    version INT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (task_id),
+    FOREIGN KEY (person_id) REFERENCES persons (person_id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_tasks_done_deadline ON tasks (done, deadline, task_id);
+CREATE INDEX IF NOT EXISTS idx_tasks_person_deadline ON tasks (person_id, deadline, task_id);
+CREATE INDEX IF NOT EXISTS idx_persons_last_name ON persons (last_name, person_id);
+CREATE INDEX IF NOT EXISTS idx_tasks_person_done_deadline ON tasks (person_id, done, deadline);
+CREATE INDEX IF NOT EXISTS idx_persons_updated_at ON persons (updated_at);
+CREATE INDEX IF NOT EXISTS idx_tasks_updated_at ON tasks (updated_at);